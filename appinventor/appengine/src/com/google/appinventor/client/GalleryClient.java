@@ -127,8 +127,9 @@ public class GalleryClient {
   * @param start staring index for search
   * @param count number of results
   * @param developerId id of developer
+  * @param cursor cursor of the previous page, or null
   */
-  public void GetAppsByDeveloper(int start, int count, String developerId) {
+  public void GetAppsByDeveloper(int start, int count, String developerId, String cursor) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -145,7 +146,7 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getDeveloperApps(developerId, start,count,callback);
+    ode.getGalleryService().getDeveloperApps(developerId, start,count,cursor,callback);
   }
  /**
   * GetFeatured gets featured apps, currently unimplemented
@@ -201,8 +202,9 @@ public class GalleryClient {
   * GetMostRecent gets most recently updated apps then tells listeners
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor of the previous page, or null
   */
-  public void GetMostRecent(int start, int count, final boolean refreshable) {
+  public void GetMostRecent(int start, int count, String cursor, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -219,14 +221,15 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getRecentApps(start, count, callback);
+    ode.getGalleryService().getRecentApps(start, count, cursor, callback);
   }
   /**
   * GetMostLiked gets the most liked apps then tells listeners
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor of the previous page, or null
   */
-  public void GetMostLiked(int start, int count, final boolean refreshable) {
+  public void GetMostLiked(int start, int count, String cursor, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -244,14 +247,15 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostLikedApps(start,count,callback);
+    ode.getGalleryService().getMostLikedApps(start,count,cursor,callback);
   }
   /**
   * GetMostDownloaded gets the most downloaded apps then tells listeners
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor of the previous page, or null
   */
-  public void GetMostDownloaded(int start, int count, final boolean refreshable) {
+  public void GetMostDownloaded(int start, int count, String cursor, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -269,7 +273,7 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostDownloadedApps(start,count,callback);
+    ode.getGalleryService().getMostDownloadedApps(start,count,cursor,callback);
   }
   /**
    * GetRemixedToList gets children list that apps remixed to then tells listeners
@@ -363,8 +367,8 @@ public class GalleryClient {
   */
   public void appWasChanged() {
     // for now, let's update the recent list, the popular list and feature list (in case one was deleted)
-    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, true);
+    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, null, true);
+    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, null, true);
     GetFeatured(0, GalleryList.NUMAPPSTOSHOW, 0, true);
     GetTutorial(0,GalleryList.NUMAPPSTOSHOW, 0, true);
   }
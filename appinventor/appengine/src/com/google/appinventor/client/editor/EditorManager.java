@@ -17,6 +17,8 @@ import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.common.collect.Maps;
@@ -58,6 +60,14 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // The content of each file as it was last saved, keyed by project ID and file ID. Later saves
+  // of a file only send the change from this content. See saveMultipleFilesAtOnce.
+  private final Map<Long, Map<String, String>> savedFileContents;
+
+  // A change is only sent instead of the whole file if it is smaller than this fraction of the
+  // file.
+  private static final double MAX_DELTA_FRACTION = 0.5;
+
   private class DateHolder {
     long date;
     long projectId;
@@ -71,6 +81,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedFileContents = Maps.newHashMap();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -149,6 +160,12 @@ public final class EditorManager {
           dirtyFileEditors.remove(fileEditor);
         }
       }
+      Map<String, String> savedContents = savedFileContents.get(projectId);
+      if (savedContents != null) {
+        for (String fileId : fileIds) {
+          savedContents.remove(fileId);
+        }
+      }
       projectEditor.closeFileEditors(fileIds);
     }
   }
@@ -167,6 +184,7 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    savedFileContents.remove(projectId);
   }
 
   /**
@@ -386,10 +404,10 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        OdeAsyncCallback<Long> callback = new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
             @Override
             public void onSuccess(Long date) {
+              getSavedContents(projectId).put(fileId, content);
               if (dateHolder.date != 0) {
                 // This sets the project modification time to that of one of
                 // the successful file saves. It doesn't really matter which
@@ -409,12 +427,57 @@ public final class EditorManager {
               // Here is where we handle BlocksTruncatedException
               if (caught instanceof BlocksTruncatedException) {
                 Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
+              } else if (caught instanceof ChecksumedFileException) {
+                // The file on the server isn't the one the change was computed from, for example
+                // because it was saved from another window. Save the whole file instead.
+                OdeLog.log("Saving all of " + fileId + " because " + caught.getMessage());
+                getSavedContents(projectId).remove(fileId);
+                Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                    projectId, fileId, false, content, this);
               } else {
                 super.onFailure(caught);
               }
             }
-          });
+          };
+        String savedContent = getSavedContents(projectId).get(fileId);
+        if (content.equals(savedContent)) {
+          // Nothing has changed since the file was last saved.
+          if (afterSavingFiles != null) {
+            afterSavingFiles.execute();
+          }
+          continue;
+        }
+        FileDelta delta = null;
+        if (savedContent != null) {
+          try {
+            delta = FileDelta.create(savedContent, content);
+            if (delta.getInsertedLength() > content.length() * MAX_DELTA_FRACTION) {
+              delta = null;
+            }
+          } catch (ChecksumedFileException e) {
+            delta = null;
+          }
+        }
+        if (delta != null) {
+          Ode.getInstance().getProjectService().saveDelta(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, delta, callback);
+        } else {
+          Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, content, callback);
+        }
       }
     }
   }
+
+  /*
+   * Returns the content of the files of the given project as they were last saved.
+   */
+  private Map<String, String> getSavedContents(long projectId) {
+    Map<String, String> savedContents = savedFileContents.get(projectId);
+    if (savedContents == null) {
+      savedContents = Maps.newHashMap();
+      savedFileContents.put(projectId, savedContents);
+    }
+    return savedContents;
+  }
 }
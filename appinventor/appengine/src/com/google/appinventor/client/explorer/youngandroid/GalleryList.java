@@ -92,6 +92,10 @@ public class GalleryList extends Composite implements GalleryRequestListener {
   private int appSearchCounter = 0;
   private int appTutorialCounter = 0;
 
+  // Cursors of the next pages of the recent and most liked apps
+  private String appRecentCursor = null;
+  private String appPopularCursor = null;
+
   private boolean appRecentExhausted = false;
   private boolean appFeaturedExhausted = false;
   private boolean appPopularExhausted = false;
@@ -269,11 +273,11 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         else if (request == REQUEST_RECENT) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, null, false);
       } else if (request == REQUEST_MOSTLIKED) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, null, false);
       } else if (request == REQUEST_FEATURED){
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
@@ -315,7 +319,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
               if (!appRecentExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appRecentCounter += NUMAPPSTOSHOW;
-                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, appRecentCursor, false);
               }
               break;
             case REQUEST_SEARCH:
@@ -329,7 +333,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
               if (!appPopularExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appPopularCounter += NUMAPPSTOSHOW;
-                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, appPopularCursor, false);
               }
               break;
           }
@@ -410,6 +414,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         }
         break;
       case REQUEST_RECENT:
+        appRecentCursor = appsResult.getCursor();
         appRecentTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if(appsResult.getTotalCount() < NUMAPPSTOSHOW  || appRecentCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
           appRecentTab.getButtonNext().setVisible(false);
@@ -450,6 +455,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appSearchContent, refreshable);
         break;
       case REQUEST_MOSTLIKED:
+        appPopularCursor = appsResult.getCursor();
         appPopularTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appPopularCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
           appPopularTab.getButtonNext().setVisible(false);
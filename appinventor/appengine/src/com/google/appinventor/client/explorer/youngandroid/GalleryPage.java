@@ -264,7 +264,7 @@ panel
 
       // Add sidebar stuff, only in public state
       // By default, load the first tag's apps
-      gallery.GetAppsByDeveloper(0, 5, app.getDeveloperId());
+      gallery.GetAppsByDeveloper(0, 5, app.getDeveloperId(), null);
     }
 
     // Add to appSingle
@@ -88,6 +88,7 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
   public static final int PUBLIC = 1;
   public static final int REQUEST_BYDEVELOPER = 7;
   private int appCatalogCounter = 0;
+  private String appCatalogCursor = null;  // cursor of the next page of apps
   private boolean appCatalogExhausted = false;
   public static final int NUMAPPSTOSHOW = 10;
 
@@ -622,7 +623,7 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
           refreshApps(appsResult,false);
         }
       };
-      Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCounter ,NUMAPPSTOSHOW, byAuthorCallback);
+      Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCounter ,NUMAPPSTOSHOW, null, byAuthorCallback);
       container.add(content);
 
       buttonNext = new Label();
@@ -639,7 +640,8 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
            if (!appCatalogExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appCatalogCounter += NUMAPPSTOSHOW;
-                Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCounter ,NUMAPPSTOSHOW, byAuthorCallback);
+                Ode.getInstance().getGalleryService().getDeveloperApps(userId,appCatalogCounter ,NUMAPPSTOSHOW,
+                    appCatalogCursor, byAuthorCallback);
               }
         }
       });
@@ -651,6 +653,7 @@ public class ProfilePage extends Composite/* implements GalleryRequestListener*/
    * @param apps: list of returned gallery apps from callback.
    */
   private void refreshApps(GalleryAppListResult appsResult, boolean refreshable) {
+        appCatalogCursor = appsResult.getCursor();
         appCatalogTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if (appsResult.getTotalCount() < NUMAPPSTOSHOW) {
           // That means there's not enough apps to show (reaches the end)
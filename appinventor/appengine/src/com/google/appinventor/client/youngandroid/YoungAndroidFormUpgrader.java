@@ -732,6 +732,11 @@ public final class YoungAndroidFormUpgrader {
       componentProperties.put("TextAlignment", def);
       srcCompVersion = 10;
     }
+    if (srcCompVersion < 11) {
+      // The FramesPerSecond and FrameTime properties were added.
+      // No properties need to be modified to upgrade to version 11.
+      srcCompVersion = 11;
+    }
     return srcCompVersion;
   }
 
@@ -1462,6 +1467,11 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 4.
       srcCompVersion = 4;
     }
+    if (srcCompVersion < 5) {
+      // The CacheResponses property was added.
+      // No properties need to be modified to upgrade to version 5.
+      srcCompVersion = 5;
+    }
     return srcCompVersion;
   }
 
@@ -0,0 +1,73 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * The progress of the builds in progress, as reported by the Build Server.
+ *
+ * <p>There is a record for each build, keyed by user and project, from when
+ * the build is requested until its output is received, or the Build Server
+ * reports that the build ended without it. The Build Server posts
+ * the progress to the {@link BuildProgressServlet}, so that the client's
+ * requests for the build result can be answered from the record, without
+ * asking the Build Server or looking for the output in storage.
+ *
+ * <p>The records are kept in memcache. If a record is evicted, callers fall
+ * back to looking for the output in storage, as they would if there were no
+ * records.
+ */
+public final class BuildProgress {
+
+  // Builds longer than this are given up on by the client.
+  private static final int EXPIRATION_SECONDS = 60 * 60;
+
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private BuildProgress() {
+  }
+
+  /**
+   * Starts the record of a new build of the given project.
+   */
+  public static void start(String userId, long projectId) {
+    memcache.put(getKey(userId, projectId), 0, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+  }
+
+  /**
+   * Updates the progress of the build of the given project. Progress posted after the build
+   * finished, or for a build that has no record, is ignored.
+   */
+  public static void update(String userId, long projectId, int progress) {
+    memcache.put(getKey(userId, projectId), progress,
+        Expiration.byDeltaSeconds(EXPIRATION_SECONDS), SetPolicy.REPLACE_ONLY_IF_PRESENT);
+  }
+
+  /**
+   * Ends the record of the build of the given project, once its output has been received or the
+   * build has ended without it.
+   */
+  public static void finish(String userId, long projectId) {
+    memcache.delete(getKey(userId, projectId));
+  }
+
+  /**
+   * Returns the progress of the build of the given project, as a percentage, or -1 if the build
+   * has finished or its record is not available.
+   */
+  public static int get(String userId, long projectId) {
+    Object progress = memcache.get(getKey(userId, projectId));
+    return progress instanceof Integer ? (Integer) progress : -1;
+  }
+
+  private static String getKey(String userId, long projectId) {
+    return "buildprogress:" + userId + ":" + projectId;
+  }
+}
@@ -0,0 +1,64 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.encryption.EncryptionException;
+import com.google.appinventor.server.project.utils.Security;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet for receiving the progress of a build from a Build Server.
+ *
+ * <p>Like the {@link ReceiveBuildServlet}, this servlet does not require
+ * login, so the posts contain an encrypted user and project ID as part of
+ * their URL.
+ *
+ * <p>A progress of -1 means that the build ended without sending its output.
+ */
+public class BuildProgressServlet extends OdeServlet {
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildProgressServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    // URIs for buildprogress requests are structured as follows:
+    //   /<baseurl>/buildprogress/encryptedUserAndProjectId/progress
+    String uriComponents[] = req.getRequestURI().split("/", 5);
+    if (uriComponents.length < 5) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    String userId;
+    long projectId;
+    try {
+      userId = Security.decryptUserId(uriComponents[3]);
+      projectId = Security.decryptProjectId(uriComponents[3]);
+    } catch (EncryptionException e) {
+      throw CrashReport.createAndLogError(LOG, req, null, e);
+    }
+
+    int progress;
+    try {
+      progress = Integer.parseInt(uriComponents[4]);
+    } catch (NumberFormatException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    if (progress < 0) {
+      // The build ended without sending its output, so it is no longer in progress.
+      BuildProgress.finish(userId, projectId);
+    } else {
+      BuildProgress.update(userId, projectId, Math.min(100, progress));
+    }
+  }
+}
@@ -0,0 +1,43 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.project.youngandroid.YoungAndroidProjectService;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * CodeblocksMigrationServlet -- Converts the codeblocks files of an old
+ * project to Blockly
+ *
+ * This Servlet is called from the task queue manager (part of App
+ * Engine), with a task that is added the first time the tree of an
+ * unconverted project is read, so that opening the project doesn't have
+ * to wait for the conversion. Like the BlobUpgradeServlet it is
+ * restricted to admin users only.
+ *
+ */
+public class CodeblocksMigrationServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(CodeblocksMigrationServlet.class.getName());
+  private final YoungAndroidProjectService projectService =
+      new YoungAndroidProjectService(StorageIoInstanceHolder.INSTANCE);
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+
+    String userId = req.getParameter("user");
+    long projectId = Long.parseLong(req.getParameter("project"));
+    LOG.info("Got Request to Migrate Codeblocks: " + userId + " " + projectId);
+    projectService.migrateCodeblocks(userId, projectId);
+  }
+}
@@ -120,16 +120,16 @@ public class DownloadServlet extends OdeServlet {
         String projectTitle = (uriComponents.length > PROJECT_TITLE_INDEX) ?
             uriComponents[PROJECT_TITLE_INDEX] : null;
         final boolean includeProjectHistory = true;
-        String zipName = (projectTitle == null) ? null :
+        String zipName = (projectTitle == null) ?
+            StorageIoInstanceHolder.INSTANCE.getProjectName(userId, projectId) + ".aia" :
             StringUtils.normalizeForFilename(projectTitle) + ".aia";
         // If the requester is an Admin, we include any Yail files in the
         // project in the export
         boolean includeYail = userInfoProvider.getIsAdmin();
         boolean includeScreenShots = includeYail;
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-          projectId, includeProjectHistory, false, zipName, includeYail,
-          includeScreenShots, false, false);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectSourceZip(resp, zipName, userId, projectId, includeProjectHistory, false,
+            includeYail, includeScreenShots);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         if (!userInfoProvider.getIsAdmin()) {
@@ -182,9 +182,9 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
-          projectId, /* include history*/ true, /* include keystore */ true, zipName, true, true, false, false);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectSourceZip(resp, zipName, projectUserId, projectId, /* include history*/ true,
+            /* include keystore */ true, true, true);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
@@ -231,4 +231,33 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Writes the project source zip to the response as it is created, instead of creating the
+   * whole zip in memory first. The length of the zip isn't known until it is complete, so the
+   * response has no content length.
+   *
+   * If the zip can't be written, the response is reset so that the exception produces an error
+   * status instead of a truncated .aia. App Engine buffers the whole response until the servlet
+   * returns, so the response is never committed at that point there. Elsewhere, a response that
+   * was already committed is left incomplete, and the client sees the download fail.
+   */
+  private void streamProjectSourceZip(HttpServletResponse resp, String zipName, String userId,
+      long projectId, boolean includeProjectHistory, boolean includeAndroidKeystore,
+      boolean includeYail, boolean includeScreenShots) throws IOException {
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + zipName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(zipName));
+    boolean written = false;
+    try {
+      fileExporter.streamProjectSourceZip(userId, projectId, includeProjectHistory,
+          includeAndroidKeystore, includeYail, includeScreenShots, false, false,
+          resp.getOutputStream());
+      written = true;
+    } finally {
+      if (!written && !resp.isCommitted()) {
+        resp.reset();
+      }
+    }
+  }
 }
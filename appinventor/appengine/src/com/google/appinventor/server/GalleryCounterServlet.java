@@ -0,0 +1,33 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryCounterServlet -- Add the gallery downloads and likes counted since
+ * the last run to the gallery apps
+ *
+ * This Servlet is called by the cron service (part of App Engine), as
+ * configured in cron.xml. Like the BlobUpgradeServlet, it is restricted to
+ * admin users only, and the cron service operates with admin privileges.
+ *
+ */
+public class GalleryCounterServlet extends OdeServlet {
+  private final GalleryStorageIo galleryStorageIo = GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    galleryStorageIo.aggregateCounters();
+  }
+}
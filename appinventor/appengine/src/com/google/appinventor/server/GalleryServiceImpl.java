@@ -141,7 +141,7 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    */
   @Override
   public void indexAll(int count) {
-    List<GalleryApp> apps= getRecentApps(1,count).getApps();
+    List<GalleryApp> apps= getRecentApps(1,count,null).getApps();
     for (GalleryApp app:apps) {
       GallerySearchIndex.getInstance().indexApp(app);
     }
@@ -159,13 +159,14 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getRecentApps(int start,int count) {
-    return galleryStorageIo.getRecentGalleryApps(start,count);
+  public GalleryAppListResult getRecentApps(int start,int count, String cursor) {
+    return galleryStorageIo.getRecentGalleryApps(start,count,cursor);
   }
 
   /**
@@ -228,13 +229,15 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start,int count) {
-    return galleryStorageIo.getDeveloperApps(userId, start,count);
+  public GalleryAppListResult getDeveloperApps(String userId, int start,int count,
+      String cursor) {
+    return galleryStorageIo.getDeveloperApps(userId, start,count,cursor);
   }
 
   /**
@@ -264,25 +267,27 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, int count) {
-    return galleryStorageIo.getMostDownloadedApps(start,count);
+  public GalleryAppListResult getMostDownloadedApps(int start, int count, String cursor) {
+    return galleryStorageIo.getMostDownloadedApps(start,count,cursor);
   }
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, int count) {
-    return galleryStorageIo.getMostLikedApps(start,count);
+  public GalleryAppListResult getMostLikedApps(int start, int count, String cursor) {
+    return galleryStorageIo.getMostLikedApps(start,count,cursor);
   }
 
   /**
@@ -82,6 +82,9 @@ public class ReceiveBuildServlet extends OdeServlet {
         }
       }
     } finally {
+      // The output is in storage now, so requests for the build result can find it. If it
+      // couldn't be saved, the build is over anyway.
+      BuildProgress.finish(userId, projectId);
       odeFilter.removeUser();
     }
   }
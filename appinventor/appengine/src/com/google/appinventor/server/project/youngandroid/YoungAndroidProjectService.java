@@ -6,11 +6,15 @@
 
 package com.google.appinventor.server.project.youngandroid;
 
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.server.BuildProgress;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.FileExporterImpl;
@@ -28,7 +32,6 @@ import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -50,8 +53,12 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,6 +67,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Serializable;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -71,6 +79,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -81,7 +90,6 @@ import java.util.logging.Logger;
  */
 public final class YoungAndroidProjectService extends CommonProjectService {
 
-  private static int currentProgress = 0;
   private static final Logger LOG = Logger.getLogger(YoungAndroidProjectService.class.getName());
 
   // The value of this flag can be changed in appengine-web.xml
@@ -109,6 +117,13 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
   private static final JSONParser JSON_PARSER = new ServerJsonParser();
 
+  // The name under which the project tree is cached, see getRootNode
+  private static final String PROJECT_TREE = "tree";
+
+  // The queue and URL of the tasks that convert codeblocks files, see migrateCodeblocks
+  private static final String CODEBLOCKS_MIGRATION_QUEUE = "codeblocksmigration";
+  private static final String CODEBLOCKS_MIGRATION_URL = "/migratecodeblocks";
+
   // Build folder path
   private static final String BUILD_FOLDER = "build";
 
@@ -126,6 +141,22 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // component.
   private static final Random random = new Random();
 
+  /**
+   * The project tree in compact form: the name of the project and the IDs of
+   * the files that get nodes, from which the nodes are rebuilt.
+   */
+  private static final class ProjectTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String projectName;
+    final String[] fileIds;
+
+    ProjectTree(String projectName, String[] fileIds) {
+      this.projectName = projectName;
+      this.fileIds = fileIds;
+    }
+  }
+
   public YoungAndroidProjectService(StorageIo storageIo) {
     super(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, storageIo);
   }
@@ -438,12 +469,18 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   }
 
   @Override
-  public ProjectRootNode getRootNode(String userId, long projectId) {
+  public ProjectRootNode getRootNode(final String userId, final long projectId) {
+    ProjectTree tree = storageIo.getCachedProjectValue(userId, projectId, PROJECT_TREE,
+        new Supplier<ProjectTree>() {
+          @Override
+          public ProjectTree get() {
+            return loadProjectTree(userId, projectId);
+          }
+        });
+
     // Create root, assets, and source nodes (they are mocked nodes as they don't really
     // have to exist like this on the file system)
-    ProjectRootNode rootNode =
-        new YoungAndroidProjectNode(storageIo.getProjectName(userId, projectId),
-                                    projectId);
+    ProjectRootNode rootNode = new YoungAndroidProjectNode(tree.projectName, projectId);
     ProjectNode assetsNode = new YoungAndroidAssetsFolder(ASSETS_FOLDER);
     ProjectNode sourcesNode = new YoungAndroidSourceFolderNode(SRC_FOLDER);
     ProjectNode compsNode = new YoungAndroidComponentsFolder(EXTERNAL_COMPS_FOLDER);
@@ -455,54 +492,123 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     // Sources contains nested folders that are interpreted as packages
     Map<String, ProjectNode> packagesMap = Maps.newHashMap();
 
-    // Retrieve project information
+    for (String fileId : tree.fileIds) {
+      if (fileId.startsWith(EXTERNAL_COMPS_FOLDER + '/')) {
+        compsNode.addChild(new YoungAndroidComponentNode(StorageUtil.basename(fileId), fileId));
+      } else if (fileId.startsWith(ASSETS_FOLDER + '/')) {
+        assetsNode.addChild(new YoungAndroidAssetNode(StorageUtil.basename(fileId), fileId));
+      } else {
+        YoungAndroidSourceNode sourceNode;
+        if (fileId.endsWith(FORM_PROPERTIES_EXTENSION)) {
+          sourceNode = new YoungAndroidFormNode(fileId);
+        } else if (fileId.endsWith(BLOCKLY_SOURCE_EXTENSION)) {
+          sourceNode = new YoungAndroidBlocksNode(fileId);
+        } else {
+          sourceNode = new YoungAndroidYailNode(fileId);
+        }
+        String packageName = StorageUtil.getPackageName(sourceNode.getQualifiedName());
+        ProjectNode packageNode = packagesMap.get(packageName);
+        if (packageNode == null) {
+          packageNode = new YoungAndroidPackageNode(packageName, packageNameToPath(packageName));
+          packagesMap.put(packageName, packageNode);
+          sourcesNode.addChild(packageNode);
+        }
+        packageNode.addChild(sourceNode);
+      }
+    }
+
+    return rootNode;
+  }
+
+  /*
+   * Reads the project's name and the files that make up its project tree.
+   */
+  private ProjectTree loadProjectTree(String userId, long projectId) {
     List<String> sourceFiles = storageIo.getProjectSourceFiles(userId, projectId);
+    Set<String> sourceFileSet = Sets.newHashSet(sourceFiles);
+    List<String> fileIds = Lists.newArrayList();
+    List<String> unconvertedFileIds = Lists.newArrayList();
     for (String fileId : sourceFiles) {
       if (fileId.startsWith(ASSETS_FOLDER + '/')) {
-        if (fileId.startsWith(EXTERNAL_COMPS_FOLDER + '/')) {
-          compsNode.addChild(new YoungAndroidComponentNode(StorageUtil.basename(fileId), fileId));
-        }
-        else {
-          assetsNode.addChild(new YoungAndroidAssetNode(StorageUtil.basename(fileId), fileId));
-        }
+        fileIds.add(fileId);
       } else if (fileId.startsWith(SRC_FOLDER + '/')) {
         // We send form (.scm), blocks (.blk), and yail (.yail) nodes to the ODE client.
-        YoungAndroidSourceNode sourceNode = null;
-        if (fileId.endsWith(FORM_PROPERTIES_EXTENSION)) {
-          sourceNode = new YoungAndroidFormNode(fileId);
-        } else if (fileId.endsWith(BLOCKLY_SOURCE_EXTENSION)) {
-          sourceNode = new YoungAndroidBlocksNode(fileId);
+        if (fileId.endsWith(FORM_PROPERTIES_EXTENSION)
+            || fileId.endsWith(BLOCKLY_SOURCE_EXTENSION)
+            || fileId.endsWith(YAIL_FILE_EXTENSION)) {
+          fileIds.add(fileId);
         } else if (fileId.endsWith(CODEBLOCKS_SOURCE_EXTENSION)) {
-          String blocklyFileName =
-              fileId.substring(0, fileId.lastIndexOf(CODEBLOCKS_SOURCE_EXTENSION))
-              + BLOCKLY_SOURCE_EXTENSION;
-          if (!sourceFiles.contains(blocklyFileName)) {
-            // This is an old project that hasn't been converted yet. Convert
-            // the blocks file to Blockly format and name. Leave the old
-            // codeblocks file around for now (for debugging) but don't send it to the client.
-            String blocklyFileContents = convertCodeblocksToBlockly(userId, projectId, fileId);
-            storageIo.addSourceFilesToProject(userId, projectId, false, blocklyFileName);
-            storageIo.uploadFileForce(projectId, blocklyFileName, userId, blocklyFileContents,
-                StorageUtil.DEFAULT_CHARSET);
-            sourceNode = new YoungAndroidBlocksNode(blocklyFileName);
+          String blocklyFileName = getBlocklyFileName(fileId);
+          if (!sourceFileSet.contains(blocklyFileName)) {
+            // This is an old project that hasn't been converted yet. Its blocks
+            // file is converted in the background; until then, the client gets
+            // an empty Blockly file in its place.
+            fileIds.add(blocklyFileName);
+            unconvertedFileIds.add(blocklyFileName);
           }
-        } else if (fileId.endsWith(YAIL_FILE_EXTENSION)) {
-          sourceNode = new YoungAndroidYailNode(fileId);
         }
-        if (sourceNode != null) {
-          String packageName = StorageUtil.getPackageName(sourceNode.getQualifiedName());
-          ProjectNode packageNode = packagesMap.get(packageName);
-          if (packageNode == null) {
-            packageNode = new YoungAndroidPackageNode(packageName, packageNameToPath(packageName));
-            packagesMap.put(packageName, packageNode);
-            sourcesNode.addChild(packageNode);
-          }
-          packageNode.addChild(sourceNode);
+      }
+    }
+    if (!unconvertedFileIds.isEmpty()) {
+      // Create the empty Blockly files now, so that the client can save them
+      // before the migration has run
+      storageIo.addSourceFilesToProject(userId, projectId, false,
+          unconvertedFileIds.toArray(new String[unconvertedFileIds.size()]));
+      scheduleCodeblocksMigration(userId, projectId);
+    }
+    return new ProjectTree(storageIo.getProjectName(userId, projectId),
+        fileIds.toArray(new String[fileIds.size()]));
+  }
+
+  /*
+   * Adds a task that converts the project's codeblocks files. The task is
+   * named after the project, so it is only added once.
+   */
+  private static void scheduleCodeblocksMigration(String userId, long projectId) {
+    try {
+      QueueFactory.getQueue(CODEBLOCKS_MIGRATION_QUEUE).add(
+          TaskOptions.Builder.withUrl(CODEBLOCKS_MIGRATION_URL)
+              .taskName("codeblocks-" + projectId)
+              .param("user", userId)
+              .param("project", Long.toString(projectId)));
+    } catch (TaskAlreadyExistsException e) {
+      // The migration was already scheduled
+    }
+  }
+
+  /**
+   * Converts the codeblocks files of an old project that have no Blockly
+   * file, or only the empty one created when the migration was scheduled, to
+   * Blockly format and name. A Blockly file that the client has already saved
+   * is left alone. The old codeblocks files are left around (for debugging)
+   * but are not sent to the client.
+   *
+   * <p>This is called from the task queue, see
+   * {@link com.google.appinventor.server.CodeblocksMigrationServlet}.
+   *
+   * @param userId the user who owns the project
+   * @param projectId project ID
+   */
+  public void migrateCodeblocks(String userId, long projectId) {
+    List<String> sourceFiles = storageIo.getProjectSourceFiles(userId, projectId);
+    Set<String> sourceFileSet = Sets.newHashSet(sourceFiles);
+    for (String fileId : sourceFiles) {
+      if (fileId.startsWith(SRC_FOLDER + '/') && fileId.endsWith(CODEBLOCKS_SOURCE_EXTENSION)) {
+        String blocklyFileName = getBlocklyFileName(fileId);
+        if (!sourceFileSet.contains(blocklyFileName)
+            || storageIo.downloadRawFile(userId, projectId, blocklyFileName).length == 0) {
+          String blocklyFileContents = convertCodeblocksToBlockly(userId, projectId, fileId);
+          storageIo.addSourceFilesToProject(userId, projectId, false, blocklyFileName);
+          storageIo.uploadFileForce(projectId, blocklyFileName, userId, blocklyFileContents,
+              StorageUtil.DEFAULT_CHARSET);
         }
       }
     }
+  }
 
-    return rootNode;
+  private static String getBlocklyFileName(String codeblocksFileId) {
+    return codeblocksFileId.substring(0, codeblocksFileId.lastIndexOf(CODEBLOCKS_SOURCE_EXTENSION))
+        + BLOCKLY_SOURCE_EXTENSION;
   }
 
   /*
@@ -608,8 +714,13 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+    // The Build Server posts the progress of the build to the BuildProgressServlet.
+    BuildProgress.start(userId, projectId);
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    CountingOutputStream zipOutputStream = null;
+    // If the zip wasn't completely written, its count is only a lower bound on its size.
+    boolean zipWritten = false;
+    boolean accepted = false;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
@@ -619,15 +730,19 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
-
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+      // Write the zip straight to the connection instead of into a byte array first. Note that
+      // on App Engine, HttpURLConnection is implemented with URLFetch, which buffers the whole
+      // request in memory before sending it regardless of the streaming mode, so this only saves
+      // our own copy of the zip.
+      connection.setChunkedStreamingMode(0);
+
+      zipOutputStream = new CountingOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
+      fileExporter.streamProjectSourceZip(userId, projectId, false,
           /* includeAndroidKeystore */ true,
-        projectName + ".aia", true, false, true, false);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+        true, false, true, false, zipOutputStream);
+      zipWritten = true;
 
       int responseCode = 0;
       responseCode = connection.getResponseCode();
@@ -664,6 +779,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
         return new RpcResult(responseCode, "", StringUtils.escape(error));
       }
+      accepted = true;
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
@@ -671,12 +787,12 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     } catch (IOException e) {
       // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
       Throwable wrappedException = e;
-      int zipFileLength = zipFile == null ? -1 : zipFile.getContent().length;
+      long zipFileLength = zipOutputStream == null ? -1 : zipOutputStream.getCount();
       if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
         String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
         wrappedException = new IllegalArgumentException(
           "Sorry, can't package projects larger than 5MB."
-          + " Yours is " + lengthMbs + "MB.", e);
+          + " Yours is " + (zipWritten ? "" : "at least ") + lengthMbs + "MB.", e);
       }
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("IOException", buildServerUrl, userId, projectId), wrappedException);
@@ -689,21 +805,27 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutputStream != null) {
+        long zipFileLength = zipOutputStream.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
           wrappedException = new IllegalArgumentException(
               "Sorry, can't package projects larger than 5MB."
-              + " Yours is " + lengthMbs + "MB.", e);
+              + " Yours is " + (zipWritten ? "" : "at least ") + lengthMbs + "MB.", e);
         } else {
           wrappedException = new IllegalArgumentException(
-              "Sorry, project was too large to package (" + zipFileLength + " bytes)");
+              "Sorry, project was too large to package ("
+              + (zipWritten ? "" : "at least ") + zipFileLength + " bytes)");
         }
       }
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId), wrappedException);
       return new RpcResult(false, "", wrappedException.getMessage());
+    } finally {
+      if (!accepted) {
+        // There won't be any output, so don't report the build as in progress.
+        BuildProgress.finish(userId, projectId);
+      }
     }
     return new RpcResult(true, "Building " + projectName, "");
   }
@@ -731,6 +853,11 @@ public final class YoungAndroidProjectService extends CommonProjectService {
                                + ServerLayout.RECEIVE_BUILD_SERVLET + "/"
                                + Security.encryptUserAndProjectId(userId, projectId)
                                + "/" + fileName,
+                               "UTF-8")
+           + "&progress="
+           + URLEncoder.encode("http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH
+                               + ServerLayout.BUILD_PROGRESS_SERVLET + "/"
+                               + Security.encryptUserAndProjectId(userId, projectId),
                                "UTF-8");
   }
 
@@ -780,10 +907,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   @Override
   public RpcResult getBuildResult(User user, long projectId, String target) {
     String userId = user.getUserId();
+    // While the build is in progress, answer from its progress record.
+    int progress = BuildProgress.get(userId, projectId);
+    if (progress != -1) {
+      return new RpcResult(-1, "" + progress, ""); // Build not finished
+    }
     String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    updateCurrentProgress(user, projectId, target);
-    RpcResult buildResult = new RpcResult(-1, ""+currentProgress, ""); // Build not finished
+    RpcResult buildResult = new RpcResult(-1, "0", ""); // Build not finished
     for (String outputFile : outputFiles) {
       if (buildOutputFileName.equals(outputFile)) {
         String outputStr = storageIo.downloadFile(userId, projectId, outputFile, "UTF-8");
@@ -802,52 +933,6 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     return buildResult;
   }
 
-  /**
-   * Check if there are any build progress available for the given user's project
-   *
-   * @param user the User that owns the {@code projectId}.
-   * @param projectId  project id to be built
-   * @param target  build target (optional, implementation dependent)
-   */
-  public void updateCurrentProgress(User user, long projectId, String target) {
-    try {
-      String userId = user.getUserId();
-      String projectName = storageIo.getProjectName(userId, projectId);
-      String outputFileDir = BUILD_FOLDER + '/' + target;
-      URL buildServerUrl = null;
-      ProjectSourceZip zipFile = null;
-
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-          try {
-            String content = readContent(connection.getInputStream());
-            if (content != null && !content.isEmpty()) {
-              if (DEBUG) {
-                LOG.info("The current progress is " + content + "%.");
-              }
-              currentProgress = Integer.parseInt(content);
-            }
-          } catch (IOException e) {
-            // No content. That's ok.
-          }
-         }
-      } catch (MalformedURLException e) {
-        // that's ok, nothing to do
-      } catch (IOException e) {
-        // that's ok, nothing to do
-      } catch (EncryptionException e) {
-        // that's ok, nothing to do
-      } catch (RuntimeException e) {
-        // that's ok, nothing to do
-      }
-  }
-
   // Nicely format floating number using only two decimal places
   private String format(double input) {
     DecimalFormat formatter = new DecimalFormat("###.##");
@@ -0,0 +1,31 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Indexed;
+
+/**
+ * One shard of the download and like counters of a gallery app.
+ *
+ * Downloads and likes are counted in one of several shards, chosen at
+ * random, rather than in the GalleryAppData entity, so that apps that are
+ * downloaded or liked often don't cause contention on a single entity. Each
+ * shard is the root of its own entity group. The counts only ever grow, except
+ * that a like is taken back when it is withdrawn, and are periodically added
+ * to the GalleryAppData entity.
+ *
+ */
+public class GalleryAppCounterShardData {
+  @Id String id;        // galleryId + ":" + shard number
+  long galleryId;
+  int numDownloads;     // downloads counted by this shard
+  int numLikes;         // likes counted by this shard, less the likes withdrawn
+
+  // True if the counts have changed since they were last added to the GalleryAppData entity.
+  @Indexed boolean dirty;
+}
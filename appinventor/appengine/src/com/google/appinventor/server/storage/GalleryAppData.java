@@ -32,6 +32,11 @@ public class GalleryAppData {
   @Indexed public int numDownloads;
   @Indexed public int unreadLikes;
   @Indexed public int unreadDownloads;
+  // The totals of the counter shards that have been added to the counts above.
+  public int aggregatedDownloads;
+  public int aggregatedLikes;
+  // True once the likes of the app are stored as GalleryAppUserLikeData.
+  boolean likesKeyed;
   long projectId;
   int status;
   long lastEmailNotificationTimeStamp;
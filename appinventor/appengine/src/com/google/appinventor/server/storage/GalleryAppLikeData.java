@@ -14,6 +14,10 @@ import com.googlecode.objectify.annotation.Parent;
 /**
  * this class modelled after those in StoredData.java
  *
+ * Likes are now stored as GalleryAppUserLikeData. The likes of an app that
+ * are stored as this class are converted the first time the app's likes are
+ * used.
+ *
  * @author blu2@dons.usfca.edu (Bin Lu)
  *
  */
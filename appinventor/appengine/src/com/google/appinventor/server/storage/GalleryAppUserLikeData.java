@@ -0,0 +1,24 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Indexed;
+
+/**
+ * A like of a gallery app by a user.
+ *
+ * Unlike GalleryAppLikeData, which it replaces, the entity is keyed by the
+ * gallery app and the user, so checking whether a user likes an app is a
+ * single lookup, and a user can't like an app twice.
+ *
+ */
+public class GalleryAppUserLikeData {
+  @Id String id;        // galleryId + ":" + userId
+  @Indexed long galleryId;
+  String userId;
+}
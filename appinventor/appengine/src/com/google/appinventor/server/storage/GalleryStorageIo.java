@@ -66,29 +66,32 @@ public interface GalleryStorageIo {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getRecentGalleryApps(int start, int count);
+  GalleryAppListResult getRecentGalleryApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(int start, int count, String cursor);
 
   /**
    *Returns a wrapped class which contains a list of featured gallery app
@@ -138,11 +141,12 @@ public interface GalleryStorageIo {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, int start, int count, String cursor);
 
   /**
    * records that an app has been downloaded
@@ -200,6 +204,11 @@ public interface GalleryStorageIo {
    */
   void salvageGalleryApp(long galleryId);
 
+  /**
+   * adds the downloads and likes counted since the last call to the gallery apps
+   */
+  void aggregateCounters();
+
   /**
    * save AttributionId
    * @param galleryId id of gallery app that was like
@@ -0,0 +1,244 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsInputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appinventor.server.storage.StoredData.FileData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the contents of project files stored in GCS.
+ *
+ * <p>The files of a {@link Batch} are read in order, but the reads of the
+ * next few files are started before the current one has been read, so that
+ * reading a project's files takes little more than reading the largest of
+ * them. The size of a file is taken from its FileData, when it is known, so
+ * that only files stored before sizes were recorded need a metadata lookup.
+ * The contents are copied through buffers shared by all reads.
+ *
+ */
+final class GcsReader {
+
+  private static final Logger LOG = Logger.getLogger(GcsReader.class.getName());
+
+  // The number of files read ahead of the current one
+  private static final int MAX_PREFETCHES = 8;
+
+  // The size of the blocks read ahead
+  private static final int PREFETCH_BLOCK_SIZE = 256 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 16;
+
+  // The number of times the metadata of a file is looked up before it is considered missing
+  private static final int METADATA_TRIES = 5;
+
+  private static final BlockingQueue<ByteBuffer> bufferPool =
+      new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BUFFERS);
+
+  private final GcsService gcsService;
+  private final String bucketName;
+
+  GcsReader(GcsService gcsService, String bucketName) {
+    this.gcsService = gcsService;
+    this.bucketName = bucketName;
+  }
+
+  /**
+   * Starts reading the given files. Files that are not stored in GCS are
+   * skipped. The batch must be closed.
+   */
+  Batch read(List<FileData> files) throws IOException {
+    Batch batch = new Batch(files);
+    try {
+      batch.prefetch();
+    } catch (IOException e) {
+      batch.close();
+      throw e;
+    }
+    return batch;
+  }
+
+  /**
+   * The files being read. Their contents must be read in order; files that are
+   * skipped can't be read afterwards.
+   */
+  final class Batch implements Closeable {
+    private final List<FileData> files;
+    private final GcsInputChannel[] channels;
+    private final long[] sizes;       // -1 if the file is missing from GCS
+    private int nextToOpen = 0;       // files before this one have been opened
+    private int nextToRead = 0;       // files before this one have been read or skipped
+    private int openChannels = 0;
+
+    private Batch(List<FileData> files) {
+      this.files = files;
+      channels = new GcsInputChannel[files.size()];
+      sizes = new long[files.size()];
+    }
+
+    /**
+     * Copies the content of the file at the given index to the given stream.
+     * Returns false, without writing anything, if the file is missing from
+     * GCS, which happens for zero length files uploaded by older versions.
+     */
+    boolean copyTo(int index, OutputStream out) throws IOException {
+      if (index < nextToRead) {
+        throw new IllegalStateException("Files must be read in order");
+      }
+      for (int i = nextToRead; i < index; i++) {
+        closeChannel(i);
+      }
+      nextToRead = index + 1;
+      while (nextToOpen <= index) {
+        open(nextToOpen++);
+      }
+      try {
+        if (sizes[index] < 0) {
+          return false;
+        }
+        GcsInputChannel channel = channels[index];
+        if (channel == null) {
+          return true;                // Empty file
+        }
+        try {
+          return copy(channel, out) > 0;
+        } catch (FileNotFoundException e) {
+          return false;
+        }
+      } finally {
+        closeChannel(index);
+        prefetch();
+      }
+    }
+
+    /**
+     * Returns the content of the file at the given index, or null if it is
+     * missing from GCS.
+     */
+    byte[] read(int index) throws IOException {
+      Long size = files.get(index).gcsSize;
+      ByteArrayOutputStream content = new ByteArrayOutputStream(
+          (size == null) ? BUFFER_SIZE : (int) Math.max(1, size));
+      return copyTo(index, content) ? content.toByteArray() : null;
+    }
+
+    @Override
+    public void close() {
+      for (int i = 0; i < channels.length; i++) {
+        closeChannel(i);
+      }
+    }
+
+    private void prefetch() throws IOException {
+      while (openChannels < MAX_PREFETCHES && nextToOpen < files.size()) {
+        open(nextToOpen++);
+      }
+    }
+
+    private void open(int index) throws IOException {
+      FileData fd = files.get(index);
+      if (!isTrue(fd.isGCS) || fd.gcsName == null) {
+        sizes[index] = -1;
+        return;
+      }
+      GcsFilename gcsFileName = new GcsFilename(bucketName, fd.gcsName);
+      long size;
+      if (fd.gcsSize != null) {
+        size = fd.gcsSize;
+      } else {
+        size = lookupSize(gcsFileName);
+      }
+      sizes[index] = size;
+      if (size > 0) {
+        channels[index] = gcsService.openPrefetchingReadChannel(gcsFileName, 0,
+            (int) Math.min(size, PREFETCH_BLOCK_SIZE));
+        openChannels++;
+      }
+    }
+
+    private void closeChannel(int index) {
+      if (channels[index] != null) {
+        try {
+          channels[index].close();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to close GCS read channel", e);
+        }
+        channels[index] = null;
+        openChannels--;
+      }
+    }
+  }
+
+  /*
+   * Returns the size of the given file, from its metadata, or -1 if it is missing.
+   */
+  private long lookupSize(GcsFilename gcsFileName) throws IOException {
+    // The metadata is null if the object in GCS is non-existent, which would happen
+    // when people uploaded a zero length object. As of this change, we now
+    // store zero length objects into GCS, but there are plenty of older objects
+    // that are missing in GCS.
+    GcsFileMetadata metadata = null;
+    int count;
+    for (count = 0; count < METADATA_TRIES && metadata == null; count++) {
+      metadata = gcsService.getMetadata(gcsFileName);
+      if (metadata == null) {
+        LOG.log(Level.WARNING, "NPF recorded for " + gcsFileName.getObjectName());
+      }
+    }
+    if (metadata == null) {
+      LOG.log(Level.WARNING, "FATAL NPF filename = " + gcsFileName.getObjectName());
+      return -1;
+    } else if (count > 1) {
+      LOG.log(Level.WARNING, "recovered from NPF filename = " + gcsFileName.getObjectName() +
+          " count = " + count);
+    }
+    return metadata.getLength();
+  }
+
+  /*
+   * Copies the rest of the given channel to the given stream, and returns the number of
+   * bytes copied.
+   */
+  private static long copy(GcsInputChannel channel, OutputStream out) throws IOException {
+    ByteBuffer buffer = bufferPool.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+    try {
+      long bytesRead = 0;
+      while (true) {
+        buffer.clear();
+        int count = channel.read(buffer);
+        if (count < 0) {
+          return bytesRead;
+        }
+        out.write(buffer.array(), 0, count);
+        bytesRead += count;
+      }
+    } finally {
+      bufferPool.offer(buffer);
+    }
+  }
+
+  private static boolean isTrue(Boolean b) {
+    return b != null && b;
+  }
+}
@@ -0,0 +1,1265 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.CrashReport;
+import com.google.appinventor.server.FileExporter;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.server.storage.StoredData.FileData;
+import com.google.appinventor.server.storage.StoredData.PWData;
+import com.google.appinventor.shared.rpc.AdminInterfaceException;
+import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.Motd;
+import com.google.appinventor.shared.rpc.Nonce;
+import com.google.appinventor.shared.rpc.admin.AdminUser;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
+import com.google.appinventor.shared.rpc.user.SplashConfig;
+import com.google.appinventor.shared.rpc.user.User;
+import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements the StorageIo interface using a {@link LocalStore} in a local
+ * directory, for servers that run on a single machine without App Engine's
+ * datastore, memcache and Cloud Storage, such as self-hosted servers and load
+ * tests. It is used instead of {@link ObjectifyStorageIo} when the
+ * storage.local.dir flag names the directory.
+ *
+ * <p>The records mirror the entities of {@link StoredData}, and the methods
+ * follow the behavior of ObjectifyStorageIo. Changes that read a record and
+ * write it back are serialized by synchronizing on this object.
+ *
+ */
+public class LocalStorageIo implements StorageIo {
+  private static final Flag<Boolean> requireTos = Flag.createFlag("require.tos", false);
+
+  private static final Logger LOG = Logger.getLogger(LocalStorageIo.class.getName());
+
+  private static final long MOTD_ID = 1;
+
+  // Keys of the records and blobs in the store
+  private static final String USER = "user/";
+  private static final String USER_EMAIL = "email/";   // lower case email -> user id
+  private static final String USER_PROJECT = "userproject/";
+  private static final String USER_FILE = "userfile/";
+  private static final String PROJECT = "project/";
+  private static final String PROJECT_FILE = "file/";
+  private static final String FILE_CONTENT = "content/";
+  private static final String TEMP_FILE = "temp/";
+  private static final String RENDEZVOUS = "rendezvous/";
+  private static final String WHITE_LIST = "whitelist/";
+  private static final String FEEDBACK = "feedback/";
+  private static final String CORRUPTION = "corruption/";
+  private static final String NONCE = "nonce/";
+  private static final String PW_DATA = "pwdata/";
+  private static final String MOTD = "motd";
+  private static final String SPLASH = "splash";
+  private static final String PROJECT_ID_COUNTER = "counter/project";
+  private static final String FEEDBACK_ID_COUNTER = "counter/feedback";
+  private static final String CORRUPTION_ID_COUNTER = "counter/corruption";
+
+  private static final class UserRecord implements Serializable {
+    String id;
+    String email;
+    String emailLower;
+    String settings;
+    boolean tosAccepted;
+    boolean isAdmin;
+    Date visited;
+    String name;
+    String link;
+    int emailFrequency;
+    int type;
+    String sessionId;
+    String password;
+  }
+
+  private static final class ProjectRecord implements Serializable {
+    long id;
+    String name;
+    String type;
+    String settings;
+    long dateCreated;
+    long dateModified;
+    String history;
+    long galleryId;
+    long attributionId;
+  }
+
+  // The content of a project file is stored in a blob under FILE_CONTENT
+  private static final class FileRecord implements Serializable {
+    FileData.RoleEnum role;
+    String userId;              // The userId which owns this file
+  }
+
+  private static final class NonceRecord implements Serializable {
+    String userId;
+    long projectId;
+    Date timestamp;
+  }
+
+  private static final class PWRecord implements Serializable {
+    String email;
+    Date timestamp;
+  }
+
+  private static final class FeedbackRecord implements Serializable {
+    String notes;
+    String foundIn;
+    String faultData;
+    String comments;
+    String datestamp;
+    String email;
+    String projectId;
+  }
+
+  private static final class CorruptionRecord implements Serializable {
+    Date timestamp;
+    String userId;
+    long projectId;
+    String fileId;
+    String message;
+  }
+
+  private final LocalStore store;
+
+  LocalStorageIo(File directory) {
+    try {
+      store = new LocalStore(directory);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Opening " + directory, e);
+    }
+    if (store.get(MOTD) == null) {
+      put(MOTD, new Motd(MOTD_ID, "Hello!", "Welcome to the experimental App Inventor system " +
+          "from MIT. This is still a prototype.  It would be a good idea to frequently back up " +
+          "your projects to local storage."), "Initing MOTD");
+    }
+  }
+
+  /**
+   * Closes the store. This storage can't be used afterwards, but another one
+   * can be opened on the same directory.
+   */
+  void close() throws IOException {
+    store.close();
+  }
+
+  // User management
+
+  @Override
+  public User getUser(String userId) {
+    return getUser(userId, null);
+  }
+
+  @Override
+  public synchronized User getUser(String userId, String email) {
+    User user = new User(userId, email, null, null, 0, false, false, 0, null);
+    UserRecord userData = getUserRecord(userId);
+    if (userData == null && email != null) { // Attempt to find them by email
+      userData = getUserRecordByEmail(email);
+      if (userData != null && !userData.id.equals(userId)) {
+        user.setUserId(userData.id);
+      }
+    }
+    if (userData == null) {     // No joy, create it.
+      userData = createUser(userId, email);
+    } else if (email != null && !email.equals(userData.email)) {
+      setEmail(userData, email);
+      putUser(userData);
+    }
+    user.setUserEmail(userData.email);
+    user.setUserName(userData.name);
+    user.setUserLink(userData.link);
+    user.setUserEmailFrequency(userData.emailFrequency);
+    user.setType(userData.type);
+    user.setUserTosAccepted(userData.tosAccepted || !requireTos.get());
+    user.setIsAdmin(userData.isAdmin);
+    user.setSessionId(userData.sessionId);
+    user.setPassword(userData.password);
+    return user;
+  }
+
+  @Override
+  public synchronized User getUserFromEmail(String email) {
+    UserRecord user = getUserRecordByEmail(email);
+    if (user == null) {
+      user = createUser(UUID.randomUUID().toString(), email);
+    }
+    User retUser = new User(user.id, email, user.name, user.link, 0, user.tosAccepted,
+      false, user.type, user.sessionId);
+    retUser.setPassword(user.password);
+    return retUser;
+  }
+
+  private UserRecord createUser(String userId, String email) {
+    UserRecord userData = new UserRecord();
+    userData.id = userId;
+    userData.tosAccepted = false;
+    userData.settings = "";
+    setEmail(userData, email == null ? "" : email);
+    userData.name = User.getDefaultName(email);
+    userData.type = User.USER;
+    userData.link = "";
+    userData.emailFrequency = User.DEFAULT_EMAIL_NOTIFICATION_FREQUENCY;
+    putUser(userData);
+    return userData;
+  }
+
+  @Override
+  public synchronized void setTosAccepted(String userId) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.tosAccepted = true;
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public synchronized void setUserEmail(String userId, String email) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      setEmail(userData, email.toLowerCase());
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public synchronized void setUserName(String userId, String name) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.name = name;
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public synchronized void setUserLink(String userId, String link) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.link = link;
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public synchronized void setUserEmailFrequency(String userId, int emailFrequency) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.emailFrequency = emailFrequency;
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public synchronized void setUserSessionId(String userId, String sessionId) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.sessionId = sessionId;
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public synchronized void setUserPassword(String userId, String password) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.password = password;
+      putUser(userData);
+    }
+  }
+
+  @Override
+  public String loadSettings(String userId) {
+    UserRecord userData = getUserRecord(userId);
+    return (userData == null) ? "" : userData.settings;
+  }
+
+  @Override
+  public String getUserName(String userId) {
+    UserRecord userData = getUserRecord(userId);
+    return (userData == null) ? "unknown" : userData.name;
+  }
+
+  @Override
+  public String getUserLink(String userId) {
+    UserRecord userData = getUserRecord(userId);
+    return (userData == null) ? "unknown" : userData.link;
+  }
+
+  @Override
+  public int getUserEmailFrequency(String userId) {
+    UserRecord userData = getUserRecord(userId);
+    return (userData == null) ? User.DEFAULT_EMAIL_NOTIFICATION_FREQUENCY
+        : userData.emailFrequency;
+  }
+
+  @Override
+  public synchronized void storeSettings(String userId, String settings) {
+    UserRecord userData = getUserRecord(userId);
+    if (userData != null) {
+      userData.settings = settings;
+      userData.visited = new Date(); // Indicate that this person was active now
+      putUser(userData);
+    }
+  }
+
+  // Project management
+
+  @Override
+  public long createProject(String userId, Project project, String projectSettings) {
+    long projectId;
+    try {
+      projectId = store.nextId(PROJECT_ID_COUNTER);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+    long date = System.currentTimeMillis();
+    ProjectRecord pd = new ProjectRecord();
+    pd.id = projectId;
+    pd.dateCreated = date;
+    pd.dateModified = date;
+    pd.history = project.getProjectHistory();
+    pd.name = project.getProjectName();
+    pd.settings = projectSettings;
+    pd.type = project.getProjectType();
+    pd.galleryId = UserProject.NOTPUBLISHED;
+    pd.attributionId = UserProject.FROMSCRATCH;
+
+    // The files are stored before the project, which is stored before the user's
+    // reference to it, so that neither is ever seen incomplete.
+    for (TextFile file : project.getSourceFiles()) {
+      try {
+        createFile(userId, projectId, FileData.RoleEnum.SOURCE, file.getFileName(),
+            file.getContent().getBytes(StorageUtil.DEFAULT_CHARSET));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, file.getFileName()), e);
+      }
+    }
+    for (RawFile file : project.getRawSourceFiles()) {
+      createFile(userId, projectId, FileData.RoleEnum.SOURCE, file.getFileName(),
+          file.getContent());
+    }
+    put(projectKey(projectId), pd, collectUserProjectErrorInfo(userId, projectId));
+    put(userProjectKey(userId, projectId), projectId,
+        collectUserProjectErrorInfo(userId, projectId));
+    return projectId;
+  }
+
+  private void createFile(String userId, long projectId, FileData.RoleEnum role,
+      String fileName, byte[] content) {
+    FileRecord fd = new FileRecord();
+    fd.role = role;
+    fd.userId = userId;
+    String errorInfo = collectProjectErrorInfo(userId, projectId, fileName);
+    putBlob(fileContentKey(projectId, fileName), content, errorInfo);
+    put(projectFileKey(projectId, fileName), fd, errorInfo);
+  }
+
+  @Override
+  public synchronized void deleteProject(String userId, long projectId) {
+    try {
+      store.delete(userProjectKey(userId, projectId));
+      for (String fileKey : store.keys(projectFileKey(projectId, ""))) {
+        String fileName = fileKey.substring(projectFileKey(projectId, "").length());
+        store.delete(fileKey);
+        store.delete(fileContentKey(projectId, fileName));
+      }
+      store.delete(projectKey(projectId));
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+  }
+
+  @Override
+  public List<Long> getProjects(String userId) {
+    List<Long> projects = new ArrayList<Long>();
+    String prefix = USER_PROJECT + userId + "/";
+    for (String key : store.keys(prefix)) {
+      projects.add(Long.parseLong(key.substring(prefix.length())));
+    }
+    return projects;
+  }
+
+  @Override
+  public synchronized void setProjectGalleryId(String userId, long projectId, long galleryId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    if (pd != null) {
+      pd.galleryId = galleryId;
+      put(projectKey(projectId), pd, collectUserErrorInfo(userId));
+    }
+  }
+
+  @Override
+  public synchronized void setProjectAttributionId(String userId, long projectId,
+      long attributionId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    if (pd != null) {
+      pd.attributionId = attributionId;
+      put(projectKey(projectId), pd, "error in setProjectAttributionId");
+    }
+  }
+
+  @Override
+  public String loadProjectSettings(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? "" : pd.settings;
+  }
+
+  @Override
+  public synchronized void storeProjectSettings(String userId, long projectId, String settings) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    if (pd != null) {
+      pd.settings = settings;
+      put(projectKey(projectId), pd, collectUserProjectErrorInfo(userId, projectId));
+    }
+  }
+
+  @Override
+  public String getProjectType(String userId, long projectId) {
+    // We only have one project type, no need to ask about it
+    return YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE;
+  }
+
+  @Override
+  public UserProject getUserProject(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? null : makeUserProject(pd);
+  }
+
+  @Override
+  public List<UserProject> getUserProjects(String userId, List<Long> projectIds) {
+    List<UserProject> uProjects = new ArrayList<UserProject>(projectIds.size());
+    for (long projectId : projectIds) {
+      ProjectRecord pd = getProjectRecord(projectId);
+      if (pd != null) {
+        uProjects.add(makeUserProject(pd));
+      }
+    }
+    return uProjects;
+  }
+
+  private static UserProject makeUserProject(ProjectRecord pd) {
+    return new UserProject(pd.id, pd.name, pd.type, pd.dateCreated, pd.dateModified,
+        pd.galleryId, pd.attributionId);
+  }
+
+  @Override
+  public String getProjectName(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? "" : pd.name;
+  }
+
+  @Override
+  public long getProjectDateModified(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? UserProject.NOTPUBLISHED : pd.dateModified;
+  }
+
+  @Override
+  public String getProjectHistory(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? "" : pd.history;
+  }
+
+  @Override
+  public long getProjectDateCreated(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? UserProject.NOTPUBLISHED : pd.dateCreated;
+  }
+
+  @Override
+  public long getProjectGalleryId(String userId, long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? UserProject.NOTPUBLISHED : pd.galleryId;
+  }
+
+  @Override
+  public long getProjectAttributionId(long projectId) {
+    ProjectRecord pd = getProjectRecord(projectId);
+    return (pd == null) ? UserProject.FROMSCRATCH : pd.attributionId;
+  }
+
+  // Non-project-specific file management
+
+  @Override
+  public synchronized void addFilesToUser(String userId, String... fileNames) {
+    for (String fileName : fileNames) {
+      if (!store.contains(userFileKey(userId, fileName))) {
+        putBlob(userFileKey(userId, fileName), new byte[0],
+            collectUserErrorInfo(userId, fileName));
+      }
+    }
+  }
+
+  @Override
+  public List<String> getUserFiles(String userId) {
+    List<String> fileList = new ArrayList<String>();
+    String prefix = userFileKey(userId, "");
+    for (String key : store.keys(prefix)) {
+      fileList.add(key.substring(prefix.length()));
+    }
+    return fileList;
+  }
+
+  @Override
+  public void uploadUserFile(String userId, String fileName, String content, String encoding) {
+    try {
+      uploadRawUserFile(userId, fileName, content.getBytes(encoding));
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectUserErrorInfo(userId, fileName), e);
+    }
+  }
+
+  /*
+   * SPECIAL CASE: If fileName == StorageUtil.USER_BACKBACK_FILENAME and the
+   * content is "[]", we *delete* the file, as ObjectifyStorageIo does.
+   */
+  @Override
+  public synchronized void uploadRawUserFile(String userId, String fileName, byte[] content) {
+    byte [] empty = new byte[] { (byte)0x5b, (byte)0x5d }; // "[]" in bytes
+    if (fileName.equals(StorageUtil.USER_BACKPACK_FILENAME) && Arrays.equals(empty, content)) {
+      delete(userFileKey(userId, fileName), collectUserErrorInfo(userId, fileName));
+    } else {
+      putBlob(userFileKey(userId, fileName), content, collectUserErrorInfo(userId, fileName));
+    }
+  }
+
+  @Override
+  public String downloadUserFile(String userId, String fileName, String encoding) {
+    try {
+      return new String(downloadRawUserFile(userId, fileName), encoding);
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, " +
+          collectUserErrorInfo(userId, fileName), e);
+    }
+  }
+
+  @Override
+  public byte[] downloadRawUserFile(String userId, String fileName) {
+    byte[] content = store.getBlob(userFileKey(userId, fileName));
+    if (content == null) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId, fileName),
+          new FileNotFoundException(fileName));
+    }
+    return content;
+  }
+
+  @Override
+  public void deleteUserFile(String userId, String fileName) {
+    delete(userFileKey(userId, fileName), collectUserErrorInfo(userId, fileName));
+  }
+
+  // File management
+
+  @Override
+  public int getMaxJobSizeBytes() {
+    return 5 * 1024 * 1024;
+  }
+
+  @Override
+  public void addSourceFilesToProject(String userId, long projectId, boolean changeModDate,
+      String... fileNames) {
+    addFilesToProject(userId, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+  }
+
+  @Override
+  public void addOutputFilesToProject(String userId, long projectId, String... fileNames) {
+    addFilesToProject(userId, projectId, FileData.RoleEnum.TARGET, false, fileNames);
+  }
+
+  private synchronized void addFilesToProject(String userId, long projectId,
+      FileData.RoleEnum role, boolean changeModDate, String... fileNames) {
+    for (String fileName : fileNames) {
+      FileRecord fd = getFileRecord(projectId, fileName);
+      if (fd == null) {
+        createFile(userId, projectId, role, fileName, new byte[0]);
+      } else if (!fd.role.equals(role)) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(null, projectId, fileName),
+            new IllegalStateException("File role change is not supported"));
+      }
+    }
+    if (changeModDate) {
+      updateProjectModDate(projectId);
+    }
+  }
+
+  @Override
+  public void removeSourceFilesFromProject(String userId, long projectId,
+      boolean changeModDate, String... fileNames) {
+    removeFilesFromProject(projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+  }
+
+  @Override
+  public void removeOutputFilesFromProject(String userId, long projectId,
+      String... fileNames) {
+    removeFilesFromProject(projectId, FileData.RoleEnum.TARGET, false, fileNames);
+  }
+
+  private synchronized void removeFilesFromProject(long projectId, FileData.RoleEnum role,
+      boolean changeModDate, String... fileNames) {
+    for (String fileName : fileNames) {
+      FileRecord fd = getFileRecord(projectId, fileName);
+      if (fd != null) {
+        if (!fd.role.equals(role)) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(null, projectId, fileName),
+              new IllegalStateException("File role change is not supported"));
+        }
+        deleteFile(projectId, fileName);
+      }
+    }
+    if (changeModDate) {
+      updateProjectModDate(projectId);
+    }
+  }
+
+  @Override
+  public List<String> getProjectSourceFiles(String userId, long projectId) {
+    return getProjectFiles(projectId, FileData.RoleEnum.SOURCE);
+  }
+
+  @Override
+  public List<String> getProjectOutputFiles(String userId, long projectId) {
+    return getProjectFiles(projectId, FileData.RoleEnum.TARGET);
+  }
+
+  @Override
+  public <T extends Serializable> T getCachedProjectValue(String userId, long projectId,
+      String name, Supplier<T> supplier) {
+    // The file listings are read from memory, so the value is cheap enough to compute each time
+    return supplier.get();
+  }
+
+  private List<String> getProjectFiles(long projectId, FileData.RoleEnum role) {
+    List<String> fileList = new ArrayList<String>();
+    String prefix = projectFileKey(projectId, "");
+    for (String key : store.keys(prefix)) {
+      FileRecord fd = (FileRecord) store.get(key);
+      if (fd != null && fd.role.equals(role)) {
+        fileList.add(key.substring(prefix.length()));
+      }
+    }
+    return fileList;
+  }
+
+  @Override
+  public long uploadFile(long projectId, String fileName, String userId, String content,
+      String encoding) throws BlocksTruncatedException {
+    try {
+      return uploadRawFile(projectId, fileName, userId, false, content.getBytes(encoding));
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+          + collectProjectErrorInfo(null, projectId, fileName), e);
+    }
+  }
+
+  @Override
+  public long uploadFileForce(long projectId, String fileName, String userId, String content,
+      String encoding) {
+    try {
+      return uploadRawFileForce(projectId, fileName, userId, content.getBytes(encoding));
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+          + collectProjectErrorInfo(null, projectId, fileName), e);
+    }
+  }
+
+  @Override
+  public long uploadRawFileForce(long projectId, String fileName, String userId,
+      byte[] content) {
+    try {
+      return uploadRawFile(projectId, fileName, userId, true, content);
+    } catch (BlocksTruncatedException e) {
+      // Won't get here, exception isn't thrown when force is true
+      return 0;
+    }
+  }
+
+  @Override
+  public long uploadRawFile(long projectId, String fileName, String userId, boolean force,
+      byte[] content) throws BlocksTruncatedException {
+    Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    contents.put(fileName, content);
+    return uploadRawFiles(projectId, userId, force, contents);
+  }
+
+  @Override
+  public long uploadFiles(long projectId, String userId, boolean force,
+      Map<String, String> files, String encoding) throws BlocksTruncatedException {
+    Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      try {
+        contents.put(file.getKey(), file.getValue().getBytes(encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(userId, projectId, file.getKey()), e);
+      }
+    }
+    return uploadRawFiles(projectId, userId, force, contents);
+  }
+
+  /*
+   * Stores the given files of a project, after checking all of them, and returns the
+   * project's modification date.
+   */
+  private synchronized long uploadRawFiles(long projectId, String userId, boolean force,
+      Map<String, byte[]> contents) throws BlocksTruncatedException {
+    Map<String, FileRecord> fileRecords = new LinkedHashMap<String, FileRecord>();
+    for (Map.Entry<String, byte[]> file : contents.entrySet()) {
+      String fileName = file.getKey();
+      byte[] content = file.getValue();
+      FileRecord fd = getFileRecord(projectId, fileName);
+      // <Screen>.yail files are missing when user converts AI1 project to AI2
+      // instead of blowing up, just create a <Screen>.yail file
+      if (fd == null && (fileName.endsWith(".yail") || (fileName.endsWith(".png")))) {
+        fd = new FileRecord();
+        fd.role = FileData.RoleEnum.SOURCE;
+        fd.userId = userId;
+      }
+      Preconditions.checkState(fd != null);
+
+      if (!Strings.isNullOrEmpty(fd.userId) && !fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId),
+            new UnauthorizedAccessException(userId, projectId, null));
+      }
+      if ((content.length < 125) && (fileName.endsWith(".bky")) && !force) {
+        // Likely this is an empty blocks workspace, which would replace real blocks
+        byte[] oldContent = store.getBlob(fileContentKey(projectId, fileName));
+        if (oldContent != null && oldContent.length > 120) {
+          throw new BlocksTruncatedException();
+        }
+      }
+      // Old file not marked with ownership, mark it now
+      if (Strings.isNullOrEmpty(fd.userId)) {
+        fd.userId = userId;
+      }
+      fileRecords.put(fileName, fd);
+    }
+    for (Map.Entry<String, FileRecord> file : fileRecords.entrySet()) {
+      String fileName = file.getKey();
+      String errorInfo = collectProjectErrorInfo(userId, projectId, fileName);
+      putBlob(fileContentKey(projectId, fileName), contents.get(fileName), errorInfo);
+      put(projectFileKey(projectId, fileName), file.getValue(), errorInfo);
+    }
+    return updateProjectModDate(projectId);
+  }
+
+  private long updateProjectModDate(long projectId) {
+    long modDate = System.currentTimeMillis();
+    ProjectRecord pd = getProjectRecord(projectId);
+    if (pd == null) {
+      throw CrashReport.createAndLogError(LOG, null, null,
+          new IllegalArgumentException("project " + projectId + " doesn't exist"));
+    }
+    // Only update the dateModified if it is more then a minute in the future, as
+    // ObjectifyStorageIo does.
+    if (modDate > (pd.dateModified + 1000*60)) {
+      pd.dateModified = modDate;
+      put(projectKey(projectId), pd, collectUserProjectErrorInfo(null, projectId));
+    } else {
+      modDate = pd.dateModified;
+    }
+    return modDate;
+  }
+
+  @Override
+  public synchronized long deleteFile(String userId, long projectId, String fileName) {
+    FileRecord fd = getFileRecord(projectId, fileName);
+    if (fd != null) {
+      if (!Strings.isNullOrEmpty(fd.userId) && !fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId),
+            new UnauthorizedAccessException(userId, projectId, null));
+      }
+      deleteFile(projectId, fileName);
+    }
+    return updateProjectModDate(projectId);
+  }
+
+  private void deleteFile(long projectId, String fileName) {
+    String errorInfo = collectProjectErrorInfo(null, projectId, fileName);
+    delete(projectFileKey(projectId, fileName), errorInfo);
+    delete(fileContentKey(projectId, fileName), errorInfo);
+  }
+
+  @Override
+  public String downloadFile(String userId, long projectId, String fileName, String encoding) {
+    try {
+      return new String(downloadRawFile(userId, projectId, fileName), encoding);
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectProjectErrorInfo(userId, projectId, fileName), e);
+    }
+  }
+
+  @Override
+  public List<String> downloadFiles(String userId, long projectId, List<String> fileNames,
+      String encoding) {
+    List<String> contents = new ArrayList<String>(fileNames.size());
+    for (String fileName : fileNames) {
+      contents.add(downloadFile(userId, projectId, fileName, encoding));
+    }
+    return contents;
+  }
+
+  @Override
+  public void recordCorruption(String userId, long projectId, String fileId, String message) {
+    CorruptionRecord data = new CorruptionRecord();
+    data.timestamp = new Date();
+    data.userId = userId;
+    data.fileId = fileId;
+    data.projectId = projectId;
+    data.message = message;
+    try {
+      store.put(CORRUPTION + store.nextId(CORRUPTION_ID_COUNTER), data);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, null, e);
+    }
+  }
+
+  @Override
+  public byte[] downloadRawFile(String userId, long projectId, String fileName) {
+    FileRecord fd = getFileRecord(projectId, fileName);
+    byte[] content = store.getBlob(fileContentKey(projectId, fileName));
+    if (fd == null || content == null) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName),
+          new FileNotFoundException("No data for " + fileName));
+    }
+    if (!Strings.isNullOrEmpty(fd.userId) && !fd.userId.equals(userId)) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+    }
+    return content;
+  }
+
+  @Override
+  public String uploadTempFile(byte[] content) throws IOException {
+    String fileName = "__TEMP__/" + UUID.randomUUID().toString();
+    store.putBlob(TEMP_FILE + fileName, content);
+    return fileName;
+  }
+
+  @Override
+  public InputStream openTempFile(String fileName) throws IOException {
+    if (!fileName.startsWith("__TEMP__")) {
+      throw new RuntimeException("openTempFile (" + fileName + ") Invalid File Name");
+    }
+    byte[] content = store.getBlob(TEMP_FILE + fileName);
+    if (content == null) {
+      throw new FileNotFoundException(fileName);
+    }
+    return new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public void deleteTempFile(String fileName) throws IOException {
+    if (!fileName.startsWith("__TEMP__")) {
+      throw new RuntimeException("deleteTempFile (" + fileName + ") Invalid File Name");
+    }
+    store.delete(TEMP_FILE + fileName);
+  }
+
+  // MOTD management
+
+  @Override
+  public Motd getCurrentMotd() {
+    Motd motd = (Motd) store.get(MOTD);
+    return (motd == null) ? new Motd(MOTD_ID, "Oops, no message of the day!", null) : motd;
+  }
+
+  @Override
+  public ProjectSourceZip exportProjectSourceZip(String userId, long projectId,
+      boolean includeProjectHistory, boolean includeAndroidKeystore, @Nullable String zipName,
+      boolean includeYail, boolean includeScreenShots, boolean forGallery, boolean fatalError)
+      throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    int fileCount = streamProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError, zipFile);
+    String projectName = getProjectName(userId, projectId);
+    if (zipName == null) {
+      zipName = projectName + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(projectName);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int streamProjectSourceZip(String userId, long projectId,
+      boolean includeProjectHistory, boolean includeAndroidKeystore, boolean includeYail,
+      boolean includeScreenShots, boolean forGallery, boolean fatalError, OutputStream stream)
+      throws IOException {
+    // Select the files the way ObjectifyStorageIo.writeProjectSourceZip does
+    List<String> fileNames = new ArrayList<String>();
+    String prefix = projectFileKey(projectId, "");
+    for (String key : store.keys(prefix)) {
+      String fileName = key.substring(prefix.length());
+      FileRecord fd = (FileRecord) store.get(key);
+      if (fd == null) {
+        continue;
+      }
+      if (fileName.startsWith("assets/external_comps") && forGallery) {
+        throw new IOException("FATAL Error, external component in gallery app");
+      }
+      if (fd.role.equals(FileData.RoleEnum.SOURCE)
+          && !fileName.equals(FileExporter.REMIX_INFORMATION_FILE_PATH)
+          && !(fileName.startsWith("screenshots") && !includeScreenShots)
+          && !(fileName.endsWith(".yail") && !includeYail)) {
+        fileNames.add(fileName);
+      }
+    }
+    if (fileNames.isEmpty()) {
+      throw new IllegalArgumentException("No files to download");
+    }
+
+    ZipOutputStream out = new ZipOutputStream(stream);
+    out.setComment("Built with MIT App Inventor");
+    int fileCount = 0;
+    for (String fileName : fileNames) {
+      byte[] data = store.getBlob(fileContentKey(projectId, fileName));
+      if (data == null) {     // The file was deleted while we were writing the zip
+        data = new byte[0];
+      }
+      out.putNextEntry(new ZipEntry(fileName));
+      out.write(data, 0, data.length);
+      out.closeEntry();
+      fileCount++;
+    }
+    ProjectRecord pd = getProjectRecord(projectId);
+    if (includeProjectHistory && pd != null && !Strings.isNullOrEmpty(pd.history)) {
+      byte[] data = pd.history.getBytes(StorageUtil.DEFAULT_CHARSET);
+      out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
+      out.write(data, 0, data.length);
+      out.closeEntry();
+      fileCount++;
+    }
+    if (includeAndroidKeystore) {
+      byte[] keystore = store.getBlob(userFileKey(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME));
+      if (keystore != null && keystore.length > 0) {
+        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+        out.write(keystore, 0, keystore.length);
+        out.closeEntry();
+        fileCount++;
+      }
+    }
+    out.close();
+    return fileCount;
+  }
+
+  @Override
+  public String findUserByEmail(String email) throws NoSuchElementException {
+    UserRecord userData = getUserRecordByEmail(email);
+    if (userData == null) {
+      throw new NoSuchElementException("Couldn't find a user with email " + email);
+    }
+    return userData.id;
+  }
+
+  @Override
+  public String findIpAddressByKey(String key) {
+    return (String) store.get(RENDEZVOUS + key);
+  }
+
+  @Override
+  public void storeIpAddressByKey(String key, String ipAddress) {
+    put(RENDEZVOUS + key, ipAddress, null);
+  }
+
+  @Override
+  public boolean checkWhiteList(String email) {
+    return store.contains(WHITE_LIST + email.toLowerCase());
+  }
+
+  @Override
+  public void storeFeedback(String notes, String foundIn, String faultData, String comments,
+      String datestamp, String email, String projectId) {
+    FeedbackRecord data = new FeedbackRecord();
+    data.notes = notes;
+    data.foundIn = foundIn;
+    data.faultData = faultData;
+    data.comments = comments;
+    data.datestamp = datestamp;
+    data.email = email;
+    data.projectId = projectId;
+    try {
+      store.put(FEEDBACK + store.nextId(FEEDBACK_ID_COUNTER), data);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, null, e);
+    }
+  }
+
+  // Nonce Management Routines.
+  // The Nonce is used to map to userId and ProjectId and is used
+  // for non-authenticated access to a built APK file.
+
+  @Override
+  public Nonce getNoncebyValue(String nonceValue) {
+    NonceRecord data = (NonceRecord) store.get(NONCE + nonceValue);
+    if (data == null) {
+      return null;
+    }
+    return new Nonce(nonceValue, data.userId, data.projectId, data.timestamp);
+  }
+
+  @Override
+  public void storeNonce(String nonceValue, String userId, long projectId) {
+    NonceRecord data = new NonceRecord();
+    data.userId = userId;
+    data.projectId = projectId;
+    data.timestamp = new Date();
+    put(NONCE + nonceValue, data, null);
+  }
+
+  // Cleanup expired nonces which are older then 3 hours, as ObjectifyStorageIo does.
+  @Override
+  public void cleanupNonces() {
+    Date expired = new Date(System.currentTimeMillis() - 3600*3*1000L);
+    for (String key : store.keys(NONCE)) {
+      NonceRecord data = (NonceRecord) store.get(key);
+      if (data != null && data.timestamp.before(expired)) {
+        delete(key, null);
+      }
+    }
+  }
+
+  // There is nothing to upgrade: files are always stored the same way.
+  @Override
+  public void checkUpgrade(String userId) {
+  }
+
+  @Override
+  public void doUpgrade(String userId) {
+  }
+
+  @Override
+  public SplashConfig getSplashConfig() {
+    SplashConfig splash = (SplashConfig) store.get(SPLASH);
+    if (splash == null) {
+      splash = new SplashConfig(0, 350, 100, "<b>Welcome to MIT App Inventor</b>");
+      put(SPLASH, splash, null);
+    }
+    return splash;
+  }
+
+  @Override
+  public PWData createPWData(String email) {
+    PWData pwData = new PWData();
+    pwData.id = UUID.randomUUID().toString();
+    pwData.email = email;
+    pwData.timestamp = new Date();
+    PWRecord data = new PWRecord();
+    data.email = pwData.email;
+    data.timestamp = pwData.timestamp;
+    put(PW_DATA + pwData.id, data, null);
+    return pwData;
+  }
+
+  @Override
+  public PWData findPWData(String uid) {
+    PWRecord data = (PWRecord) store.get(PW_DATA + uid);
+    if (data == null) {
+      return null;
+    }
+    PWData pwData = new PWData();
+    pwData.id = uid;
+    pwData.email = data.email;
+    pwData.timestamp = data.timestamp;
+    return pwData;
+  }
+
+  // Remove the PWData older than 24 hours
+  @Override
+  public void cleanuppwdata() {
+    Date expired = new Date(System.currentTimeMillis() - 3600*24*1000L);
+    for (String key : store.keys(PW_DATA)) {
+      PWRecord data = (PWRecord) store.get(key);
+      if (data != null && data.timestamp.before(expired)) {
+        delete(key, null);
+      }
+    }
+  }
+
+  // The routines below are part of the user admin interface. Called from AdminInfoServiceImpl
+
+  @Override
+  public List<AdminUser> searchUsers(String partialEmail) {
+    List<AdminUser> retval = new ArrayList<AdminUser>();
+    for (String key : store.keys(USER_EMAIL, USER_EMAIL + partialEmail.toLowerCase(), 21)) {
+      UserRecord user = getUserRecord((String) store.get(key));
+      if (user != null) {
+        boolean isModerator = (user.type == User.MODERATOR);
+        retval.add(new AdminUser(user.id, user.name, user.email, user.tosAccepted,
+            user.isAdmin, isModerator, user.visited));
+      }
+    }
+    return retval;
+  }
+
+  @Override
+  public synchronized void storeUser(AdminUser user) throws AdminInterfaceException {
+    UserRecord userData = null;
+    if (user.getId() != null) {
+      userData = getUserRecord(user.getId());
+    }
+    if (userData == null) {     // New User
+      if (getUserRecordByEmail(user.getEmail()) != null) {
+        throw new AdminInterfaceException("User Already exists = " + user.getEmail());
+      }
+      userData = new UserRecord();
+      userData.id = UUID.randomUUID().toString();
+      userData.tosAccepted = false;
+      userData.settings = "";
+      userData.link = "";
+      userData.name = User.getDefaultName(user.getEmail());
+      userData.emailFrequency = User.DEFAULT_EMAIL_NOTIFICATION_FREQUENCY;
+    }
+    setEmail(userData, user.getEmail());
+    String password = user.getPassword();
+    if (password != null && !password.equals("")) {
+      userData.password = password;
+    }
+    userData.isAdmin = user.getIsAdmin();
+    userData.type = user.getIsModerator() ? User.MODERATOR : User.USER;
+    putUser(userData);
+  }
+
+  private UserRecord getUserRecord(String userId) {
+    return (UserRecord) store.get(USER + userId);
+  }
+
+  private UserRecord getUserRecordByEmail(String email) {
+    String userId = (String) store.get(USER_EMAIL + email.toLowerCase());
+    return (userId == null) ? null : getUserRecord(userId);
+  }
+
+  /*
+   * Sets the email of a user, whose record the caller puts, and moves its entry in the
+   * email index.
+   */
+  private void setEmail(UserRecord userData, String email) {
+    if (userData.emailLower != null && !userData.emailLower.equals(email.toLowerCase())
+        && userData.id.equals(store.get(USER_EMAIL + userData.emailLower))) {
+      delete(USER_EMAIL + userData.emailLower, collectUserErrorInfo(userData.id));
+    }
+    userData.email = email;
+    userData.emailLower = email.toLowerCase();
+  }
+
+  private void putUser(UserRecord userData) {
+    String errorInfo = collectUserErrorInfo(userData.id);
+    if (!userData.emailLower.isEmpty()) {
+      put(USER_EMAIL + userData.emailLower, userData.id, errorInfo);
+    }
+    put(USER + userData.id, userData, errorInfo);
+  }
+
+  private ProjectRecord getProjectRecord(long projectId) {
+    return (ProjectRecord) store.get(projectKey(projectId));
+  }
+
+  private FileRecord getFileRecord(long projectId, String fileName) {
+    return (FileRecord) store.get(projectFileKey(projectId, fileName));
+  }
+
+  private void put(String key, Serializable record, String errorInfo) {
+    try {
+      store.put(key, record);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, errorInfo, e);
+    }
+  }
+
+  private void putBlob(String key, byte[] content, String errorInfo) {
+    try {
+      store.putBlob(key, content);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, errorInfo, e);
+    }
+  }
+
+  private void delete(String key, String errorInfo) {
+    try {
+      store.delete(key);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null, errorInfo, e);
+    }
+  }
+
+  private static String projectKey(long projectId) {
+    return PROJECT + projectId;
+  }
+
+  private static String userProjectKey(String userId, long projectId) {
+    return USER_PROJECT + userId + "/" + projectId;
+  }
+
+  private static String userFileKey(String userId, String fileName) {
+    return USER_FILE + userId + "/" + fileName;
+  }
+
+  private static String projectFileKey(long projectId, String fileName) {
+    return PROJECT_FILE + projectId + "/" + fileName;
+  }
+
+  private static String fileContentKey(long projectId, String fileName) {
+    return FILE_CONTENT + projectId + "/" + fileName;
+  }
+
+  private static String collectUserErrorInfo(final String userId) {
+    return collectUserErrorInfo(userId, CrashReport.NOT_AVAILABLE);
+  }
+
+  private static String collectUserErrorInfo(final String userId, String fileName) {
+    return "user=" + userId + ", file=" + fileName;
+  }
+
+  private static String collectProjectErrorInfo(final String userId, final long projectId,
+      final String fileName) {
+    return "user=" + userId + ", project=" + projectId + ", file=" + fileName;
+  }
+
+  private static String collectUserProjectErrorInfo(final String userId, final long projectId) {
+    return "user=" + userId + ", project=" + projectId;
+  }
+}
@@ -0,0 +1,456 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A key-value store kept in a local directory, used by {@link LocalStorageIo}.
+ *
+ * <p>Values are either small serializable records or blobs of file content.
+ * Blobs are appended to memory-mapped segment files and are never modified in
+ * place. The index, which maps each key to its record or to the location of
+ * its blob, is kept in memory, and every change to it is appended to a
+ * journal, which is replayed when the store is opened.
+ *
+ * <p>When the store is opened, the journal is rewritten to hold just the live
+ * entries, and the blobs are copied to new segments if most of the space of
+ * the old ones is taken by blobs that were replaced or deleted.
+ *
+ * <p>Blobs are written to the mapped segments without forcing them to disk,
+ * so a crash of the machine, but not of the server, may lose the most recent
+ * changes.
+ *
+ */
+final class LocalStore implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(LocalStore.class.getName());
+
+  private static final String JOURNAL_FILE = "index.journal";
+  private static final Pattern SEGMENT_FILE = Pattern.compile("blobs-(\\d+)\\.dat");
+
+  // The size of the segment files, except for segments holding a single larger blob
+  private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  // Journal operations
+  private static final byte PUT_RECORD = 1;
+  private static final byte PUT_BLOB = 2;
+  private static final byte DELETE = 3;
+
+  /*
+   * An entry of the index: either a serialized record or the location of a blob.
+   */
+  private static final class Entry {
+    final byte[] record;
+    final int segment;
+    final int offset;
+    final int length;
+
+    Entry(byte[] record) {
+      this.record = record;
+      this.segment = -1;
+      this.offset = 0;
+      this.length = record.length;
+    }
+
+    Entry(int segment, int offset, int length) {
+      this.record = null;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    boolean isBlob() {
+      return record == null;
+    }
+  }
+
+  private final File directory;
+  private final int segmentSize;
+  // The blobs are compacted when at least this many bytes of the segments are garbage
+  private final long minCompactionGarbage;
+  private final TreeMap<String, Entry> index = new TreeMap<String, Entry>();
+  private final Map<Integer, MappedByteBuffer> segments = new HashMap<Integer, MappedByteBuffer>();
+  private int lastSegment = -1;  // the segment blobs are appended to, -1 if there is none
+  private int writePosition;     // in the last segment
+  private DataOutputStream journal;
+
+  /**
+   * Opens the store in the given directory, creating it if needed.
+   */
+  LocalStore(File directory) throws IOException {
+    this(directory, SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens the store in the given directory, with segments of the given size.
+   */
+  @VisibleForTesting
+  LocalStore(File directory, int segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.minCompactionGarbage = segmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    for (String fileName : directory.list()) {
+      Matcher matcher = SEGMENT_FILE.matcher(fileName);
+      if (matcher.matches()) {
+        int segment = Integer.parseInt(matcher.group(1));
+        segments.put(segment, mapSegment(segmentFile(segment), 0));
+        lastSegment = Math.max(lastSegment, segment);
+      }
+    }
+    replayJournal();
+    compact();
+    journal = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(new File(directory, JOURNAL_FILE), true)));
+    LOG.info("Opened local store " + directory + " with " + index.size() + " entries in " +
+        segments.size() + " segments");
+  }
+
+  /**
+   * Returns the record with the given key, or null if there is none. The record
+   * is a copy, which changes don't affect until it is put back.
+   */
+  Serializable get(String key) {
+    Entry entry;
+    synchronized (this) {
+      entry = index.get(key);
+    }
+    if (entry == null || entry.isBlob()) {
+      return null;
+    }
+    return deserialize(entry.record);
+  }
+
+  /**
+   * Returns the blob with the given key, or null if there is none.
+   */
+  byte[] getBlob(String key) {
+    Entry entry;
+    MappedByteBuffer segment;
+    synchronized (this) {
+      entry = index.get(key);
+      if (entry == null || !entry.isBlob()) {
+        return null;
+      }
+      segment = segments.get(entry.segment);
+    }
+    // Blobs are never overwritten while they are in the index, so they can be read unlocked.
+    return readBlob(segment, entry);
+  }
+
+  /**
+   * Returns whether there is a record or blob with the given key.
+   */
+  synchronized boolean contains(String key) {
+    return index.containsKey(key);
+  }
+
+  /**
+   * Returns the keys that start with the given prefix, in order.
+   */
+  synchronized List<String> keys(String prefix) {
+    return keys(prefix, prefix, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns at most limit keys that start with the given prefix and are not
+   * less than the given start key, in order.
+   */
+  synchronized List<String> keys(String prefix, String start, int limit) {
+    List<String> keys = new ArrayList<String>();
+    for (String key : index.tailMap(start, true).keySet()) {
+      if (!key.startsWith(prefix) || keys.size() >= limit) {
+        break;
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  /**
+   * Stores the given record under the given key, replacing any record or blob.
+   */
+  synchronized void put(String key, Serializable record) throws IOException {
+    Entry entry = new Entry(serialize(record));
+    writeEntry(journal, key, entry);
+    journal.flush();
+    index.put(key, entry);
+  }
+
+  /**
+   * Stores the given blob under the given key, replacing any record or blob.
+   */
+  synchronized void putBlob(String key, byte[] content) throws IOException {
+    Entry entry = appendBlob(content);
+    writeEntry(journal, key, entry);
+    journal.flush();
+    index.put(key, entry);
+  }
+
+  /**
+   * Removes the record or blob with the given key, if any.
+   */
+  synchronized void delete(String key) throws IOException {
+    if (index.remove(key) != null) {
+      journal.writeByte(DELETE);
+      journal.writeUTF(key);
+      journal.flush();
+    }
+  }
+
+  /**
+   * Returns the next value of the named counter, starting at 1.
+   */
+  synchronized long nextId(String counter) throws IOException {
+    Long last = (Long) get(counter);
+    long next = (last == null) ? 1 : last + 1;
+    put(counter, next);
+    return next;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    journal.close();
+    for (MappedByteBuffer segment : segments.values()) {
+      segment.force();
+    }
+  }
+
+  private Entry appendBlob(byte[] content) throws IOException {
+    MappedByteBuffer segment = segments.get(lastSegment);
+    if (segment == null || writePosition + content.length > segment.capacity()) {
+      segment = startSegment(content.length);
+    }
+    ByteBuffer view = segment.duplicate();
+    view.position(writePosition);
+    view.put(content);
+    Entry entry = new Entry(lastSegment, writePosition, content.length);
+    writePosition += content.length;
+    return entry;
+  }
+
+  /*
+   * Starts a new segment, large enough for the given blob, to append blobs to.
+   */
+  private MappedByteBuffer startSegment(int blobLength) throws IOException {
+    lastSegment++;
+    MappedByteBuffer segment = mapSegment(segmentFile(lastSegment),
+        Math.max(segmentSize, blobLength));
+    segments.put(lastSegment, segment);
+    writePosition = 0;
+    return segment;
+  }
+
+  /*
+   * Loads the index from the journal, up to the first incomplete operation, which is
+   * left by a crash while it was being written.
+   */
+  private void replayJournal() throws IOException {
+    File file = new File(directory, JOURNAL_FILE);
+    if (!file.exists()) {
+      return;
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      while (true) {
+        byte operation = in.readByte();
+        String key = in.readUTF();
+        if (operation == PUT_RECORD) {
+          byte[] record = new byte[in.readInt()];
+          in.readFully(record);
+          index.put(key, new Entry(record));
+        } else if (operation == PUT_BLOB) {
+          Entry entry = new Entry(in.readInt(), in.readInt(), in.readInt());
+          if (!segments.containsKey(entry.segment)) {
+            throw new IOException("Missing segment " + entry.segment + " for " + key);
+          }
+          index.put(key, entry);
+        } else if (operation == DELETE) {
+          index.remove(key);
+        } else {
+          throw new IOException("Corrupt journal in " + directory);
+        }
+      }
+    } catch (EOFException e) {
+      // The end of the journal
+    } finally {
+      in.close();
+    }
+  }
+
+  /*
+   * Rewrites the journal to hold just the live entries, after copying the live blobs
+   * to new segments if most of the old ones is garbage, and deletes the segments that
+   * hold no live blobs.
+   */
+  private void compact() throws IOException {
+    long liveBytes = 0;
+    Set<Integer> liveSegments = new HashSet<Integer>();
+    int lastSegmentEnd = 0;
+    for (Entry entry : index.values()) {
+      if (entry.isBlob()) {
+        liveBytes += entry.length;
+        liveSegments.add(entry.segment);
+        if (entry.segment == lastSegment) {
+          lastSegmentEnd = Math.max(lastSegmentEnd, entry.offset + entry.length);
+        }
+      }
+    }
+    // Whatever follows the last live blob was never referenced, or no longer is.
+    writePosition = lastSegmentEnd;
+    long usedBytes = lastSegmentEnd;
+    for (int segment : liveSegments) {
+      if (segment != lastSegment) {
+        usedBytes += segments.get(segment).capacity();
+      }
+    }
+
+    Set<Integer> oldSegments = new HashSet<Integer>(segments.keySet());
+    boolean compactBlobs = usedBytes - liveBytes >= Math.max(minCompactionGarbage, liveBytes);
+    if (compactBlobs) {
+      LOG.info("Compacting " + usedBytes + " bytes of blobs to " + liveBytes + " in " + directory);
+      startSegment(0);
+      for (Map.Entry<String, Entry> mapping : index.entrySet()) {
+        Entry entry = mapping.getValue();
+        if (entry.isBlob()) {
+          mapping.setValue(appendBlob(readBlob(segments.get(entry.segment), entry)));
+        }
+      }
+      // The copies must be on disk before the journal that refers to them
+      for (int segment : segments.keySet()) {
+        if (!oldSegments.contains(segment)) {
+          segments.get(segment).force();
+        }
+      }
+      liveSegments.clear();
+      liveSegments.addAll(segments.keySet());
+      liveSegments.removeAll(oldSegments);
+    }
+
+    File journalFile = new File(directory, JOURNAL_FILE);
+    File newJournalFile = new File(directory, JOURNAL_FILE + ".new");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(newJournalFile)));
+    try {
+      for (Map.Entry<String, Entry> mapping : index.entrySet()) {
+        writeEntry(out, mapping.getKey(), mapping.getValue());
+      }
+    } finally {
+      out.close();
+    }
+    if (!newJournalFile.renameTo(journalFile)) {
+      throw new IOException("Unable to replace " + journalFile);
+    }
+
+    // Keep the last segment even if it has no live blobs, since blobs are appended to it
+    for (int segment : oldSegments) {
+      if (!liveSegments.contains(segment) && segment != lastSegment) {
+        segments.remove(segment);
+        if (!segmentFile(segment).delete()) {
+          LOG.warning("Unable to delete " + segmentFile(segment));
+        }
+      }
+    }
+  }
+
+  private static void writeEntry(DataOutputStream out, String key, Entry entry)
+      throws IOException {
+    if (entry.isBlob()) {
+      out.writeByte(PUT_BLOB);
+      out.writeUTF(key);
+      out.writeInt(entry.segment);
+      out.writeInt(entry.offset);
+      out.writeInt(entry.length);
+    } else {
+      out.writeByte(PUT_RECORD);
+      out.writeUTF(key);
+      out.writeInt(entry.length);
+      out.write(entry.record);
+    }
+  }
+
+  private static byte[] readBlob(MappedByteBuffer segment, Entry entry) {
+    byte[] content = new byte[entry.length];
+    ByteBuffer view = segment.duplicate();
+    view.position(entry.offset);
+    view.get(content);
+    return content;
+  }
+
+  private File segmentFile(int segment) {
+    return new File(directory, "blobs-" + segment + ".dat");
+  }
+
+  /*
+   * Maps the given segment file, extending it to the given size if it is smaller.
+   */
+  private static MappedByteBuffer mapSegment(File file, long size) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      // The mapping stays valid after the file is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+          Math.max(size, raf.length()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static byte[] serialize(Serializable record) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(record);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Serializable deserialize(byte[] record) {
+    try {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record));
+      try {
+        return (Serializable) in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Corrupt record", e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Corrupt record", e);
+    }
+  }
+}
@@ -9,10 +9,19 @@ package com.google.appinventor.server.storage;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -32,6 +41,7 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -53,6 +63,22 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private static final int MAX_JOB_RETRIES = 10;
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // The number of shards of the download and like counters of each app. Each shard can be
+  // updated about once a second.
+  private static final int NUM_COUNTER_SHARDS = 20;
+
+  private final Random random = new Random();
+
+  // The total number of apps in a listing is cached for this long, unless the apps change.
+  private static final int COUNT_EXPIRATION_SECONDS = 10 * 60;
+  // The first page of a listing is cached for this long, unless the apps change. Its likes and
+  // downloads may be that much out of date.
+  private static final int FIRST_PAGE_EXPIRATION_SECONDS = 60;
+  private static final String LISTING_CACHE_PREFIX = "galleryapps:";
+  private static final String LISTING_GENERATION_KEY = LISTING_CACHE_PREFIX + "generation";
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
@@ -82,6 +108,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     ObjectifyService.register(GalleryAppData.class);
     ObjectifyService.register(GalleryCommentData.class);
     ObjectifyService.register(GalleryAppLikeData.class);
+    ObjectifyService.register(GalleryAppUserLikeData.class);
+    ObjectifyService.register(GalleryAppCounterShardData.class);
     ObjectifyService.register(GalleryAppFeatureData.class);
     ObjectifyService.register(GalleryAppTutorialData.class);
     ObjectifyService.register(GalleryAppAttributionData.class);
@@ -129,6 +157,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           appData.projectId = projectId;
           appData.userId = userId;
           appData.active = true;
+          appData.likesKeyed = true;  // there are no likes to convert
           appData.lastEmailNotificationTimeStamp = Email.NO_LAST_EMAIL_NOTIFICATION_ACTIVITY;
           datastore.put(appData); // put the appData in the db so that it gets assigned an id
 
@@ -150,6 +179,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "gallery error", e);
     }
+    galleryAppsChanged();
     GalleryApp gApp = new GalleryApp();
     makeGalleryApp(galleryAppData.t, gApp);
     return gApp;
@@ -168,82 +198,141 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getRecentGalleryApps(int start, final int count,
+      String cursor) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return getGalleryApps(
+        datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true),
+        start, count, cursor, "recent",
+        datastore.query(GalleryAppData.class).filter("active", true), "active");
   }
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    // If I try to run this in runjobwithretries, it tells me can't run
-    // non-ancestor query as a transaction. ObjectifyStorageio has some samples
-    // of not using transactions (run with) so I grabbed.
-
+  public GalleryAppListResult getMostDownloadedApps(int start, final int count,
+      String cursor) {
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return getGalleryApps(
+        datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true),
+        start, count, cursor, "downloaded",
+        datastore.query(GalleryAppData.class).filter("active", true), "active");
   }
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    // If I try to run this in runjobwithretries, it tells me can't run
-    // non-ancestor query as a transaction. ObjectifyStorageio has some samples
-    // of not using transactions (run with) so I grabbed
-
+  public GalleryAppListResult getMostLikedApps(int start, final int count, String cursor) {
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
-           .filter("active", true)
-           .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
+    return getGalleryApps(
+        datastore.query(GalleryAppData.class)
+            .filter("active", true)
+            .order("-numLikes")
+            .order("-numDownloads"),
+        start, count, cursor, "liked",
+        datastore.query(GalleryAppData.class).filter("active", true), "active");
+  }
+
+  /*
+   * Returns a page of the gallery apps found by the given query, starting at the given cursor,
+   * or at start if there is no cursor, with the cursor of the next page.
+   *
+   * The total number of results is counted with countQuery, which is expensive, so the total is
+   * cached in memcache under countKey. The first page of each listing is by far the most
+   * requested, so it is cached as a whole, under listingKey, for a short time. Both are
+   * invalidated when the gallery apps change (see galleryAppsChanged).
+   */
+  private GalleryAppListResult getGalleryApps(Query<GalleryAppData> query, int start, int count,
+      String cursor, String listingKey, Query<GalleryAppData> countQuery, String countKey) {
+    long generation = getListingGeneration();
+    boolean firstPage = cursor == null && start == 0;
+    String firstPageKey = LISTING_CACHE_PREFIX + generation + ":" + listingKey + ":" + count;
+    if (firstPage) {
+      Object cached = memcache.get(firstPageKey);
+      if (cached instanceof GalleryAppListResult) {
+        return (GalleryAppListResult) cached;
+      }
+    }
+
+    if (cursor != null) {
+      try {
+        query.startCursor(Cursor.fromWebSafeString(cursor));
+      } catch (IllegalArgumentException e) {
+        // Not a cursor we returned.
+        query.offset(start);
+      }
+    } else {
+      query.offset(start);
+    }
+    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    QueryResultIterator<GalleryAppData> iterator = query.limit(count).iterator();
+    while (iterator.hasNext()) {
       GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
+      makeGalleryApp(iterator.next(), gApp);
       apps.add(gApp);
     }
+    String nextCursor = null;
+    if (apps.size() == count) {
+      Cursor next = iterator.getCursor();
+      if (next != null) {
+        nextCursor = next.toWebSafeString();
+      }
+    }
 
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    String totalCountKey = LISTING_CACHE_PREFIX + generation + ":count:" + countKey;
+    Integer totalCount = (Integer) memcache.get(totalCountKey);
+    if (totalCount == null) {
+      totalCount = countQuery.count();
+      memcache.put(totalCountKey, totalCount,
+          Expiration.byDeltaSeconds(COUNT_EXPIRATION_SECONDS));
+    }
+
+    GalleryAppListResult result = new GalleryAppListResult(apps, totalCount);
+    result.setCursor(nextCursor);
+    if (firstPage) {
+      memcache.put(firstPageKey, result, Expiration.byDeltaSeconds(FIRST_PAGE_EXPIRATION_SECONDS));
+    }
+    return result;
+  }
 
+  /*
+   * Returns the generation of the cached gallery listings. Cached listings and counts of
+   * earlier generations are no longer used.
+   */
+  private long getListingGeneration() {
+    // If the generation was evicted, it starts again from the current time, which is later than
+    // any earlier generation, so that listings cached before the eviction aren't used again.
+    Long generation = memcache.increment(LISTING_GENERATION_KEY, 0, System.currentTimeMillis());
+    return generation == null ? 0 : generation;
+  }
+
+  /*
+   * Invalidates the cached gallery listings and counts, after apps were added, removed or
+   * modified.
+   */
+  private void galleryAppsChanged() {
+    memcache.increment(LISTING_GENERATION_KEY, 1, System.currentTimeMillis());
   }
 
   /**
@@ -376,24 +465,23 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param start starting index of apps you want, used if cursor is null
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null
    * @return list of {@link GalleryApp}
    */  @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count,
+      String cursor) {
     // if i try to run this in runjobwithretries it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so i grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return getGalleryApps(
+        datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true),
+        start, count, cursor, "developer:" + userId,
+        datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true),
+        "developer:" + userId);
   }
 
  /**
@@ -402,19 +490,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void incrementDownloads(final long galleryId) {
-
+    // The download is added to the app by aggregateCounters.
     try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
-          }
-        }
-      });
+      incrementCounters(galleryId, 1, 0);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
@@ -451,6 +529,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
+    galleryAppsChanged();
   }
 
   /**
@@ -467,6 +546,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
         public void run(Objectify datastore) {
           GalleryAppData app = datastore.get(new Key<GalleryAppData>(GalleryAppData.class,galleryId));
           makeGalleryApp(app,gApp);
+          // Unlike the listings, the app's own page counts the likes that haven't been
+          // aggregated yet
+          gApp.setLikes(countLikes(app));
         }
       });
     }catch (NotFoundException e){
@@ -527,6 +609,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
        } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null,"gallery remove error", e);
       }
+    galleryAppsChanged();
   }
 
 
@@ -604,43 +687,35 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    if (!convertLikes(galleryId)) {
+      return 0;
+    }
+    final Result<Boolean> liked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-
-            // Make sure it isn't already liked (people have subverted the client
-            // based checks!)
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                return;         // We're done, already liked.
-              }
-            }
-
-            // Forge the like data entry
-            GalleryAppLikeData likeData = new GalleryAppLikeData();
-            likeData.galleryKey = galleryKey;
+          // Make sure it isn't already liked (people have subverted the client
+          // based checks!)
+          String likeId = likeId(galleryId, userId);
+          liked.t = false;
+          if (datastore.find(GalleryAppUserLikeData.class, likeId) == null) {
+            GalleryAppUserLikeData likeData = new GalleryAppUserLikeData();
+            likeData.id = likeId;
+            likeData.galleryId = galleryId;
             likeData.userId = userId;
             datastore.put(likeData);
-
-            // Retrieve the current number of likes
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            liked.t = true;
           }
         }
       });
+      if (liked.t) {
+        incrementCounters(galleryId, 0, 1);
+      }
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
-    return numLikes.t;
+    return countLikes(galleryId);
   }
 
   /**
@@ -652,67 +727,43 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
-    final Result<Integer> numLikes = new Result<Integer>();
+    if (!convertLikes(galleryId)) {
+      return 0;
+    }
+    final Result<Boolean> unliked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-            for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-              if(likeData.userId.equals(userId)){
-                datastore.delete(likeData);
-                // break;
-                // We don't break because there might be more then one likeData object for this
-                // person
-              }
-            }
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
-            }
+          GalleryAppUserLikeData likeData =
+              datastore.find(GalleryAppUserLikeData.class, likeId(galleryId, userId));
+          unliked.t = false;
+          if (likeData != null) {
+            datastore.delete(likeData);
+            unliked.t = true;
           }
         }
       });
+      if (unliked.t) {
+        incrementCounters(galleryId, 0, -1);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
     }
-    return numLikes.t;
+    return countLikes(galleryId);
   }
 
   /**
-   * get num likes of a gallery app
+   * get num likes of a gallery app, including the likes counted by the
+   * counter shards that haven't been aggregated yet
    *
    * @param galleryId
    *          id of gallery app
    * @return the num of like
    */
   public int getNumLikes(final long galleryId) {
-    final Result<Integer> num = new Result<Integer>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          //num.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-          GalleryAppData galleryAppData = datastore.find(galleryKey);
-          num.t = galleryAppData.numLikes;
-        }
-      });
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          "error in galleryStorageIo.getNumLike", e);
-    }
-    return num.t;
+    return countLikes(galleryId);
   }
 
   /**
@@ -724,71 +775,240 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public boolean isLikedByUser(final long galleryId, final String userId) {
-    final Result<Boolean> bool = new Result<Boolean>();
+    if (!convertLikes(galleryId)) {
+      return false;
+    }
+    Objectify datastore = ObjectifyService.begin();
+    return datastore.find(GalleryAppUserLikeData.class, likeId(galleryId, userId)) != null;
+  }
+
+  /**
+   * salvage the gallery app by given galleryId
+   */
+  @Override
+  public void salvageGalleryApp(final long galleryId) {
+    // Likes stored as GalleryAppUserLikeData can't be duplicated, so we only need to make sure
+    // that the count matches them.
+    if (!convertLikes(galleryId)) {
+      return;
+    }
+    Objectify datastore = ObjectifyService.begin();
+    final int num = datastore.query(GalleryAppUserLikeData.class)
+        .filter("galleryId", galleryId).count();
+    final int shardLikes = sumCounterShards(galleryId)[1];
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          boolean find = false;
-          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-            if(likeData.userId.equals(userId)){
-              find = true;
-              bool.t = true;
-              break;
-            }
-          }
-          if(!find){
-            bool.t = false;
-          }
+          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          galleryAppData.numLikes = num;
+          galleryAppData.aggregatedLikes = shardLikes;
+          datastore.put(galleryAppData);
+          LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
-          "error in galleryStorageIo.isLikedByUser", e);
+          "error in galleryStorageIo.salvageGalleryApp", e);
     }
-    return bool.t;
   }
 
   /**
-   * salvage the gallery app by given galleryId
+   * Adds the downloads and likes counted by the counter shards since the last
+   * aggregation to the apps they were counted for.
    */
   @Override
-  public void salvageGalleryApp(final long galleryId) {
+  public void aggregateCounters() {
+    Objectify datastore = ObjectifyService.begin();
+    Set<Long> galleryIds = new TreeSet<Long>();
+    for (GalleryAppCounterShardData shard : datastore.query(GalleryAppCounterShardData.class)
+             .filter("dirty", true)) {
+      galleryIds.add(shard.galleryId);
+    }
+    for (long galleryId : galleryIds) {
+      try {
+        aggregateCounters(galleryId);
+      } catch (RuntimeException e) {
+        // Try the other apps, this one will be tried again next time.
+        LOG.log(Level.WARNING, "Unable to aggregate the counters of gallery app " + galleryId, e);
+      }
+    }
+    LOG.info("Aggregated the counters of " + galleryIds.size() + " gallery apps");
+  }
+
+  private void aggregateCounters(final long galleryId) {
+    final Map<String, GalleryAppCounterShardData> shards = getCounterShards(galleryId);
+    int downloads = 0;
+    int likes = 0;
+    for (GalleryAppCounterShardData shard : shards.values()) {
+      downloads += shard.numDownloads;
+      likes += shard.numLikes;
+    }
+    final int totalDownloads = downloads;
+    final int totalLikes = likes;
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          int num = 0;
-          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          // We need to extract a unique set of userId's for the Likes of this app
-          // Because of past bugs and abuse, a user can Like an app more then once
-          // So we fix that here...
-          TreeMap<String,Boolean> likeTree = new TreeMap();
-          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-            likeTree.put(likeData.userId, true);
-          }
-          for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
-            datastore.delete(likeData);
+          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          if (galleryAppData == null) {
+            return;
           }
-          for (String treeUserId : likeTree.keySet()) {
-            GalleryAppLikeData likeData = new GalleryAppLikeData();
-            likeData.userId = treeUserId;
-            likeData.galleryKey = galleryKey;
-            datastore.put(likeData);
+          // The shard totals never decrease for downloads, but may for likes, when users withdraw
+          // their likes.
+          int newDownloads = totalDownloads - galleryAppData.aggregatedDownloads;
+          int newLikes = totalLikes - galleryAppData.aggregatedLikes;
+          galleryAppData.numDownloads += newDownloads;
+          galleryAppData.unreadDownloads = Math.max(0, galleryAppData.unreadDownloads + newDownloads);
+          galleryAppData.numLikes = Math.max(0, galleryAppData.numLikes + newLikes);
+          galleryAppData.unreadLikes = Math.max(0, galleryAppData.unreadLikes + newLikes);
+          galleryAppData.aggregatedDownloads = totalDownloads;
+          galleryAppData.aggregatedLikes = totalLikes;
+          datastore.put(galleryAppData);
+        }
+      });
+      // Mark the shards as aggregated, unless they counted more in the meantime.
+      for (final GalleryAppCounterShardData aggregated : shards.values()) {
+        if (!aggregated.dirty) {
+          continue;
+        }
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            GalleryAppCounterShardData shard =
+                datastore.find(GalleryAppCounterShardData.class, aggregated.id);
+            if (shard != null && shard.numDownloads == aggregated.numDownloads &&
+                shard.numLikes == aggregated.numLikes) {
+              shard.dirty = false;
+              datastore.put(shard);
+            }
           }
+        });
+      }
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.aggregateCounters", e);
+    }
+  }
 
-          num = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-          GalleryAppData galleryAppData = datastore.find(galleryKey);
-          galleryAppData.numLikes = num;
-          datastore.put(galleryAppData);
-          LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
+  /*
+   * Adds the given numbers of downloads and likes to one of the counter shards of the given app.
+   */
+  private void incrementCounters(final long galleryId, final int downloads, final int likes)
+      throws ObjectifyException {
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        // Pick a shard on each try, so that a retry after contention likely uses another one.
+        String shardId = counterShardId(galleryId, random.nextInt(NUM_COUNTER_SHARDS));
+        GalleryAppCounterShardData shard =
+            datastore.find(GalleryAppCounterShardData.class, shardId);
+        if (shard == null) {
+          shard = new GalleryAppCounterShardData();
+          shard.id = shardId;
+          shard.galleryId = galleryId;
+        }
+        shard.numDownloads += downloads;
+        shard.numLikes += likes;
+        shard.dirty = true;
+        datastore.put(shard);
+      }
+    });
+  }
+
+  private Map<String, GalleryAppCounterShardData> getCounterShards(long galleryId) {
+    List<String> shardIds = new ArrayList<String>(NUM_COUNTER_SHARDS);
+    for (int i = 0; i < NUM_COUNTER_SHARDS; i++) {
+      shardIds.add(counterShardId(galleryId, i));
+    }
+    return ObjectifyService.begin().get(GalleryAppCounterShardData.class, shardIds);
+  }
+
+  /*
+   * Returns the total downloads and likes counted by the counter shards of the given app.
+   */
+  private int[] sumCounterShards(long galleryId) {
+    int[] totals = new int[2];
+    for (GalleryAppCounterShardData shard : getCounterShards(galleryId).values()) {
+      totals[0] += shard.numDownloads;
+      totals[1] += shard.numLikes;
+    }
+    return totals;
+  }
+
+  /*
+   * Returns the current number of likes of the given app, including those that haven't been
+   * aggregated yet.
+   */
+  private int countLikes(long galleryId) {
+    GalleryAppData galleryAppData = ObjectifyService.begin().find(galleryKey(galleryId));
+    if (galleryAppData == null) {
+      return 0;
+    }
+    return countLikes(galleryAppData);
+  }
+
+  private int countLikes(GalleryAppData galleryAppData) {
+    int newLikes = sumCounterShards(galleryAppData.id)[1] - galleryAppData.aggregatedLikes;
+    return Math.max(0, galleryAppData.numLikes + newLikes);
+  }
+
+  /*
+   * Converts the likes of the given app that are stored as GalleryAppLikeData, if that hasn't
+   * been done yet. Likes of the same app by the same user are merged. Returns false if the app
+   * doesn't exist.
+   */
+  private boolean convertLikes(final long galleryId) {
+    Objectify datastore = ObjectifyService.begin();
+    Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+    GalleryAppData galleryAppData = datastore.find(galleryKey);
+    if (galleryAppData == null) {
+      return false;
+    }
+    if (galleryAppData.likesKeyed) {
+      return true;
+    }
+    final List<Key<GalleryAppLikeData>> oldLikes = new ArrayList<Key<GalleryAppLikeData>>();
+    Map<String, GalleryAppUserLikeData> likes = new TreeMap<String, GalleryAppUserLikeData>();
+    for (GalleryAppLikeData oldLike : datastore.query(GalleryAppLikeData.class)
+             .ancestor(galleryKey)) {
+      oldLikes.add(new Key<GalleryAppLikeData>(galleryKey, GalleryAppLikeData.class, oldLike.id));
+      GalleryAppUserLikeData likeData = new GalleryAppUserLikeData();
+      likeData.id = likeId(galleryId, oldLike.userId);
+      likeData.galleryId = galleryId;
+      likeData.userId = oldLike.userId;
+      likes.put(likeData.id, likeData);
+    }
+    datastore.put(likes.values());
+    final int numLikes = likes.size();
+    final int shardLikes = sumCounterShards(galleryId)[1];
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          if (!galleryAppData.likesKeyed) {
+            galleryAppData.likesKeyed = true;
+            galleryAppData.numLikes = numLikes;
+            galleryAppData.aggregatedLikes = shardLikes;
+            datastore.put(galleryAppData);
+            datastore.delete(oldLikes);
+          }
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
-          "error in galleryStorageIo.salvageGalleryApp", e);
+          "error in galleryStorageIo.convertLikes", e);
     }
+    return true;
+  }
+
+  private static String likeId(long galleryId, String userId) {
+    return galleryId + ":" + userId;
+  }
+
+  private static String counterShardId(long galleryId, int shard) {
+    return galleryId + ":" + shard;
   }
 
   /**
@@ -1112,6 +1332,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
+    galleryAppsChanged();
     return success.t;
   }
   /**
@@ -1311,7 +1532,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    // The aggregated count, which is behind by the likes since the last aggregation. Counting
+    // the likes in the counter shards of every app in a listing would multiply its reads.
+    galleryApp.setLikes(appData.numLikes);
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
@@ -55,6 +55,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
@@ -80,12 +81,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -122,8 +127,14 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
+  // Project names and file listings, which are read much more often than they change
+  private final ProjectMetadataCache metadataCache = new ProjectMetadataCache(memcache);
+
   private final GcsService gcsService;
 
+  // Reads the files stored in GCS
+  private final GcsReader gcsReader;
+
   private static final String GCS_BUCKET_NAME;
 
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
@@ -229,6 +240,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       LOG.log(Level.INFO, "RetryParams: getTotalRetryPeriodMillis() = " + retryParams.getTotalRetryPeriodMillis());
     }
     gcsService = GcsServiceFactory.createGcsService(retryParams);
+    gcsReader = new GcsReader(gcsService, GCS_BUCKET_NAME);
     memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
     initMotd();
   }
@@ -744,6 +756,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     if (useGCSforFile(fileName, content.length)) {
       file.isGCS = true;
       file.gcsName = makeGCSfileName(fileName, projectKey.getId());
+      file.gcsSize = (long) content.length;
       GcsOutputChannel outputChannel =
         gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, file.gcsName), GcsFileOptions.getDefaultInstance());
       outputChannel.write(ByteBuffer.wrap(content));
@@ -790,6 +803,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           datastore.delete(projectKey);
         }
       }, true);
+      metadataCache.invalidate(projectId);
       // have to delete the blobs outside of the user and project jobs
       for (String blobKeyString: blobKeys) {
         deleteBlobstoreFile(blobKeyString);
@@ -995,24 +1009,30 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public String getProjectName(final String userId, final long projectId) {
-    final Result<String> projectName = new Result<String>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            projectName.t = pd.name;
-          } else {
-            projectName.t = "";
-          }
+    return metadataCache.get(projectId, ProjectMetadataCache.NAME,
+        new ProjectMetadataCache.Loader<String>() {
+      @Override
+      String load() {
+        final Result<String> projectName = new Result<String>();
+        try {
+          runJobWithRetries(new JobRetryHelper() {
+            @Override
+            public void run(Objectify datastore) {
+              ProjectData pd = datastore.find(projectKey(projectId));
+              if (pd != null) {
+                projectName.t = pd.name;
+              } else {
+                projectName.t = "";
+              }
+            }
+          }, false);
+        } catch (ObjectifyException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, projectId), e);
         }
-      }, false);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return projectName.t;
+        return projectName.t;
+      }
+    });
   }
 
   @Override
@@ -1336,6 +1356,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           addFilesToProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, userId, fileNames);
         }
       }, true);
+      metadataCache.invalidate(projectId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1352,6 +1373,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           addFilesToProject(datastore, projectId, FileData.RoleEnum.TARGET, false, userId, fileNames);
         }
       }, true);
+      metadataCache.invalidate(projectId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1402,6 +1424,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
         }
       }, true);
+      metadataCache.invalidate(projectId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1418,6 +1441,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false, fileNames);
         }
       }, true);
+      metadataCache.invalidate(projectId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
@@ -1450,42 +1474,66 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public List<String> getProjectSourceFiles(final String userId, final long projectId) {
-    final Result<List<String>> result = new Result<List<String>>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          result.t = getProjectFiles(datastore, projectId, FileData.RoleEnum.SOURCE);
+    return new ArrayList<String>(metadataCache.get(projectId, ProjectMetadataCache.SOURCE_FILES,
+        new ProjectMetadataCache.Loader<ArrayList<String>>() {
+      @Override
+      ArrayList<String> load() {
+        final Result<ArrayList<String>> result = new Result<ArrayList<String>>();
+        try {
+          runJobWithRetries(new JobRetryHelper() {
+            @Override
+            public void run(Objectify datastore) {
+              result.t = getProjectFiles(datastore, projectId, FileData.RoleEnum.SOURCE);
+            }
+          }, false);
+        } catch (ObjectifyException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, projectId), e);
         }
-      }, false);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return result.t;
+        return result.t;
+      }
+    }));
   }
 
   @Override
   public List<String> getProjectOutputFiles(final String userId, final long projectId) {
-   final Result<List<String>> result = new Result<List<String>>();
-   try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          result.t = getProjectFiles(datastore, projectId, FileData.RoleEnum.TARGET);
+    return new ArrayList<String>(metadataCache.get(projectId, ProjectMetadataCache.OUTPUT_FILES,
+        new ProjectMetadataCache.Loader<ArrayList<String>>() {
+      @Override
+      ArrayList<String> load() {
+        final Result<ArrayList<String>> result = new Result<ArrayList<String>>();
+        try {
+          runJobWithRetries(new JobRetryHelper() {
+            @Override
+            public void run(Objectify datastore) {
+              result.t = getProjectFiles(datastore, projectId, FileData.RoleEnum.TARGET);
+            }
+          }, false);
+        } catch (ObjectifyException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, projectId), e);
         }
-      }, false);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return result.t;
+        return result.t;
+      }
+    }));
   }
 
-  private List<String> getProjectFiles(Objectify datastore, long projectId,
-                                       FileData.RoleEnum role) {
+  @Override
+  public <T extends Serializable> T getCachedProjectValue(String userId, long projectId,
+      String name, final Supplier<T> supplier) {
+    return metadataCache.get(projectId, ProjectMetadataCache.VALUE_PREFIX + name,
+        new ProjectMetadataCache.Loader<T>() {
+      @Override
+      T load() {
+        return supplier.get();
+      }
+    });
+  }
+
+  private ArrayList<String> getProjectFiles(Objectify datastore, long projectId,
+                                            FileData.RoleEnum role) {
     Key<ProjectData> projectKey = projectKey(projectId);
-    List<String> fileList = new ArrayList<String>();
+    ArrayList<String> fileList = new ArrayList<String>();
     for (FileData fd : datastore.query(FileData.class).ancestor(projectKey)) {
       if (fd.role.equals(role)) {
         fileList.add(fd.fileName);
@@ -1559,12 +1607,8 @@ public class ObjectifyStorageIo implements  StorageIo {
       final boolean force, final byte[] content, final boolean doingConversion) throws BlocksTruncatedException {
     validateGCS();
     final Result<Long> modTime = new Result<Long>();
-    final boolean useGCS = useGCSforFile(fileName, content.length);
     final Result<String> oldBlobstoreKey = new Result<String>();
-    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
-        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
-      :false);
+    final Result<Boolean> createdFile = new Result<Boolean>();
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1587,81 +1631,16 @@ public class ObjectifyStorageIo implements  StorageIo {
           if (fd == null && (fileName.endsWith(".yail") || (fileName.endsWith(".png")))){
             fd = createProjectFile(datastore, projectKey(projectId), FileData.RoleEnum.SOURCE, fileName);
             fd.userId = userId;
+            createdFile.t = true;
           }
 
           Preconditions.checkState(fd != null);
 
-          if (fd.userId != null && !fd.userId.equals("")) {
-            if (!fd.userId.equals(userId)) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectUserProjectErrorInfo(userId, projectId),
-                new UnauthorizedAccessException(userId, projectId, null));
-            }
-          }
-
-          if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
-            if (!force) {            // force is true if we *really* want to save it!
-              checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
-            }
-          }
-
-          if (fd.isBlob) {
-            // mark the old blobstore blob for deletion
-           oldBlobstoreKey.t = fd.blobKey;
-          }
-          if (useGCS) {
-            fd.isGCS = true;
-            fd.gcsName = makeGCSfileName(fileName, projectId);
-            try {
-              GcsOutputChannel outputChannel =
-                gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
-              outputChannel.write(ByteBuffer.wrap(content));
-              outputChannel.close();
-            } catch (IOException e) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-            }
-            // If the content was previously stored in the datastore, clear it out.
-            fd.content = null;
-            fd.isBlob = false;  // in case we are converting from a blob
-            fd.blobstorePath = null;
-          } else {
-            if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
-              try {             // and is now stored in the data store
-                gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId, fileName), e);
-              }
-              fd.isGCS = false;
-              fd.gcsName = null;
-            }
-            // Note, Don't have to do anything if the file was in the
-            // Blobstore and shrank because the code above (3 lines
-            // into the function) already handles removing the old
-            // contents from the Blobstore.
-            fd.isBlob = false;
-            fd.blobstorePath = null;
-            fd.content = content;
-          }
-          if (considerBackup && !doingConversion) {
-            if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
-              try {
-                String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
-                fd.lastBackup = System.currentTimeMillis();
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
-              }
-            }
-          }
-          // Old file not marked with ownership, mark it now
-          if (fd.userId == null || fd.userId.equals("")) {
-            fd.userId = userId;
+          checkFileUpload(fd, projectId, fileName, userId, force, content);
+          String oldKey = storeFileContent(fd, projectId, fileName, userId, content,
+              doingConversion);
+          if (oldKey != null) {
+            oldBlobstoreKey.t = oldKey;
           }
           datastore.put(fd);
           memcache.put(key.getString(), fd); // Store the updated data in memcache
@@ -1676,6 +1655,9 @@ public class ObjectifyStorageIo implements  StorageIo {
         }
       }, false);        // Use transaction for blobstore, otherwise we don't need one
                                // and without one the caching code comes into play.
+      if (createdFile.t != null) {
+        metadataCache.invalidate(projectId);
+      }
 
       // It would have been convenient to delete the old blobstore file within the run() method
       // above but that caused an exception where the app engine datastore claimed to be doing
@@ -1694,6 +1676,210 @@ public class ObjectifyStorageIo implements  StorageIo {
     return modTime.t;
   }
 
+  @Override
+  public long uploadFiles(final long projectId, final String userId, final boolean force,
+      final Map<String, String> files, final String encoding) throws BlocksTruncatedException {
+    validateGCS();
+    final Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      try {
+        contents.put(file.getKey(), file.getValue().getBytes(encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(userId, projectId, file.getKey()), e);
+      }
+    }
+    final Result<Long> modTime = new Result<Long>();
+    final List<String> oldBlobstoreKeys = new ArrayList<String>();
+    final Result<Boolean> createdFile = new Result<Boolean>();
+
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          oldBlobstoreKeys.clear();
+          Map<String, FileData> fileDatas = getProjectFileDatas(datastore, projectId,
+              contents.keySet());
+          // Check all the files before storing any of them
+          for (Map.Entry<String, byte[]> file : contents.entrySet()) {
+            String fileName = file.getKey();
+            FileData fd = fileDatas.get(fileName);
+            // See uploadRawFile
+            if (fd == null && (fileName.endsWith(".yail") || (fileName.endsWith(".png")))){
+              fd = createProjectFile(datastore, projectKey(projectId), FileData.RoleEnum.SOURCE, fileName);
+              fd.userId = userId;
+              fileDatas.put(fileName, fd);
+              createdFile.t = true;
+            }
+
+            Preconditions.checkState(fd != null);
+
+            checkFileUpload(fd, projectId, fileName, userId, force, file.getValue());
+          }
+          Map<String, FileData> cacheEntries = new HashMap<String, FileData>();
+          for (Map.Entry<String, byte[]> file : contents.entrySet()) {
+            String fileName = file.getKey();
+            FileData fd = fileDatas.get(fileName);
+            String oldBlobstoreKey = storeFileContent(fd, projectId, fileName, userId,
+                file.getValue(), false);
+            if (oldBlobstoreKey != null) {
+              oldBlobstoreKeys.add(oldBlobstoreKey);
+            }
+            cacheEntries.put(projectFileKey(projectKey(projectId), fileName).getString(), fd);
+          }
+          datastore.put(fileDatas.values());  // batch put
+          memcache.putAll(cacheEntries); // Store the updated data in memcache
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+      }, false);        // See uploadRawFile
+      if (createdFile.t != null) {
+        metadataCache.invalidate(projectId);
+      }
+
+      for (String oldBlobstoreKey : oldBlobstoreKeys) {
+        deleteBlobstoreFile(oldBlobstoreKey);
+      }
+    } catch (ObjectifyException e) {
+      if (e.getMessage().startsWith("Blocks")) { // Convert Exception
+        throw new BlocksTruncatedException();
+      }
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, contents.keySet().toString()), e);
+    }
+    return modTime.t;
+  }
+
+  /*
+   * Checks that the given user may store the given content in the given file.
+   */
+  private void checkFileUpload(FileData fd, long projectId, String fileName, String userId,
+      boolean force, byte[] content) throws ObjectifyException {
+    if (fd.userId != null && !fd.userId.equals("")) {
+      if (!fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+      }
+    }
+
+    if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
+      if (!force) {            // force is true if we *really* want to save it!
+        checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
+      }
+    }
+  }
+
+  /*
+   * Stores the given content of the given file, in GCS or in the FileData itself,
+   * and backs it up if it is due. The caller puts the FileData.
+   *
+   * Returns the key of the blobstore blob that held the old content, which the
+   * caller must delete, if any.
+   */
+  private String storeFileContent(FileData fd, long projectId, String fileName, String userId,
+      byte[] content, boolean doingConversion) {
+    final boolean useGCS = useGCSforFile(fileName, content.length);
+    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
+        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
+      :false);
+    String oldBlobstoreKey = null;
+
+    if (fd.isBlob) {
+      // mark the old blobstore blob for deletion
+     oldBlobstoreKey = fd.blobKey;
+    }
+    if (useGCS) {
+      fd.isGCS = true;
+      fd.gcsName = makeGCSfileName(fileName, projectId);
+      fd.gcsSize = (long) content.length;
+      try {
+        GcsOutputChannel outputChannel =
+          gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
+        outputChannel.write(ByteBuffer.wrap(content));
+        outputChannel.close();
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+      // If the content was previously stored in the datastore, clear it out.
+      fd.content = null;
+      fd.isBlob = false;  // in case we are converting from a blob
+      fd.blobstorePath = null;
+    } else {
+      if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
+        try {             // and is now stored in the data store
+          gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+        }
+        fd.isGCS = false;
+        fd.gcsName = null;
+        fd.gcsSize = null;
+      }
+      // Note, Don't have to do anything if the file was in the
+      // Blobstore and shrank because the code above (3 lines
+      // into the function) already handles removing the old
+      // contents from the Blobstore.
+      fd.isBlob = false;
+      fd.blobstorePath = null;
+      fd.content = content;
+    }
+    if (considerBackup && !doingConversion) {
+      if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
+        try {
+          String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
+          GcsOutputChannel outputChannel =
+              gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
+          outputChannel.write(ByteBuffer.wrap(content));
+          outputChannel.close();
+          fd.lastBackup = System.currentTimeMillis();
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
+        }
+      }
+    }
+    // Old file not marked with ownership, mark it now
+    if (fd.userId == null || fd.userId.equals("")) {
+      fd.userId = userId;
+    }
+    return oldBlobstoreKey;
+  }
+
+  /*
+   * Returns the FileData of the given files of a project that exist, keyed by
+   * file name, getting them from memcache if they are there and otherwise from
+   * the datastore, in a single batch.
+   */
+  private Map<String, FileData> getProjectFileDatas(Objectify datastore, long projectId,
+      Collection<String> fileNames) {
+    Key<ProjectData> projectKey = projectKey(projectId);
+    Map<String, String> fileNamesByKey = new HashMap<String, String>();
+    for (String fileName : fileNames) {
+      fileNamesByKey.put(projectFileKey(projectKey, fileName).getString(), fileName);
+    }
+    Map<String, FileData> fileDatas = new HashMap<String, FileData>();
+    for (Map.Entry<String, Object> cached : memcache.getAll(fileNamesByKey.keySet()).entrySet()) {
+      if (cached.getValue() instanceof FileData) {
+        fileDatas.put(fileNamesByKey.get(cached.getKey()), (FileData) cached.getValue());
+      }
+    }
+    List<Key<FileData>> missingKeys = new ArrayList<Key<FileData>>();
+    for (String fileName : fileNames) {
+      if (!fileDatas.containsKey(fileName)) {
+        missingKeys.add(projectFileKey(projectKey, fileName));
+      }
+    }
+    if (!missingKeys.isEmpty()) {
+      for (FileData fd : datastore.get(missingKeys).values()) {
+        fileDatas.put(fd.fileName, fd);
+      }
+    }
+    return fileDatas;
+  }
+
   protected void deleteBlobstoreFile(String blobKeyString) {
     // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
     // have to get the BlobKey and delete via the BlobstoreService.
@@ -1758,6 +1944,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           modTime.t = updateProjectModDate(datastore, projectId, false);
         }
       }, true);
+      metadataCache.invalidate(projectId);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
@@ -1814,7 +2001,6 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public byte[] downloadRawFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
-    final Result<byte[]> result = new Result<byte[]>();
     final Result<FileData> fd = new Result<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1832,7 +2018,85 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
     // read the blob/GCS File outside of the job
-    FileData fileData = fd.t;
+    return readFileContent(userId, projectId, fileName, fd.t);
+  }
+
+  @Override
+  public List<String> downloadFiles(final String userId, final long projectId,
+      final List<String> fileNames, String encoding) {
+    validateGCS();
+    final Result<Map<String, FileData>> fileDatas = new Result<Map<String, FileData>>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          fileDatas.t = getProjectFileDatas(datastore, projectId, fileNames);
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileNames.toString()), e);
+    }
+
+    // Start reading all the GCS files before waiting for any of them
+    List<FileData> gcsFiles = new ArrayList<FileData>();
+    if (useGcs) {
+      for (String fileName : fileNames) {
+        FileData fileData = fileDatas.t.get(fileName);
+        if (fileData != null && isTrue(fileData.isGCS) && (Strings.isNullOrEmpty(fileData.userId)
+            || fileData.userId.equals(userId))) {
+          gcsFiles.add(fileData);
+        }
+      }
+    }
+    GcsReader.Batch gcsReads = null;
+    try {
+      if (!gcsFiles.isEmpty()) {
+        gcsReads = gcsReader.read(gcsFiles);
+      }
+    } catch (IOException e) {
+      // Read them again one at a time below
+      LOG.log(Level.WARNING, "Unable to prefetch the files of project " + projectId + " from GCS", e);
+    }
+    try {
+      List<String> contents = new ArrayList<String>(fileNames.size());
+      int gcsIndex = 0;
+      for (String fileName : fileNames) {
+        byte[] content = null;
+        if (gcsIndex < gcsFiles.size() && gcsFiles.get(gcsIndex).fileName.equals(fileName)) {
+          if (gcsReads != null) {
+            try {
+              content = gcsReads.read(gcsIndex);
+            } catch (IOException e) {
+              LOG.log(Level.WARNING, "Unable to prefetch " + fileName + " from GCS", e);
+            }
+          }
+          gcsIndex++;
+        }
+        if (content == null) {
+          // Read it again the slow way, which handles missing objects
+          content = readFileContent(userId, projectId, fileName, fileDatas.t.get(fileName));
+        }
+        contents.add(new String(content, encoding));
+      }
+      return contents;
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectProjectErrorInfo(userId, projectId, fileNames.toString()), e);
+    } finally {
+      if (gcsReads != null) {
+        gcsReads.close();
+      }
+    }
+  }
+
+  /*
+   * Returns the content of the given file, reading it from GCS or the blobstore if
+   * it is not stored in its FileData. fileData is null if the file doesn't exist.
+   */
+  private byte[] readFileContent(final String userId, final long projectId,
+      final String fileName, FileData fileData) {
+    final Result<byte[]> result = new Result<byte[]>();
     if (fileData != null) {
       if (fileData.userId != null && !fileData.userId.equals("")) {
         if (!fileData.userId.equals(userId)) {
@@ -1843,77 +2107,38 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
       if (isTrue(fileData.isGCS)) {     // It's in the Cloud Store
         try {
-          int count;
-          boolean npfHappened = false;
-          boolean recovered = false;
-          for (count = 0; count < 5; count++) {
-            GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fileData.gcsName);
-            int bytesRead = 0;
-            int fileSize = 0;
-            ByteBuffer resultBuffer;
-            try {
-              fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-              resultBuffer = ByteBuffer.allocate(fileSize);
-              GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-              try {
-                while (bytesRead < fileSize) {
-                  bytesRead += readChannel.read(resultBuffer);
-                  if (bytesRead < fileSize) {
-                    if (DEBUG) {
-                      LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                    }
-                  }
-                }
-                recovered = true;
-                result.t = resultBuffer.array();
-                // Should we downgrade to the blobstore (for debugging)?
-                // Note: We only run if we have at least 5 seconds of runtime left in the request
-                long timeRemaining = ApiProxy.getCurrentEnvironment().getRemainingMillis();
-                if (conversionEnabled && !useGcs && (timeRemaining > 5000)) {
-                  // Garf, Let's downgrade this file to the blobstore!
-                  // This is used for debugging -- so we can retry upgrading by
-                  // first downgrading!
-                  // Note: uploadRawFile will do the work!
-                  LOG.log(Level.INFO, "Downgrading " + fileName + " with " +
-                    timeRemaining + " left on the clock.");
-                  try {
-                    uploadRawFile(projectId, fileName, userId, true /* force */,
-                      result.t, true /* no project timestamp update */);
-                  } catch (BlocksTruncatedException e) {
-                    /* will never happen because force is true */
-                  }
-                }
-
-                break;          // We got the data, break out of the loop!
-              } finally {
-                readChannel.close();
-              }
-            } catch (NullPointerException e) {
-              // This happens if the object in GCS is non-existent, which would happen
-              // when people uploaded a zero length object. As of this change, we now
-              // store zero length objects into GCS, but there are plenty of older objects
-              // that are missing in GCS.
-              LOG.log(Level.WARNING, "downloadrawfile: NPF recorded for " + fileData.gcsName);
-              npfHappened = true;
-              resultBuffer = ByteBuffer.allocate(0);
-              result.t = resultBuffer.array();
-            }
-          }
-
-          // report out on how things went above
-          if (npfHappened) {    // We lost at least once
-            if (recovered) {
-              LOG.log(Level.WARNING, "recovered from NPF in downloadrawfile filename = " + fileData.gcsName +
-                " count = " + count);
-            } else {
-              LOG.log(Level.WARNING, "FATAL NPF in downloadrawfile filename = " + fileData.gcsName);
-            }
+          GcsReader.Batch gcsRead = gcsReader.read(Collections.singletonList(fileData));
+          try {
+            result.t = gcsRead.read(0);
+          } finally {
+            gcsRead.close();
           }
-
         } catch (IOException e) {
           throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(userId, projectId, fileName), e);
         }
+        if (result.t == null) {
+          // The object was never stored, see GcsReader
+          result.t = new byte[0];
+        } else {
+          // Should we downgrade to the blobstore (for debugging)?
+          // Note: We only run if we have at least 5 seconds of runtime left in the request
+          long timeRemaining = ApiProxy.getCurrentEnvironment().getRemainingMillis();
+          if (conversionEnabled && !useGcs && (timeRemaining > 5000)) {
+            // Garf, Let's downgrade this file to the blobstore!
+            // This is used for debugging -- so we can retry upgrading by
+            // first downgrading!
+            // Note: uploadRawFile will do the work!
+            LOG.log(Level.INFO, "Downgrading " + fileName + " with " +
+              timeRemaining + " left on the clock.");
+            try {
+              uploadRawFile(projectId, fileName, userId, true /* force */,
+                result.t, true /* no project timestamp update */);
+            } catch (BlocksTruncatedException e) {
+              /* will never happen because force is true */
+            }
+          }
+        }
       } else if (fileData.isBlob) {
         try {
           if (fileData.blobKey == null) {
@@ -1992,6 +2217,48 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean includeScreenShots,
     final boolean forGallery,
     final boolean fatalError) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<String> projectName = new Result<String>();
+    int fileCount = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        zipFile, projectName);
+
+    if (zipName == null) {
+      zipName = projectName.t + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(projectName.t);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int streamProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError,
+    OutputStream stream) throws IOException {
+    return writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        stream, new Result<String>());
+  }
+
+  /*
+   * Writes the project files as a zip archive to the given stream, one file at a time, and
+   * returns the number of files written. The name of the project is returned in projectName.
+   */
+  private int writeProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    OutputStream stream,
+    final Result<String> projectName) throws IOException {
     validateGCS();
     final Result<Integer> fileCount = new Result<Integer>();
     fileCount.t = 0;
@@ -2002,14 +2269,12 @@ public class ObjectifyStorageIo implements  StorageIo {
     // to avoid problems reading blobs in a transaction with the wrong
     // entity group.
     final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
     projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(stream);
     out.setComment("Built with MIT App Inventor");
-
+    GcsReader.Batch gcsReads = null;
     try {
       JobRetryHelper job = new JobRetryHelper() {
         @Override
@@ -2059,8 +2324,10 @@ public class ObjectifyStorageIo implements  StorageIo {
         throw error;
       }
       // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
+      // blobs in the job. The files stored in GCS are read ahead of the one
+      // being written.
+      for (int i = 0; i < fileData.size(); i++) {
+        FileData fd = fileData.get(i);
         fileName = fd.fileName;
         byte[] data = null;
         if (fd.isBlob) {
@@ -2075,57 +2342,20 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         } else if (isTrue(fd.isGCS)) {
           try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      if (DEBUG) {
-                        LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                      }
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
+            if (gcsReads == null) {
+              gcsReads = gcsReader.read(fileData);
             }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
+            out.putNextEntry(new ZipEntry(fileName));
+            if (!gcsReads.copyTo(i, out)) {
+              // The object was never stored, see GcsReader
+              LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+              if (fatalError) {
+                throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
               }
             }
+            out.closeEntry();
+            fileCount.t++;
+            continue;  // The file has been written to the zip.
           } catch (IOException e) {
             throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(userId, projectId, fileName), e);
@@ -2158,6 +2388,10 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
+    } finally {
+      if (gcsReads != null) {
+        gcsReads.close();
+      }
     }
 
     if (fileCount.t == 0) {
@@ -2194,14 +2428,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
 
     out.close();
-
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
-    }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    return fileCount.t;
   }
 
   @Override
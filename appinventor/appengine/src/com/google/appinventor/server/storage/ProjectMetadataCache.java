@@ -0,0 +1,177 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Caches metadata of projects, such as their names and file listings, which
+ * are asked for many times by the RPCs that open a project.
+ *
+ * <p>The metadata is cached in two layers: for the rest of the current
+ * request, and in memcache, for other requests. The memcache entries of a
+ * project are keyed by a version number of the project, also kept in memcache,
+ * which {@link #invalidate} increments whenever the project's metadata
+ * changes. Readers that loaded the metadata before it changed store it under
+ * the old version, where it is never read again.
+ *
+ * <p>{@link #invalidate} must be called after every change to the metadata of
+ * a project has been committed to the datastore.
+ *
+ */
+final class ProjectMetadataCache {
+
+  /**
+   * Loads a metadata value from the datastore, when it is not cached.
+   */
+  abstract static class Loader<T extends Serializable> {
+    abstract T load();
+  }
+
+  // Names of the cached values
+  static final String NAME = "name";
+  static final String SOURCE_FILES = "source";
+  static final String OUTPUT_FILES = "output";
+  // Prefix of the names of values computed from the metadata by callers of StorageIo
+  static final String VALUE_PREFIX = "value:";
+
+  private static final Logger LOG = Logger.getLogger(ProjectMetadataCache.class.getName());
+
+  private static final String KEY_PREFIX = "projectmeta:";
+  private static final int EXPIRATION_SECONDS = 60 * 60;
+
+  // The hit rates are logged every this many lookups.
+  private static final long STATS_INTERVAL = 10000;
+
+  // The values cached for the current request. The cache is tied to the
+  // request's environment, so that it is dropped when the thread goes on to
+  // serve another request.
+  private static final ThreadLocal<RequestCache> requestCache = new ThreadLocal<RequestCache>();
+
+  private static final AtomicLong requestHits = new AtomicLong();
+  private static final AtomicLong memcacheHits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+
+  private final MemcacheService memcache;
+
+  private static class RequestCache {
+    final ApiProxy.Environment environment;
+    final Map<String, Object> values = new HashMap<String, Object>();
+
+    RequestCache(ApiProxy.Environment environment) {
+      this.environment = environment;
+    }
+  }
+
+  ProjectMetadataCache(MemcacheService memcache) {
+    this.memcache = memcache;
+  }
+
+  /**
+   * Returns the named metadata value of the given project, loading it with the
+   * given loader if it is not cached. The returned value is shared and must
+   * not be modified.
+   */
+  @SuppressWarnings("unchecked")
+  <T extends Serializable> T get(long projectId, String name, Loader<T> loader) {
+    Map<String, Object> values = getRequestValues();
+    String requestKey = projectId + ":" + name;
+    T value = (values == null) ? null : (T) values.get(requestKey);
+    if (value != null) {
+      countLookup(requestHits);
+      return value;
+    }
+
+    // Incrementing by 0 reads the version, and starts it at an arbitrary value if it is not
+    // there, so that the entries of a version that was evicted aren't used again.
+    Long version = memcache.increment(getVersionKey(projectId), 0, System.currentTimeMillis());
+    String memcacheKey = (version == null) ? null : getVersionKey(projectId) + ":" + version
+        + ":" + name;
+    if (memcacheKey != null) {
+      value = (T) memcache.get(memcacheKey);
+    }
+    if (value != null) {
+      countLookup(memcacheHits);
+    } else {
+      countLookup(misses);
+      value = loader.load();
+      if (value != null && memcacheKey != null) {
+        memcache.put(memcacheKey, value, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+      }
+    }
+    if (value != null && values != null) {
+      values.put(requestKey, value);
+    }
+    return value;
+  }
+
+  /**
+   * Invalidates the cached metadata of the given project, after it changed.
+   */
+  void invalidate(long projectId) {
+    Map<String, Object> values = getRequestValues();
+    if (values != null) {
+      String prefix = projectId + ":";
+      for (Iterator<String> i = values.keySet().iterator(); i.hasNext();) {
+        if (i.next().startsWith(prefix)) {
+          i.remove();
+        }
+      }
+    }
+    memcache.increment(getVersionKey(projectId), 1, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  static long getRequestHits() {
+    return requestHits.get();
+  }
+
+  @VisibleForTesting
+  static long getMemcacheHits() {
+    return memcacheHits.get();
+  }
+
+  @VisibleForTesting
+  static long getMisses() {
+    return misses.get();
+  }
+
+  private static Map<String, Object> getRequestValues() {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    if (environment == null) {
+      return null;              // Not serving a request
+    }
+    RequestCache cache = requestCache.get();
+    if (cache == null || cache.environment != environment) {
+      cache = new RequestCache(environment);
+      requestCache.set(cache);
+    }
+    return cache.values;
+  }
+
+  private static void countLookup(AtomicLong counter) {
+    counter.incrementAndGet();
+    long lookups = requestHits.get() + memcacheHits.get() + misses.get();
+    if (lookups % STATS_INTERVAL == 0) {
+      LOG.info("Project metadata lookups: " + requestHits.get() + " request cache hits, "
+          + memcacheHits.get() + " memcache hits, " + misses.get() + " misses");
+    }
+  }
+
+  private static String getVersionKey(long projectId) {
+    return KEY_PREFIX + projectId;
+  }
+}
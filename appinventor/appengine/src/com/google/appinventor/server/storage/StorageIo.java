@@ -16,11 +16,15 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.rpc.user.SplashConfig;
+import com.google.common.base.Supplier;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -428,6 +432,23 @@ public interface StorageIo {
    */
   List<String> getProjectOutputFiles(String userId, long projectId);
 
+  /**
+   * Returns a value computed from the name and source files of a project,
+   * such as its project tree. The value is computed by the given supplier if
+   * it isn't cached, and stays cached until the project is renamed or files
+   * are added to or removed from it. The returned value is shared and must
+   * not be modified.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param name  the name of the value, unique among the values of a project
+   * @param supplier  computes the value
+   *
+   * @return  the value
+   */
+  <T extends Serializable> T getCachedProjectValue(String userId, long projectId, String name,
+      Supplier<T> supplier);
+
   /**
    * Returns the gallery id for a project.
    * @param projectId  project ID
@@ -489,6 +510,19 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Uploads several files of a project at once, updating the project's
+   * modification date once.
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param force write files even if they are trivial workspaces
+   * @param contents  file contents, keyed by file ID
+   * @param encoding encoding of the contents
+   * @return modification date for project
+   */
+  long uploadFiles(long projectId, String userId, boolean force, Map<String, String> contents,
+      String encoding) throws BlocksTruncatedException;
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -509,6 +543,17 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads several text files of a project at once.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of text files
+   *
+   * @return  text file contents, in the order of fileIds
+   */
+  List<String> downloadFiles(String userId, long projectId, List<String> fileIds, String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -590,6 +635,30 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException;
 
+  /**
+   * Writes project files as a zip archive to the given stream. Unlike
+   * {@link #exportProjectSourceZip}, the archive is never held in memory, and
+   * the files are read one at a time through a small buffer.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param stream  the stream that receives the zip archive; it is closed when
+   *     the archive is complete
+   *
+   * @return  the number of files in the zip archive
+   */
+  int streamProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError,
+    OutputStream stream) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
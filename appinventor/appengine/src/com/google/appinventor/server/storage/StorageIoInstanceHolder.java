@@ -6,17 +6,32 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appinventor.server.flags.Flag;
+
+import java.io.File;
+
 /**
  * Holds the singleton StorageIo subclass object. We introduce this class
  * so that we can switch out the underlying StorageIo subclass without changing
  * the references in the code to the INSTANCE.
+ *
+ * The instance is a {@link LocalStorageIo} if the storage.local.dir flag
+ * names a directory, and an {@link ObjectifyStorageIo} otherwise.
  * 
  * @author sharon@google.com (Sharon Perl)
  *
  */
 public class StorageIoInstanceHolder {
-  public static final StorageIo INSTANCE = new ObjectifyStorageIo();
+  public static final StorageIo INSTANCE = createInstance();
   
   private StorageIoInstanceHolder() {} // not to be instantiated
+
+  private static StorageIo createInstance() {
+    String localDirectory = Flag.createFlag("storage.local.dir", "").get();
+    if (localDirectory.isEmpty()) {
+      return new ObjectifyStorageIo();
+    }
+    return new LocalStorageIo(new File(localDirectory));
+  }
     
 }
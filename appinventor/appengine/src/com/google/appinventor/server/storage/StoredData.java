@@ -188,6 +188,10 @@ public class StoredData {
     // The GCS filename, sans bucket name
     String gcsName;
 
+    // The size of the GCS object, so reading it doesn't need a metadata lookup. Null for
+    // files stored before sizes were recorded.
+    Long gcsSize;
+
     // File settings
     String settings;
 
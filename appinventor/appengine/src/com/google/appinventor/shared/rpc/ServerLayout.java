@@ -222,6 +222,12 @@ public class ServerLayout {
    */
   public static final String RECEIVE_BUILD_SERVLET = "receivebuild";
 
+  /**
+   * Relative path of the {@link com.google.appinventor.server.BuildProgressServlet} within
+   * {@link #ODE_BASEURL_NOAUTH}
+   */
+  public static final String BUILD_PROGRESS_SERVLET = "buildprogress";
+
   /**
    * Name of the form element to upload files.
    */
@@ -0,0 +1,133 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+/**
+ * The change between two versions of a text file, such as a .bky or .scm
+ * file, sent by the client instead of the whole file when it saves a file
+ * that the server already has an earlier version of.
+ *
+ * The change is described as a single region of the earlier version that is
+ * replaced with new text, which covers the typical edit made between two
+ * auto-saves. It carries the checksum (MD5) of the earlier version, so that
+ * the server only applies it to the version the client started from, and the
+ * checksum of the new version, so that the server can check the result.
+ *
+ */
+public class FileDelta implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = 3185610391758617443L;
+
+  private String baseChecksum;
+  private int start;
+  private int removedLength;
+  private String inserted;
+  private String checksum;
+
+  /**
+   * Default constructor. This constructor is required by GWT.
+   */
+  @SuppressWarnings("unused")
+  private FileDelta() {
+  }
+
+  private FileDelta(String baseChecksum, int start, int removedLength, String inserted,
+      String checksum) {
+    this.baseChecksum = baseChecksum;
+    this.start = start;
+    this.removedLength = removedLength;
+    this.inserted = inserted;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Computes the change from base to content.
+   *
+   * @param base  the earlier version of the file
+   * @param content  the new version of the file
+   * @return the change
+   */
+  public static FileDelta create(String base, String content) throws ChecksumedFileException {
+    int baseLength = base.length();
+    int length = content.length();
+    int prefix = 0;
+    int maxPrefix = Math.min(baseLength, length);
+    while (prefix < maxPrefix && base.charAt(prefix) == content.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    int maxSuffix = maxPrefix - prefix;
+    while (suffix < maxSuffix &&
+        base.charAt(baseLength - 1 - suffix) == content.charAt(length - 1 - suffix)) {
+      suffix++;
+    }
+    return new FileDelta(checksum(base), prefix, baseLength - prefix - suffix,
+        content.substring(prefix, length - suffix), checksum(content));
+  }
+
+  /**
+   * Applies this change to the given version of the file.
+   *
+   * @param base  the version of the file that the change is applied to
+   * @return the new version of the file
+   * @throws ChecksumedFileException if base is not the version the change was
+   *         computed from, or the result is not the expected new version
+   */
+  public String apply(String base) throws ChecksumedFileException {
+    if (!checksum(base).equals(baseChecksum)) {
+      throw new ChecksumedFileException("Base checksum doesn't match " + baseChecksum);
+    }
+    if (start < 0 || removedLength < 0 || start + removedLength > base.length()) {
+      throw new ChecksumedFileException("Change doesn't fit the base content");
+    }
+    String content = base.substring(0, start) + inserted +
+        base.substring(start + removedLength);
+    if (!checksum(content).equals(checksum)) {
+      throw new ChecksumedFileException("Checksum doesn't match " + checksum);
+    }
+    return content;
+  }
+
+  /**
+   * Returns true if this change leaves the file as it was.
+   */
+  public boolean isEmpty() {
+    return removedLength == 0 && inserted.isEmpty();
+  }
+
+  /**
+   * Returns the number of characters of new text in this change.
+   */
+  public int getInsertedLength() {
+    return inserted.length();
+  }
+
+  /**
+   * Returns the checksum of the given content, as used by this class.
+   */
+  public static String checksum(String content) throws ChecksumedFileException {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      return byteArrayToHexString(md.digest(content.getBytes("UTF-8")));
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new ChecksumedFileException(e.toString());
+    } catch (java.io.UnsupportedEncodingException e) {
+      throw new ChecksumedFileException(e.toString());
+    }
+  }
+
+  private static String byteArrayToHexString(byte[] b) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < b.length; i++) {
+      result.append(Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1));
+    }
+    return result.toString();
+  }
+}
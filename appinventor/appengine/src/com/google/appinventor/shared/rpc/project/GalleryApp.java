@@ -8,13 +8,14 @@ package com.google.appinventor.shared.rpc.project;
 import java.util.ArrayList;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
+import java.io.Serializable;
 
 /**
  * GalleryApp is the shared class holding app info. It is used by server to
  * hold apps returned from database, and its also used to hold default info
  * for an app before its published.
  */
-public class GalleryApp implements IsSerializable {
+public class GalleryApp implements IsSerializable, Serializable {
   public final static long FROMSCRATCH = -1L;
 
   /**
@@ -9,6 +9,7 @@ package com.google.appinventor.shared.rpc.project;
 import java.util.List;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
+import java.io.Serializable;
 
 
 /**
@@ -16,10 +17,11 @@ import com.google.gwt.user.client.rpc.IsSerializable;
  * list of gallery apps (sliced results) and number of results.
  * @author blu2@dons.usfca.edu (Bin Lu)
  */
-public class GalleryAppListResult implements IsSerializable{
+public class GalleryAppListResult implements IsSerializable, Serializable {
   List<GalleryApp> apps;    //sliced results
   int totalCount;           //total number of all suitable results
   String keyword;           //search keyword, only for searching
+  String cursor;            //cursor of the next page, null if there is none
   /**
    * default constructor
    */
@@ -72,6 +74,14 @@ public class GalleryAppListResult implements IsSerializable{
     this.keyword = keyword;
   }
 
+  /**
+   * setCursor based on given cursor
+   * @param cursor cursor of the next page
+   */
+  public void setCursor(String cursor){
+    this.cursor = cursor;
+  }
+
   /**
    * @return apps list of GalleryApp
    */
@@ -92,4 +102,11 @@ public class GalleryAppListResult implements IsSerializable{
   public String getKeyword(){
     return keyword;
   }
+
+  /**
+   * @return cursor of the next page, or null if there are no more results
+   */
+  public String getCursor(){
+    return cursor;
+  }
 }
@@ -79,29 +79,32 @@ public interface GalleryService extends RemoteService {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
-  GalleryAppListResult getRecentApps(int start, int count);
+  GalleryAppListResult getRecentApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of featured gallery app
@@ -151,11 +154,12 @@ public interface GalleryService extends RemoteService {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param start starting index, used if cursor is null
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null
    * @return list of GalleryApps
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of galleryApps and
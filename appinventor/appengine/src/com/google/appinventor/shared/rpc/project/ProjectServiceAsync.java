@@ -136,6 +136,11 @@ public interface ProjectServiceAsync {
    */
   void save2(String sessionId, long projectId, String fileId, boolean force, String source, AsyncCallback<Long> callback);
 
+  /**
+   * @see ProjectService#saveDelta(String, long, String, boolean, FileDelta)
+   */
+  void saveDelta(String sessionId, long projectId, String fileId, boolean force, FileDelta delta, AsyncCallback<Long> callback);
+
   /**
    * @see ProjectService#save(String, List)
    */
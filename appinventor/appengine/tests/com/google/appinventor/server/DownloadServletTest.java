@@ -6,10 +6,14 @@
 
 package com.google.appinventor.server;
 
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.riq.MockHttpServletRequest;
 import com.riq.MockHttpServletResponse;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -18,10 +22,14 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.fail;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 
 /**
@@ -39,12 +47,9 @@ public class DownloadServletTest {
   private static final long PROJECT_ID = 1234L;
   private static final String DUMMY_FILENAME = "filename123";
   private static final String DUMMY_APK_FILENAME = "filename123.apk";
-  private static final String DUMMY_ZIP_FILENAME = "filename123.aia";
-  private static final String DUMMY_ZIP_FILENAME_WITH_TITLE = "MyProjectTitle123.aia";
   private static final String DOWNLOAD_URL = "http://localhost/baseUrl/download/";
 
-  private ProjectSourceZip dummyZip;
-  private ProjectSourceZip dummyZipWithTitle;
+  private final LocalDatastoreTestCase helper = LocalDatastoreTestCase.createHelper();
   private RawFile dummyApk;
   private RawFile dummyFile;
 
@@ -53,6 +58,8 @@ public class DownloadServletTest {
 
   @Before
   public void setUp() throws Exception {
+    // The project name is read from storage when the url has no title.
+    helper.setUp();
     PowerMock.mockStatic(LocalUser.class);
     localUserMock = PowerMock.createNiceMock(LocalUser.class);
     expect(LocalUser.getInstance()).andReturn(localUserMock).anyTimes();
@@ -60,24 +67,35 @@ public class DownloadServletTest {
     exporterMock = PowerMock.createNiceMock(FileExporterImpl.class);
     PowerMock.expectNew(FileExporterImpl.class).andReturn(exporterMock).anyTimes();
 
-    dummyZip = new ProjectSourceZip(DUMMY_ZIP_FILENAME, new byte[] {}, 2);
-    dummyZipWithTitle = new ProjectSourceZip(DUMMY_ZIP_FILENAME_WITH_TITLE, new byte[] {}, 2);
     dummyApk = new RawFile(DUMMY_APK_FILENAME, new byte[] {});
     dummyFile = new RawFile(DUMMY_FILENAME, new byte[] {});
   }
 
+  @After
+  public void tearDown() throws Exception {
+    helper.tearDown();
+  }
+
   private void checkResponseHeader(MockHttpServletResponse response, String header) {
     List cd = (List) response.getHeader("content-disposition");
     assertEquals(header, cd.get(0));
     assertEquals(1, cd.size());
   }
 
+  private long createProject(String name) {
+    Project project = new Project(name);
+    project.setProjectType("FakeProjectType");
+    return StorageIoInstanceHolder.INSTANCE.createProject(USER_ID, project, "");
+  }
+
   @Test
   public void testDownloadProjectSourceZipWithoutTitle() throws Exception {
+    long projectId = createProject(DUMMY_FILENAME);
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
-        "project-source/1234");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false, false, false, false))
-        .andReturn(dummyZip);
+        "project-source/" + projectId);
+    expect(exporterMock.streamProjectSourceZip(eq(USER_ID), eq(projectId), eq(true), eq(false),
+        eq(false), eq(false), eq(false), eq(false), anyObject(OutputStream.class)))
+        .andReturn(2);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
     MockHttpServletResponse response = new MockHttpServletResponse();
@@ -91,9 +109,9 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithTitle() throws IOException {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234/My Project Title 123");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false,
-        "MyProjectTitle123.aia", false, false, false, false))
-        .andReturn(dummyZipWithTitle);
+    expect(exporterMock.streamProjectSourceZip(eq(USER_ID), eq(PROJECT_ID), eq(true), eq(false),
+        eq(false), eq(false), eq(false), eq(false), anyObject(OutputStream.class)))
+        .andReturn(2);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
     MockHttpServletResponse response = new MockHttpServletResponse();
@@ -108,7 +126,8 @@ public class DownloadServletTest {
     IllegalArgumentException expectedException = new IllegalArgumentException();
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/12345");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, 12345L, true, false, null, false, false, false, false))
+    expect(exporterMock.streamProjectSourceZip(eq(USER_ID), eq(12345L), eq(true), eq(false),
+        eq(false), eq(false), eq(false), eq(false), anyObject(OutputStream.class)))
         .andThrow(expectedException);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
@@ -121,6 +140,38 @@ public class DownloadServletTest {
     PowerMock.verifyAll();
   }
 
+  @Test
+  public void testDownloadProjectSourceZipFailureResetsResponse() throws IOException {
+    final IOException expectedException = new IOException();
+    MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
+        "project-source/1234/My Project Title 123");
+    expect(exporterMock.streamProjectSourceZip(eq(USER_ID), eq(PROJECT_ID), eq(true), eq(false),
+        eq(false), eq(false), eq(false), eq(false), anyObject(OutputStream.class)))
+        .andAnswer(new IAnswer<Integer>() {
+          @Override
+          public Integer answer() throws Throwable {
+            // Fail after part of the zip has been written.
+            OutputStream out = (OutputStream) EasyMock.getCurrentArguments()[8];
+            out.write(new byte[] { 'P', 'K' });
+            throw expectedException;
+          }
+        });
+    PowerMock.replayAll();
+    DownloadServlet download = new DownloadServlet();
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    try {
+      download.doGet(request, response);
+      fail();
+    } catch (IOException ex) {
+      assertEquals(expectedException, ex);
+    }
+    // The partial zip must not be sent as a successful download.
+    assertNull(response.getHeader("content-disposition"));
+    assertNull(response.getContentType());
+    assertEquals(0, response.getContentAsByteArray().length);
+    PowerMock.verifyAll();
+  }
+
   @Test
   public void testDownloadProjectOutputFileWithoutTarget() throws IOException {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
@@ -125,6 +125,16 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
         StorageUtil.DEFAULT_CHARSET));
   }
 
+  public void testStreamProjectSourceZip() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = exporter.streamProjectSourceZip(USER_ID, projectId,
+      true, false, false, false, false, false, out);
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(
+        new ProjectSourceZip(PROJECT_NAME + ".aia", out.toByteArray(), fileCount));
+    assertEquals(3, content.size());
+    assertTrue(content.containsKey(FileExporter.REMIX_INFORMATION_FILE_PATH));
+  }
+
   public void testExportProjectSourceZipWithNonExistingProject() throws IOException {
     try {
       exporter.exportProjectSourceZip(USER_ID, projectId + 1, false, false, null, false, false, false, false);
@@ -0,0 +1,148 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.appinventor.shared.rpc.user.User;
+import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LocalStorageIo}.
+ *
+ */
+public class LocalStorageIoTest extends TestCase {
+
+  private static final String USER_ID = "1";
+  private static final String USER_EMAIL = "NoOne@example.com";
+  private static final String SETTINGS = "{settings: \"none\"}";
+  private static final String PROJECT_NAME = "Project1";
+  private static final String FILE_NAME1 = "src/Screen1.scm";
+  private static final String FILE_NAME2 = "src/Screen1.bky";
+  private static final String RAW_FILE_NAME = "assets/kitty.png";
+  private static final String FILE_CONTENT1 = "The quick onyx goblin jumps over the lazy dwarf";
+  private static final String FILE_CONTENT2 = "Jackdaws love my big sphinx of quartz";
+  private static final byte[] RAW_FILE_CONTENT = { (byte) 0, (byte) 1, (byte) 32, (byte) 255 };
+
+  private File directory;
+  private LocalStorageIo storage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+    storage = new LocalStorageIo(directory);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    storage.close();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+    super.tearDown();
+  }
+
+  private Project createProject() {
+    Project project = new Project(PROJECT_NAME);
+    project.setProjectType("YoungAndroid");
+    project.addTextFile(new TextFile(FILE_NAME1, FILE_CONTENT1));
+    project.addRawFile(new RawFile(RAW_FILE_NAME, RAW_FILE_CONTENT));
+    return project;
+  }
+
+  public void testUsers() {
+    User user = storage.getUser(USER_ID, USER_EMAIL);
+    assertEquals(USER_ID, user.getUserId());
+    assertEquals(USER_EMAIL, user.getUserEmail());
+    assertEquals(USER_ID, storage.findUserByEmail(USER_EMAIL.toLowerCase()));
+
+    storage.storeSettings(USER_ID, SETTINGS);
+    assertEquals(SETTINGS, storage.loadSettings(USER_ID));
+
+    // A user found by email keeps its own id
+    assertEquals(USER_ID, storage.getUser("2", USER_EMAIL).getUserId());
+  }
+
+  public void testProjects() throws Exception {
+    long projectId = storage.createProject(USER_ID, createProject(), SETTINGS);
+    assertEquals(Arrays.asList(projectId), storage.getProjects(USER_ID));
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertEquals(SETTINGS, storage.loadProjectSettings(USER_ID, projectId));
+    assertEquals(Arrays.asList(RAW_FILE_NAME, FILE_NAME1),
+        storage.getProjectSourceFiles(USER_ID, projectId));
+    assertEquals(FILE_CONTENT1, storage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT,
+        storage.downloadRawFile(USER_ID, projectId, RAW_FILE_NAME)));
+
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME2);
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT2);
+    contents.put(FILE_NAME2, FILE_CONTENT1);
+    storage.uploadFiles(projectId, USER_ID, false, contents, StorageUtil.DEFAULT_CHARSET);
+    assertEquals(Arrays.asList(FILE_CONTENT2, FILE_CONTENT1), storage.downloadFiles(USER_ID,
+        projectId, Arrays.asList(FILE_NAME1, FILE_NAME2), StorageUtil.DEFAULT_CHARSET));
+
+    storage.deleteFile(USER_ID, projectId, FILE_NAME2);
+    assertEquals(Arrays.asList(RAW_FILE_NAME, FILE_NAME1),
+        storage.getProjectSourceFiles(USER_ID, projectId));
+
+    storage.deleteProject(USER_ID, projectId);
+    assertTrue(storage.getProjects(USER_ID).isEmpty());
+    assertNull(storage.getUserProject(USER_ID, projectId));
+  }
+
+  public void testBlocksTruncation() throws Exception {
+    long projectId = storage.createProject(USER_ID, createProject(), SETTINGS);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME2);
+    char[] blocks = new char[200];
+    Arrays.fill(blocks, 'x');
+    storage.uploadFile(projectId, FILE_NAME2, USER_ID, new String(blocks),
+        StorageUtil.DEFAULT_CHARSET);
+    try {
+      storage.uploadFile(projectId, FILE_NAME2, USER_ID, "", StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (BlocksTruncatedException e) {
+      // expected
+    }
+    storage.uploadFileForce(projectId, FILE_NAME2, USER_ID, "", StorageUtil.DEFAULT_CHARSET);
+    assertEquals("", storage.downloadFile(USER_ID, projectId, FILE_NAME2,
+        StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testReopen() throws Exception {
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = storage.createProject(USER_ID, createProject(), SETTINGS);
+    storage.uploadFileForce(projectId, FILE_NAME1, USER_ID, FILE_CONTENT2,
+        StorageUtil.DEFAULT_CHARSET);
+    storage.uploadRawUserFile(USER_ID, StorageUtil.ANDROID_KEYSTORE_FILENAME, RAW_FILE_CONTENT);
+
+    storage.close();
+    storage = new LocalStorageIo(directory);
+    assertEquals(USER_ID, storage.findUserByEmail(USER_EMAIL));
+    UserProject project = storage.getUserProject(USER_ID, projectId);
+    assertEquals(PROJECT_NAME, project.getProjectName());
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT,
+        storage.downloadRawUserFile(USER_ID, StorageUtil.ANDROID_KEYSTORE_FILENAME)));
+    // New projects don't reuse ids
+    assertTrue(storage.createProject(USER_ID, createProject(), SETTINGS) > projectId);
+  }
+}
@@ -0,0 +1,107 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LocalStore}.
+ *
+ */
+public class LocalStoreTest extends TestCase {
+
+  // Small segments, so that a few blobs leave enough garbage to be compacted
+  private static final int SEGMENT_SIZE = 1024;
+  private static final int BLOB_SIZE = 300;
+  private static final int BLOB_COUNT = 10;
+
+  private File directory;
+  private LocalStore store;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+    store = new LocalStore(directory, SEGMENT_SIZE);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    store.close();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+    super.tearDown();
+  }
+
+  private static byte[] blob(int i) {
+    byte[] content = new byte[BLOB_SIZE];
+    Arrays.fill(content, (byte) i);
+    return content;
+  }
+
+  private int countSegments() {
+    return directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith("blobs-");
+      }
+    }).length;
+  }
+
+  private void checkContents() {
+    for (int i = 0; i < BLOB_COUNT; i++) {
+      assertTrue(Arrays.equals(blob(i), store.getBlob("keep" + i)));
+      assertFalse(store.contains("garbage" + i));
+    }
+    assertEquals("record", store.get("record"));
+    assertEquals(Arrays.asList("keep0", "keep1", "keep2"), store.keys("keep", "keep0", 3));
+  }
+
+  public void testReopenAfterCompaction() throws Exception {
+    // Every segment holds live blobs and deleted ones, so the deleted ones are only reclaimed
+    // by copying the live ones.
+    for (int i = 0; i < BLOB_COUNT; i++) {
+      store.putBlob("keep" + i, blob(i));
+      store.putBlob("garbage" + i, blob(i));
+    }
+    for (int i = 0; i < BLOB_COUNT; i++) {
+      store.delete("garbage" + i);
+    }
+    store.put("record", "record");
+    int segments = countSegments();
+    // More than MIN_COMPACTION_GARBAGE and than the live blobs is garbage
+    assertTrue(segments * SEGMENT_SIZE - BLOB_COUNT * BLOB_SIZE >=
+        Math.max(SEGMENT_SIZE, BLOB_COUNT * BLOB_SIZE));
+
+    store.close();
+    store = new LocalStore(directory, SEGMENT_SIZE);
+    assertTrue(countSegments() < segments);
+    checkContents();
+
+    // Blobs added after the compaction, and the compacted journal, survive another reopen.
+    store.putBlob("added", blob(BLOB_COUNT));
+    store.close();
+    store = new LocalStore(directory, SEGMENT_SIZE);
+    checkContents();
+    assertTrue(Arrays.equals(blob(BLOB_COUNT), store.getBlob("added")));
+  }
+
+  public void testNextId() throws Exception {
+    assertEquals(1, store.nextId("counter"));
+    assertEquals(2, store.nextId("counter"));
+    store.close();
+    store = new LocalStore(directory, SEGMENT_SIZE);
+    assertEquals(3, store.nextId("counter"));
+  }
+}
@@ -0,0 +1,69 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+/**
+ * Tests for {@link ObjectifyGalleryStorageIo}.
+ *
+ */
+public class ObjectifyGalleryStorageIoTest extends LocalDatastoreTestCase {
+  private static final String USER_ID = "1";
+  private static final long PROJECT_ID = 1234L;
+
+  private ObjectifyGalleryStorageIo galleryStorageIo;
+  private long galleryId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    galleryStorageIo = new ObjectifyGalleryStorageIo();
+    GalleryApp app = galleryStorageIo.createGalleryApp("Title", "Project1", "Description",
+        "More info", "Credit", PROJECT_ID, USER_ID);
+    galleryId = app.getGalleryAppId();
+  }
+
+  public void testCountersAreAggregated() {
+    galleryStorageIo.incrementDownloads(galleryId);
+    galleryStorageIo.incrementDownloads(galleryId);
+    galleryStorageIo.incrementDownloads(galleryId);
+    assertEquals(1, galleryStorageIo.increaseLikes(galleryId, "user1"));
+    assertEquals(2, galleryStorageIo.increaseLikes(galleryId, "user2"));
+    // A user can only like an app once.
+    assertEquals(2, galleryStorageIo.increaseLikes(galleryId, "user2"));
+
+    // Likes that haven't been aggregated yet are counted, except in listings.
+    assertEquals(2, galleryStorageIo.getNumLikes(galleryId));
+    assertEquals(2, galleryStorageIo.getGalleryApp(galleryId).getLikes());
+    assertEquals(0, galleryStorageIo.getGalleryApp(galleryId).getDownloads());
+    assertEquals(0, galleryStorageIo.getRecentGalleryApps(0, 10, null).getApps().get(0).getLikes());
+
+    galleryStorageIo.aggregateCounters();
+    GalleryApp app = galleryStorageIo.getGalleryApp(galleryId);
+    assertEquals(3, app.getDownloads());
+    assertEquals(3, app.getUnreadDownloads());
+    assertEquals(2, app.getLikes());
+    assertEquals(2, app.getUnreadLikes());
+    assertEquals(2, galleryStorageIo.getMostLikedApps(0, 10, null).getApps().get(0).getLikes());
+
+    // Aggregating again doesn't count anything twice.
+    galleryStorageIo.aggregateCounters();
+    assertEquals(3, galleryStorageIo.getGalleryApp(galleryId).getDownloads());
+    assertEquals(2, galleryStorageIo.getNumLikes(galleryId));
+
+    assertEquals(1, galleryStorageIo.decreaseLikes(galleryId, "user1"));
+    assertEquals(1, galleryStorageIo.getNumLikes(galleryId));
+    galleryStorageIo.incrementDownloads(galleryId);
+    galleryStorageIo.aggregateCounters();
+    app = galleryStorageIo.getGalleryApp(galleryId);
+    assertEquals(4, app.getDownloads());
+    assertEquals(1, app.getLikes());
+    assertFalse(galleryStorageIo.isLikedByUser(galleryId, "user1"));
+    assertTrue(galleryStorageIo.isLikedByUser(galleryId, "user2"));
+  }
+}
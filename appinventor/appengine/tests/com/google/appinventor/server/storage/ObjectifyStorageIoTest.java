@@ -30,7 +30,9 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONObject;
 
@@ -325,6 +327,52 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testUploadDownloadFiles() throws BlocksTruncatedException {
+    final String USER_ID = "1225";
+    final String USER_EMAIL = "newuser1225@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT1);
+    contents.put(FILE_NAME2, FILE_CONTENT2);
+    long modificationDate = storage.uploadFiles(projectId, USER_ID, false, contents,
+        StorageUtil.DEFAULT_CHARSET);
+    assertEquals(modificationDate, storage.getProjectDateModified(USER_ID, projectId));
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId, FILE_NAME2,
+        StorageUtil.DEFAULT_CHARSET));
+
+    assertEquals(Arrays.asList(FILE_CONTENT2, FILE_CONTENT1),
+        storage.downloadFiles(USER_ID, projectId, Arrays.asList(FILE_NAME2, FILE_NAME1),
+            StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testProjectMetadataCache() {
+    final String USER_ID = "1250";
+    final String USER_EMAIL = "newuser1250@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+
+    long misses = ProjectMetadataCache.getMisses();
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertFalse(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+    assertFalse(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+    assertEquals(misses + 2, ProjectMetadataCache.getMisses());
+
+    // Changes are seen by the same storage and by others
+    ObjectifyStorageIo otherStorage = new ObjectifyStorageIo();
+    assertFalse(otherStorage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1);
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+    assertTrue(otherStorage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+
+    // The returned listings are copies
+    storage.getProjectSourceFiles(USER_ID, projectId).clear();
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
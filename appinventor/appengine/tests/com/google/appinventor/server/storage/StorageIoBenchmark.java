@@ -0,0 +1,321 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appinventor.common.testutils.TestUtils;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.apphosting.utils.config.GenerationDirectory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the hottest {@link StorageIo} and {@link GalleryStorageIo}
+ * operations against the local App Engine services, for projects of
+ * different sizes, so that regressions in the storage layer can be caught
+ * and optimizations measured.
+ *
+ * <p>For each combination of screen count and asset size, a project of that
+ * size is created, and every operation is run a number of times to warm up
+ * and then a number of times while being timed. The mean, minimum and
+ * maximum times are printed. Run it with
+ * <pre>
+ *   ant StorageIoBenchmark -Dbenchmark.screens=1,10,50 -Dbenchmark.assets=0,10,50
+ * </pre>
+ * where the asset sizes are in megabytes. The number of runs is set with
+ * benchmark.warmups and benchmark.iterations.
+ *
+ * <p>The first page of each gallery listing is cached in memcache, so the
+ * listing operations flush memcache after each run, and
+ * cachedMostDownloadedApps measures the cached page separately.
+ *
+ */
+public class StorageIoBenchmark {
+
+  private static final String APPENGINE_GENERATED_DIR = TestUtils.APP_INVENTOR_ROOT_DIR +
+      "/appengine/build/tests/appengine-generated";
+
+  private static final String USER_ID = "benchmark";
+  private static final String USER_EMAIL = "benchmark@example.com";
+  private static final String OTHER_USER_ID = "benchmark2";
+  private static final String OTHER_USER_EMAIL = "benchmark2@example.com";
+  private static final String SETTINGS = "{settings: \"none\"}";
+  private static final String PROJECT_TYPE = "YoungAndroid";
+  private static final String PACKAGE_PATH = "src/com/example/benchmark/";
+
+  // The sizes of the source files of each screen, close to those of a typical screen
+  private static final int FORM_SIZE = 8 * 1024;
+  private static final int BLOCKS_SIZE = 64 * 1024;
+
+  // Assets are split into files of this size
+  private static final int ASSET_FILE_SIZE = 1024 * 1024;
+
+  // The number of projects listed by getUserProjects, including the measured one
+  private static final int USER_PROJECTS = 20;
+
+  // The number of published apps, and how many of them are listed at a time
+  private static final int GALLERY_APPS = 50;
+  private static final int GALLERY_PAGE_SIZE = 10;
+
+  /**
+   * An operation being measured.
+   */
+  private abstract static class Operation {
+    final String name;
+
+    Operation(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Runs the operation once. This is what is timed.
+     */
+    abstract void run(int iteration) throws Exception;
+
+    /**
+     * Undoes the effects of a run that would change the next ones. This is
+     * not timed.
+     */
+    void cleanUp(int iteration) throws Exception {
+    }
+  }
+
+  private final int warmups;
+  private final int iterations;
+  private final Random random = new Random(0);
+
+  // Keeps the results of the operations live
+  private long sink;
+
+  private StorageIoBenchmark(int warmups, int iterations) {
+    this.warmups = warmups;
+    this.iterations = iterations;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int[] screenCounts = parseInts(System.getProperty("benchmark.screens", "1,10,50"));
+    int[] assetSizes = parseInts(System.getProperty("benchmark.assets", "0,10,50"));
+    StorageIoBenchmark benchmark = new StorageIoBenchmark(
+        Integer.getInteger("benchmark.warmups", 3),
+        Integer.getInteger("benchmark.iterations", 10));
+
+    System.setProperty(GenerationDirectory.GENERATED_DIR_PROPERTY, APPENGINE_GENERATED_DIR);
+    System.out.println(String.format("%-24s %8s %10s %10s %10s %10s",
+        "Operation", "Screens", "Assets MB", "Mean ms", "Min ms", "Max ms"));
+    for (int screens : screenCounts) {
+      for (int assets : assetSizes) {
+        benchmark.runAll(screens, assets);
+      }
+    }
+  }
+
+  /*
+   * Runs all operations on a project with the given number of screens and
+   * megabytes of assets, in a fresh local datastore.
+   */
+  private void runAll(final int screens, final int assets) throws Exception {
+    LocalServiceTestHelper helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig(),
+        new LocalBlobstoreServiceTestConfig(),
+        new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    try {
+      final ObjectifyStorageIo storage = new ObjectifyStorageIo();
+      final ObjectifyGalleryStorageIo galleryStorage = new ObjectifyGalleryStorageIo();
+      storage.getUser(USER_ID, USER_EMAIL);
+      storage.getUser(OTHER_USER_ID, OTHER_USER_EMAIL);
+
+      final Project template = createProject("Benchmark", screens, assets);
+      final long projectId = storage.createProject(USER_ID, template, SETTINGS);
+      for (int i = 1; i < USER_PROJECTS; i++) {
+        storage.createProject(USER_ID, createProject("Other" + i, 1, 0), SETTINGS);
+      }
+      final List<Long> projectIds = storage.getProjects(USER_ID);
+      for (int i = 0; i < GALLERY_APPS; i++) {
+        galleryStorage.createGalleryApp("App" + i, template.getProjectName(), "description",
+            "moreInfo", "credit", projectId, USER_ID);
+      }
+      final String blocks = content(BLOCKS_SIZE);
+
+      List<Operation> operations = Arrays.asList(
+          new Operation("uploadFile") {
+            @Override
+            void run(int iteration) throws Exception {
+              sink += storage.uploadFile(projectId, blocksFile(iteration % screens), USER_ID,
+                  blocks + iteration, StorageUtil.DEFAULT_CHARSET);
+            }
+          },
+          new Operation("downloadFile") {
+            @Override
+            void run(int iteration) {
+              sink += storage.downloadFile(USER_ID, projectId, blocksFile(iteration % screens),
+                  StorageUtil.DEFAULT_CHARSET).length();
+            }
+          },
+          new Operation("exportProjectSourceZip") {
+            @Override
+            void run(int iteration) throws Exception {
+              sink += storage.exportProjectSourceZip(USER_ID, projectId, false, false, null,
+                  false, false, false, false).getFileCount();
+            }
+          },
+          new Operation("getUserProjects") {
+            @Override
+            void run(int iteration) {
+              sink += storage.getUserProjects(USER_ID, projectIds).size();
+            }
+          },
+          new Operation("createProject") {
+            private long createdId;
+
+            @Override
+            void run(int iteration) {
+              createdId = storage.createProject(OTHER_USER_ID, template, SETTINGS);
+            }
+
+            @Override
+            void cleanUp(int iteration) {
+              storage.deleteProject(OTHER_USER_ID, createdId);
+            }
+          },
+          new Operation("getRecentGalleryApps") {
+            @Override
+            void run(int iteration) {
+              String cursor = null;
+              int start = 0;
+              GalleryAppListResult page;
+              do {
+                page = galleryStorage.getRecentGalleryApps(start, GALLERY_PAGE_SIZE, cursor);
+                cursor = page.getCursor();
+                start += GALLERY_PAGE_SIZE;
+                sink += page.getApps().size();
+              } while (page.getApps().size() == GALLERY_PAGE_SIZE);
+            }
+
+            @Override
+            void cleanUp(int iteration) {
+              flushMemcache();
+            }
+          },
+          new Operation("getMostDownloadedApps") {
+            @Override
+            void run(int iteration) {
+              sink += galleryStorage.getMostDownloadedApps(0, GALLERY_PAGE_SIZE, null)
+                  .getApps().size();
+            }
+
+            @Override
+            void cleanUp(int iteration) {
+              flushMemcache();
+            }
+          },
+          new Operation("cachedMostDownloadedApps") {
+            @Override
+            void run(int iteration) {
+              sink += galleryStorage.getMostDownloadedApps(0, GALLERY_PAGE_SIZE, null)
+                  .getApps().size();
+            }
+          });
+
+      for (Operation operation : operations) {
+        measure(operation, screens, assets);
+      }
+    } finally {
+      helper.tearDown();
+    }
+  }
+
+  private void measure(Operation operation, int screens, int assets) throws Exception {
+    for (int i = 0; i < warmups; i++) {
+      operation.run(i);
+      operation.cleanUp(i);
+    }
+    long total = 0;
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      operation.run(warmups + i);
+      long time = System.nanoTime() - start;
+      operation.cleanUp(warmups + i);
+      total += time;
+      min = Math.min(min, time);
+      max = Math.max(max, time);
+    }
+    System.out.println(String.format("%-24s %8d %10d %10.2f %10.2f %10.2f",
+        operation.name, screens, assets, millis(total / Math.max(1, iterations)),
+        millis(min), millis(max)));
+  }
+
+  /*
+   * Drops the cached gallery listings, so that the next run reads them from the datastore.
+   */
+  private static void flushMemcache() {
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+  }
+
+  /*
+   * Creates a project with the given number of screens and megabytes of assets.
+   */
+  private Project createProject(String name, int screens, int assets) {
+    Project project = new Project(name);
+    project.setProjectType(PROJECT_TYPE);
+    project.addTextFile(new TextFile("youngandroidproject/project.properties",
+        "main=com.example.benchmark.Screen1\nname=" + name + "\n"));
+    for (int i = 0; i < screens; i++) {
+      project.addTextFile(new TextFile(PACKAGE_PATH + "Screen" + (i + 1) + ".scm",
+          content(FORM_SIZE)));
+      project.addTextFile(new TextFile(blocksFile(i), content(BLOCKS_SIZE)));
+    }
+    for (int i = 0; i < assets; i++) {
+      byte[] asset = new byte[ASSET_FILE_SIZE];
+      random.nextBytes(asset);
+      project.addRawFile(new RawFile("assets/asset" + i + ".png", asset));
+    }
+    return project;
+  }
+
+  private static String blocksFile(int screen) {
+    return PACKAGE_PATH + "Screen" + (screen + 1) + ".bky";
+  }
+
+  private String content(int size) {
+    char[] chars = new char[size];
+    for (int i = 0; i < size; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static int[] parseInts(String list) {
+    List<Integer> values = new ArrayList<Integer>();
+    for (String value : list.split(",")) {
+      if (!value.trim().isEmpty()) {
+        values.add(Integer.parseInt(value.trim()));
+      }
+    }
+    int[] result = new int[values.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+}
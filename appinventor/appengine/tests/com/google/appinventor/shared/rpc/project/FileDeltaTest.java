@@ -0,0 +1,50 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FileDelta}.
+ */
+public class FileDeltaTest extends TestCase {
+  private static final String BASE = "<xml><block type=\"a\"/><block type=\"b\"/></xml>";
+
+  private static void assertRoundTrip(String base, String content) throws Exception {
+    FileDelta delta = FileDelta.create(base, content);
+    assertEquals(content, delta.apply(base));
+  }
+
+  public void testRoundTrip() throws Exception {
+    assertRoundTrip(BASE, BASE);
+    assertRoundTrip(BASE, BASE.replace("\"b\"", "\"c\""));
+    assertRoundTrip(BASE, BASE.replace("<block type=\"a\"/>", ""));
+    assertRoundTrip(BASE, BASE.replace("</xml>", "<block type=\"d\"/></xml>"));
+    assertRoundTrip(BASE, "");
+    assertRoundTrip("", BASE);
+    // The common prefix and suffix overlap.
+    assertRoundTrip("aaa", "aaaa");
+    assertRoundTrip("aaaa", "aa");
+    assertRoundTrip("\u00e9t\u00e9", "\u00e9t\u00e9 \u4e2d");
+  }
+
+  public void testOnlyTheChangeIsSent() throws Exception {
+    FileDelta delta = FileDelta.create(BASE, BASE.replace("\"b\"", "\"c\""));
+    assertEquals(1, delta.getInsertedLength());
+    assertFalse(delta.isEmpty());
+    assertTrue(FileDelta.create(BASE, BASE).isEmpty());
+  }
+
+  public void testWrongBaseIsRejected() throws Exception {
+    FileDelta delta = FileDelta.create(BASE, BASE.replace("\"b\"", "\"c\""));
+    try {
+      delta.apply(BASE.replace("\"a\"", "\"z\""));
+      fail();
+    } catch (ChecksumedFileException e) {
+      // expected
+    }
+  }
+}
@@ -1306,7 +1306,10 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // AI2: No blocks need to be modified to upgrade to version 10
     // The default value of TextAlignment was changed from Normal (left) to Center
-    10: "noUpgrade"
+    10: "noUpgrade",
+
+    // AI2: The FramesPerSecond and FrameTime properties were added.
+    11: "noUpgrade"
 
   }, // End Canvas upgraders
 
@@ -2372,7 +2375,10 @@ Blockly.Versioning.AllUpgradeMaps =
     3: "ai1CantDoUpgrade", // Just indicates we couldn't do upgrade even if we wanted to
 
     // AI2: Added method XMLTextDecode
-    4: "noUpgrade"
+    4: "noUpgrade",
+
+    // AI2: The CacheResponses property was added.
+    5: "noUpgrade"
 
   }, // End Web upgraders
 
@@ -0,0 +1,242 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A cache of successfully built APKs, keyed by a hash of everything that
+ * goes into a build.
+ *
+ * <p>The key covers the project sources (.scm, .bky and .yail files, with
+ * line endings normalized), the assets, project.properties, the keystore,
+ * whether the build is for the companion app, and the component build info
+ * and version of this build server. Rebuilding an unchanged project returns
+ * the APK produced by the previous build without running the compiler.
+ *
+ * <p>Each entry holds the APK and the compiler messages. The total size of
+ * the entries is bounded; the least recently used entries are deleted first.
+ *
+ * <p>The cache is disabled unless the --buildCacheDir command line option is
+ * given.
+ */
+final class BuildCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  private static final String MESSAGES_FILE_NAME = "messages.txt";
+
+  private static final String BLOCKLY_SOURCE_EXTENSION = ".bky";
+
+  // The cache shared by all builds, or null if the cache is disabled.
+  private static volatile BuildCache instance;
+
+  private final DiskLruCache cache;
+
+  /**
+   * A build found in the cache.
+   */
+  static final class Entry {
+    private final File apk;
+    private final String messages;
+
+    Entry(File apk, String messages) {
+      this.apk = apk;
+      this.messages = messages;
+    }
+
+    File getApk() {
+      return apk;
+    }
+
+    String getMessages() {
+      return messages;
+    }
+  }
+
+  /**
+   * Creates the shared cache.
+   *
+   * @param cacheDirPath  the directory that holds the cached builds, or null to disable the cache
+   * @param maxSizeMb  the maximum total size of the cached builds, in MB
+   */
+  static synchronized void initialize(String cacheDirPath, int maxSizeMb) {
+    if (cacheDirPath == null || maxSizeMb <= 0) {
+      instance = null;
+      return;
+    }
+    instance = new BuildCache(new File(cacheDirPath), maxSizeMb * 1024L * 1024L);
+  }
+
+  /**
+   * Returns the shared cache, or {@code null} if the cache is disabled.
+   */
+  static BuildCache getInstance() {
+    return instance;
+  }
+
+  @VisibleForTesting
+  BuildCache(File cacheDir, long maxSizeBytes) {
+    cache = new DiskLruCache(cacheDir, maxSizeBytes);
+  }
+
+  /**
+   * Computes the cache key for the given project.
+   *
+   * @param inputZip  the zip file representing the App Inventor source code
+   * @param isForCompanion  whether the project is the companion app
+   * @return the key, or {@code null} if the build must not be cached
+   */
+  static String computeKey(ZipFile inputZip, boolean isForCompanion) throws IOException {
+    // Sort the entries so that the key doesn't depend on the order of the zip file.
+    Map<String, ZipEntry> sortedEntries = Maps.newTreeMap();
+    Enumeration<? extends ZipEntry> zipEntries = inputZip.entries();
+    while (zipEntries.hasMoreElements()) {
+      ZipEntry zipEntry = zipEntries.nextElement();
+      if (!zipEntry.isDirectory()) {
+        sortedEntries.put(zipEntry.getName(), zipEntry);
+      }
+    }
+    if (!sortedEntries.containsKey(YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION)) {
+      // A new keystore is generated for each build, so the APK would be signed differently.
+      return null;
+    }
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(GitBuildId.getVersion() + "", Charsets.UTF_8);
+    hasher.putString(GitBuildId.getFingerprint() + "", Charsets.UTF_8);
+    URL buildInfo = Compiler.class.getResource(Compiler.COMP_BUILD_INFO);
+    if (buildInfo != null) {
+      hasher.putBytes(Resources.toByteArray(buildInfo));
+    }
+    hasher.putBoolean(isForCompanion);
+    for (ZipEntry zipEntry : sortedEntries.values()) {
+      String name = zipEntry.getName();
+      hasher.putString(name, Charsets.UTF_8);
+      InputStream in = inputZip.getInputStream(zipEntry);
+      try {
+        if (isSourceFile(name)) {
+          String content = CharStreams.toString(new InputStreamReader(in, Charsets.UTF_8));
+          hasher.putString(content.replace("\r\n", "\n"), Charsets.UTF_8);
+        } else {
+          byte[] buffer = new byte[8192];
+          int count;
+          while ((count = in.read(buffer)) != -1) {
+            hasher.putBytes(buffer, 0, count);
+          }
+        }
+      } finally {
+        in.close();
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static boolean isSourceFile(String name) {
+    return name.endsWith(YoungAndroidConstants.FORM_PROPERTIES_EXTENSION) ||
+        name.endsWith(YoungAndroidConstants.CODEBLOCKS_SOURCE_EXTENSION) ||
+        name.endsWith(BLOCKLY_SOURCE_EXTENSION) ||
+        name.endsWith(YoungAndroidConstants.YAIL_EXTENSION) ||
+        name.endsWith("project.properties");
+  }
+
+  /**
+   * Copies the APK of the cached build for the given key into the given directory.
+   *
+   * @param key  the key returned by {@link #computeKey}
+   * @param outputDir  the directory that the APK is copied to
+   * @return the cached build, with the copy of the APK, or {@code null} if there isn't one
+   */
+  Entry restore(String key, File outputDir) {
+    File entryDir = cache.get(key);
+    if (entryDir == null) {
+      return null;
+    }
+    File apk = null;
+    File[] files = entryDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().endsWith(".apk")) {
+          apk = file;
+        }
+      }
+    }
+    try {
+      if (apk == null) {
+        throw new IOException("No apk in " + entryDir);
+      }
+      String messages = Files.toString(new File(entryDir, MESSAGES_FILE_NAME), Charsets.UTF_8);
+      File outputApk = new File(outputDir, apk.getName());
+      Files.copy(apk, outputApk);
+      cache.release(key);
+      return new Entry(outputApk, messages);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read cached build " + key, e);
+      cache.invalidate(key);
+      return null;
+    }
+  }
+
+  /**
+   * Adds a successful build to the cache.
+   *
+   * @param key  the key returned by {@link #computeKey}
+   * @param apk  the APK produced by the build
+   * @param messages  the compiler messages
+   */
+  void put(String key, final File apk, final String messages) {
+    cache.put(key, new DiskLruCache.EntryWriter() {
+      @Override
+      public void write(File entryDir) throws IOException {
+        Files.copy(apk, new File(entryDir, apk.getName()));
+        Files.write(messages, new File(entryDir, MESSAGES_FILE_NAME), Charsets.UTF_8);
+      }
+    });
+  }
+
+  int getEntryCount() {
+    return cache.getEntryCount();
+  }
+
+  int getHitCount() {
+    return cache.getHitCount();
+  }
+
+  int getMissCount() {
+    return cache.getMissCount();
+  }
+
+  int getEvictionCount() {
+    return cache.getEvictionCount();
+  }
+
+  /**
+   * Adds the statistics of the cache to the given map of /buildserver/vars variables.
+   */
+  void putVariables(Map<String, String> variables) {
+    cache.putVariables("build-cache-", variables);
+  }
+}
@@ -79,6 +79,18 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that wait for one of the --maxSimultaneousBuilds to finish. Additional builds are rejected.")
+    int maxQueuedBuilds = 20;
+
+    @Option(name = "--maxBuildsPerUser",
+      usage = "Maximum number of builds that a single user can have queued or running. O means unlimited.")
+    int maxBuildsPerUser = 2;  // One running and one waiting, for a user who rebuilds.
+
+    @Option(name = "--kawaCompilerPoolSize",
+      usage = "Number of resident Kawa compiler processes shared by all builds. 0 means that every build starts its own Kawa process.")
+    int kawaCompilerPoolSize = 0;  // The default is no pool.
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -95,6 +107,22 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--buildCacheDir",
+            usage = "the directory to cache the output of previous builds. If not specified, builds are not cached.")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheSizeMb",
+            usage = "Maximum size of the build cache, in MB.")
+    int buildCacheSizeMb = 1024;
+
+    @Option(name = "--yailClassCacheDir",
+            usage = "the directory to cache the classes compiled for each screen. If not specified, all screens are compiled in every build.")
+    String yailClassCacheDir = null;
+
+    @Option(name = "--yailClassCacheSizeMb",
+            usage = "Maximum size of the screen class cache, in MB.")
+    int yailClassCacheSizeMb = 1024;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -130,7 +158,7 @@ public class BuildServer {
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static QueuingBuildExecutor buildExecutor;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -187,6 +215,18 @@ public class BuildServer {
     }
   }
 
+  /**
+   * Returns the percentiles of the wall time, child process CPU time and child process peak
+   * memory of each build stage, over the most recent builds.
+   */
+  @GET
+  @Path("telemetry")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response telemetry() throws JSONException {
+    return Response.ok(BuildTelemetry.getInstance().toJson().toString(),
+        MediaType.APPLICATION_JSON_TYPE).build();
+  }
+
   @GET
   @Path("vars")
   @Produces(MediaType.TEXT_HTML)
@@ -245,6 +285,53 @@ public class BuildServer {
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
 
+    // Build queue
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueueLength() + "");
+    variables.put("maximum-queued-build-tasks-occurred",
+        buildExecutor.getMaximumQueueLength() + "");
+    variables.put("build-tasks-that-waited", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("rejected-build-tasks", buildExecutor.getRejectedTaskCount() + "");
+    variables.put("average-build-queue-wait-in-ms",
+        buildExecutor.getAverageQueueWaitMillis() + "");
+    variables.put("average-build-task-in-ms", buildExecutor.getAverageTaskMillis() + "");
+
+    // Build cache
+    BuildCache buildCache = BuildCache.getInstance();
+    if (buildCache == null) {
+      variables.put("build-cache", "disabled");
+    } else {
+      buildCache.putVariables(variables);
+    }
+
+    // YAIL generation
+    YailGenerationService.getInstance().putVariables(variables);
+
+    // Screen class cache
+    YailClassCache yailClassCache = YailClassCache.getInstance();
+    if (yailClassCache == null) {
+      variables.put("yail-class-cache", "disabled");
+    } else {
+      yailClassCache.putVariables(variables);
+    }
+
+    // Kawa compiler pool
+    KawaCompilerPool kawaCompilerPool = KawaCompilerPool.getInstance();
+    if (kawaCompilerPool == null) {
+      variables.put("kawa-compiler-pool-size", "disabled");
+    } else {
+      variables.put("kawa-compiler-pool-size", kawaCompilerPool.getSize() + "");
+      variables.put("kawa-compiler-pool-idle-workers", kawaCompilerPool.getIdleCount() + "");
+      variables.put("kawa-compiler-pool-compiles", kawaCompilerPool.getCompileCount() + "");
+      variables.put("kawa-compiler-pool-failed-compiles",
+          kawaCompilerPool.getFailedCompileCount() + "");
+      variables.put("kawa-compiler-pool-worker-starts",
+          kawaCompilerPool.getWorkerStartCount() + "");
+    }
+
+    // Build stages
+    BuildStageScheduler.getInstance().putVariables(variables);
+
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
     for (Map.Entry<String, String> variable : variables.entrySet()) {
@@ -378,6 +465,10 @@ public class BuildServer {
    * files as well as the APK file if the build succeeded and the android.keystore file if it was
    * not provided in the input zip
    *
+   * If the progressUrlStr is given, we'll post the progress of the build to it while the build
+   * runs, by appending "/" and the percentage done. It must be on the same host as the
+   * callbackUrlStr.
+   *
    * Before building the app, we'll check that the gitBuildVersion parameter (if present) equals
    * GitBuildId.getVersion(). If the values are different, we won't even try to build
    * the app. This may seem too strict, but we need to make sure that when we build apps, we use
@@ -387,10 +478,14 @@ public class BuildServer {
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
+   * If all build workers are busy, the build waits in a queue. Its position and the estimated
+   * wait before it starts are logged.
+   *
    * @param userName  The user name to be used in making the CN entry in the generated keystore.
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
+   * @param progressUrlStr  An url to send the progress of the build to (optional).
    * @param inputZipFile  The zip file representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
@@ -400,6 +495,7 @@ public class BuildServer {
   public Response buildAllFromZipFileAsync(
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
+    @QueryParam("progress") final String progressUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
     final File inputZipFile) throws IOException {
     // Set the inputZip field so we can delete the input zip file later in
@@ -408,7 +504,8 @@ public class BuildServer {
     inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
     String requesting_host = (new URL(callbackUrlStr)).getHost();
 
-    //for the request for update part, the file should be empty
+    // Older App Inventor servers poll for the progress of a build with an empty file. Progress is
+    // now posted to the progress url, so there is nothing to do.
     if (inputZip.length() == 0L) {
       cleanUp();
     } else {
@@ -435,6 +532,18 @@ public class BuildServer {
         LOG.info("requiredHosts is not set, no restriction on callback url.");
       }
 
+      final ProgressCallback progressReporter;
+      if (progressUrlStr != null && !progressUrlStr.isEmpty()) {
+        if (!new URL(progressUrlStr).getHost().equals(requesting_host)) {
+          cleanUp();
+          return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN_TYPE)
+              .entity("The progress url must be on the same host as the callback url.").build();
+        }
+        progressReporter = new ProgressCallback(progressUrlStr);
+      } else {
+        progressReporter = null;
+      }
+
       asyncBuildRequests.incrementAndGet();
 
       if (gitBuildVersion != null && !gitBuildVersion.isEmpty()) {
@@ -459,10 +568,11 @@ public class BuildServer {
           @Override
           public void run() {
             int count = buildCount.incrementAndGet();
+            boolean delivered = false;
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              buildAndCreateZip(userName, inputZipFile, progressReporter);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -474,6 +584,9 @@ public class BuildServer {
               connection.addRequestProperty("Content-Type","application/zip; charset=utf-8");
               connection.setConnectTimeout(60000);
               connection.setReadTimeout(60000);
+              // Stream the zip from disk, rather than letting HttpURLConnection buffer all of it
+              // in memory to find its length.
+              connection.setFixedLengthStreamingMode(outputZip.length());
               BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
               try {
                 BufferedInputStream bufferedInputStream = new BufferedInputStream(
@@ -490,22 +603,30 @@ public class BuildServer {
               }
               if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {LOG.severe("Bad Response Code!: "+ connection.getResponseCode());
                 // TODO(user) Maybe do some retries
+              } else {
+                delivered = true;
               }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
               LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
             } finally {
+              if (!delivered && progressReporter != null) {
+                // Otherwise the App Inventor server shows the build as in progress until its
+                // record expires.
+                progressReporter.abort();
+              }
               cleanUp();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
             }
           }
         };
+      QueuingBuildExecutor.Admission admission;
       try {
-        buildExecutor.execute(buildTask);
+        admission = buildExecutor.execute(userName, buildTask);
       } catch (RejectedExecutionException e) {
-        // This request was rejected because all threads in the build
-        // executor are busy.
+        // This request was rejected because the build queue is full or
+        // because the user already has the maximum number of builds.
         rejectedAsyncBuildRequests.incrementAndGet();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
@@ -516,14 +637,23 @@ public class BuildServer {
         // alleviated after some delay."
         return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
       }
+      if (admission.getQueuePosition() > 0) {
+        LOG.info("Build queued at position " + admission.getQueuePosition() +
+            ", estimated wait " + admission.getEstimatedWaitMillis() + " ms");
+      }
+      return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).build();
     }
-    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).build();
   }
 
   private void buildAndCreateZip(String userName, File inputZipFile)
     throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+    buildAndCreateZip(userName, inputZipFile, null);
+  }
+
+  private void buildAndCreateZip(String userName, File inputZipFile,
+    ProgressReporter progressReporter) throws IOException, JSONException {
+    Result buildResult = build(userName, inputZipFile, progressReporter);
     boolean buildSucceeded = buildResult.succeeded();
     outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
@@ -562,6 +692,11 @@ public class BuildServer {
   }
 
   private Result build(String userName, File zipFile) throws IOException {
+    return build(userName, zipFile, null);
+  }
+
+  private Result build(String userName, File zipFile, ProgressReporter progressReporter)
+    throws IOException {
     outputDir = Files.createTempDir();
     // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
     // executes. However, it is likely that the directory won't be empty and therefore, won't
@@ -569,7 +704,7 @@ public class BuildServer {
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
     Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, progressReporter);
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -625,7 +760,15 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new QueuingBuildExecutor(commandLineOptions.maxSimultaneousBuilds,
+        commandLineOptions.maxQueuedBuilds, commandLineOptions.maxBuildsPerUser);
+    KawaCompilerPool.initialize(commandLineOptions.kawaCompilerPoolSize,
+        commandLineOptions.childProcessRamMb);
+    BuildStageScheduler.initialize(commandLineOptions.childProcessRamMb,
+        commandLineOptions.kawaCompilerPoolSize);
+    BuildCache.initialize(commandLineOptions.buildCacheDir, commandLineOptions.buildCacheSizeMb);
+    YailClassCache.initialize(commandLineOptions.yailClassCacheDir,
+        commandLineOptions.yailClassCacheSizeMb);
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -637,7 +780,9 @@ public class BuildServer {
       LOG.info("Maximum simultanous builds = unlimited!");
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
     }
+    LOG.info("Kawa compiler pool size = " + commandLineOptions.kawaCompilerPoolSize);
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
@@ -0,0 +1,246 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of builds that run each expensive stage at the same time.
+ *
+ * <p>Every stage has its own bounded set of permits, so a build waiting for
+ * DX doesn't hold up another build that wants to run AAPT. The stages that
+ * launch large JVMs (YAIL generation, Kawa and DX) are bounded by the memory
+ * available for child processes; the others are bounded by the number of
+ * processors.
+ *
+ * <p>Usage:
+ * <pre>
+ *   scheduler.acquire(Stage.DX);
+ *   try {
+ *     ...
+ *   } finally {
+ *     scheduler.release(Stage.DX);
+ *   }
+ * </pre>
+ */
+final class BuildStageScheduler {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildStageScheduler.class.getName());
+
+  /**
+   * The build stages that are scheduled.
+   */
+  enum Stage {
+    YAIL("yail"),
+    KAWA("kawa"),
+    DX("dx"),
+    AAPT("aapt"),
+    SIGNING("signing"),
+    ZIPALIGN("zipalign");
+
+    private final String name;
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Returns the name used for this stage in the /buildserver/vars output.
+     */
+    String getName() {
+      return name;
+    }
+  }
+
+  // The scheduler shared by all builds.
+  private static BuildStageScheduler instance;
+
+  private final Map<Stage, StageQueue> queues = new EnumMap<Stage, StageQueue>(Stage.class);
+
+  /**
+   * Creates the scheduler shared by all builds.
+   *
+   * @param childProcessRamMb  maximum ram that can be used by a child processes, in MB
+   * @param kawaCompilerPoolSize  the number of resident Kawa compilers, or 0 if there is no pool
+   */
+  static synchronized void initialize(int childProcessRamMb, int kawaCompilerPoolSize) {
+    instance = new BuildStageScheduler(computePermits(
+        Runtime.getRuntime().availableProcessors(), getTotalMemoryMb(), childProcessRamMb,
+        kawaCompilerPoolSize));
+  }
+
+  /**
+   * Returns the scheduler shared by all builds. If {@link #initialize} hasn't been called (for
+   * example, when building from the command line), a default scheduler is created.
+   */
+  static synchronized BuildStageScheduler getInstance() {
+    if (instance == null) {
+      initialize(2048, 0);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  BuildStageScheduler(Map<Stage, Integer> permits) {
+    for (Stage stage : Stage.values()) {
+      Integer stagePermits = permits.get(stage);
+      queues.put(stage, new StageQueue(stagePermits == null ? 1 : stagePermits));
+    }
+    LOG.info("Build stage permits: " + permits);
+  }
+
+  @VisibleForTesting
+  static Map<Stage, Integer> computePermits(int processors, long totalMemoryMb,
+      int childProcessRamMb, int kawaCompilerPoolSize) {
+    // The number of Kawa or DX processes that fit in memory. If we don't know how much memory
+    // there is, assume one per processor.
+    int memorySlots = (totalMemoryMb > 0 && childProcessRamMb > 0)
+        ? (int) Math.max(1, totalMemoryMb / childProcessRamMb)
+        : processors;
+
+    int kawaPermits;
+    int dxPermits;
+    if (kawaCompilerPoolSize > 0) {
+      // The resident Kawa compilers have already claimed their memory.
+      kawaPermits = kawaCompilerPoolSize;
+      dxPermits = Math.max(1, Math.min(processors, memorySlots - kawaCompilerPoolSize));
+    } else {
+      kawaPermits = Math.max(1, Math.min(processors, memorySlots / 2));
+      dxPermits = kawaPermits;
+    }
+
+    // YailGenerator processes use less memory than Kawa or DX.
+    int yailPermits = (totalMemoryMb > 0)
+        ? (int) Math.max(1, Math.min(processors,
+            totalMemoryMb / YailGenerationService.GENERATOR_RAM_MB))
+        : processors;
+
+    Map<Stage, Integer> permits = new EnumMap<Stage, Integer>(Stage.class);
+    permits.put(Stage.YAIL, yailPermits);
+    permits.put(Stage.KAWA, kawaPermits);
+    permits.put(Stage.DX, dxPermits);
+    permits.put(Stage.AAPT, Math.max(1, processors));
+    permits.put(Stage.SIGNING, Math.max(1, processors));
+    permits.put(Stage.ZIPALIGN, Math.max(1, processors));
+    return permits;
+  }
+
+  /*
+   * Returns the total physical memory in MB, or 0 if it is not known.
+   */
+  @SuppressWarnings("deprecation")  // getTotalMemorySize() replaces it only in JDK 14.
+  private static long getTotalMemoryMb() {
+    OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) osBean).getTotalPhysicalMemorySize()
+          / (1024 * 1024);
+    }
+    return 0;
+  }
+
+  /**
+   * Waits until the given stage can be run by the calling build.
+   */
+  void acquire(Stage stage) {
+    queues.get(stage).acquire();
+  }
+
+  /**
+   * Indicates that the calling build has finished the given stage.
+   */
+  void release(Stage stage) {
+    queues.get(stage).release();
+  }
+
+  int getPermits(Stage stage) {
+    return queues.get(stage).permits;
+  }
+
+  int getActiveCount(Stage stage) {
+    return queues.get(stage).active.get();
+  }
+
+  int getQueueDepth(Stage stage) {
+    return queues.get(stage).waiting.get();
+  }
+
+  long getCompletedCount(Stage stage) {
+    return queues.get(stage).acquisitions.get();
+  }
+
+  long getTotalWaitMillis(Stage stage) {
+    return queues.get(stage).totalWaitMillis.get();
+  }
+
+  long getMaxWaitMillis(Stage stage) {
+    return queues.get(stage).maxWaitMillis.get();
+  }
+
+  /**
+   * Adds the statistics for each stage to the given map of /buildserver/vars variables.
+   */
+  void putVariables(Map<String, String> variables) {
+    for (Stage stage : Stage.values()) {
+      String prefix = "stage-" + stage.getName() + "-";
+      long acquisitions = getCompletedCount(stage);
+      variables.put(prefix + "permits", getPermits(stage) + "");
+      variables.put(prefix + "active", getActiveCount(stage) + "");
+      variables.put(prefix + "queue-depth", getQueueDepth(stage) + "");
+      variables.put(prefix + "count", acquisitions + "");
+      variables.put(prefix + "average-wait-in-ms",
+          (acquisitions == 0 ? 0 : getTotalWaitMillis(stage) / acquisitions) + "");
+      variables.put(prefix + "maximum-wait-in-ms", getMaxWaitMillis(stage) + "");
+    }
+  }
+
+  private static class StageQueue {
+    private final int permits;
+    private final Semaphore semaphore;
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong acquisitions = new AtomicLong(0);
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+    private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
+    StageQueue(int permits) {
+      this.permits = permits;
+      // Fair, so that builds run each stage in the order in which they arrived.
+      semaphore = new Semaphore(permits, true);
+    }
+
+    void acquire() {
+      long start = System.currentTimeMillis();
+      waiting.incrementAndGet();
+      try {
+        semaphore.acquireUninterruptibly();
+      } finally {
+        waiting.decrementAndGet();
+      }
+      active.incrementAndGet();
+      long wait = System.currentTimeMillis() - start;
+      acquisitions.incrementAndGet();
+      totalWaitMillis.addAndGet(wait);
+      long max = maxWaitMillis.get();
+      while (wait > max && !maxWaitMillis.compareAndSet(max, wait)) {
+        max = maxWaitMillis.get();
+      }
+    }
+
+    void release() {
+      active.decrementAndGet();
+      semaphore.release();
+    }
+  }
+}
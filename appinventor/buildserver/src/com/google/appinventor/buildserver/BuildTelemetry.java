@@ -0,0 +1,302 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Collects the wall time, child process CPU time and child process peak
+ * resident set size of each stage of each build, and aggregates them into
+ * percentiles that are served by /buildserver/telemetry.
+ *
+ * <p>Usage, in {@link Compiler#compile}:
+ * <pre>
+ *   BuildTelemetry.Build telemetry = BuildTelemetry.getInstance().startBuild();
+ *   try {
+ *     telemetry.startStage("dx");
+ *     ...
+ *     telemetry.startStage("aapt");
+ *     ...
+ *   } finally {
+ *     telemetry.finish(success);
+ *   }
+ * </pre>
+ *
+ * <p>Child processes started by the thread that is running a stage are
+ * attributed to that stage; see {@link ProcessMonitor}.
+ */
+final class BuildTelemetry {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildTelemetry.class.getName());
+
+  // The number of most recent samples that the percentiles are computed from.
+  private static final int SAMPLES = 1000;
+
+  // The name of the pseudo stage that covers the whole build.
+  static final String TOTAL = "total";
+
+  private static final BuildTelemetry instance = new BuildTelemetry();
+
+  // The stage that each thread is running.
+  private static final ThreadLocal<StageRecord> currentStage = new ThreadLocal<StageRecord>();
+
+  // The statistics of each stage, in the order in which the stages first ran. Guarded by this.
+  private final Map<String, StageStatistics> stages = new LinkedHashMap<String, StageStatistics>();
+  private int successfulBuilds;
+  private int failedBuilds;
+
+  static BuildTelemetry getInstance() {
+    return instance;
+  }
+
+  @VisibleForTesting
+  BuildTelemetry() {
+  }
+
+  /**
+   * Starts collecting the telemetry of a build on the current thread.
+   */
+  Build startBuild() {
+    return new Build();
+  }
+
+  /**
+   * Adds the resources used by a child process to the stage that the current thread is running,
+   * if any.
+   */
+  static void recordChildProcess(long cpuMillis, long peakRssKb) {
+    StageRecord stage = currentStage.get();
+    if (stage != null) {
+      stage.addChildProcess(cpuMillis, peakRssKb);
+    }
+  }
+
+  /**
+   * Returns the stage that the current thread is running, so that work done for the stage on
+   * other threads can be attributed to it with {@link #setCurrentStage}.
+   */
+  static Object getCurrentStage() {
+    return currentStage.get();
+  }
+
+  /**
+   * Attributes the child processes started by the current thread to the given stage, which was
+   * returned by {@link #getCurrentStage}, or to no stage if it is {@code null}.
+   */
+  static void setCurrentStage(Object stage) {
+    if (stage == null) {
+      currentStage.remove();
+    } else {
+      currentStage.set((StageRecord) stage);
+    }
+  }
+
+  private synchronized void record(Build build, boolean success) {
+    if (success) {
+      successfulBuilds++;
+    } else {
+      failedBuilds++;
+    }
+    for (StageRecord stage : build.getStages()) {
+      StageStatistics statistics = stages.get(stage.name);
+      if (statistics == null) {
+        statistics = new StageStatistics();
+        stages.put(stage.name, statistics);
+      }
+      statistics.add(stage);
+    }
+  }
+
+  /**
+   * Returns the aggregated telemetry as JSON.
+   */
+  synchronized JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("successful-builds", successfulBuilds);
+    json.put("failed-builds", failedBuilds);
+    json.put("samples-per-stage", SAMPLES);
+    JSONObject stagesJson = new JSONObject();
+    for (Map.Entry<String, StageStatistics> entry : stages.entrySet()) {
+      stagesJson.put(entry.getKey(), entry.getValue().toJson());
+    }
+    json.put("stages", stagesJson);
+    return json;
+  }
+
+  /**
+   * The telemetry of one build. The stages of a build may run concurrently on different threads;
+   * each thread runs one stage at a time.
+   */
+  final class Build {
+    private final long start = System.currentTimeMillis();
+    // Guarded by this.
+    private final List<StageRecord> stages = Lists.newArrayList();
+    private boolean finished;
+
+    private Build() {
+    }
+
+    /**
+     * Ends the stage that the current thread is running, if any, and starts the given one on the
+     * current thread.
+     */
+    void startStage(String name) {
+      endStage();
+      StageRecord stage = new StageRecord(name);
+      synchronized (this) {
+        stages.add(stage);
+      }
+      currentStage.set(stage);
+    }
+
+    /**
+     * Ends the stage that the current thread is running, if any.
+     */
+    void endStage() {
+      StageRecord stage = currentStage.get();
+      if (stage != null) {
+        stage.end();
+        currentStage.remove();
+      }
+    }
+
+    /**
+     * Ends the build and adds its telemetry to the aggregated telemetry.
+     */
+    void finish(boolean success) {
+      endStage();
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        finished = true;
+        StageRecord total = new StageRecord(TOTAL);
+        total.startMillis = start;
+        for (StageRecord stage : stages) {
+          // A stage whose thread didn't end it, for example because of an exception.
+          stage.end();
+          total.addChildProcess(stage.cpuMillis, stage.peakRssKb);
+        }
+        total.end();
+        stages.add(total);
+      }
+      LOG.info("Build telemetry (" + (success ? "succeeded" : "failed") + "): " + this);
+      record(this, success);
+    }
+
+    private synchronized List<StageRecord> getStages() {
+      return Lists.newArrayList(stages);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return Joiner.on(", ").join(stages);
+    }
+  }
+
+  private static final class StageRecord {
+    private final String name;
+    private long startMillis = System.currentTimeMillis();
+    private long wallMillis = -1;
+    // Updated by the threads running child processes for this stage.
+    private long cpuMillis;
+    private long peakRssKb;
+
+    StageRecord(String name) {
+      this.name = name;
+    }
+
+    synchronized void end() {
+      if (wallMillis < 0) {
+        wallMillis = System.currentTimeMillis() - startMillis;
+      }
+    }
+
+    synchronized void addChildProcess(long cpu, long peakRss) {
+      cpuMillis += cpu;
+      peakRssKb = Math.max(peakRssKb, peakRss);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return name + "={wall-ms=" + wallMillis + ", cpu-ms=" + cpuMillis + ", peak-rss-kb=" +
+          peakRssKb + "}";
+    }
+  }
+
+  private static final class StageStatistics {
+    private int count;
+    private final Histogram wallMillis = new Histogram();
+    private final Histogram cpuMillis = new Histogram();
+    private final Histogram peakRssKb = new Histogram();
+
+    void add(StageRecord stage) {
+      count++;
+      synchronized (stage) {
+        wallMillis.add(stage.wallMillis);
+        cpuMillis.add(stage.cpuMillis);
+        peakRssKb.add(stage.peakRssKb);
+      }
+    }
+
+    JSONObject toJson() throws JSONException {
+      JSONObject json = new JSONObject();
+      json.put("count", count);
+      json.put("wall-ms", wallMillis.toJson());
+      json.put("cpu-ms", cpuMillis.toJson());
+      json.put("peak-rss-kb", peakRssKb.toJson());
+      return json;
+    }
+  }
+
+  /**
+   * Keeps the most recent samples of a value and computes their percentiles.
+   */
+  @VisibleForTesting
+  static final class Histogram {
+    private final long[] samples = new long[SAMPLES];
+    private int count;
+
+    void add(long value) {
+      samples[count % SAMPLES] = value;
+      count++;
+    }
+
+    /**
+     * Returns the given percentile of the recent samples, using the nearest rank method.
+     */
+    long getPercentile(int percentile) {
+      int size = Math.min(count, SAMPLES);
+      if (size == 0) {
+        return 0;
+      }
+      long[] sorted = Arrays.copyOf(samples, size);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percentile / 100.0 * size);
+      return sorted[Math.max(0, rank - 1)];
+    }
+
+    JSONObject toJson() throws JSONException {
+      JSONObject json = new JSONObject();
+      json.put("p50", getPercentile(50));
+      json.put("p95", getPercentile(95));
+      json.put("p99", getPercentile(99));
+      json.put("max", getPercentile(100));
+      return json;
+    }
+  }
+}
@@ -9,14 +9,17 @@ package com.google.appinventor.buildserver;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.qualcomm.ftcrobotcontroller.BuildConfig; // Added for FIRST Tech Challenge.
 
 import com.android.sdklib.build.ApkBuilder;
 
+import org.apache.commons.io.FileUtils;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -42,8 +45,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,11 +77,6 @@ public final class Compiler {
    * Ext == External, ext == external, EXT == EXTERNAL
    */
 
-  public static int currentProgress = 10;
-
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
-
   private static final String SLASH = File.separator;
   private static final String COLON = File.pathSeparator;
 
@@ -131,7 +135,7 @@ public final class Compiler {
       RUNTIME_FILES_DIR + "acra-4.4.0.jar";
   private static final String ANDROID_RUNTIME =
       RUNTIME_FILES_DIR + "android.jar";
-  private static final String COMP_BUILD_INFO =
+  static final String COMP_BUILD_INFO =
       RUNTIME_FILES_DIR + "simple_components_build_info.json";
   private static final String DX_JAR =
       RUNTIME_FILES_DIR + "dx.jar";
@@ -155,6 +159,9 @@ public final class Compiler {
 
   @VisibleForTesting
   static final String YAIL_RUNTIME = RUNTIME_FILES_DIR + "runtime.scm";
+  // The path of the runtime's main class file, relative to the classes directory, without the
+  // .class extension.
+  private static final String YAIL_RUNTIME_CLASS_PREFIX = "com/google/youngandroid/runtime";
 
   private final ConcurrentMap<String, Set<String>> assetsNeeded =
       new ConcurrentHashMap<String, Set<String>>();
@@ -186,6 +193,32 @@ public final class Compiler {
   private static final ConcurrentMap<String, File> resources =
       new ConcurrentHashMap<String, File>();
 
+  // The class path of the resident Kawa compilers. See getKawaWorkerClasspath().
+  private static String kawaWorkerClasspath;
+
+  // Compiles groups of screens in parallel. See compileWithClassCache().
+  private static final ExecutorService KAWA_GROUP_EXECUTOR =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "KawaGroupCompiler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  // Prepares and packages the resources of each build while its source files are compiled. See
+  // packageResources().
+  private static final ExecutorService RESOURCE_EXECUTOR =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ResourcePackager");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   // Added for FIRST Tech Challenge. begin
   private static final ConcurrentMap<File, String> resourceFileToBasename = new ConcurrentHashMap<File, String>();
   private static final List<String> orderedLibBasenames = new ArrayList<String>();
@@ -240,6 +273,7 @@ public final class Compiler {
   private File libsDir; // The directory that will contain any native libraries for packaging
   private String dexCacheDir;
   private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
+  private ProgressReporter progressReporter; // Receives the progress of the build, if not null
 
   private JSONArray simpleCompsBuildInfo;
   private JSONArray extCompsBuildInfo;
@@ -248,8 +282,9 @@ public final class Compiler {
 
   /**
    * Mapping from type name to path in project to minimize tests against the file system.
+   * It is used by the Kawa thread and the resource packaging thread at the same time.
    */
-  private Map<String, String> extTypePathCache = new HashMap<String, String>();
+  private final Map<String, String> extTypePathCache = new ConcurrentHashMap<String, String>();
 
   private static final Logger LOG = Logger.getLogger(Compiler.class.getName());
 
@@ -708,11 +743,44 @@ public final class Compiler {
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForCompanion, String keystoreFilePath,
                                 int childProcessRam, String dexCacheDir) throws IOException, JSONException {
+    return compile(project, compTypes, out, err, userErrors, isForCompanion, keystoreFilePath,
+        childProcessRam, dexCacheDir, null);
+  }
+
+  /**
+   * Builds a YAIL project, reporting its progress to the given reporter, if it is not null.
+   */
+  static boolean compile(Project project, Set<String> compTypes,
+                         PrintStream out, PrintStream err, PrintStream userErrors,
+                         boolean isForCompanion, String keystoreFilePath,
+                         int childProcessRam, String dexCacheDir,
+                         ProgressReporter progressReporter)
+      throws IOException, JSONException {
+    BuildTelemetry.Build telemetry = BuildTelemetry.getInstance().startBuild();
+    boolean success = false;
+    try {
+      success = compile(project, compTypes, out, err, userErrors, isForCompanion,
+          keystoreFilePath, childProcessRam, dexCacheDir, progressReporter, telemetry);
+      return success;
+    } finally {
+      telemetry.finish(success);
+    }
+  }
+
+  private static boolean compile(Project project, Set<String> compTypes,
+                                 PrintStream out, PrintStream err, PrintStream userErrors,
+                                 boolean isForCompanion, String keystoreFilePath,
+                                 int childProcessRam, String dexCacheDir,
+                                 ProgressReporter progressReporter,
+                                 final BuildTelemetry.Build telemetry)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
+    telemetry.startStage("setup");
 
     // Create a new compiler instance for the compilation
-    Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+    final Compiler compiler = new Compiler(project, compTypes, out, err, userErrors,
+                                           isForCompanion, childProcessRam, dexCacheDir);
+    compiler.progressReporter = progressReporter;
 
     compiler.generateAssets();
     compiler.generateActivities();
@@ -728,46 +796,186 @@ public final class Compiler {
     compiler.generateBroadcastReceiver();
 
     // Create build directory.
-    File buildDir = createDir(project.getBuildDirectory());
+    final File buildDir = createDir(project.getBuildDirectory());
+    final File resDir = createDir(buildDir, "res");
+    final File manifestFile = new File(buildDir, "AndroidManifest.xml");
+    File deployDir = createDir(buildDir, "deploy");
+    final String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
+        project.getProjectName() + ".ap_";
 
+    // The resources, assets and native libraries don't depend on the class files, so they are
+    // prepared and packaged by AAPT while Kawa and DX run. ApkBuilder joins the two.
+    Future<Boolean> resourcesResult = RESOURCE_EXECUTOR.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        try {
+          return compiler.packageResources(buildDir, resDir, manifestFile, tmpPackageName,
+              telemetry);
+        } finally {
+          telemetry.endStage();
+        }
+      }
+    });
+    try {
+      // Create class files.
+      telemetry.startStage("kawa");
+      out.println("________Compiling source files");
+      File classesDir = createDir(buildDir, "classes");
+      if (!compiler.generateClasses(classesDir)) {
+        return false;
+      }
+      compiler.setProgress(35);
+
+      // FIRST Tech Challenge: Generate and compile R.java files used in FTC libraries.
+      if (compiler.hasFtcRobotController) {
+        // The R.java files are generated from the manifest and the resources.
+        telemetry.endStage();
+        if (!awaitResources(resourcesResult)) {
+          return false;
+        }
+        // Generate R.java files used in FTC libraries.
+        telemetry.startStage("ftc-r-java");
+        out.println("________Generating R.java files");
+        File genDir = createDirectory(buildDir, "gen");
+        String[] packages = {
+          "com.google.blocks",
+          "com.qualcomm.ftccommon",
+          "com.qualcomm.hardware",
+          "com.qualcomm.robotcore",
+          "org.firstinspires.inspection"
+        };
+        List<String> genFileNames = Lists.newArrayListWithCapacity(packages.length);
+        for (String customPackage : packages) {
+          if (!compiler.ftcRunAaptPackage(manifestFile, resDir, genDir, customPackage)) {
+            return false;
+          }
+          genFileNames.add(genDir.getAbsolutePath() + File.separatorChar + 
+              customPackage.replace('.', File.separatorChar) + File.separatorChar + "R.java");
+        }
+        // Compile the generated R.java files.
+        out.println("________Compiling R.java files");
+        if (!compiler.ftcRunJavac(classesDir, genFileNames)) {
+          return false;
+        }
+      }
+
+      // Invoke dx on class files
+      telemetry.startStage("dx");
+      out.println("________Invoking DX");
+      // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
+      // overhead for subsequent runs).  I think it's because of the need to dx the entire
+      // kawa runtime every time.  We should probably only do that once and then copy all the
+      // kawa runtime dx files into the generated classes.dex (which would only contain the
+      // files compiled for this project).
+      // Aargh.  It turns out that there's no way to manipulate .dex files to do the above.  An
+      // Android guy suggested an alternate approach of shipping the kawa runtime .dex file as
+      // data with the application and then creating a new DexClassLoader using that .dex file
+      // and with the original app class loader as the parent of the new one.
+      // TODONE(zhuowei): Now using the new Android DX tool to merge dex files
+      // Needs to specify a writable cache dir on the command line that persists after shutdown
+      // Each pre-dexed file is identified via its MD5 hash (since the standard Android SDK's
+      // method of identifying via a hash of the path won't work when files
+      // are copied into temporary storage) and processed via a hacked up version of
+      // Android SDK's Dex Ant task
+      File tmpDir = createDirectory(buildDir, "tmp");
+      String dexedClassesDir = tmpDir.getAbsolutePath();
+      if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
+        return false;
+      }
+      compiler.setProgress(85);
+
+      // Wait for AAPT to package everything else up
+      telemetry.endStage();
+      if (!awaitResources(resourcesResult)) {
+        return false;
+      }
+      compiler.setProgress(90);
+
+      // Seal the apk with ApkBuilder
+      telemetry.startStage("apkbuilder");
+      out.println("________Invoking ApkBuilder");
+      String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH +
+          project.getProjectName() + ".apk";
+      if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
+        return false;
+      }
+      compiler.setProgress(95);
+
+      // Sign the apk file
+      telemetry.startStage("jarsigner");
+      out.println("________Signing the apk file");
+      if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
+        return false;
+      }
+
+      // ZipAlign the apk file
+      telemetry.startStage("zipalign");
+      out.println("________ZipAligning the apk file");
+      if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
+        return false;
+      }
+    } finally {
+      // Don't return, and let the build directory be deleted, while AAPT may still be using it.
+      try {
+        Uninterruptibles.getUninterruptibly(resourcesResult);
+      } catch (ExecutionException e) {
+        // Already reported by awaitResources, or the build failed before it was called.
+      }
+    }
+
+    compiler.setProgress(100);
+
+    out.println("Build finished in " +
+        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+
+    return true;
+  }
+
+  /*
+   * Prepares the application icon, animations, manifest, native libraries and assets, and
+   * packages them with AAPT. Runs on a RESOURCE_EXECUTOR thread, while the source files are
+   * compiled.
+   */
+  private boolean packageResources(File buildDir, File resDir, File manifestFile,
+      String tmpPackageName, BuildTelemetry.Build telemetry) throws IOException {
     // Prepare application icon.
+    telemetry.startStage("icon");
     out.println("________Preparing application icon");
-    File resDir = createDir(buildDir, "res");
     File drawableDir = createDir(resDir, "drawable");
-    if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
+    if (!prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
       return false;
     }
-    setProgress(15);
 
     // Create anim directory and animation xml files
+    telemetry.startStage("animation");
     out.println("________Creating animation xml");
     File animDir = createDir(resDir, "anim");
-    if (!compiler.createAnimationXml(animDir)) {
+    if (!createAnimationXml(animDir)) {
       return false;
     }
 
     // FIRST Tech Challenge: Add resources, assets, and native libraries.
-    if (compiler.hasFtcRobotController) {
+    if (hasFtcRobotController) {
       // Copy resources used in FTC libraries and components.
-      if (!compiler.ftcCreateResources(resDir)) {
+      if (!ftcCreateResources(resDir)) {
         return false;
       }
 
       // Copy assets used in FTC libraries and components.
-      if (!compiler.ftcCreateAssets(project.getAssetsDirectory())) {
+      if (!ftcCreateAssets(project.getAssetsDirectory())) {
         return false;
       }
 
       // Copy native libraries used in FTC libraries and components.
-      if (!compiler.ftcCreateNativeLibs(buildDir)) {
+      if (!ftcCreateNativeLibs(buildDir)) {
         return false;
       }
     }
 
     // Generate AndroidManifest.xml
+    telemetry.startStage("manifest");
     out.println("________Generating manifest file");
-    File manifestFile = new File(buildDir, "AndroidManifest.xml");
-    if (!compiler.writeAndroidManifest(manifestFile)) {
+    if (!writeAndroidManifest(manifestFile)) {
       return false;
     }
     // Added for FIRST Tech Challenge. begin
@@ -778,116 +986,37 @@ public final class Compiler {
           System.getProperty("user.home") + "/ai/Check/AndroidManifest.xml");
     }
     // Added for FIRST Tech Challenge. end
-    setProgress(20);
 
     // Insert native libraries
+    telemetry.startStage("native-libs");
     out.println("________Attaching native libraries");
-    if (!compiler.insertNativeLibs(buildDir)) {
+    if (!insertNativeLibs(buildDir)) {
       return false;
     }
 
     // Add raw assets to sub-directory of project assets.
+    telemetry.startStage("assets");
     out.println("________Attaching component assets");
-    if (!compiler.attachCompAssets()) {
-      return false;
-    }
-
-    // Create class files.
-    out.println("________Compiling source files");
-    File classesDir = createDir(buildDir, "classes");
-    if (!compiler.generateClasses(classesDir)) {
-      return false;
-    }
-    setProgress(35);
-
-    // FIRST Tech Challenge: Generate and compile R.java files used in FTC libraries.
-    if (compiler.hasFtcRobotController) {
-      // Generate R.java files used in FTC libraries.
-      out.println("________Generating R.java files");
-      File genDir = createDirectory(buildDir, "gen");
-      String[] packages = {
-        "com.google.blocks",
-        "com.qualcomm.ftccommon",
-        "com.qualcomm.hardware",
-        "com.qualcomm.robotcore",
-        "org.firstinspires.inspection"
-      };
-      List<String> genFileNames = Lists.newArrayListWithCapacity(packages.length);
-      for (String customPackage : packages) {
-        if (!compiler.ftcRunAaptPackage(manifestFile, resDir, genDir, customPackage)) {
-          return false;
-        }
-        genFileNames.add(genDir.getAbsolutePath() + File.separatorChar + 
-            customPackage.replace('.', File.separatorChar) + File.separatorChar + "R.java");
-      }
-      // Compile the generated R.java files.
-      out.println("________Compiling R.java files");
-      if (!compiler.ftcRunJavac(classesDir, genFileNames)) {
-        return false;
-      }
-    }
-
-    // Invoke dx on class files
-    out.println("________Invoking DX");
-    // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
-    // overhead for subsequent runs).  I think it's because of the need to dx the entire
-    // kawa runtime every time.  We should probably only do that once and then copy all the
-    // kawa runtime dx files into the generated classes.dex (which would only contain the
-    // files compiled for this project).
-    // Aargh.  It turns out that there's no way to manipulate .dex files to do the above.  An
-    // Android guy suggested an alternate approach of shipping the kawa runtime .dex file as
-    // data with the application and then creating a new DexClassLoader using that .dex file
-    // and with the original app class loader as the parent of the new one.
-    // TODONE(zhuowei): Now using the new Android DX tool to merge dex files
-    // Needs to specify a writable cache dir on the command line that persists after shutdown
-    // Each pre-dexed file is identified via its MD5 hash (since the standard Android SDK's
-    // method of identifying via a hash of the path won't work when files
-    // are copied into temporary storage) and processed via a hacked up version of
-    // Android SDK's Dex Ant task
-    File tmpDir = createDirectory(buildDir, "tmp");
-    String dexedClassesDir = tmpDir.getAbsolutePath();
-    if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
+    if (!attachCompAssets()) {
       return false;
     }
-    setProgress(85);
 
     // Invoke aapt to package everything up
+    telemetry.startStage("aapt");
     out.println("________Invoking AAPT");
-    File deployDir = createDir(buildDir, "deploy");
-    String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
-        project.getProjectName() + ".ap_";
-    if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
-      return false;
-    }
-    setProgress(90);
-
-    // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
-    String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH +
-        project.getProjectName() + ".apk";
-    if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
-      return false;
-    }
-    setProgress(95);
-
-    // Sign the apk file
-    out.println("________Signing the apk file");
-    if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
-      return false;
-    }
+    return runAaptPackage(manifestFile, resDir, tmpPackageName);
+  }
 
-    // ZipAlign the apk file
-    out.println("________ZipAligning the apk file");
-    if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
-      return false;
+  /*
+   * Waits for packageResources to finish and returns its result.
+   */
+  private static boolean awaitResources(Future<Boolean> resourcesResult) throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(resourcesResult);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
     }
-
-    setProgress(100);
-
-    out.println("Build finished in " +
-        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
-
-    return true;
   }
 
   /*
@@ -1090,27 +1219,9 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-Dfile.encoding=UTF-8",
-          "-mx" + mx + "M",
-          "-cp", classpath.toString(),
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", classesDir.getAbsolutePath(),
-          // FIRST Tech Challenge: Use the same package as FtcRobotController-release.apk.
-          "-P", (hasFtcRobotController ? BuildConfig.APPLICATION_ID : Signatures.getPackageName(project.getMainClass())) + ".",
-          "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      // FIRST Tech Challenge: Use the same package as FtcRobotController-release.apk.
+      String packagePrefix = (hasFtcRobotController ? BuildConfig.APPLICATION_ID :
+          Signatures.getPackageName(project.getMainClass())) + ".";
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
@@ -1118,9 +1229,15 @@ public final class Compiler {
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      YailClassCache classCache = YailClassCache.getInstance();
+      if (classCache == null) {
+        List<String> kawaSources = Lists.newArrayList(sourceFileNames);
+        kawaSources.add(yailRuntime);
+        kawaSuccess = runKawa(classesDir, packagePrefix, kawaSources, classpath.toString(),
+            kawaOutputStream);
+      } else {
+        kawaSuccess = compileWithClassCache(classCache, classesDir, packagePrefix,
+            sourceFileNames, classFileNames, classpath.toString(), kawaOutputStream);
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
@@ -1153,6 +1270,229 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Runs the Kawa compiler, using a resident Kawa compiler if possible.
+   *
+   * @param outputDir  the directory that the classes are written to
+   * @param packagePrefix  the package of the generated classes, followed by "."
+   * @param kawaSources  the files to compile, ending with runtime.scm
+   * @param classpath  the class path of a separate Kawa process
+   * @param kawaOutputStream  receives the output of the Kawa compiler
+   * @return  {@code true} if the compilation succeeds
+   */
+  private boolean runKawa(File outputDir, String packagePrefix, List<String> kawaSources,
+      String classpath, ByteArrayOutputStream kawaOutputStream) throws IOException {
+    String yailRuntime = getResource(YAIL_RUNTIME);
+    List<String> kawaCompileArgs = Lists.newArrayList();
+    Collections.addAll(kawaCompileArgs,
+        "-d", outputDir.getAbsolutePath(),
+        "-P", packagePrefix,
+        "-C");
+    // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
+    // source file names. The resulting .class files contain references to the source file names,
+    // including the name of the tmp directory that contains them. We may be able to avoid that
+    // by using source file names that are relative to the project root and using the project
+    // root as the working directory for the Kawa compiler process.
+    kawaCompileArgs.addAll(kawaSources);
+
+    Boolean kawaSuccess = null;
+    // Kawa processes can use a lot of memory, so the number of simultaneous compilations is
+    // limited by the build stage scheduler.
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.KAWA);
+    try {
+      // The resident Kawa compilers only have the built-in component libraries on their class
+      // path, so projects that use extensions are compiled in a separate process.
+      KawaCompilerPool kawaCompilerPool = KawaCompilerPool.getInstance();
+      if (kawaCompilerPool != null && extCompTypes.isEmpty()) {
+        try {
+          kawaSuccess = kawaCompilerPool.compile(kawaCompileArgs, kawaOutputStream);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Kawa compiler pool failed, compiling in a separate process.",
+              e);
+          kawaOutputStream.reset();
+        }
+      }
+      if (kawaSuccess == null) {
+        List<String> kawaCommandArgs = Lists.newArrayList();
+        int mx = childProcessRamMb - 200;
+        Collections.addAll(kawaCommandArgs,
+            System.getProperty("java.home") + "/bin/java",
+            "-Dfile.encoding=UTF-8",
+            "-mx" + mx + "M",
+            "-cp", classpath,
+            "kawa.repl",
+            "-f", yailRuntime);
+        kawaCommandArgs.addAll(kawaCompileArgs);
+        String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+        kawaSuccess = Execution.execute(null, kawaCommandLine,
+            System.out, new PrintStream(kawaOutputStream));
+      }
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.KAWA);
+    }
+    return kawaSuccess;
+  }
+
+  /*
+   * Compiles the screens whose classes aren't in the class cache and restores the classes of the
+   * others. The runtime is compiled along with the screens, so its classes are cached as well.
+   * If there are resident Kawa compilers, the screens are divided between them and compiled in
+   * parallel.
+   *
+   * @return  {@code true} if the compilation succeeds
+   */
+  private boolean compileWithClassCache(YailClassCache classCache, File classesDir,
+      final String packagePrefix, List<String> sourceFileNames, List<String> classFileNames,
+      final String classpath, ByteArrayOutputStream kawaOutputStream) throws IOException {
+    String yailRuntime = getResource(YAIL_RUNTIME);
+    String fingerprint = YailClassCache.computeFingerprint(classpath, packagePrefix, yailRuntime);
+
+    // The sources and the paths of their main class files, relative to classesDir, without the
+    // .class extension. The runtime comes last.
+    final List<String> sources = Lists.newArrayList(sourceFileNames);
+    sources.add(yailRuntime);
+    List<String> classPrefixes = Lists.newArrayList();
+    int classesDirLength = classesDir.getAbsolutePath().length() + 1;
+    for (String classFileName : classFileNames) {
+      classPrefixes.add(classFileName.substring(classesDirLength,
+          classFileName.length() - ".class".length()));
+    }
+    classPrefixes.add(YAIL_RUNTIME_CLASS_PREFIX);
+    int runtimeIndex = sources.size() - 1;
+
+    List<String> keys = Lists.newArrayList();
+    List<Integer> screensToCompile = Lists.newArrayList();
+    boolean compileRuntime = false;
+    for (int i = 0; i < sources.size(); i++) {
+      String key = YailClassCache.computeKey(fingerprint, classPrefixes.get(i),
+          new File(sources.get(i)));
+      keys.add(key);
+      String messages = classCache.restore(key, classesDir, sources.get(i));
+      if (messages != null) {
+        kawaOutputStream.write(messages.getBytes(Charsets.UTF_8));
+      } else if (i == runtimeIndex) {
+        compileRuntime = true;
+      } else {
+        screensToCompile.add(i);
+      }
+    }
+    if (screensToCompile.isEmpty() && !compileRuntime) {
+      LOG.info("Reused the classes of all " + sourceFileNames.size() + " screens");
+      return true;
+    }
+    LOG.info("Compiling " + screensToCompile.size() + " of " + sourceFileNames.size() +
+        " screens");
+
+    // Divide the screens between the resident Kawa compilers.
+    int groupCount = 1;
+    KawaCompilerPool kawaCompilerPool = KawaCompilerPool.getInstance();
+    if (kawaCompilerPool != null && extCompTypes.isEmpty()) {
+      groupCount = Math.max(1, Math.min(kawaCompilerPool.getSize(), screensToCompile.size()));
+    }
+    final List<List<Integer>> groups = Lists.newArrayList();
+    for (int g = 0; g < groupCount; g++) {
+      groups.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < screensToCompile.size(); i++) {
+      groups.get(i % groupCount).add(screensToCompile.get(i));
+    }
+
+    // Each group is compiled into its own directory, so that the copies of the runtime classes
+    // don't collide.
+    final List<File> groupDirs = Lists.newArrayList();
+    final List<ByteArrayOutputStream> groupOutputs = Lists.newArrayList();
+    List<Future<Boolean>> groupResults = Lists.newArrayList();
+    try {
+      for (int g = 0; g < groupCount; g++) {
+        File groupDir = new File(classesDir.getParentFile(), "kawa" + g);
+        FileUtils.deleteDirectory(groupDir);
+        groupDir.mkdirs();
+        groupDirs.add(groupDir);
+        groupOutputs.add(new ByteArrayOutputStream());
+      }
+      final Object telemetryStage = BuildTelemetry.getCurrentStage();
+      for (int g = 1; g < groupCount; g++) {
+        final int group = g;
+        groupResults.add(KAWA_GROUP_EXECUTOR.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IOException {
+            BuildTelemetry.setCurrentStage(telemetryStage);
+            try {
+              return compileGroup(groups.get(group), sources, groupDirs.get(group),
+                  packagePrefix, classpath, groupOutputs.get(group));
+            } finally {
+              BuildTelemetry.setCurrentStage(null);
+            }
+          }
+        }));
+      }
+      boolean success = compileGroup(groups.get(0), sources, groupDirs.get(0), packagePrefix,
+          classpath, groupOutputs.get(0));
+      List<Boolean> groupSuccesses = Lists.newArrayList(success);
+      for (Future<Boolean> groupResult : groupResults) {
+        try {
+          groupSuccesses.add(groupResult.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException(e);
+        } catch (ExecutionException e) {
+          throw new IOException(e.getCause());
+        }
+      }
+
+      for (int g = 0; g < groupCount; g++) {
+        String groupOutput = groupOutputs.get(g).toString("UTF-8");
+        kawaOutputStream.write(groupOutput.getBytes(Charsets.UTF_8));
+        List<Integer> compiled = Lists.newArrayList(groups.get(g));
+        if (g == 0 && compileRuntime) {
+          compiled.add(runtimeIndex);
+        }
+        for (int i : compiled) {
+          List<String> classFiles =
+              YailClassCache.findClassFiles(groupDirs.get(g), classPrefixes.get(i));
+          for (String classFile : classFiles) {
+            File to = new File(classesDir, classFile);
+            Files.createParentDirs(to);
+            Files.copy(new File(groupDirs.get(g), classFile), to);
+          }
+          if (groupSuccesses.get(g) && !classFiles.isEmpty()) {
+            classCache.store(keys.get(i), groupDirs.get(g), classFiles, groupOutput,
+                sources.get(i));
+          }
+        }
+        success &= groupSuccesses.get(g);
+      }
+      return success;
+    } finally {
+      for (Future<Boolean> groupResult : groupResults) {
+        groupResult.cancel(false);
+      }
+      for (File groupDir : groupDirs) {
+        FileUtils.deleteQuietly(groupDir);
+      }
+    }
+  }
+
+  /*
+   * Compiles the given screens, followed by the runtime.
+   *
+   * Every group compiles runtime.scm, even though only the classes of the first group are kept,
+   * so that the screens are compiled against the runtime the same way whichever group they are
+   * in. The resident compilers have already loaded the runtime, so this costs each group the
+   * time to generate the runtime's classes, but not to load it again.
+   */
+  private boolean compileGroup(List<Integer> group, List<String> sources, File groupDir,
+      String packagePrefix, String classpath, ByteArrayOutputStream groupOutput)
+      throws IOException {
+    List<String> kawaSources = Lists.newArrayList();
+    for (int i : group) {
+      kawaSources.add(sources.get(i));
+    }
+    kawaSources.add(sources.get(sources.size() - 1));
+    return runKawa(groupDir, packagePrefix, kawaSources, classpath, groupOutput);
+  }
+
   private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
     // TODO(user): maybe make a command line flag for the jarsigner location
     String javaHome = System.getProperty("java.home");
@@ -1190,7 +1530,15 @@ public final class Compiler {
         // FIRST Tech Challenge: Use keyAlias from ftc_sdk/app/ftc_app/build.common.gradle.
         hasFtcRobotController ? "androiddebugkey" : "AndroidKey"
     };
-    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err)) {
+    boolean jarsignerSuccess;
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.SIGNING);
+    try {
+      jarsignerSuccess = Execution.execute(null, jarsignerCommandLine, System.out, System.err);
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.SIGNING);
+    }
+    if (!jarsignerSuccess) {
       LOG.warning("YAIL compiler - jarsigner execution failed.");
       err.println("YAIL compiler - jarsigner execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
@@ -1231,7 +1579,15 @@ public final class Compiler {
     long startZipAlign = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err)) {
+    boolean zipAlignSuccess;
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.ZIPALIGN);
+    try {
+      zipAlignSuccess = Execution.execute(null, zipAlignCommandLine, System.out, System.err);
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.ZIPALIGN);
+    }
+    if (!zipAlignSuccess) {
       LOG.warning("YAIL compiler - ZIPALIGN execution failed.");
       err.println("YAIL compiler - ZIPALIGN execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
@@ -1370,7 +1726,10 @@ public final class Compiler {
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
     boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
+    boolean retry = false;
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.DX);
+    try {
       setProgress(50);
       dxSuccess = dexTask.execute(inputList);
       if (dxSuccess && (class2List.size() > 0)) {
@@ -1387,10 +1746,15 @@ public final class Compiler {
           err.println("YAIL compiler - DX execution failed.");
           userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
           return false;
-        } else {
-          return runDx(classesDir, dexedClassesDir, true);
         }
+        retry = true;
       }
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.DX);
+    }
+    if (retry) {
+      // The retry acquires the DX permit again, which is why it happens outside the try block.
+      return runDx(classesDir, dexedClassesDir, true);
     }
     if (!dxSuccess) {
       LOG.warning("YAIL compiler - DX execution failed.");
@@ -1438,7 +1802,15 @@ public final class Compiler {
     long startAapt = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err)) {
+    boolean aaptSuccess;
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.AAPT);
+    try {
+      aaptSuccess = Execution.execute(null, aaptPackageCommandLine, System.out, System.err);
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.AAPT);
+    }
+    if (!aaptSuccess) {
       LOG.warning("YAIL compiler - AAPT execution failed.");
       err.println("YAIL compiler - AAPT execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
@@ -1571,6 +1943,44 @@ public final class Compiler {
     }
   }
 
+  /**
+   * Returns the class path used by the resident Kawa compilers of {@link KawaCompilerPool}.
+   * It contains the libraries of all built-in components, so that a single warm compiler can
+   * compile any project that doesn't use extensions.
+   */
+  static synchronized String getKawaWorkerClasspath() throws IOException {
+    if (kawaWorkerClasspath == null) {
+      Set<String> libs = Sets.newLinkedHashSet();
+      try {
+        JSONArray buildInfo = new JSONArray(Resources.toString(
+            Compiler.class.getResource(COMP_BUILD_INFO), Charsets.UTF_8));
+        for (int i = 0; i < buildInfo.length(); ++i) {
+          JSONArray compLibs = buildInfo.getJSONObject(i).optJSONArray(LIBRARIES_TARGET);
+          if (compLibs != null) {
+            for (int j = 0; j < compLibs.length(); ++j) {
+              libs.add(getResource(RUNTIME_FILES_DIR + compLibs.getString(j)));
+            }
+          }
+        }
+      } catch (JSONException e) {
+        throw new IOException(e);
+      }
+      StringBuilder classpath = new StringBuilder(getResource(KAWA_RUNTIME));
+      classpath.append(COLON);
+      classpath.append(getResource(ACRA_RUNTIME));
+      classpath.append(COLON);
+      classpath.append(getResource(SIMPLE_ANDROID_RUNTIME_JAR));
+      classpath.append(COLON);
+      for (String lib : libs) {
+        classpath.append(lib);
+        classpath.append(COLON);
+      }
+      classpath.append(getResource(ANDROID_RUNTIME));
+      kawaWorkerClasspath = classpath.toString();
+    }
+    return kawaWorkerClasspath;
+  }
+
   /*
    *  Loads permissions and information on component libraries and assets.
    */
@@ -1689,19 +2099,10 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
-  }
-
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
+  private void setProgress(int progress) {
+    LOG.info("The current progress is " + progress + "%");
+    if (progressReporter != null) {
+      progressReporter.report(progress);
     }
   }
 
@@ -2183,7 +2584,15 @@ public final class Compiler {
     long startAapt = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err)) {
+    boolean aaptSuccess;
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.AAPT);
+    try {
+      aaptSuccess = Execution.execute(null, aaptPackageCommandLine, System.out, System.err);
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.AAPT);
+    }
+    if (!aaptSuccess) {
       LOG.warning("YAIL compiler - AAPT execution failed.");
       err.println("YAIL compiler - AAPT execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
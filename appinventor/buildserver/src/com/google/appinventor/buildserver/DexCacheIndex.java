@@ -0,0 +1,274 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The index of the pre-dexed library cache used by {@link DexExecTask}.
+ *
+ * <p>The index remembers the hash of each library, keyed by its path, size
+ * and modification time, so that a library is only hashed again when it
+ * changes. It also remembers when each pre-dexed library was last used, so
+ * that the least recently used ones can be deleted when the cache grows too
+ * large. The index is saved in the cache directory and loaded again when the
+ * build server restarts.
+ */
+final class DexCacheIndex {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(DexCacheIndex.class.getName());
+
+  static final String DEXED_LIB_PREFIX = "dex-cached-";
+  static final String DEXED_LIB_SUFFIX = ".jar";
+
+  private static final String INDEX_FILE_NAME = "dex-cache-index.txt";
+
+  // The maximum total size of the pre-dexed libraries.
+  private static final long MAX_SIZE_BYTES = 1024L * 1024L * 1024L;
+  // Pre-dexed libraries used more recently than this are never deleted, since a build may be
+  // about to use them.
+  private static final long MIN_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  // The size of the regions of a library that are mapped into memory while hashing it.
+  private static final int MAP_SIZE = 8 * 1024 * 1024;
+
+  // The index of each cache directory.
+  private static final Map<File, DexCacheIndex> indexes = Maps.newHashMap();
+
+  private final File cacheDir;
+  private final File indexFile;
+  private final long maxSizeBytes;
+
+  // The hash of each library, keyed by "path:size:modification time". Guarded by this.
+  private final Map<String, String> hashes = Maps.newHashMap();
+  // The last time each pre-dexed library was used, keyed by hash. Guarded by this.
+  private final Map<String, Long> lastUsed = Maps.newHashMap();
+  private boolean dirty;
+
+  /**
+   * Returns the index of the given cache directory, loading it if necessary.
+   */
+  static DexCacheIndex forDirectory(File cacheDir) {
+    cacheDir = cacheDir.getAbsoluteFile();
+    synchronized (indexes) {
+      DexCacheIndex index = indexes.get(cacheDir);
+      if (index == null) {
+        index = new DexCacheIndex(cacheDir, MAX_SIZE_BYTES);
+        indexes.put(cacheDir, index);
+      }
+      return index;
+    }
+  }
+
+  @VisibleForTesting
+  DexCacheIndex(File cacheDir, long maxSizeBytes) {
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+    indexFile = new File(cacheDir, INDEX_FILE_NAME);
+    load();
+  }
+
+  private synchronized void load() {
+    if (indexFile.isFile()) {
+      try {
+        for (String line : Files.readLines(indexFile, Charsets.UTF_8)) {
+          String[] fields = line.split("\t");
+          if (fields.length == 3 && fields[0].equals("F")) {
+            hashes.put(fields[1], fields[2]);
+          } else if (fields.length == 3 && fields[0].equals("D")) {
+            lastUsed.put(fields[1], Long.parseLong(fields[2]));
+          }
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to read " + indexFile, e);
+      } catch (NumberFormatException e) {
+        LOG.log(Level.WARNING, "Unable to read " + indexFile, e);
+      }
+    }
+    // Pre-dexed libraries that are not in the index, for example those created before there was
+    // an index.
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String hash = getHashOfDexedLib(file.getName());
+        if (hash != null && !lastUsed.containsKey(hash)) {
+          lastUsed.put(hash, file.lastModified());
+        }
+      }
+    }
+  }
+
+  /*
+   * Returns the hash in the name of a pre-dexed library, or null if the name is not the name of a
+   * pre-dexed library.
+   */
+  private static String getHashOfDexedLib(String name) {
+    if (name.startsWith(DEXED_LIB_PREFIX) && name.endsWith(DEXED_LIB_SUFFIX)) {
+      String hash = name.substring(DEXED_LIB_PREFIX.length(),
+          name.length() - DEXED_LIB_SUFFIX.length());
+      // Skip the temporary files written by dx.
+      if (hash.indexOf('.') == -1) {
+        return hash;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the name of the pre-dexed version of the given library.
+   */
+  static String getDexedLibName(String hash) {
+    return DEXED_LIB_PREFIX + hash + DEXED_LIB_SUFFIX;
+  }
+
+  /**
+   * Returns the hash of the given library, computing it if the library is new or has changed.
+   */
+  String getHash(File input) throws IOException {
+    String key = input.getAbsolutePath() + ":" + input.length() + ":" + input.lastModified();
+    synchronized (this) {
+      String hash = hashes.get(key);
+      if (hash != null) {
+        return hash;
+      }
+    }
+    String hash = hashFile(input);
+    synchronized (this) {
+      hashes.put(key, hash);
+      dirty = true;
+    }
+    return hash;
+  }
+
+  /*
+   * Computes the MD5 hash of the given file, mapping it into memory a region at a time rather than
+   * reading it all onto the heap.
+   */
+  @VisibleForTesting
+  static String hashFile(File file) throws IOException {
+    Hasher hasher = Hashing.md5().newHasher();
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      byte[] buffer = new byte[64 * 1024];
+      for (long position = 0; position < size; position += MAP_SIZE) {
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(MAP_SIZE, size - position));
+        while (region.hasRemaining()) {
+          int count = Math.min(buffer.length, region.remaining());
+          region.get(buffer, 0, count);
+          hasher.putBytes(buffer, 0, count);
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Records that a build is using the pre-dexed library with the given hash.
+   */
+  synchronized void recordUse(String hash) {
+    lastUsed.put(hash, System.currentTimeMillis());
+    dirty = true;
+  }
+
+  /**
+   * Deletes the least recently used pre-dexed libraries until their total size is within the
+   * limit, forgets the libraries that no longer exist, and saves the index.
+   */
+  void evictAndSave() {
+    List<String> evicted = Lists.newArrayList();
+    synchronized (this) {
+      final Map<String, Long> lastUsedSnapshot = Maps.newHashMap(lastUsed);
+      List<String> byAge = Lists.newArrayList(lastUsed.keySet());
+      Collections.sort(byAge, new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+          long diff = lastUsedSnapshot.get(a) - lastUsedSnapshot.get(b);
+          return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+      });
+      long totalSize = 0;
+      for (String hash : byAge) {
+        totalSize += new File(cacheDir, getDexedLibName(hash)).length();
+      }
+      long now = System.currentTimeMillis();
+      for (String hash : byAge) {
+        if (totalSize <= maxSizeBytes || now - lastUsed.get(hash) < MIN_AGE_MILLIS) {
+          break;
+        }
+        File dexedLib = new File(cacheDir, getDexedLibName(hash));
+        totalSize -= dexedLib.length();
+        dexedLib.delete();
+        lastUsed.remove(hash);
+        evicted.add(hash);
+        dirty = true;
+      }
+
+      // Forget the hashes of libraries that no longer exist, such as the copies of the runtime
+      // libraries extracted by a previous run of the build server.
+      for (Map.Entry<String, String> entry : Lists.newArrayList(hashes.entrySet())) {
+        String key = entry.getKey();
+        String path = key.substring(0, key.lastIndexOf(':', key.lastIndexOf(':') - 1));
+        if (!new File(path).exists()) {
+          hashes.remove(key);
+          dirty = true;
+        }
+      }
+
+      if (dirty) {
+        save();
+        dirty = false;
+      }
+    }
+    if (!evicted.isEmpty()) {
+      LOG.info("Deleted " + evicted.size() + " pre-dexed libraries from " + cacheDir);
+    }
+  }
+
+  // Must be called while holding this.
+  private void save() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> entry : hashes.entrySet()) {
+      sb.append("F\t").append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+    }
+    for (Map.Entry<String, Long> entry : lastUsed.entrySet()) {
+      sb.append("D\t").append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+    }
+    // Write a new index and rename it, so that the index is never incomplete.
+    File tempFile = new File(cacheDir, INDEX_FILE_NAME + ".tmp");
+    try {
+      Files.write(sb, tempFile, Charsets.UTF_8);
+      if (!tempFile.renameTo(indexFile)) {
+        throw new IOException("Unable to rename " + tempFile + " to " + indexFile);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to save " + indexFile, e);
+    }
+  }
+}
@@ -18,18 +18,20 @@ package com.google.appinventor.buildserver;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
@@ -44,9 +46,26 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
 
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
+    // Pre-dexes libraries in parallel. Each pre-dex runs its own dx process, so the number of
+    // threads is kept small.
+    private static final ExecutorService sPreDexExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreDex-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // The pre-dexes in progress, keyed by the path of the pre-dexed library, so that a library
+    // needed by several builds at once is only pre-dexed once.
+    private static final ConcurrentMap<String, Future<Boolean>> sPreDexInProgress =
+            new ConcurrentHashMap<String, Future<Boolean>>();
 
 
     /**
@@ -100,73 +119,101 @@ public class DexExecTask  {
             return true;
         }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
-
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
-
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
-                        }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
-                        allSuccessful = allSuccessful && dexSuccess;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
-                    }
-
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
+        DexCacheIndex index = DexCacheIndex.forDirectory(new File(mDexedLibs));
+        final int count = inputs.size();
+        boolean allSuccessful = true;
+        List<Future<Boolean>> preDexes = new ArrayList<Future<Boolean>>();
+        for (int i = 0 ; i < count; i++) {
+            final File input = inputs.get(i);
+            if (input.isFile()) {
+                // check if this libs needs to be pre-dexed
+                String hash;
+                try {
+                    hash = index.getHash(input);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+                // Record the use before waiting for any pre-dexing, so that another build's
+                // evictAndSave doesn't delete the library while this build still needs it.
+                index.recordUse(hash);
+                String fileName = DexCacheIndex.getDexedLibName(hash);
+                final File dexedLib = new File(mDexedLibs, fileName);
+
+                if (dexedLib.isFile() == false) {
+                    preDexes.add(preDex(input, dexedLib));
+                } else {
+                    System.out.println(
+                        String.format("Using Pre-Dexed %1$s <- %2$s",
+                          fileName, input.getAbsolutePath()));
                 }
+
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
             }
-            return allSuccessful;
         }
-    }
 
-    private String getDexFileName(File inputFile) {
-        // get the filename
-        String name = inputFile.getName();
-        // remove the extension
-        int pos = name.lastIndexOf('.');
-        if (pos != -1) {
-            name = name.substring(0, pos);
+        // Wait for the libraries that are being pre-dexed.
+        for (Future<Boolean> preDex : preDexes) {
+            try {
+                allSuccessful = preDex.get() && allSuccessful;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                allSuccessful = false;
+            }
         }
 
-        String hashed = getHashFor(inputFile);
-
-        return "dex-cached-" + hashed + ".jar";
+        index.evictAndSave();
+        return allSuccessful;
     }
 
-    private String getHashFor(File inputFile) {
-        String retval = alreadyChecked.get(inputFile.getAbsolutePath());
-        if (retval != null) return retval;
-        // add a hash of the original file path
-        try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
-            alreadyChecked.put(inputFile.getAbsolutePath(), retval);
-            return retval;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "ERROR";
+    /*
+     * Starts pre-dexing the given library, unless another build is already pre-dexing it.
+     */
+    private Future<Boolean> preDex(final File input, final File dexedLib) {
+        final String dexedLibPath = dexedLib.getAbsolutePath();
+        final Object telemetryStage = BuildTelemetry.getCurrentStage();
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                BuildTelemetry.setCurrentStage(telemetryStage);
+                try {
+                    if (dexedLib.isFile()) {
+                        // Pre-dexed by a build that finished in the meantime.
+                        return true;
+                    }
+                    System.out.println(
+                        String.format("Pre-Dexing %1$s -> %2$s",
+                          input.getAbsolutePath(), dexedLib.getName()));
+
+                    // dx writes to a temporary file, so that other builds never see an incomplete
+                    // pre-dexed library.
+                    File tempLib = new File(dexedLibPath.substring(0,
+                            dexedLibPath.length() - DexCacheIndex.DEXED_LIB_SUFFIX.length()) +
+                            "." + Thread.currentThread().getId() + DexCacheIndex.DEXED_LIB_SUFFIX);
+                    tempLib.delete();
+                    boolean dexSuccess = runDx(input, tempLib.getAbsolutePath(),
+                            false /*showInput*/);
+                    if (dexSuccess && !tempLib.renameTo(dexedLib)) {
+                        dexSuccess = dexedLib.isFile();
+                    }
+                    tempLib.delete();
+                    return dexSuccess;
+                } finally {
+                    sPreDexInProgress.remove(dexedLibPath);
+                    BuildTelemetry.setCurrentStage(null);
+                }
+            }
+        });
+        Future<Boolean> existing = sPreDexInProgress.putIfAbsent(dexedLibPath, task);
+        if (existing != null) {
+            return existing;
         }
+        sPreDexExecutor.execute(task);
+        return task;
     }
 
     public boolean execute(List<File> paths) {
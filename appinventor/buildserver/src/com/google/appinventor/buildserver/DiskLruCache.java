@@ -0,0 +1,263 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.Lists;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A size-bounded set of directories on local disk, each identified by a key.
+ *
+ * <p>An entry is written under a temporary name and renamed when it is
+ * complete, so a reader never sees a partial entry. When the total size of
+ * the entries exceeds the limit, the least recently used entries are deleted,
+ * except those that are being read, which are deleted once they are released.
+ * The entries are found again when the build server restarts, ordered by the
+ * time they were last used.
+ */
+final class DiskLruCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(DiskLruCache.class.getName());
+
+  /**
+   * Writes the contents of a new entry.
+   */
+  interface EntryWriter {
+    void write(File entryDir) throws IOException;
+  }
+
+  private final File cacheDir;
+  private final long maxSizeBytes;
+
+  // The entries, from least recently used to most recently used, and their sizes.
+  // Guarded by this.
+  private final LinkedHashMap<String, Long> entries =
+      new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long totalSizeBytes;
+  // The number of readers of each entry that is being read. Guarded by this.
+  private final Map<String, Integer> pinCounts = new HashMap<String, Integer>();
+
+  private final AtomicInteger hitCount = new AtomicInteger(0);
+  private final AtomicInteger missCount = new AtomicInteger(0);
+  private final AtomicInteger evictionCount = new AtomicInteger(0);
+
+  DiskLruCache(File cacheDir, long maxSizeBytes) {
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+    cacheDir.mkdirs();
+    loadEntries();
+  }
+
+  /*
+   * Adds the entries left by a previous run of the build server, oldest first.
+   */
+  private void loadEntries() {
+    File[] dirs = cacheDir.listFiles();
+    if (dirs == null) {
+      return;
+    }
+    List<File> entryDirs = Lists.newArrayList();
+    for (File dir : dirs) {
+      if (dir.isDirectory() && !dir.getName().startsWith(".")) {
+        entryDirs.add(dir);
+      } else {
+        // An incomplete entry.
+        FileUtils.deleteQuietly(dir);
+      }
+    }
+    Collections.sort(entryDirs, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long diff = a.lastModified() - b.lastModified();
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+    synchronized (this) {
+      for (File dir : entryDirs) {
+        long size = FileUtils.sizeOfDirectory(dir);
+        entries.put(dir.getName(), size);
+        totalSizeBytes += size;
+      }
+      evict();
+    }
+    LOG.info("Cache " + cacheDir + " contains " + entries.size() + " entries (" +
+        totalSizeBytes + " bytes)");
+  }
+
+  /**
+   * Returns the directory of the entry with the given key, or {@code null} if there isn't one.
+   * The entry is not deleted until the caller calls {@link #release} when it has finished
+   * reading it, or {@link #invalidate} if the entry turns out to be unusable.
+   */
+  File get(String key) {
+    synchronized (this) {
+      // Note that get, unlike containsKey, makes this the most recently used entry.
+      if (entries.get(key) == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      Integer pinCount = pinCounts.get(key);
+      pinCounts.put(key, pinCount == null ? 1 : pinCount + 1);
+    }
+    File entryDir = new File(cacheDir, key);
+    // The directory's modification time orders the entries when the build server restarts.
+    entryDir.setLastModified(System.currentTimeMillis());
+    hitCount.incrementAndGet();
+    return entryDir;
+  }
+
+  /**
+   * Adds an entry, unless there already is an entry with the given key.
+   */
+  void put(String key, EntryWriter writer) {
+    synchronized (this) {
+      if (entries.containsKey(key)) {
+        return;
+      }
+    }
+    File tempDir = new File(cacheDir, "." + key + "-" + Thread.currentThread().getId());
+    File entryDir = new File(cacheDir, key);
+    try {
+      FileUtils.deleteQuietly(tempDir);
+      tempDir.mkdirs();
+      writer.write(tempDir);
+      long size = FileUtils.sizeOfDirectory(tempDir);
+      if (size > maxSizeBytes) {
+        return;
+      }
+      synchronized (this) {
+        if (entries.containsKey(key) || !tempDir.renameTo(entryDir)) {
+          return;
+        }
+        entries.put(key, size);
+        totalSizeBytes += size;
+        evict();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to add " + key + " to cache " + cacheDir, e);
+    } finally {
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  /**
+   * Releases an entry returned by {@link #get} once the caller has finished reading it.
+   */
+  void release(String key) {
+    synchronized (this) {
+      unpin(key);
+      evict();
+    }
+  }
+
+  /**
+   * Removes an entry returned by {@link #get} that turned out to be unusable, releases it, and
+   * counts the lookup as a miss.
+   */
+  void invalidate(String key) {
+    synchronized (this) {
+      Long size = entries.remove(key);
+      if (size != null) {
+        totalSizeBytes -= size;
+      }
+      unpin(key);
+    }
+    hitCount.decrementAndGet();
+    missCount.incrementAndGet();
+  }
+
+  // Must be called while holding this.
+  private void unpin(String key) {
+    Integer pinCount = pinCounts.get(key);
+    if (pinCount == null) {
+      return;
+    }
+    if (pinCount > 1) {
+      pinCounts.put(key, pinCount - 1);
+      return;
+    }
+    pinCounts.remove(key);
+    if (!entries.containsKey(key)) {
+      // The entry was invalidated while it was being read.
+      FileUtils.deleteQuietly(new File(cacheDir, key));
+    }
+  }
+
+  // Must be called while holding this.
+  private void evict() {
+    // Entries that are being read can't be deleted yet, so only the other entries have to fit
+    // until they are released. Note that entries.get would make an entry the most recently used.
+    long pinnedSizeBytes = 0;
+    for (Map.Entry<String, Long> entry : entries.entrySet()) {
+      if (pinCounts.containsKey(entry.getKey())) {
+        pinnedSizeBytes += entry.getValue();
+      }
+    }
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (totalSizeBytes - pinnedSizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      if (pinCounts.containsKey(entry.getKey())) {
+        continue;
+      }
+      iterator.remove();
+      totalSizeBytes -= entry.getValue();
+      FileUtils.deleteQuietly(new File(cacheDir, entry.getKey()));
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  synchronized long getSizeBytes() {
+    return totalSizeBytes;
+  }
+
+  long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  int getHitCount() {
+    return hitCount.get();
+  }
+
+  int getMissCount() {
+    return missCount.get();
+  }
+
+  int getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Adds the statistics of this cache to the given map of /buildserver/vars variables.
+   *
+   * @param prefix  the prefix of the variable names, for example "build-cache-"
+   */
+  void putVariables(String prefix, Map<String, String> variables) {
+    variables.put(prefix + "entries", getEntryCount() + "");
+    variables.put(prefix + "size-in-bytes", getSizeBytes() + "");
+    variables.put(prefix + "maximum-size-in-bytes", getMaxSizeBytes() + "");
+    variables.put(prefix + "hits", getHitCount() + "");
+    variables.put(prefix + "misses", getMissCount() + "");
+    variables.put(prefix + "evictions", getEvictionCount() + "");
+  }
+}
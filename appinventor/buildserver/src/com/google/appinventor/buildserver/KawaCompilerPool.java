@@ -0,0 +1,327 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of resident Kawa compiler processes.
+ *
+ * <p>Each worker is a child JVM running {@link KawaCompilerWorker} with the
+ * YAIL runtime already loaded. A build borrows a worker for the duration of
+ * its Kawa compilation, so up to {@link #getSize()} projects are compiled
+ * concurrently. Workers are replaced when they exit (Kawa exits after a
+ * failed compilation) and after {@link #MAX_COMPILES_PER_WORKER} compilations,
+ * which bounds whatever state Kawa accumulates between projects.
+ *
+ * <p>The pool is disabled unless the --kawaCompilerPoolSize command line
+ * option is given, in which case {@link Compiler} forks a Kawa process for
+ * every build as before.
+ */
+final class KawaCompilerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  private static final int MAX_COMPILES_PER_WORKER = 25;
+  // The most output of a worker that failed to start that is logged.
+  private static final int MAX_STARTUP_ERROR_BYTES = 64 * 1024;
+
+  // The pool shared by all builds, or null if the pool is disabled.
+  private static volatile KawaCompilerPool instance;
+
+  private final int size;
+  private final int childProcessRamMb;
+  private final BlockingQueue<Worker> idleWorkers;
+
+  // Used to start workers in the background, so that they are warm when a build needs them.
+  private final ExecutorService starter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "KawaCompilerPool-starter");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final AtomicInteger compileCount = new AtomicInteger(0);
+  private final AtomicInteger failedCompileCount = new AtomicInteger(0);
+  private final AtomicInteger workerStartCount = new AtomicInteger(0);
+
+  /**
+   * Creates the shared pool and starts its workers in the background.
+   *
+   * @param size  the number of workers; 0 disables the pool
+   * @param childProcessRamMb  maximum ram that can be used by each worker, in MB
+   */
+  static synchronized void initialize(int size, int childProcessRamMb) {
+    if (instance != null) {
+      instance.shutdown();
+      instance = null;
+    }
+    if (size > 0) {
+      KawaCompilerPool pool = new KawaCompilerPool(size, childProcessRamMb);
+      pool.warmUp();
+      instance = pool;
+    }
+  }
+
+  /**
+   * Returns the shared pool, or {@code null} if the pool is disabled.
+   */
+  static KawaCompilerPool getInstance() {
+    return instance;
+  }
+
+  private KawaCompilerPool(int size, int childProcessRamMb) {
+    this.size = size;
+    this.childProcessRamMb = childProcessRamMb;
+    idleWorkers = new ArrayBlockingQueue<Worker>(size);
+    for (int i = 0; i < size; i++) {
+      idleWorkers.add(new Worker(i));
+    }
+  }
+
+  private void warmUp() {
+    for (final Worker worker : idleWorkers) {
+      startInBackground(worker);
+    }
+  }
+
+  private void startInBackground(final Worker worker) {
+    starter.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          worker.ensureStarted();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to start Kawa compiler worker " + worker.id, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Compiles with a worker from the pool, waiting until one is available.
+   *
+   * @param kawaArgs  the arguments for kawa.repl, without the -f option that loads the runtime
+   * @param output  the stream that receives the compiler output
+   * @return  {@code true} if the compilation succeeds, {@code false} if it fails
+   * @throws IOException if no worker could perform the compilation; the caller should fall back
+   *     to a separate Kawa process
+   */
+  boolean compile(List<String> kawaArgs, OutputStream output) throws IOException {
+    Worker worker;
+    try {
+      worker = idleWorkers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a Kawa compiler worker");
+    }
+    boolean success = false;
+    try {
+      success = worker.compile(kawaArgs, output);
+      compileCount.incrementAndGet();
+      if (!success) {
+        failedCompileCount.incrementAndGet();
+      }
+      return success;
+    } finally {
+      // Kawa exits after a failed compilation, so replace the worker in that case too.
+      if (!success || !worker.isAlive() || worker.compiles >= MAX_COMPILES_PER_WORKER) {
+        worker.stop();
+        startInBackground(worker);
+      }
+      idleWorkers.add(worker);
+    }
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getIdleCount() {
+    return idleWorkers.size();
+  }
+
+  int getCompileCount() {
+    return compileCount.get();
+  }
+
+  int getFailedCompileCount() {
+    return failedCompileCount.get();
+  }
+
+  int getWorkerStartCount() {
+    return workerStartCount.get();
+  }
+
+  private void shutdown() {
+    starter.shutdownNow();
+    for (Worker worker : idleWorkers) {
+      worker.stop();
+    }
+  }
+
+  /*
+   * Returns the location of the jar (or class directory) containing KawaCompilerWorker.
+   */
+  private static String getWorkerClassLocation() throws IOException {
+    try {
+      return new File(KawaCompilerWorker.class.getProtectionDomain().getCodeSource()
+          .getLocation().toURI()).getAbsolutePath();
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private final class Worker {
+    private final int id;
+    private Process process;
+    private OutputStream toWorker;
+    private InputStream fromWorker;
+    // The number of compilations performed by the current process.
+    private int compiles;
+
+    Worker(int id) {
+      this.id = id;
+    }
+
+    synchronized boolean isAlive() {
+      if (process == null) {
+        return false;
+      }
+      try {
+        process.exitValue();
+        return false;
+      } catch (IllegalThreadStateException e) {
+        return true;
+      }
+    }
+
+    synchronized void ensureStarted() throws IOException {
+      if (isAlive()) {
+        return;
+      }
+      stop();
+      String[] command = {
+          System.getProperty("java.home") + "/bin/java",
+          "-Dfile.encoding=UTF-8",
+          "-mx" + (childProcessRamMb - 200) + "M",
+          "-cp", Compiler.getKawaWorkerClasspath() + File.pathSeparator + getWorkerClassLocation(),
+          KawaCompilerWorker.class.getName(),
+          Compiler.getResource(Compiler.YAIL_RUNTIME)
+      };
+      LOG.info("Starting Kawa compiler worker " + id + ": " + Joiner.on(" ").join(command));
+      long start = System.currentTimeMillis();
+      process = Runtime.getRuntime().exec(command);
+      workerStartCount.incrementAndGet();
+      toWorker = new BufferedOutputStream(process.getOutputStream());
+      fromWorker = new BufferedInputStream(process.getInputStream());
+      compiles = 0;
+      drain(process.getErrorStream());
+
+      String line = KawaCompilerWorker.readLine(fromWorker);
+      if (!KawaCompilerWorker.READY.equals(line)) {
+        if (line != null && line.startsWith(KawaCompilerWorker.RESULT + " ")) {
+          // The runtime failed to load. Log what the worker has to say about it, up to the
+          // length it announced, so that a worker that doesn't exit can't hold us here.
+          String[] fields = line.split(" ");
+          long length = fields.length > 2 ? Long.parseLong(fields[2]) : 0;
+          ByteStreams.copy(ByteStreams.limit(fromWorker,
+              Math.min(length, MAX_STARTUP_ERROR_BYTES)), System.err);
+        }
+        stop();
+        throw new IOException("Kawa compiler worker " + id + " failed to start");
+      }
+      LOG.info("Kawa compiler worker " + id + " ready in " +
+          ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+    }
+
+    synchronized boolean compile(List<String> kawaArgs, OutputStream output) throws IOException {
+      ensureStarted();
+      compiles++;
+      StringBuilder request = new StringBuilder();
+      request.append(kawaArgs.size()).append('\n');
+      for (String arg : kawaArgs) {
+        request.append(arg).append('\n');
+      }
+      // The worker outlives the build, so attribute only the CPU time of this compilation to it.
+      int pid = ProcessMonitor.getPid(process);
+      long cpuMillisBefore = ProcessMonitor.readCpuMillis(pid);
+      try {
+        toWorker.write(request.toString().getBytes(Charsets.UTF_8));
+        toWorker.flush();
+
+        String header = KawaCompilerWorker.readLine(fromWorker);
+        if (header == null || !header.startsWith(KawaCompilerWorker.RESULT + " ")) {
+          throw new IOException("Unexpected response from Kawa compiler worker " + id + ": " +
+              header);
+        }
+        String[] fields = header.split(" ");
+        int status = Integer.parseInt(fields[1]);
+        long length = Long.parseLong(fields[2]);
+        ByteStreams.copy(ByteStreams.limit(fromWorker, length), output);
+        long cpuMillisAfter = ProcessMonitor.readCpuMillis(pid);
+        BuildTelemetry.recordChildProcess(
+            cpuMillisBefore < 0 || cpuMillisAfter < 0 ? 0 : cpuMillisAfter - cpuMillisBefore,
+            Math.max(0, ProcessMonitor.readPeakRssKb(pid)));
+        return status == 0;
+      } catch (IOException e) {
+        stop();
+        throw e;
+      } catch (RuntimeException e) {
+        stop();
+        throw new IOException(e);
+      }
+    }
+
+    synchronized void stop() {
+      if (process != null) {
+        process.destroy();
+        process = null;
+        toWorker = null;
+        fromWorker = null;
+      }
+    }
+
+    /*
+     * Copies the worker's stderr, which only receives JVM level messages, to our stderr.
+     */
+    private void drain(final InputStream errorStream) {
+      Thread thread = new Thread("KawaCompilerWorker-" + id + "-stderr") {
+        @Override
+        public void run() {
+          try {
+            ByteStreams.copy(errorStream, System.err);
+          } catch (IOException e) {
+            // The worker has exited.
+          }
+        }
+      };
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+}
@@ -0,0 +1,202 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Main class of a resident Kawa compiler process managed by {@link KawaCompilerPool}.
+ *
+ * <p>The worker loads the YAIL runtime once at startup and then compiles
+ * projects on request, so that neither JVM startup nor the loading of
+ * runtime.scm is paid for every build.
+ *
+ * <p>The protocol on stdin/stdout is line based. When the runtime has been
+ * loaded, the worker writes {@link #READY}. Each request is a line containing
+ * the number of Kawa arguments, followed by one line per argument. Each
+ * response is a line {@code RESULT <status> <length>} followed by
+ * {@code <length>} bytes of compiler output. A status of 0 means success.
+ *
+ * <p>Kawa calls System.exit when a compilation fails. In that case a shutdown
+ * hook sends the response for the pending request before the process exits,
+ * and the pool replaces the worker.
+ *
+ * <p>This class must only depend on the JDK, since the worker's class path
+ * contains just the Kawa runtime, the component libraries and this class.
+ */
+public final class KawaCompilerWorker {
+  static final String READY = "READY";
+  static final String RESULT = "RESULT";
+
+  private static final String UTF_8 = "UTF-8";
+
+  // Everything Kawa prints while compiling is captured here.
+  private final ByteArrayOutputStream capturedOutput = new ByteArrayOutputStream();
+
+  // The real stdout, used for protocol messages.
+  private final OutputStream protocolOut;
+
+  private final Method processArgs;
+  private final Object moduleManager;
+  private final Method clearModules;
+
+  // True while a compile request is in progress.
+  private boolean compiling;
+
+  private KawaCompilerWorker(OutputStream protocolOut) throws Exception {
+    this.protocolOut = protocolOut;
+
+    // Redirect stdout and stderr before any Kawa class is loaded, because Kawa captures the
+    // standard streams in static initializers.
+    PrintStream capture = new PrintStream(capturedOutput, true, UTF_8);
+    System.setOut(capture);
+    System.setErr(capture);
+
+    Class<?> replClass = Class.forName("kawa.repl");
+    processArgs = replClass.getMethod("processArgs", String[].class, int.class, int.class);
+    Class<?> moduleManagerClass = Class.forName("gnu.expr.ModuleManager");
+    moduleManager = moduleManagerClass.getMethod("getInstance").invoke(null);
+    clearModules = moduleManagerClass.getMethod("clear");
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: KawaCompilerWorker <runtime.scm>");
+      System.exit(2);
+    }
+    OutputStream protocolOut = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+    InputStream protocolIn = new BufferedInputStream(new FileInputStream(FileDescriptor.in));
+
+    final KawaCompilerWorker worker = new KawaCompilerWorker(protocolOut);
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        worker.abortPendingRequest();
+      }
+    });
+
+    worker.loadRuntime(args[0]);
+    worker.serve(protocolIn);
+  }
+
+  private void loadRuntime(String yailRuntime) throws IOException {
+    synchronized (this) {
+      compiling = true;
+    }
+    int status = runKawa(new String[] { "-f", yailRuntime });
+    synchronized (this) {
+      compiling = false;
+    }
+    if (status != 0) {
+      // Loading the runtime should never fail. Report the output and give up. This is done
+      // outside the lock, since the shutdown hook run by System.exit takes it.
+      sendResult(status);
+      System.exit(status);
+    }
+    synchronized (this) {
+      capturedOutput.reset();
+      protocolOut.write((READY + "\n").getBytes(UTF_8));
+      protocolOut.flush();
+    }
+  }
+
+  private void serve(InputStream in) throws IOException {
+    while (true) {
+      String countLine = readLine(in);
+      if (countLine == null) {
+        // The pool closed our stdin.
+        return;
+      }
+      int count = Integer.parseInt(countLine.trim());
+      String[] kawaArgs = new String[count];
+      for (int i = 0; i < count; i++) {
+        kawaArgs[i] = readLine(in);
+        if (kawaArgs[i] == null) {
+          return;
+        }
+      }
+      synchronized (this) {
+        capturedOutput.reset();
+        compiling = true;
+      }
+      int status = runKawa(kawaArgs);
+      synchronized (this) {
+        compiling = false;
+        sendResult(status);
+      }
+    }
+  }
+
+  private int runKawa(String[] kawaArgs) {
+    try {
+      // Forget the modules compiled for the previous project, so that screens with the same
+      // class name in different projects don't see each other.
+      clearModules.invoke(moduleManager);
+      processArgs.invoke(null, kawaArgs, 0, kawaArgs.length);
+      return 0;
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace();
+      return 1;
+    } catch (IllegalAccessException e) {
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  /*
+   * Called from the shutdown hook. If Kawa exited in the middle of a request, report the
+   * failure and the compiler output to the pool.
+   */
+  private synchronized void abortPendingRequest() {
+    if (compiling) {
+      compiling = false;
+      try {
+        sendResult(1);
+      } catch (IOException e) {
+        // The pool is gone. Nothing we can do.
+      }
+    }
+  }
+
+  private void sendResult(int status) throws IOException {
+    System.out.flush();
+    System.err.flush();
+    byte[] output = capturedOutput.toByteArray();
+    capturedOutput.reset();
+    protocolOut.write((RESULT + " " + status + " " + output.length + "\n").getBytes(UTF_8));
+    protocolOut.write(output);
+    protocolOut.flush();
+  }
+
+  /**
+   * Reads a UTF-8 line terminated by '\n' from the given stream.
+   *
+   * @return the line without its terminator, or {@code null} at end of stream
+   */
+  static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '\n') {
+        return line.toString(UTF_8);
+      }
+      line.write(c);
+    }
+    return line.size() == 0 ? null : line.toString(UTF_8);
+  }
+}
@@ -0,0 +1,208 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the CPU time and peak resident set size of a child process while
+ * it runs.
+ *
+ * <p>The values are read from /proc, so they are only available on Linux.
+ * They are sampled, because the process is reaped as soon as it exits, so
+ * work done after the last sample is not counted. Elsewhere, the values are
+ * reported as 0.
+ *
+ * <p>All of the monitored processes are sampled by a single shared thread.
+ */
+final class ProcessMonitor {
+  private static final long SAMPLE_INTERVAL_MILLIS = 50;
+
+  private static final ScheduledExecutorService SAMPLER =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ProcessMonitor");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /*
+   * Clock ticks per second for the utime and stime fields of /proc/<pid>/stat. Read when first
+   * needed, since it runs getconf.
+   */
+  private static final class ClockTicks {
+    static final long PER_SECOND = readClockTicksPerSecond();
+  }
+
+  private final int pid;
+  private final Future<?> sampling;
+  private volatile boolean stopped;
+  private long cpuMillis;
+  private long peakRssKb;
+
+  /**
+   * Starts monitoring the given process.
+   */
+  static ProcessMonitor start(Process process) {
+    return new ProcessMonitor(getPid(process));
+  }
+
+  private ProcessMonitor(int pid) {
+    this.pid = pid;
+    if (pid > 0 && new File("/proc/" + pid).exists()) {
+      sampling = SAMPLER.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          if (!stopped && !sample()) {
+            // The process has exited. Throwing is how a periodic task stops itself.
+            throw new IllegalStateException("Process " + ProcessMonitor.this.pid + " exited");
+          }
+        }
+      }, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    } else {
+      sampling = null;
+    }
+  }
+
+  /**
+   * Stops monitoring and adds the CPU time and peak resident set size to the build stage that the
+   * current thread is running, if any.
+   */
+  void stop() {
+    stopped = true;
+    if (sampling != null) {
+      sampling.cancel(false);
+    }
+    // Waits for a sample that is in progress.
+    synchronized (this) {
+      BuildTelemetry.recordChildProcess(cpuMillis, peakRssKb);
+    }
+  }
+
+  synchronized long getCpuMillis() {
+    return cpuMillis;
+  }
+
+  synchronized long getPeakRssKb() {
+    return peakRssKb;
+  }
+
+  /*
+   * Reads the current values. Returns false if the process has exited.
+   */
+  private synchronized boolean sample() {
+    long cpu = readCpuMillis(pid);
+    long rss = readPeakRssKb(pid);
+    if (cpu < 0 || rss < 0) {
+      return false;
+    }
+    cpuMillis = Math.max(cpuMillis, cpu);
+    peakRssKb = Math.max(peakRssKb, rss);
+    return true;
+  }
+
+  /**
+   * Returns the CPU time used so far by the given process, in milliseconds, or -1 if it is not
+   * available.
+   */
+  static long readCpuMillis(int pid) {
+    try {
+      String stat = Files.toString(new File("/proc/" + pid + "/stat"), Charsets.US_ASCII);
+      // The command name, in parentheses, may contain spaces.
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      // utime and stime are fields 14 and 15 of the whole line.
+      long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+      return ticks * 1000 / ClockTicks.PER_SECOND;
+    } catch (IOException e) {
+      return -1;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the peak resident set size of the given process, in KB, or -1 if it is not available.
+   */
+  static long readPeakRssKb(int pid) {
+    try {
+      for (String line : Files.readLines(new File("/proc/" + pid + "/status"), Charsets.US_ASCII)) {
+        if (line.startsWith("VmHWM:")) {
+          return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+        }
+      }
+      return -1;
+    } catch (IOException e) {
+      return -1;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /*
+   * Returns the value of getconf CLK_TCK, or 100, which is what Linux uses almost everywhere, if
+   * it can't be run.
+   */
+  private static long readClockTicksPerSecond() {
+    try {
+      Process getconf = Runtime.getRuntime().exec(new String[] {"getconf", "CLK_TCK"});
+      InputStream in = getconf.getInputStream();
+      try {
+        String output = new String(ByteStreams.toByteArray(in), Charsets.US_ASCII).trim();
+        if (getconf.waitFor() == 0) {
+          long ticks = Long.parseLong(output);
+          if (ticks > 0) {
+            return ticks;
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // Use the default.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      // Use the default.
+    }
+    return 100;
+  }
+
+  /**
+   * Returns the process id of the given process, or -1 if it is not available.
+   */
+  static int getPid(Process process) {
+    try {
+      // Process.pid() was added in Java 9, where the field below is no longer accessible.
+      Method method = Process.class.getMethod("pid");
+      return ((Long) method.invoke(process)).intValue();
+    } catch (Exception e) {
+      // Fall back to the field.
+    }
+    try {
+      // Before Java 9, java.lang.UNIXProcess has a private pid field.
+      Field field = process.getClass().getDeclaredField("pid");
+      field.setAccessible(true);
+      return field.getInt(process);
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the progress of a build to the App Inventor server that requested it.
+ *
+ * <p>Each progress value is posted to the progress URL given with the build
+ * request, followed by "/" and the percentage. The posts are made in the
+ * background, so that they never slow down the build, and are best effort:
+ * if a post fails, the server just shows older progress. Only the latest
+ * value is sent, so a slow server never receives a backlog of them, and the
+ * values sent for a build never decrease.
+ *
+ * <p>If the build ends without its output reaching the server, {@link #abort}
+ * posts a progress of -1, so that the server stops showing it as in progress.
+ */
+final class ProgressCallback implements ProgressReporter {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(ProgressCallback.class.getName());
+
+  private static final int TIMEOUT_MILLIS = 10000;
+
+  // The progress posted when the build ended without sending its output.
+  private static final int ABORTED = -1;
+
+  private static final ExecutorService SENDER = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ProgressCallback-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final String progressUrlStr;
+  private final AtomicInteger latest = new AtomicInteger(-1);
+  private final AtomicBoolean sending = new AtomicBoolean(false);
+  // Only changed by the task sending the progress, of which there is at most one at a time.
+  private volatile int sent = -1;
+  private volatile boolean failed;
+
+  private final Runnable sendTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        int progress;
+        while ((progress = latest.get()) != sent) {
+          post(progress);
+          sent = progress;
+        }
+      } finally {
+        sending.set(false);
+      }
+      // A value may have been reported after the loop ended, but before sending was cleared.
+      scheduleSend();
+    }
+  };
+
+  ProgressCallback(String progressUrlStr) {
+    this.progressUrlStr = progressUrlStr;
+  }
+
+  @Override
+  public void report(int progress) {
+    while (true) {
+      int previous = latest.get();
+      if (progress <= previous) {
+        return;
+      }
+      if (latest.compareAndSet(previous, progress)) {
+        break;
+      }
+    }
+    scheduleSend();
+  }
+
+  /**
+   * Tells the server that the build ended without sending its output. The server ignores any
+   * progress that arrives after this.
+   */
+  void abort() {
+    SENDER.execute(new Runnable() {
+      @Override
+      public void run() {
+        post(ABORTED);
+      }
+    });
+  }
+
+  private void scheduleSend() {
+    if (latest.get() != sent && sending.compareAndSet(false, true)) {
+      SENDER.execute(sendTask);
+    }
+  }
+
+  private void post(int progress) {
+    HttpURLConnection connection = null;
+    try {
+      URL url = new URL(progressUrlStr + "/" + progress);
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      connection.setFixedLengthStreamingMode(0);
+      connection.getOutputStream().close();
+      int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        logFailure("Progress callback responded with " + responseCode, null);
+      }
+    } catch (IOException e) {
+      logFailure("Unable to send progress to " + progressUrlStr, e);
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /*
+   * Logs the first failure of each build, since the server is likely to fail all of its posts in
+   * the same way.
+   */
+  private void logFailure(String message, IOException e) {
+    if (!failed) {
+      failed = true;
+      LOG.log(Level.WARNING, message, e);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+/**
+ * Receives the progress of a single build from {@link Compiler}.
+ */
+interface ProgressReporter {
+  /**
+   * Reports that the build is the given percentage done. Called on the thread running the build,
+   * so implementations must not block.
+   */
+  void report(int progress);
+}
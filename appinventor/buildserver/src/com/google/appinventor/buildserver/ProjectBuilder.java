@@ -121,8 +121,23 @@ public final class ProjectBuilder {
   }
 
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
-               int childProcessRam, String dexCachePath) {
+               int childProcessRam, String dexCachePath, ProgressReporter progressReporter) {
     try {
+      // Return the previous build of an unchanged project.
+      BuildCache buildCache = BuildCache.getInstance();
+      String cacheKey = null;
+      if (buildCache != null) {
+        cacheKey = BuildCache.computeKey(inputZip, isForCompanion);
+        if (cacheKey != null) {
+          BuildCache.Entry cachedBuild = buildCache.restore(cacheKey, outputDir);
+          if (cachedBuild != null) {
+            LOG.info("Using cached build " + cacheKey);
+            outputApk = cachedBuild.getApk();
+            return new Result(true, cachedBuild.getMessages(), "");
+          }
+        }
+      }
+
       // Download project files into a temporary directory
       File projectRoot = createNewTempDir();
       LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
@@ -171,7 +186,7 @@ public final class ProjectBuilder {
         // Invoke YoungAndroid compiler
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
+                             keyStorePath, childProcessRam, dexCachePath, progressReporter);
         console.close();
         userErrors.close();
 
@@ -189,6 +204,9 @@ public final class ProjectBuilder {
           } else {
             outputApk = new File(outputDir, outputFile.getName());
             Files.copy(outputFile, outputApk);
+            if (cacheKey != null) {
+              buildCache.put(cacheKey, outputFile, messages);
+            }
             if (saveKeystore) {
               outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
               Files.copy(keyStoreFile, outputKeystore);
@@ -221,6 +239,7 @@ public final class ProjectBuilder {
             return input.endsWith(FORM_PROPERTIES_EXTENSION) || input.endsWith(YAIL_EXTENSION);
           }
         });
+    List<String> rootPathsToGenerate = Lists.newArrayList();
     for (String sourceFile : formAndYailSourceFiles) {
       if (sourceFile.endsWith(FORM_PROPERTIES_EXTENSION)) {
         String rootPath = sourceFile.substring(0, sourceFile.length()
@@ -229,10 +248,13 @@ public final class ProjectBuilder {
         // Note: Famous last words: The following contains() makes this method O(n**2) but n should
         // be pretty small.
         if (!sourceFiles.contains(yailFilePath)) {
-          generateYail(rootPath);
+          rootPathsToGenerate.add(rootPath);
         }
       }
     }
+    if (!rootPathsToGenerate.isEmpty()) {
+      YailGenerationService.getInstance().generate(rootPathsToGenerate);
+    }
   }
 
   private static Set<String> getAllComponentTypes() throws IOException {
@@ -517,65 +539,4 @@ public final class ProjectBuilder {
   private Project getProjectProperties(File projectRoot) {
     return new Project(projectRoot.getAbsolutePath() + "/" + PROJECT_PROPERTIES_FILE_NAME);
   }
-
-  private File generateYail(String rootName) throws IOException, YailGenerationException {
-    String formPropertiesPath = rootName + FORM_PROPERTIES_EXTENSION;
-    String codeblocksSourcePath = rootName + CODEBLOCKS_SOURCE_EXTENSION;
-    String yailPath = rootName + YAIL_EXTENSION;
-
-    String[] commandLine = {
-      System.getProperty("java.home") + "/bin/java",
-      "-mx1024M",
-      "-jar",
-      Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar"),
-      new File(formPropertiesPath).getAbsolutePath(),
-      new File(codeblocksSourcePath).getAbsolutePath(),
-      yailPath
-    };
-    StringBuffer out = new StringBuffer();
-    StringBuffer err = new StringBuffer();
-    int exitValue = Execution.execute(null, commandLine, out, err);
-    if (exitValue == 0) {
-      String generatedYailString = out.toString();
-      File generatedYailFile = new File(yailPath);
-      Files.write(generatedYailString, generatedYailFile, Charsets.UTF_8);
-      return generatedYailFile;
-    } else {
-      String formName = PathUtil.trimOffExtension(PathUtil.basename(formPropertiesPath));
-      if (exitValue == 1) {
-        // Failed to generate yail for legitimate reasons, such as empty sockets.
-        throw new YailGenerationException("Unable to generate code for " + formName + "."
-            + "\n -- err is " + err.toString()
-            + "\n -- out is" + out.toString(),
-            formName);
-      } else {
-        // Any other exit value is unexpected.
-        throw new RuntimeException("YailGenerator for form " + formName
-            + " exited with code " + exitValue
-            + "\n -- err is " + err.toString()
-            + "\n -- out is" + out.toString());
-      }
-    }
-  }
-
-  private static class YailGenerationException extends Exception {
-    // The name of the form being built when an error occurred
-    private final String formName;
-
-    YailGenerationException(String message, String formName) {
-      super(message);
-      this.formName = formName;
-    }
-
-    /**
-     * Return the name of the form that Yail generation failed on.
-     */
-    String getFormName() {
-      return formName;
-    }
-  }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
@@ -0,0 +1,314 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes build tasks using a pool of reused worker threads.
+ *
+ * <p>This executor allows only a certain number of simultaneous tasks.
+ * Additional tasks wait in a bounded queue instead of being rejected, so that
+ * a burst of builds turns into a short wait. A task is only rejected if the
+ * queue is full or if its user already has the maximum number of tasks queued
+ * or running, which keeps a single user from filling the queue.
+ *
+ * @author lizlooney@google.com (Liz Looney)
+ */
+final class QueuingBuildExecutor {
+  // Assumed duration of a task until the first task has completed.
+  private static final long INITIAL_TASK_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  // How long an idle worker waits for a new task before exiting, when the number of active
+  // tasks is unlimited.
+  private static final long IDLE_WORKER_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(QueuingBuildExecutor.class.getName());
+
+  /**
+   * Describes where an accepted task was placed.
+   */
+  static final class Admission {
+    private final int queuePosition;
+    private final long estimatedWaitMillis;
+
+    Admission(int queuePosition, long estimatedWaitMillis) {
+      this.queuePosition = queuePosition;
+      this.estimatedWaitMillis = estimatedWaitMillis;
+    }
+
+    /**
+     * Returns the number of queued tasks that will run before this one, or 0 if the task
+     * started immediately.
+     */
+    int getQueuePosition() {
+      return queuePosition;
+    }
+
+    /**
+     * Returns the estimated time until the task starts, in milliseconds.
+     */
+    long getEstimatedWaitMillis() {
+      return estimatedWaitMillis;
+    }
+  }
+
+  private static final class QueuedTask {
+    final String userName;
+    final Runnable runnable;
+    final long queuedTime = System.currentTimeMillis();
+
+    QueuedTask(String userName, Runnable runnable) {
+      this.userName = userName;
+      this.runnable = runnable;
+    }
+  }
+
+  // The maximum number of active tasks. O means unlimited.
+  private final int maxActiveTasks;
+  // The maximum number of tasks waiting in the queue.
+  private final int maxQueuedTasks;
+  // The maximum number of queued or active tasks per user. 0 means unlimited.
+  private final int maxTasksPerUser;
+
+  // All of the following fields are guarded by lock.
+  private final Object lock = new Object();
+  private final Deque<QueuedTask> queue = new ArrayDeque<QueuedTask>();
+  private final Map<String, Integer> tasksPerUser = new HashMap<String, Integer>();
+  private int workerCount;
+  // The number of waiting workers that haven't been notified of a new task.
+  private int idleWorkerCount;
+  // The number of notified workers that haven't woken up yet.
+  private int pendingWakeupCount;
+  private int activeTaskCount;
+  private int completedTaskCount;
+  private int queuedTaskCount;
+  private int rejectedTaskCount;
+  private int maximumQueueLength;
+  private long totalQueueWaitMillis;
+  // Exponential moving average of the task duration.
+  private long averageTaskMillis = INITIAL_TASK_MILLIS;
+
+  /**
+   * Creates a QueuingBuildExecutor.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, 0 means unlimited
+   * @param maxQueuedTasks the maximum number of tasks waiting to run
+   * @param maxTasksPerUser the maximum number of queued or active tasks per user, 0 means
+   *     unlimited
+   */
+  QueuingBuildExecutor(int maxActiveTasks, int maxQueuedTasks, int maxTasksPerUser) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.maxTasksPerUser = maxTasksPerUser;
+  }
+
+  /**
+   * Runs the given task as soon as a worker is available.
+   *
+   * @param userName the user that requested the task
+   * @param runnable the task
+   * @return where the task was placed
+   * @throws RejectedExecutionException if the queue is full or the user has too many tasks
+   */
+  Admission execute(String userName, Runnable runnable) {
+    synchronized (lock) {
+      Integer userTasks = tasksPerUser.get(userName);
+      if (userTasks == null) {
+        userTasks = 0;
+      }
+      if (maxTasksPerUser != 0 && userTasks >= maxTasksPerUser) {
+        rejectedTaskCount++;
+        throw new RejectedExecutionException("Too many builds for user " + userName);
+      }
+      boolean mustWait = maxActiveTasks != 0 &&
+          activeTaskCount + queue.size() >= maxActiveTasks;
+      if (mustWait && getWaitingCount() >= maxQueuedTasks) {
+        rejectedTaskCount++;
+        throw new RejectedExecutionException("The build queue is full");
+      }
+
+      tasksPerUser.put(userName, userTasks + 1);
+      int position = queue.size();
+      queue.addLast(new QueuedTask(userName, runnable));
+      if (mustWait) {
+        queuedTaskCount++;
+        maximumQueueLength = Math.max(maximumQueueLength, getWaitingCount());
+      }
+
+      if (idleWorkerCount > 0) {
+        // Claim the idle worker for this task, so that the next task doesn't count on it too.
+        idleWorkerCount--;
+        pendingWakeupCount++;
+        lock.notify();
+      } else if (maxActiveTasks == 0 || workerCount < maxActiveTasks) {
+        startWorker();
+      }
+
+      if (!mustWait) {
+        return new Admission(0, 0);
+      }
+      // Every worker is busy. The task starts when the tasks ahead of it and one more have
+      // finished, and the workers finish tasks in parallel.
+      int queuePosition = activeTaskCount + position - maxActiveTasks + 1;
+      long estimatedWaitMillis = ((queuePosition - 1) / maxActiveTasks + 1) * averageTaskMillis;
+      return new Admission(queuePosition, estimatedWaitMillis);
+    }
+  }
+
+  // Returns the number of queued tasks that won't be started by a free worker.
+  // Must be called while holding lock.
+  private int getWaitingCount() {
+    int queued = queue.size();
+    if (maxActiveTasks == 0) {
+      return 0;
+    }
+    // Tasks that are queued while a worker is free are about to be taken by that worker.
+    return Math.max(0, activeTaskCount + queued - maxActiveTasks);
+  }
+
+  // Must be called while holding lock.
+  private void startWorker() {
+    workerCount++;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runTasks();
+      }
+    }, "BuildWorker-" + workerCount);
+    thread.start();
+  }
+
+  private void runTasks() {
+    while (true) {
+      QueuedTask task;
+      synchronized (lock) {
+        task = queue.pollFirst();
+        while (task == null) {
+          idleWorkerCount++;
+          try {
+            if (maxActiveTasks == 0) {
+              // Don't keep an unlimited number of threads around.
+              lock.wait(IDLE_WORKER_MILLIS);
+            } else {
+              lock.wait();
+            }
+          } catch (InterruptedException e) {
+            // Keep waiting.
+          } finally {
+            // Workers are interchangeable, so any worker that wakes up uses a pending wakeup.
+            if (pendingWakeupCount > 0) {
+              pendingWakeupCount--;
+            } else {
+              idleWorkerCount--;
+            }
+          }
+          task = queue.pollFirst();
+          if (task == null && maxActiveTasks == 0) {
+            workerCount--;
+            return;
+          }
+        }
+        activeTaskCount++;
+        totalQueueWaitMillis += System.currentTimeMillis() - task.queuedTime;
+      }
+
+      long start = System.currentTimeMillis();
+      try {
+        task.runnable.run();
+      } catch (RuntimeException e) {
+        LOG.log(Level.SEVERE, "Build task failed", e);
+      } finally {
+        long duration = System.currentTimeMillis() - start;
+        synchronized (lock) {
+          activeTaskCount--;
+          completedTaskCount++;
+          averageTaskMillis = (averageTaskMillis * 7 + duration) / 8;
+          int userTasks = tasksPerUser.get(task.userName) - 1;
+          if (userTasks == 0) {
+            tasksPerUser.remove(task.userName);
+          } else {
+            tasksPerUser.put(task.userName, userTasks);
+          }
+        }
+      }
+    }
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public int getActiveTaskCount() {
+    synchronized (lock) {
+      return activeTaskCount;
+    }
+  }
+
+  public int getCompletedTaskCount() {
+    synchronized (lock) {
+      return completedTaskCount;
+    }
+  }
+
+  /**
+   * Returns the number of tasks waiting for a worker.
+   */
+  public int getQueueLength() {
+    synchronized (lock) {
+      return getWaitingCount();
+    }
+  }
+
+  /**
+   * Returns the number of tasks that had to wait because every worker was busy.
+   */
+  public int getQueuedTaskCount() {
+    synchronized (lock) {
+      return queuedTaskCount;
+    }
+  }
+
+  public int getRejectedTaskCount() {
+    synchronized (lock) {
+      return rejectedTaskCount;
+    }
+  }
+
+  public int getMaximumQueueLength() {
+    synchronized (lock) {
+      return maximumQueueLength;
+    }
+  }
+
+  /**
+   * Returns the average time between submitting a task and its start, in milliseconds.
+   */
+  public long getAverageQueueWaitMillis() {
+    synchronized (lock) {
+      int started = completedTaskCount + activeTaskCount;
+      return started == 0 ? 0 : totalQueueWaitMillis / started;
+    }
+  }
+
+  public long getAverageTaskMillis() {
+    synchronized (lock) {
+      return averageTaskMillis;
+    }
+  }
+}
@@ -0,0 +1,251 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of the class files that Kawa generates for each screen.
+ *
+ * <p>A screen's entry is keyed by a hash of its YAIL source, its location in
+ * the project, the package prefix and a fingerprint of the YAIL runtime and
+ * the class path. When only some of the screens of a project have changed,
+ * {@link Compiler} restores the class files of the others and compiles only
+ * the changed ones. An entry also holds the compiler messages for the screen,
+ * so that warnings are reported again when the classes are reused.
+ *
+ * <p>Note that the class files refer to the path of the source file they were
+ * compiled from, which is in a temporary directory of an earlier build. That
+ * path only appears in stack traces.
+ *
+ * <p>The cache is disabled unless the --yailClassCacheDir command line option
+ * is given.
+ */
+final class YailClassCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(YailClassCache.class.getName());
+
+  private static final String CLASSES_DIR_NAME = "classes";
+  private static final String MESSAGES_FILE_NAME = "messages.txt";
+
+  // Stands for the path of the source file in the cached compiler messages.
+  private static final String SOURCE_PATH_PLACEHOLDER = "${source}";
+
+  // The cache shared by all builds, or null if the cache is disabled.
+  private static volatile YailClassCache instance;
+
+  // The hashes of the class path entries, keyed by path, length and modification time.
+  private static final Map<String, HashCode> classPathEntryHashes = Maps.newConcurrentMap();
+
+  private final DiskLruCache cache;
+
+  /**
+   * Creates the shared cache.
+   *
+   * @param cacheDirPath  the directory that holds the cached classes, or null to disable the cache
+   * @param maxSizeMb  the maximum total size of the cached classes, in MB
+   */
+  static synchronized void initialize(String cacheDirPath, int maxSizeMb) {
+    if (cacheDirPath == null || maxSizeMb <= 0) {
+      instance = null;
+      return;
+    }
+    instance = new YailClassCache(new File(cacheDirPath), maxSizeMb * 1024L * 1024L);
+  }
+
+  /**
+   * Returns the shared cache, or {@code null} if the cache is disabled.
+   */
+  static YailClassCache getInstance() {
+    return instance;
+  }
+
+  @VisibleForTesting
+  YailClassCache(File cacheDir, long maxSizeBytes) {
+    cache = new DiskLruCache(cacheDir, maxSizeBytes);
+  }
+
+  /**
+   * Computes a fingerprint of everything other than the source that affects the classes generated
+   * for a screen.
+   *
+   * @param classPath  the class path used by the Kawa compiler
+   * @param packagePrefix  the value of the -P option of the Kawa compiler
+   * @param yailRuntime  the path of runtime.scm
+   */
+  static String computeFingerprint(String classPath, String packagePrefix, String yailRuntime)
+      throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(GitBuildId.getVersion() + "", Charsets.UTF_8);
+    hasher.putString(packagePrefix, Charsets.UTF_8);
+    hasher.putBytes(hashOf(new File(yailRuntime)).asBytes());
+    for (String entry : classPath.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        hasher.putBytes(hashOf(new File(entry)).asBytes());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /*
+   * Returns the hash of the given file. The hashes of the libraries are remembered, since the same
+   * libraries are used by most builds.
+   */
+  private static HashCode hashOf(File file) throws IOException {
+    String id = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    HashCode hash = classPathEntryHashes.get(id);
+    if (hash == null) {
+      hash = file.isFile()
+          ? Files.hash(file, Hashing.sha256())
+          : Hashing.sha256().hashString(id, Charsets.UTF_8);
+      classPathEntryHashes.put(id, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Computes the key of the classes generated for a screen.
+   *
+   * @param fingerprint  the value returned by {@link #computeFingerprint}
+   * @param classPrefix  the path of the screen's main class file relative to the classes
+   *     directory, without the .class extension
+   * @param source  the YAIL source of the screen
+   */
+  static String computeKey(String fingerprint, String classPrefix, File source)
+      throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(fingerprint, Charsets.UTF_8);
+    hasher.putString(classPrefix, Charsets.UTF_8);
+    hasher.putBytes(Files.toByteArray(source));
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the class files that Kawa generated for a screen: the main class and its inner
+   * classes.
+   *
+   * @param classesDir  the directory that Kawa wrote the classes to
+   * @param classPrefix  the path of the screen's main class file relative to classesDir, without
+   *     the .class extension
+   * @return the paths of the class files, relative to classesDir
+   */
+  static List<String> findClassFiles(File classesDir, String classPrefix) {
+    List<String> classFiles = Lists.newArrayList();
+    int slash = classPrefix.lastIndexOf('/');
+    String packageDir = classPrefix.substring(0, slash + 1);
+    String className = classPrefix.substring(slash + 1);
+    File[] files = new File(classesDir, packageDir).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.equals(className + ".class") ||
+            (name.startsWith(className + "$") && name.endsWith(".class"))) {
+          classFiles.add(packageDir + name);
+        }
+      }
+    }
+    return classFiles;
+  }
+
+  /**
+   * Copies the cached classes of a screen into the given classes directory.
+   *
+   * @param key  the value returned by {@link #computeKey}
+   * @param classesDir  the directory that the classes are copied to
+   * @param sourcePath  the path of the screen's source file in this build
+   * @return the compiler messages for the screen, or {@code null} if there are no cached classes
+   */
+  String restore(String key, File classesDir, String sourcePath) {
+    File entryDir = cache.get(key);
+    if (entryDir == null) {
+      return null;
+    }
+    String messages;
+    try {
+      File cachedClassesDir = new File(entryDir, CLASSES_DIR_NAME);
+      copyTree(cachedClassesDir, cachedClassesDir, classesDir);
+      messages = Files.toString(new File(entryDir, MESSAGES_FILE_NAME), Charsets.UTF_8);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to restore cached classes " + key, e);
+      cache.invalidate(key);
+      return null;
+    }
+    cache.release(key);
+    return messages.replace(SOURCE_PATH_PLACEHOLDER, sourcePath);
+  }
+
+  /**
+   * Adds the classes that Kawa generated for a screen to the cache.
+   *
+   * @param key  the value returned by {@link #computeKey}
+   * @param classesDir  the directory that Kawa wrote the classes to
+   * @param classFiles  the value returned by {@link #findClassFiles}
+   * @param kawaOutput  the output of the Kawa compiler
+   * @param sourcePath  the path of the screen's source file
+   */
+  void store(String key, final File classesDir, final List<String> classFiles,
+      String kawaOutput, String sourcePath) {
+    // Keep the messages about this screen.
+    final StringBuilder messages = new StringBuilder();
+    for (String line : kawaOutput.split("\n")) {
+      if (line.startsWith(sourcePath)) {
+        messages.append(SOURCE_PATH_PLACEHOLDER).append(line.substring(sourcePath.length()))
+            .append('\n');
+      }
+    }
+    cache.put(key, new DiskLruCache.EntryWriter() {
+      @Override
+      public void write(File entryDir) throws IOException {
+        File cachedClassesDir = new File(entryDir, CLASSES_DIR_NAME);
+        for (String classFile : classFiles) {
+          File to = new File(cachedClassesDir, classFile);
+          Files.createParentDirs(to);
+          Files.copy(new File(classesDir, classFile), to);
+        }
+        Files.write(messages, new File(entryDir, MESSAGES_FILE_NAME), Charsets.UTF_8);
+      }
+    });
+  }
+
+  private static void copyTree(File root, File from, File toRoot) throws IOException {
+    File[] files = from.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list " + from);
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        copyTree(root, file, toRoot);
+      } else {
+        File to = new File(toRoot, file.getAbsolutePath().substring(
+            root.getAbsolutePath().length() + 1));
+        Files.createParentDirs(to);
+        Files.copy(file, to);
+      }
+    }
+  }
+
+  /**
+   * Adds the statistics of the cache to the given map of /buildserver/vars variables.
+   */
+  void putVariables(Map<String, String> variables) {
+    cache.putVariables("yail-class-cache-", variables);
+  }
+}
@@ -0,0 +1,30 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+/**
+ * Indicates that the YAIL of a form could not be generated for legitimate
+ * reasons, such as empty sockets.
+ */
+final class YailGenerationException extends Exception {
+  private static final long serialVersionUID = 8208201625515060181L;
+
+  // The name of the form being built when an error occurred
+  private final String formName;
+
+  YailGenerationException(String message, String formName) {
+    super(message);
+    this.formName = formName;
+  }
+
+  /**
+   * Return the name of the form that Yail generation failed on.
+   */
+  String getFormName() {
+    return formName;
+  }
+}
@@ -0,0 +1,196 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Generates the YAIL of the screens that a project doesn't supply YAIL for.
+ *
+ * <p>All of the screens of a project are generated in one call, in parallel.
+ * Each screen is generated by a YailGenerator.jar process that can use up to
+ * {@link #GENERATOR_RAM_MB} MB, so the number of simultaneous generations,
+ * across all builds, is limited by the {@link BuildStageScheduler.Stage#YAIL}
+ * stage of the build stage scheduler.
+ */
+final class YailGenerationService {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(YailGenerationService.class.getName());
+
+  // Maximum ram that can be used by a YailGenerator.jar process, in MB.
+  static final int GENERATOR_RAM_MB = 1024;
+
+  private static final String FORM_PROPERTIES_EXTENSION =
+      YoungAndroidConstants.FORM_PROPERTIES_EXTENSION;
+  private static final String YAIL_EXTENSION = YoungAndroidConstants.YAIL_EXTENSION;
+  private static final String CODEBLOCKS_SOURCE_EXTENSION =
+      YoungAndroidConstants.CODEBLOCKS_SOURCE_EXTENSION;
+
+  private static final YailGenerationService instance = new YailGenerationService();
+
+  // Runs the generations of a project's screens. The number of generators that actually run at
+  // the same time is limited by the build stage scheduler.
+  private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "YailGenerator-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final AtomicInteger screenCount = new AtomicInteger(0);
+  private final AtomicInteger failureCount = new AtomicInteger(0);
+  private final AtomicLong totalMillis = new AtomicLong(0);
+  private final AtomicLong maxMillis = new AtomicLong(0);
+
+  /**
+   * Returns the service shared by all builds.
+   */
+  static YailGenerationService getInstance() {
+    return instance;
+  }
+
+  private YailGenerationService() {
+  }
+
+  /**
+   * Generates the YAIL of the given screens, in parallel.
+   *
+   * @param rootNames  the paths of the screens' source files, without the extension
+   * @throws YailGenerationException if the YAIL of a screen could not be generated for legitimate
+   *     reasons, such as empty sockets; if several screens fail, the first one is reported
+   */
+  void generate(List<String> rootNames) throws IOException, YailGenerationException {
+    if (rootNames.size() == 1) {
+      generateScreen(rootNames.get(0));
+      return;
+    }
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (final String rootName : rootNames) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException, YailGenerationException {
+          generateScreen(rootName);
+          return null;
+        }
+      }));
+    }
+    // Wait for every screen, so that no generator is still writing when the build moves on.
+    Throwable firstFailure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while generating YAIL");
+      } catch (ExecutionException e) {
+        if (firstFailure == null) {
+          firstFailure = e.getCause();
+        }
+      }
+    }
+    if (firstFailure instanceof YailGenerationException) {
+      throw (YailGenerationException) firstFailure;
+    } else if (firstFailure instanceof IOException) {
+      throw (IOException) firstFailure;
+    } else if (firstFailure instanceof RuntimeException) {
+      throw (RuntimeException) firstFailure;
+    } else if (firstFailure != null) {
+      throw new RuntimeException(firstFailure);
+    }
+  }
+
+  private File generateScreen(String rootName) throws IOException, YailGenerationException {
+    String formPropertiesPath = rootName + FORM_PROPERTIES_EXTENSION;
+    String codeblocksSourcePath = rootName + CODEBLOCKS_SOURCE_EXTENSION;
+    String yailPath = rootName + YAIL_EXTENSION;
+    String formName = PathUtil.trimOffExtension(PathUtil.basename(formPropertiesPath));
+
+    String[] commandLine = {
+      System.getProperty("java.home") + "/bin/java",
+      "-mx" + GENERATOR_RAM_MB + "M",
+      "-jar",
+      Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar"),
+      new File(formPropertiesPath).getAbsolutePath(),
+      new File(codeblocksSourcePath).getAbsolutePath(),
+      yailPath
+    };
+    StringBuffer out = new StringBuffer();
+    StringBuffer err = new StringBuffer();
+    int exitValue;
+    BuildStageScheduler scheduler = BuildStageScheduler.getInstance();
+    scheduler.acquire(BuildStageScheduler.Stage.YAIL);
+    long start = System.currentTimeMillis();
+    try {
+      exitValue = Execution.execute(null, commandLine, out, err);
+    } finally {
+      scheduler.release(BuildStageScheduler.Stage.YAIL);
+      recordTime(formName, System.currentTimeMillis() - start);
+    }
+    if (exitValue == 0) {
+      String generatedYailString = out.toString();
+      File generatedYailFile = new File(yailPath);
+      Files.write(generatedYailString, generatedYailFile, Charsets.UTF_8);
+      return generatedYailFile;
+    } else {
+      failureCount.incrementAndGet();
+      if (exitValue == 1) {
+        // Failed to generate yail for legitimate reasons, such as empty sockets.
+        throw new YailGenerationException("Unable to generate code for " + formName + "."
+            + "\n -- err is " + err.toString()
+            + "\n -- out is" + out.toString(),
+            formName);
+      } else {
+        // Any other exit value is unexpected.
+        throw new RuntimeException("YailGenerator for form " + formName
+            + " exited with code " + exitValue
+            + "\n -- err is " + err.toString()
+            + "\n -- out is" + out.toString());
+      }
+    }
+  }
+
+  private void recordTime(String formName, long millis) {
+    LOG.info("YAIL generation for " + formName + " took " + millis + " ms");
+    screenCount.incrementAndGet();
+    totalMillis.addAndGet(millis);
+    long max = maxMillis.get();
+    while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+      max = maxMillis.get();
+    }
+  }
+
+  /**
+   * Adds the statistics of the service to the given map of /buildserver/vars variables.
+   */
+  void putVariables(Map<String, String> variables) {
+    int screens = screenCount.get();
+    variables.put("yail-generation-screens", screens + "");
+    variables.put("yail-generation-failures", failureCount.get() + "");
+    variables.put("yail-generation-average-time-in-ms",
+        (screens == 0 ? 0 : totalMillis.get() / screens) + "");
+    variables.put("yail-generation-maximum-time-in-ms", maxMillis.get() + "");
+  }
+}
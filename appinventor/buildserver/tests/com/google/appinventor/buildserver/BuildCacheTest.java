@@ -0,0 +1,109 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildCache class.
+ */
+public class BuildCacheTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDir);
+    super.tearDown();
+  }
+
+  public void testComputeKey() throws Exception {
+    String key = BuildCache.computeKey(createZip("a.zip", "(foo)\n", true), false);
+    assertNotNull(key);
+    // The order of the entries and the line endings don't matter.
+    assertEquals(key, BuildCache.computeKey(createZip("b.zip", "(foo)\r\n", true), false));
+    // The contents of the sources do.
+    assertFalse(key.equals(BuildCache.computeKey(createZip("c.zip", "(bar)\n", true), false)));
+    // So does whether the build is for the companion.
+    assertFalse(key.equals(BuildCache.computeKey(createZip("d.zip", "(foo)\n", true), true)));
+    // Projects without a keystore are not cached.
+    assertNull(BuildCache.computeKey(createZip("e.zip", "(foo)\n", false), false));
+  }
+
+  public void testLeastRecentlyUsedBuildIsEvicted() throws Exception {
+    File cacheDir = new File(tempDir, "cache");
+    BuildCache cache = new BuildCache(cacheDir, 250);
+    cache.put("one", createApk("One.apk", 100), "messages for one");
+    cache.put("two", createApk("Two.apk", 100), "messages for two");
+    assertEquals(2, cache.getEntryCount());
+
+    File outputDir = new File(tempDir, "output");
+    outputDir.mkdirs();
+    BuildCache.Entry entry = cache.restore("one", outputDir);
+    assertEquals(new File(outputDir, "One.apk"), entry.getApk());
+    assertEquals(100, entry.getApk().length());
+    assertEquals("messages for one", entry.getMessages());
+    assertNull(cache.restore("three", outputDir));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // Adding a third build evicts "two", which was used least recently.
+    cache.put("three", createApk("Three.apk", 100), "");
+    assertEquals(1, cache.getEvictionCount());
+    assertNull(cache.restore("two", outputDir));
+    assertNotNull(cache.restore("one", outputDir));
+    assertNotNull(cache.restore("three", outputDir));
+
+    // The builds are found again after a restart.
+    cache = new BuildCache(cacheDir, 250);
+    assertEquals(2, cache.getEntryCount());
+    assertNotNull(cache.restore("one", outputDir));
+  }
+
+  private ZipFile createZip(String name, String scm, boolean includeKeystore)
+      throws IOException {
+    File file = new File(tempDir, name);
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      String[] entryNames = name.equals("b.zip")
+          ? new String[] { "youngandroidproject/project.properties", "src/a/Screen1.scm" }
+          : new String[] { "src/a/Screen1.scm", "youngandroidproject/project.properties" };
+      for (String entryName : entryNames) {
+        out.putNextEntry(new ZipEntry(entryName));
+        out.write((entryName.endsWith(".scm") ? scm : "main=a.Screen1\n").getBytes(Charsets.UTF_8));
+      }
+      if (includeKeystore) {
+        out.putNextEntry(new ZipEntry(YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION));
+        out.write(new byte[] { 1, 2, 3 });
+      }
+    } finally {
+      out.close();
+    }
+    return new ZipFile(file);
+  }
+
+  private File createApk(String name, int size) throws IOException {
+    File file = new File(tempDir, name);
+    Files.write(new byte[size], file);
+    return file;
+  }
+}
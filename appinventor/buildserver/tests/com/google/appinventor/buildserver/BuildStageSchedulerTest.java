@@ -0,0 +1,86 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.buildserver.BuildStageScheduler.Stage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildStageScheduler class.
+ */
+public class BuildStageSchedulerTest extends TestCase {
+  public void testComputePermits() throws Exception {
+    // 32 processors, 64 GB, 2 GB per child process: 32 memory slots shared by Kawa and DX.
+    Map<Stage, Integer> permits = BuildStageScheduler.computePermits(32, 64 * 1024, 2048, 0);
+    assertEquals(16, (int) permits.get(Stage.KAWA));
+    assertEquals(16, (int) permits.get(Stage.DX));
+    assertEquals(32, (int) permits.get(Stage.AAPT));
+    assertEquals(32, (int) permits.get(Stage.SIGNING));
+    assertEquals(32, (int) permits.get(Stage.ZIPALIGN));
+    // 1 GB per YailGenerator process.
+    assertEquals(32, (int) permits.get(Stage.YAIL));
+    permits = BuildStageScheduler.computePermits(32, 16 * 1024, 2048, 0);
+    assertEquals(16, (int) permits.get(Stage.YAIL));
+
+    // A small machine still gets one permit for every stage.
+    permits = BuildStageScheduler.computePermits(1, 1024, 2048, 0);
+    for (Stage stage : Stage.values()) {
+      assertEquals(1, (int) permits.get(stage));
+    }
+
+    // With a Kawa compiler pool, Kawa is limited by the pool size.
+    permits = BuildStageScheduler.computePermits(8, 16 * 1024, 2048, 3);
+    assertEquals(3, (int) permits.get(Stage.KAWA));
+    assertEquals(5, (int) permits.get(Stage.DX));
+  }
+
+  public void testStagesAreIndependent() throws Exception {
+    Map<Stage, Integer> permits = new EnumMap<Stage, Integer>(Stage.class);
+    for (Stage stage : Stage.values()) {
+      permits.put(stage, 1);
+    }
+    final BuildStageScheduler scheduler = new BuildStageScheduler(permits);
+
+    // Hold the only DX permit.
+    scheduler.acquire(Stage.DX);
+    assertEquals(1, scheduler.getActiveCount(Stage.DX));
+
+    // A build waiting for DX is queued.
+    final CountDownLatch dxAcquired = new CountDownLatch(1);
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        scheduler.acquire(Stage.DX);
+        dxAcquired.countDown();
+        scheduler.release(Stage.DX);
+      }
+    });
+    waiter.start();
+    while (scheduler.getQueueDepth(Stage.DX) == 0) {
+      Thread.sleep(10);
+    }
+    assertFalse(dxAcquired.await(100, TimeUnit.MILLISECONDS));
+
+    // Another stage can still be run.
+    scheduler.acquire(Stage.AAPT);
+    scheduler.release(Stage.AAPT);
+    assertEquals(1, scheduler.getCompletedCount(Stage.AAPT));
+
+    // Releasing DX lets the waiting build proceed.
+    scheduler.release(Stage.DX);
+    assertTrue(dxAcquired.await(5, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(0, scheduler.getQueueDepth(Stage.DX));
+    assertEquals(0, scheduler.getActiveCount(Stage.DX));
+    assertEquals(2, scheduler.getCompletedCount(Stage.DX));
+    assertTrue(scheduler.getMaxWaitMillis(Stage.DX) >= 100);
+  }
+}
@@ -0,0 +1,108 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BuildTelemetry}.
+ */
+public class BuildTelemetryTest extends TestCase {
+
+  public void testPercentiles() {
+    BuildTelemetry.Histogram histogram = new BuildTelemetry.Histogram();
+    assertEquals(0, histogram.getPercentile(50));
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i);
+    }
+    assertEquals(50, histogram.getPercentile(50));
+    assertEquals(95, histogram.getPercentile(95));
+    assertEquals(99, histogram.getPercentile(99));
+    assertEquals(100, histogram.getPercentile(100));
+  }
+
+  public void testOnlyRecentSamplesAreKept() {
+    BuildTelemetry.Histogram histogram = new BuildTelemetry.Histogram();
+    histogram.add(1000000);
+    for (int i = 0; i < 1000; i++) {
+      histogram.add(1);
+    }
+    assertEquals(1, histogram.getPercentile(100));
+  }
+
+  public void testChildProcessesAreAttributedToTheCurrentStage() throws Exception {
+    BuildTelemetry telemetry = new BuildTelemetry();
+    BuildTelemetry.Build build = telemetry.startBuild();
+    build.startStage("kawa");
+    BuildTelemetry.recordChildProcess(300, 1000);
+    BuildTelemetry.recordChildProcess(200, 4000);
+    build.startStage("dx");
+    BuildTelemetry.recordChildProcess(100, 2000);
+    build.finish(true);
+    // Not part of a stage any more.
+    BuildTelemetry.recordChildProcess(5000, 5000);
+    assertNull(BuildTelemetry.getCurrentStage());
+
+    JSONObject json = telemetry.toJson();
+    assertEquals(1, json.getInt("successful-builds"));
+    assertEquals(0, json.getInt("failed-builds"));
+    JSONObject stages = json.getJSONObject("stages");
+    JSONObject kawa = stages.getJSONObject("kawa");
+    assertEquals(1, kawa.getInt("count"));
+    assertEquals(500, kawa.getJSONObject("cpu-ms").getLong("max"));
+    assertEquals(4000, kawa.getJSONObject("peak-rss-kb").getLong("max"));
+    assertEquals(100, stages.getJSONObject("dx").getJSONObject("cpu-ms").getLong("p50"));
+    JSONObject total = stages.getJSONObject(BuildTelemetry.TOTAL);
+    assertEquals(600, total.getJSONObject("cpu-ms").getLong("max"));
+    assertEquals(4000, total.getJSONObject("peak-rss-kb").getLong("max"));
+  }
+
+  public void testStagesOnOtherThreads() throws Exception {
+    BuildTelemetry telemetry = new BuildTelemetry();
+    final BuildTelemetry.Build build = telemetry.startBuild();
+    build.startStage("kawa");
+    Thread resources = new Thread() {
+      @Override
+      public void run() {
+        build.startStage("aapt");
+        BuildTelemetry.recordChildProcess(700, 3000);
+        build.endStage();
+      }
+    };
+    resources.start();
+    BuildTelemetry.recordChildProcess(100, 1000);
+    resources.join();
+    build.finish(false);
+
+    JSONObject json = telemetry.toJson();
+    assertEquals(1, json.getInt("failed-builds"));
+    JSONObject stages = json.getJSONObject("stages");
+    assertEquals(100, stages.getJSONObject("kawa").getJSONObject("cpu-ms").getLong("max"));
+    assertEquals(700, stages.getJSONObject("aapt").getJSONObject("cpu-ms").getLong("max"));
+    assertEquals(800,
+        stages.getJSONObject(BuildTelemetry.TOTAL).getJSONObject("cpu-ms").getLong("max"));
+  }
+
+  public void testProcessMonitorReadsTheCurrentProcess() throws Exception {
+    Process process = Runtime.getRuntime().exec(new String[] {"sleep", "0.2"});
+    int pid = ProcessMonitor.getPid(process);
+    if (pid <= 0 || !new File("/proc/" + pid).exists()) {
+      // Not available on this platform.
+      process.waitFor();
+      return;
+    }
+    assertTrue(ProcessMonitor.readPeakRssKb(pid) > 0);
+    assertTrue(ProcessMonitor.readCpuMillis(pid) >= 0);
+    ProcessMonitor monitor = ProcessMonitor.start(process);
+    process.waitFor();
+    monitor.stop();
+    assertTrue(monitor.getPeakRssKb() > 0);
+  }
+}
@@ -0,0 +1,91 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests DexCacheIndex class.
+ */
+public class DexCacheIndexTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDir);
+    super.tearDown();
+  }
+
+  public void testHashFile() throws Exception {
+    // Larger than one mapped region.
+    byte[] content = new byte[20 * 1024 * 1024 + 17];
+    new Random(1).nextBytes(content);
+    File lib = new File(tempDir, "lib.jar");
+    Files.write(content, lib);
+    assertEquals(Hashing.md5().hashBytes(content).toString(), DexCacheIndex.hashFile(lib));
+
+    File empty = new File(tempDir, "empty.jar");
+    Files.write(new byte[0], empty);
+    assertEquals(Hashing.md5().hashBytes(new byte[0]).toString(), DexCacheIndex.hashFile(empty));
+  }
+
+  public void testIndexIsSaved() throws Exception {
+    File cacheDir = new File(tempDir, "cache");
+    cacheDir.mkdirs();
+    File lib = new File(tempDir, "lib.jar");
+    Files.write(new byte[] { 1, 2, 3 }, lib);
+
+    DexCacheIndex index = new DexCacheIndex(cacheDir, 1024);
+    String hash = index.getHash(lib);
+    assertEquals(Hashing.md5().hashBytes(new byte[] { 1, 2, 3 }).toString(), hash);
+    Files.write(new byte[10], new File(cacheDir, DexCacheIndex.getDexedLibName(hash)));
+    index.recordUse(hash);
+    index.evictAndSave();
+
+    // The hash is remembered by a new index, so the library isn't read again. Change the content
+    // without changing the size or modification time to show that.
+    long lastModified = lib.lastModified();
+    Files.write(new byte[] { 4, 5, 6 }, lib);
+    lib.setLastModified(lastModified);
+    assertEquals(hash, new DexCacheIndex(cacheDir, 1024).getHash(lib));
+
+    // A library that changes is hashed again.
+    lib.setLastModified(lastModified + 10000);
+    assertFalse(hash.equals(new DexCacheIndex(cacheDir, 1024).getHash(lib)));
+  }
+
+  public void testRecentlyUsedLibrariesAreNotEvicted() throws Exception {
+    File cacheDir = new File(tempDir, "cache");
+    cacheDir.mkdirs();
+    File dexedLib = new File(cacheDir, DexCacheIndex.getDexedLibName("0123"));
+    Files.write(new byte[100], dexedLib);
+
+    // The cache is too large, but the library was just used.
+    DexCacheIndex index = new DexCacheIndex(cacheDir, 10);
+    index.recordUse("0123");
+    index.evictAndSave();
+    assertTrue(dexedLib.exists());
+
+    // A library that hasn't been used for a long time is deleted.
+    dexedLib.setLastModified(System.currentTimeMillis() - 24 * 60 * 60 * 1000);
+    new File(cacheDir, "dex-cache-index.txt").delete();
+    new DexCacheIndex(cacheDir, 10).evictAndSave();
+    assertFalse(dexedLib.exists());
+  }
+}
@@ -0,0 +1,74 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests DiskLruCache class.
+ */
+public class DiskLruCacheTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDir);
+    super.tearDown();
+  }
+
+  public void testEntryBeingReadIsNotEvicted() throws Exception {
+    DiskLruCache cache = new DiskLruCache(new File(tempDir, "cache"), 150);
+    cache.put("one", writer(100));
+    File entryDir = cache.get("one");
+    assertNotNull(entryDir);
+
+    // "one" is the least recently used entry, but it is being read.
+    cache.put("two", writer(100));
+    assertTrue(entryDir.exists());
+    assertEquals(0, cache.getEvictionCount());
+
+    // Once it is released, it is evicted.
+    cache.release("one");
+    assertFalse(entryDir.exists());
+    assertEquals(1, cache.getEvictionCount());
+    assertNull(cache.get("one"));
+    assertNotNull(cache.get("two"));
+  }
+
+  public void testInvalidatedEntryIsDeletedByLastReader() throws Exception {
+    DiskLruCache cache = new DiskLruCache(new File(tempDir, "cache"), 1000);
+    cache.put("one", writer(100));
+    File entryDir = cache.get("one");
+    assertEquals(entryDir, cache.get("one"));
+
+    cache.invalidate("one");
+    assertEquals(0, cache.getEntryCount());
+    assertTrue(entryDir.exists());
+    cache.release("one");
+    assertFalse(entryDir.exists());
+  }
+
+  private static DiskLruCache.EntryWriter writer(final int size) {
+    return new DiskLruCache.EntryWriter() {
+      @Override
+      public void write(File entryDir) throws IOException {
+        Files.write(new byte[size], new File(entryDir, "data"));
+      }
+    };
+  }
+}
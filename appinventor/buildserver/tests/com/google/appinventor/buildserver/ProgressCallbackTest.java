@@ -0,0 +1,88 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ProgressCallback}.
+ *
+ */
+public class ProgressCallbackTest extends TestCase {
+  private HttpServer server;
+  // Longer than the time a post can take before ProgressCallback gives up on it.
+  private static final long WAIT_SECONDS = 30;
+
+  private final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+  private volatile int awaited;
+  private final CountDownLatch awaitedReceived = new CountDownLatch(1);
+
+  @Override
+  protected void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/ode2/buildprogress/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        // Record the value before responding, so it is never recorded after the test has ended.
+        int progress = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        received.add(progress);
+        if (progress == awaited) {
+          awaitedReceived.countDown();
+        }
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    // Let the last exchange finish, since its value is recorded before it responds.
+    server.stop(1);
+  }
+
+  public void testProgressIsPostedAndNeverDecreases() throws Exception {
+    awaited = 100;
+    ProgressCallback callback = new ProgressCallback("http://localhost:" +
+        server.getAddress().getPort() + "/ode2/buildprogress/encryptedid");
+    callback.report(35);
+    callback.report(50);
+    callback.report(50);
+    callback.report(40);
+    callback.report(85);
+    callback.report(100);
+
+    assertTrue(awaitedReceived.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Integer.valueOf(100), received.get(received.size() - 1));
+    // Intermediate values may be skipped, but none is sent twice or out of order.
+    for (int i = 1; i < received.size(); i++) {
+      assertTrue(received.get(i - 1) < received.get(i));
+    }
+    assertFalse(received.contains(40));
+  }
+
+  public void testAbortIsPosted() throws Exception {
+    awaited = -1;
+    ProgressCallback callback = new ProgressCallback("http://localhost:" +
+        server.getAddress().getPort() + "/ode2/buildprogress/encryptedid");
+    callback.abort();
+
+    assertTrue(awaitedReceived.await(WAIT_SECONDS, TimeUnit.SECONDS));
+  }
+}
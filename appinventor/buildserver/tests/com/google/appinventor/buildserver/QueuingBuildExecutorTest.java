@@ -0,0 +1,164 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests QueuingBuildExecutor class.
+ *
+ * @author lizlooney@google.com (Liz Looney)
+ */
+public class QueuingBuildExecutorTest extends TestCase {
+  public void testAdditionalTaskIsQueued() throws Exception {
+    // Create the QueuingBuildExecutor with capacity 10 and room for 5 queued tasks.
+    int maxCapacity = 10;
+    QueuingBuildExecutor executor = new QueuingBuildExecutor(maxCapacity, 5, 0);
+
+    // Execute the maximum number of tasks, which will all wait until I count down the signal.
+    CountDownLatch signal = new CountDownLatch(1);
+    for (int i = 0; i < maxCapacity; i++) {
+      QueuingBuildExecutor.Admission admission =
+          executor.execute("user" + i, new TaskThatWaitsForSignal(signal));
+      assertEquals(0, admission.getQueuePosition());
+    }
+    waitForActiveTasks(executor, maxCapacity);
+
+    // Execute another task. We expect it to be queued, not rejected.
+    CountDownLatch done = new CountDownLatch(1);
+    QueuingBuildExecutor.Admission admission =
+        executor.execute("another user", new TaskThatCountsDown(done));
+    assertEquals(1, admission.getQueuePosition());
+    assertTrue(admission.getEstimatedWaitMillis() > 0);
+    assertEquals(1, executor.getQueueLength());
+
+    // Count down the signal so the active tasks can complete, and the queued task can run.
+    signal.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, executor.getQueuedTaskCount());
+  }
+
+  public void testAdditionalTaskIsRejectedWhenQueueIsFull() throws Exception {
+    QueuingBuildExecutor executor = new QueuingBuildExecutor(1, 1, 0);
+    CountDownLatch signal = new CountDownLatch(1);
+    executor.execute("user1", new TaskThatWaitsForSignal(signal));
+    executor.execute("user2", new TaskThatWaitsForSignal(signal));
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute("user3", new TaskThatWaitsForSignal(signal));
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, executor.getRejectedTaskCount());
+
+    signal.countDown();
+  }
+
+  public void testUserCannotFillQueue() throws Exception {
+    QueuingBuildExecutor executor = new QueuingBuildExecutor(1, 10, 2);
+    CountDownLatch signal = new CountDownLatch(1);
+    executor.execute("user1", new TaskThatWaitsForSignal(signal));
+    executor.execute("user1", new TaskThatWaitsForSignal(signal));
+
+    // user1 already has 2 tasks.
+    try {
+      executor.execute("user1", new TaskThatWaitsForSignal(signal));
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Other users can still queue tasks.
+    executor.execute("user2", new TaskThatWaitsForSignal(signal));
+    assertEquals(2, executor.getQueueLength());
+
+    signal.countDown();
+  }
+
+  public void testIdleWorkersStartBackToBackTasks() throws Exception {
+    QueuingBuildExecutor executor = new QueuingBuildExecutor(2, 10, 0);
+    CountDownLatch done = new CountDownLatch(2);
+    executor.execute("user1", new TaskThatCountsDown(done));
+    executor.execute("user2", new TaskThatCountsDown(done));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    waitForActiveTasks(executor, 0);
+
+    // Both workers are idle now. Two tasks submitted back to back must each get a worker, even
+    // though neither worker has woken up before the second task is submitted.
+    CountDownLatch signal = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(2);
+    for (int i = 0; i < 2; i++) {
+      QueuingBuildExecutor.Admission admission =
+          executor.execute("user" + i, new TaskThatCountsDownAndWaits(started, signal));
+      assertEquals(0, admission.getQueuePosition());
+    }
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(2, executor.getActiveTaskCount());
+
+    signal.countDown();
+  }
+
+  private static void waitForActiveTasks(QueuingBuildExecutor executor, int count)
+      throws InterruptedException {
+    while (executor.getActiveTaskCount() != count) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final CountDownLatch signal;
+    private TaskThatWaitsForSignal(CountDownLatch signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      try {
+        // Wait for the signal.
+        signal.await();
+      } catch (InterruptedException e) {
+        // ignored
+      }
+    }
+  }
+
+  private static class TaskThatCountsDown implements Runnable {
+    private final CountDownLatch done;
+    private TaskThatCountsDown(CountDownLatch done) {
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      done.countDown();
+    }
+  }
+
+  private static class TaskThatCountsDownAndWaits implements Runnable {
+    private final CountDownLatch started;
+    private final CountDownLatch signal;
+    private TaskThatCountsDownAndWaits(CountDownLatch started, CountDownLatch signal) {
+      this.started = started;
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      started.countDown();
+      try {
+        signal.await();
+      } catch (InterruptedException e) {
+        // ignored
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests YailClassCache class.
+ */
+public class YailClassCacheTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDir);
+    super.tearDown();
+  }
+
+  public void testFindClassFiles() throws Exception {
+    File classesDir = new File(tempDir, "classes");
+    createFile(classesDir, "com/example/Screen1.class");
+    createFile(classesDir, "com/example/Screen1$frame.class");
+    createFile(classesDir, "com/example/Screen10.class");
+    createFile(classesDir, "com/example/Screen10$frame.class");
+
+    List<String> classFiles = YailClassCache.findClassFiles(classesDir, "com/example/Screen1");
+    Collections.sort(classFiles);
+    assertEquals(2, classFiles.size());
+    assertEquals("com/example/Screen1$frame.class", classFiles.get(0));
+    assertEquals("com/example/Screen1.class", classFiles.get(1));
+  }
+
+  public void testComputeKey() throws Exception {
+    File source = createFile(tempDir, "Screen1.yail");
+    String key = YailClassCache.computeKey("fingerprint", "com/example/Screen1", source);
+    assertEquals(key, YailClassCache.computeKey("fingerprint", "com/example/Screen1", source));
+    assertFalse(key.equals(YailClassCache.computeKey("other", "com/example/Screen1", source)));
+    assertFalse(key.equals(YailClassCache.computeKey("fingerprint", "com/example/Screen2",
+        source)));
+    Files.write("(changed)", source, Charsets.UTF_8);
+    assertFalse(key.equals(YailClassCache.computeKey("fingerprint", "com/example/Screen1",
+        source)));
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    YailClassCache cache = new YailClassCache(new File(tempDir, "cache"), 1024 * 1024);
+    File compiledDir = new File(tempDir, "compiled");
+    createFile(compiledDir, "com/example/Screen1.class");
+    createFile(compiledDir, "com/example/Screen1$frame.class");
+    List<String> classFiles = YailClassCache.findClassFiles(compiledDir, "com/example/Screen1");
+    String kawaOutput = "/tmp/old/Screen1.yail:3:5: warning - no declaration seen for foo\n" +
+        "/tmp/old/Screen2.yail:1:1: warning - no declaration seen for bar\n";
+    cache.store("key", compiledDir, classFiles, kawaOutput, "/tmp/old/Screen1.yail");
+
+    File classesDir = new File(tempDir, "classes");
+    String messages = cache.restore("key", classesDir, "/tmp/new/Screen1.yail");
+    assertEquals("/tmp/new/Screen1.yail:3:5: warning - no declaration seen for foo\n", messages);
+    assertTrue(new File(classesDir, "com/example/Screen1.class").exists());
+    assertTrue(new File(classesDir, "com/example/Screen1$frame.class").exists());
+
+    assertNull(cache.restore("other key", classesDir, "/tmp/new/Screen1.yail"));
+  }
+
+  private static File createFile(File dir, String path) throws IOException {
+    File file = new File(dir, path);
+    Files.createParentDirs(file);
+    Files.write(path, file, Charsets.UTF_8);
+    return file;
+  }
+}
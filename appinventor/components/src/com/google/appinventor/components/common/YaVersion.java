@@ -485,8 +485,10 @@ public class YaVersion {
   // - FORM_COMPONENT_VERSION was incremented to 20
   // For YOUNG_ANDROID_VERSION 160:
   // - The FtcLynxColorRangeSensor component was added.
+  // - CANVAS_COMPONENT_VERSION was incremented to 11.
+  // - WEB_COMPONENT_VERSION was incremented to 5.
 
-  public static final int YOUNG_ANDROID_VERSION = 159;
+  public static final int YOUNG_ANDROID_VERSION = 160;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -690,7 +692,9 @@ public class YaVersion {
   // - DrawCircle has new fourth parameter (for isFilled), due to Evan Thomas
   // For CANVAS_COMPONENT_VERSION 10:
   // - The default value of the TextAlignment property was changed to Component.ALIGNMENT_CENTER
-  public static final int CANVAS_COMPONENT_VERSION = 10;
+  // For CANVAS_COMPONENT_VERSION 11:
+  // - The FramesPerSecond and FrameTime properties were added.
+  public static final int CANVAS_COMPONENT_VERSION = 11;
 
   // For CHECKBOX_COMPONENT_VERSION 2:
   // - The Value property was renamed to Checked.
@@ -1111,7 +1115,9 @@ public class YaVersion {
   // - PUT and DELETE Actions added (PutText, PutTextWithEncoding, PutFile, and Delete).
   // For WEB_COMPONENT_VERSION 4:
   // - Added method XMLTextDecode
-  public static final int WEB_COMPONENT_VERSION = 4;
+  // For WEB_COMPONENT_VERSION 5:
+  // - The CacheResponses property was added.
+  public static final int WEB_COMPONENT_VERSION = 5;
 
   // For WEBVIEWER_COMPONENT_VERSION 2:
   // - The CanGoForward and CanGoBack methods were added
@@ -20,22 +20,29 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.ComponentConstants;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.collect.Maps;
 import com.google.appinventor.components.runtime.collect.Sets;
 import com.google.appinventor.components.runtime.util.BoundingBox;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
+import com.google.appinventor.components.runtime.util.JellybeanUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.PaintUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
+import com.google.appinventor.components.runtime.util.SpatialHash;
 
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -47,8 +54,10 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -118,11 +127,58 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_BACKGROUND_COLOR = Component.COLOR_WHITE;
   private static final int DEFAULT_TEXTALIGNMENT = Component.ALIGNMENT_CENTER;
   private static final int FLING_INTERVAL = 1000;  // ms
+  private static final int SPRITE_HASH_CELL_SIZE = 64;  // pixels
+  // The frame interval used where the display's frames can't be followed
+  private static final int FRAME_INTERVAL = 16;  // ms
+  // A sprite is moved at most this many times per frame, so that a slow
+  // frame doesn't make it jump
+  private static final int MAX_MOVES_PER_FRAME = 4;
+  private static final int FRAME_STATS_INTERVAL = 1000;  // ms
 
   // Keep track of enclosed sprites.  This list should always be
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // The sprites by location, so that only the sprites near a moved sprite
+  // are checked for collisions with it.
+  private final SpatialHash<Sprite> spriteHash = new SpatialHash<Sprite>(SPRITE_HASH_CELL_SIZE);
+
+  // The sprites that may have started or stopped colliding with a moved sprite
+  private final Set<Sprite> collisionCandidates = Sets.newHashSet();
+
+  // The region of the view, in pixels, each sprite covered when it was last
+  // redrawn, which needs to be redrawn again when it moves away
+  private final Map<Sprite, Rect> spriteBounds = Maps.newHashMap();
+
+  // The enabled sprites with a non-zero speed, which are moved by the
+  // animation loop
+  private final List<Sprite> animatedSprites = new ArrayList<Sprite>();
+
+  // The sprites that changed during the current frame, whose collisions are
+  // checked once the frame's moves are done
+  private final Set<Sprite> changedSprites = new LinkedHashSet<Sprite>();
+  private final List<Sprite> frameSprites = new ArrayList<Sprite>();
+  private boolean inFrame;
+  private boolean frameScheduled;
+
+  private final Handler frameHandler = new Handler();
+  private final Runnable frameRunnable = new Runnable() {
+    @Override
+    public void run() {
+      frameScheduled = false;
+      doFrame();
+    }
+  };
+  // A Choreographer.FrameCallback that runs frameRunnable, on Jellybean and later
+  private Object frameCallback;
+
+  // Frame statistics, see FramesPerSecond and FrameTime
+  private long frameStatsStart;
+  private int frameStatsFrames;
+  private long frameStatsNanos;
+  private double framesPerSecond;
+  private double frameTime;
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
@@ -353,6 +409,9 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     // Support for background images
     private BitmapDrawable backgroundDrawable;
 
+    // The background (image or color) as it is drawn, under the drawing layer
+    private Drawable backgroundLayer;
+
     // Support for GetBackgroundPixelColor() and GetPixelColor().
 
     // scaledBackgroundBitmap is a scaled version of backgroundDrawable that
@@ -360,10 +419,26 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     // to null whenever the canvas size or backgroundDrawable changes.
     private Bitmap scaledBackgroundBitmap;
 
-    // completeCache is created if the user calls getPixelColor().  It is set
-    // back to null whenever the view is redrawn.  If available, it is used
-    // when the Canvas is saved to a file.
-    private Bitmap completeCache;
+    // Support for redrawing only what has changed.
+
+    // composite holds the background with the drawing layer over it, which
+    // is everything but the sprites.  It is kept between draws, so that a
+    // moving sprite only needs the region it covers copied from it, and
+    // compositeDirty, the region where the background or drawing layer has
+    // changed since, is brought up to date before it is next used.
+    private Bitmap composite;
+    private android.graphics.Canvas compositeCanvas;
+    private final Rect compositeDirty = new Rect();
+
+    // A single pixel, for finding the color of a point covered by sprites.
+    private Bitmap pixel;
+    private android.graphics.Canvas pixelCanvas;
+
+    // Scratch space for finding the regions that need to be drawn
+    private final Rect clipBounds = new Rect();
+    private final Rect spriteRect = new Rect();
+    private final RectF textBounds = new RectF();
+    private final Matrix textMatrix = new Matrix();
 
     public CanvasView(Context context) {
       super(context);
@@ -374,42 +449,123 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     }
 
     /*
-     * Create a bitmap showing the background (image or color) and drawing
-     * (points, lines, circles, text) layer of the view but not any sprites.
+     * Create a bitmap showing the background (image or color), drawing
+     * (points, lines, circles, text) layer and sprites of the view.
      */
     private Bitmap buildCache() {
-      // First, try building drawing cache.
-      setDrawingCacheEnabled(true);
-      destroyDrawingCache();      // clear any earlier versions we have requested
-      Bitmap cache = getDrawingCache();  // may return null if size is too large
-
-      // If drawing cache can't be built, build a cache manually.
-      if (cache == null) {
-        int width = getWidth();
-        int height = getHeight();
-        cache = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        android.graphics.Canvas c = new android.graphics.Canvas(cache);
-        layout(0, 0, width, height);
-        draw(c);
+      updateComposite();
+      Bitmap cache = (composite != null ? composite : bitmap).copy(Bitmap.Config.ARGB_8888, true);
+      android.graphics.Canvas c = new android.graphics.Canvas(cache);
+      for (Sprite sprite : sprites) {
+        sprite.onDraw(c);
       }
       return cache;
     }
 
-    @Override
-    public void onDraw(android.graphics.Canvas canvas0) {
-      completeCache = null;
+    /*
+     * Brings the composite of the background and drawing layer up to date,
+     * redrawing only the region that has changed since it was last used.
+     */
+    private void updateComposite() {
+      int width = getWidth();
+      int height = getHeight();
+      if (width <= 0 || height <= 0) {
+        return;
+      }
+      if (composite == null || composite.getWidth() != width || composite.getHeight() != height) {
+        composite = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        compositeCanvas = new android.graphics.Canvas(composite);
+        compositeDirty.set(0, 0, width, height);
+      }
+      if (compositeDirty.isEmpty()) {
+        return;
+      }
+      compositeCanvas.save();
+      compositeCanvas.clipRect(compositeDirty);
+      compositeCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+      if (backgroundLayer != null) {
+        backgroundLayer.setBounds(0, 0, width, height);
+        backgroundLayer.draw(compositeCanvas);
+      }
+      // Anything that had been directly drawn on the old Canvas, such as
+      // lines and circles but not Sprites.
+      compositeCanvas.drawBitmap(bitmap, 0, 0, null);
+      compositeCanvas.restore();
+      compositeDirty.setEmpty();
+    }
 
-      // This will draw the background image and color, if present.
-      super.onDraw(canvas0);
+    /*
+     * Marks a region of the drawing layer, in pixels, as changed, so that it
+     * is redrawn in the composite and on the screen.  The region is widened
+     * by the line width, which lines and points may extend beyond their
+     * coordinates by, and a pixel for antialiasing.
+     */
+    private void invalidateDrawing(float left, float top, float right, float bottom) {
+      float margin = paint.getStrokeWidth() + 1;
+      int l = (int) Math.floor(left - margin);
+      int t = (int) Math.floor(top - margin);
+      int r = (int) Math.ceil(right + margin);
+      int b = (int) Math.ceil(bottom + margin);
+      compositeDirty.union(l, t, r, b);
+      invalidate(l, t, r, b);
+    }
 
-      // Redraw anything that had been directly drawn on the old Canvas,
-      // such as lines and circles but not Sprites.
-      canvas0.drawBitmap(bitmap, 0, 0, null);
+    /*
+     * Marks the whole drawing layer as changed.
+     */
+    private void invalidateDrawing() {
+      compositeDirty.set(0, 0, getWidth(), getHeight());
+      invalidate();
+    }
+
+    /*
+     * Marks the region covered by text drawn at the given origin and angle,
+     * using the current paint, as changed.
+     */
+    private void invalidateText(String text, float x, float y, float angle) {
+      float width = paint.measureText(text);
+      float left;
+      switch (paint.getTextAlign()) {
+        case CENTER:
+          left = x - width / 2;
+          break;
+        case RIGHT:
+          left = x - width;
+          break;
+        default:
+          left = x;
+          break;
+      }
+      Paint.FontMetrics metrics = paint.getFontMetrics();
+      // Glyphs, italic ones in particular, may overhang their advance.
+      float overhang = (metrics.bottom - metrics.top) / 4;
+      textBounds.set(left - overhang, y + metrics.top, left + width + overhang, y + metrics.bottom);
+      if (angle != 0) {
+        textMatrix.setRotate(-angle, x, y);
+        textMatrix.mapRect(textBounds);
+      }
+      invalidateDrawing(textBounds.left, textBounds.top, textBounds.right, textBounds.bottom);
+    }
+
+    @Override
+    public void onDraw(android.graphics.Canvas canvas0) {
+      // Only the region that has been invalidated needs to be drawn.
+      canvas0.getClipBounds(clipBounds);
+
+      // This draws the background image and color, if present, and anything
+      // drawn on the drawing layer.
+      updateComposite();
+      if (composite != null) {
+        canvas0.drawBitmap(composite, 0, 0, null);
+      }
 
       // sprites is sorted by Z level, so sprites with low Z values will be
       // drawn first, potentially being hidden by Sprites with higher Z values.
       for (Sprite sprite : sprites) {
-        sprite.onDraw(canvas0);
+        sprite.getDrawnBounds(spriteRect);
+        if (Rect.intersects(spriteRect, clipBounds)) {
+          sprite.onDraw(canvas0);
+        }
       }
       drawn = true;
     }
@@ -571,12 +727,14 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
         setDraw = new ColorDrawable(
             (backgroundColor != Component.COLOR_DEFAULT) ? backgroundColor : Component.COLOR_WHITE);
       }
-      setBackgroundDrawable(setDraw);
+      // This is drawn in the composite rather than set as the background of
+      // the view, so that the view doesn't draw it on every redraw.
+      backgroundLayer = setDraw;
     }
 
     private void clearDrawingLayer() {
       canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-      invalidate();
+      invalidateDrawing();
     }
 
     // This mutates backgroundColor in the outer class.
@@ -597,7 +755,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
       canvas.rotate(-angle, x, y);
       canvas.drawText(text, x, y, paint);
       canvas.restore();
-      invalidate();
+      invalidateText(text, x, y, angle);
     }
 
     // This intentionally ignores sprites.
@@ -649,31 +807,44 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
         return Component.COLOR_NONE;
       }
 
-      // If the cache isn't available, try to avoid rebuilding it.
-      if (completeCache == null) {
-        // If there are no visible sprites, just call getBackgroundPixelColor().
-        boolean anySpritesVisible = false;
+      updateComposite();
+      if (composite == null) {
+        return getBackgroundPixelColor(x, y);
+      }
+
+      try {
+        // If no visible sprites cover the point, the composite has its color.
+        int color = composite.getPixel(x, y);
+        boolean covered = false;
         for (Sprite sprite : sprites) {
           if (sprite.Visible()) {
-            anySpritesVisible = true;
-            break;
+            sprite.getDrawnBounds(spriteRect);
+            if (spriteRect.contains(x, y)) {
+              covered = true;
+              break;
+            }
           }
         }
-        if (!anySpritesVisible) {
-          return getBackgroundPixelColor(x, y);
+        if (!covered) {
+          return color;
         }
 
-        // TODO(user): If needed for efficiency, check whether there are any
-        // sprites overlapping (x, y).  If not, we can just call getBackgroundPixelColor().
-        // If so, maybe we can just draw those sprites instead of building a full
-        // cache of the view.
-
-        completeCache = buildCache();
-      }
-
-      // Check the complete cache.
-      try {
-        return completeCache.getPixel(x, y);
+        // Otherwise draw just that pixel, with the sprites covering it.
+        if (pixel == null) {
+          pixel = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+          pixelCanvas = new android.graphics.Canvas(pixel);
+        }
+        pixel.eraseColor(color);
+        pixelCanvas.save();
+        pixelCanvas.translate(-x, -y);
+        for (Sprite sprite : sprites) {
+          sprite.getDrawnBounds(spriteRect);
+          if (spriteRect.contains(x, y)) {
+            sprite.onDraw(pixelCanvas);
+          }
+        }
+        pixelCanvas.restore();
+        return pixel.getPixel(0, 0);
       } catch (IllegalArgumentException e) {
         // This should never occur, since we have checked bounds.
         Log.e(LOG_TAG,
@@ -772,6 +943,11 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    spriteHash.remove(sprite);
+    Rect bounds = spriteBounds.remove(sprite);
+    if (bounds != null) {
+      view.invalidate(bounds);
+    }
   }
 
   /**
@@ -781,9 +957,9 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
+    sprites.remove(sprite);
     addSprite(sprite);
-    view.invalidate();
+    invalidateSprite(sprite);
   }
 
   @Override
@@ -820,10 +996,167 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the sprite whose location, size, or appearance has changed
    */
   void registerChange(Sprite sprite) {
-    view.invalidate();
+    if (inFrame) {
+      // Redrawn and checked for collisions at the end of the frame
+      changedSprites.add(sprite);
+      return;
+    }
+    invalidateSprite(sprite);
     findSpriteCollisions(sprite);
   }
 
+  /**
+   * Redraws the regions of the view that a sprite covered when it was last
+   * redrawn and that it covers now, rather than the whole view.
+   *
+   * @param sprite the sprite whose location, size, or appearance has changed
+   */
+  void invalidateSprite(Sprite sprite) {
+    Rect bounds = spriteBounds.get(sprite);
+    if (bounds == null) {
+      bounds = new Rect();
+      spriteBounds.put(sprite, bounds);
+    } else {
+      view.invalidate(bounds);
+    }
+    sprite.getDrawnBounds(bounds);
+    view.invalidate(bounds);
+  }
+
+
+  // Methods for animating sprites
+
+  /**
+   * Starts moving an enabled sprite with a non-zero speed every
+   * {@link Sprite#Interval()} milliseconds, the first time one interval from
+   * now. Called again when the interval changes.
+   *
+   * @param sprite the sprite
+   */
+  void startAnimating(Sprite sprite) {
+    sprite.nextMoveTime = SystemClock.uptimeMillis() + sprite.Interval();
+    if (!animatedSprites.contains(sprite)) {
+      animatedSprites.add(sprite);
+    }
+    scheduleFrame();
+  }
+
+  /**
+   * Stops moving a sprite that has been disabled or whose speed is zero. The
+   * animation loop stops when no sprite is moving.
+   *
+   * @param sprite the sprite
+   */
+  void stopAnimating(Sprite sprite) {
+    animatedSprites.remove(sprite);
+    if (animatedSprites.isEmpty()) {
+      cancelFrame();
+    }
+  }
+
+  private void scheduleFrame() {
+    if (frameScheduled) {
+      return;
+    }
+    frameScheduled = true;
+    if (SdkLevel.getLevel() >= SdkLevel.LEVEL_JELLYBEAN) {
+      if (frameCallback == null) {
+        frameCallback = JellybeanUtil.newFrameCallback(frameRunnable);
+      }
+      JellybeanUtil.postFrameCallback(frameCallback);
+    } else {
+      frameHandler.postDelayed(frameRunnable, FRAME_INTERVAL);
+    }
+  }
+
+  private void cancelFrame() {
+    // Nothing is moving, and the next frame starts a new measurement.
+    frameStatsFrames = 0;
+    frameStatsNanos = 0;
+    framesPerSecond = 0;
+    frameTime = 0;
+    if (!frameScheduled) {
+      return;
+    }
+    frameScheduled = false;
+    if (frameCallback != null) {
+      JellybeanUtil.removeFrameCallback(frameCallback);
+    } else {
+      frameHandler.removeCallbacks(frameRunnable);
+    }
+  }
+
+  /*
+   * Runs one frame of the animation loop: moves each moving sprite once for
+   * every interval that has elapsed since it last moved, then redraws the
+   * regions covered by the sprites that changed and checks them for
+   * collisions.
+   */
+  private void doFrame() {
+    long start = System.nanoTime();
+    long now = SystemClock.uptimeMillis();
+    frameSprites.addAll(animatedSprites);
+    inFrame = true;
+    try {
+      for (Sprite sprite : frameSprites) {
+        for (int moves = 0; moves < MAX_MOVES_PER_FRAME && sprite.Enabled() &&
+            sprite.nextMoveTime <= now; moves++) {
+          sprite.nextMoveTime += sprite.Interval();
+          sprite.alarm();
+        }
+        if (sprite.nextMoveTime <= now) {
+          // Too far behind to catch up
+          sprite.nextMoveTime = now + sprite.Interval();
+        }
+      }
+    } finally {
+      inFrame = false;
+      frameSprites.clear();
+    }
+    if (!changedSprites.isEmpty()) {
+      frameSprites.addAll(changedSprites);
+      changedSprites.clear();
+      for (Sprite sprite : frameSprites) {
+        invalidateSprite(sprite);
+      }
+      for (Sprite sprite : frameSprites) {
+        findSpriteCollisions(sprite);
+      }
+      frameSprites.clear();
+    }
+    // If the loop stopped during this frame, its statistics were reset and it isn't counted.
+    if (!animatedSprites.isEmpty()) {
+      recordFrame(now, System.nanoTime() - start);
+      scheduleFrame();
+    }
+  }
+
+  private void recordFrame(long now, long nanos) {
+    if (frameStatsFrames == 0) {
+      frameStatsStart = now;
+    }
+    frameStatsFrames++;
+    frameStatsNanos += nanos;
+    long elapsed = now - frameStatsStart;
+    if (elapsed >= FRAME_STATS_INTERVAL) {
+      // The first frame of the interval started it, so it isn't counted in the rate
+      framesPerSecond = (frameStatsFrames - 1) * 1000.0 / elapsed;
+      frameTime = frameStatsNanos / 1e6 / frameStatsFrames;
+      frameStatsFrames = 0;
+      frameStatsNanos = 0;
+    }
+  }
+
+  /**
+   * Records the location and size of a sprite that has changed before being
+   * initialized, when its collisions are not yet checked.
+   *
+   * @param sprite the sprite whose location or size may have changed
+   */
+  void updateSpriteLocation(Sprite sprite) {
+    spriteHash.put(sprite, sprite.getBoundingBox(1));
+  }
+
 
   // Methods for detecting collisions
 
@@ -840,11 +1173,27 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * and
    * {@link com.google.appinventor.components.runtime.Sprite#Enabled()}.
    *
+   * <p>Only the sprites whose bounding boxes share a cell of
+   * {@link #spriteHash} with the moved sprite's, and those it was colliding
+   * with, are checked. Other sprites can't be in collision with it, since
+   * {@link Sprite#colliding(Sprite, Sprite)} requires the bounding boxes to
+   * intersect. They are checked in the order of {@link #sprites}, so that
+   * events are raised in the same order as if all sprites were checked.
+   *
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
+    BoundingBox box = movedSprite.getBoundingBox(1);
+    spriteHash.put(movedSprite, box);
+    collisionCandidates.clear();
+    spriteHash.getNear(box, collisionCandidates);
+    movedSprite.addCollidingSprites(collisionCandidates);
+    collisionCandidates.remove(movedSprite);
+    if (collisionCandidates.isEmpty()) {
+      return;
+    }
     for (Sprite sprite : sprites) {
-      if (sprite != movedSprite) {
+      if (collisionCandidates.contains(sprite)) {
         // Check whether we already raised an event for their collision.
         if (movedSprite.CollidingWith(sprite)) {
           // If they no longer conflict, note that.
@@ -1110,6 +1459,38 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   }
 
 
+  /**
+   * Returns the number of frames per second of the animation loop that moves
+   * the sprites, measured over the last second or so.
+   *
+   * @return frames per second
+   */
+  @SimpleProperty(description = "The number of frames per second at which the " +
+      "sprites on the canvas have recently been moved and redrawn, for finding out " +
+      "whether an animation runs smoothly. This is 0 while no sprite is moving, and " +
+      "until the sprites have moved for a second.",
+      category = PropertyCategory.BEHAVIOR)
+  public double FramesPerSecond() {
+    return framesPerSecond;
+  }
+
+  /**
+   * Returns the average time taken to move the sprites and check them for
+   * collisions in each frame of the animation loop, measured over the last
+   * second or so.
+   *
+   * @return milliseconds per frame
+   */
+  @SimpleProperty(description = "The average number of milliseconds recently " +
+      "taken to move the sprites on the canvas and check them for collisions in " +
+      "each frame. Event handlers and drawing are not included. This is 0 while no " +
+      "sprite is moving.",
+      category = PropertyCategory.BEHAVIOR)
+  public double FrameTime() {
+    return frameTime;
+  }
+
+
   // Methods supporting event handling
 
   /**
@@ -1224,7 +1605,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     float correctedX = x * $form().deviceDensity();
     float correctedY = y * $form().deviceDensity();
     view.canvas.drawPoint(correctedX, correctedY, paint);
-    view.invalidate();
+    view.invalidateDrawing(correctedX, correctedY, correctedX, correctedY);
   }
 
  /**
@@ -1243,7 +1624,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     Paint p = new Paint(paint);
     p.setStyle(fill ? Paint.Style.FILL : Paint.Style.STROKE);
     view.canvas.drawCircle(correctedX, correctedY, correctedR, p);
-    view.invalidate();
+    view.invalidateDrawing(correctedX - correctedR, correctedY - correctedR,
+        correctedX + correctedR, correctedY + correctedR);
   }
 
   /**
@@ -1261,7 +1643,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     float correctedX2 = x2 * $form().deviceDensity();
     float correctedY2 = y2 * $form().deviceDensity();
     view.canvas.drawLine(correctedX1, correctedY1, correctedX2, correctedY2, paint);
-    view.invalidate();
+    view.invalidateDrawing(Math.min(correctedX1, correctedX2), Math.min(correctedY1, correctedY2),
+        Math.max(correctedX1, correctedX2), Math.max(correctedY1, correctedY2));
   }
 
   /**
@@ -1280,7 +1663,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     float correctedX = x * fontScalingFactor;
     float correctedY = y * fontScalingFactor;
     view.canvas.drawText(text, correctedX, correctedY, paint);
-    view.invalidate();
+    view.invalidateText(text, correctedX, correctedY, 0);
   }
 
   /**
@@ -1334,7 +1717,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     int correctedX = (int) (x * $form().deviceDensity());
     int correctedY = (int) (y * $form().deviceDensity());
     view.canvas.drawPoint(correctedX, correctedY, pixelPaint);
-    view.invalidate();
+    view.invalidateDrawing(correctedX, correctedY, correctedX, correctedY);
   }
 
   /**
@@ -1422,7 +1805,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
       boolean success = false;
       FileOutputStream fos = new FileOutputStream(file);
       // Don't cache, in order to save memory.  It seems unlikely to be used again soon.
-      Bitmap bitmap = (view.completeCache == null ? view.buildCache() : view.completeCache);
+      Bitmap bitmap = view.buildCache();
       try {
         success = bitmap.compress(format,
             100,  // quality: ignored for png
@@ -65,6 +65,7 @@ import com.google.appinventor.components.runtime.multidex.MultiDex;
 import com.google.appinventor.components.runtime.multidex.MultiDexApplication;
 import com.google.appinventor.components.runtime.util.AlignmentUtil;
 import com.google.appinventor.components.runtime.util.AnimationUtil;
+import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FullScreenVideoUtil;
 import com.google.appinventor.components.runtime.util.JsonUtil;
@@ -646,6 +647,9 @@ public class Form extends FtcRobotControllerActivity // Modified for FIRST Tech
     // Unregister events for components in this form.
     EventDispatcher.removeDispatchDelegate(this);
 
+    // Drop the background work of its components that hasn't started.
+    AsynchUtil.cancel(this);
+
     for (OnDestroyListener onDestroyListener : onDestroyListeners) {
       onDestroyListener.onDestroy();
     }
@@ -21,6 +21,7 @@ import com.google.appinventor.components.runtime.collect.Lists;
 import com.google.appinventor.components.runtime.errors.YailRuntimeError;
 import com.google.appinventor.components.runtime.util.AsyncCallbackPair;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
+import com.google.appinventor.components.runtime.util.BackgroundExecutor;
 import com.google.appinventor.components.runtime.util.GameInstance;
 import com.google.appinventor.components.runtime.util.JsonUtil;
 import com.google.appinventor.components.runtime.util.PlayerListDelta;
@@ -89,6 +90,17 @@ public class GameClient extends AndroidNonvisibleComponent
 
   private static final String LOG_TAG = "GameClient";
 
+  // The most server commands of all GameClient components that are sent at once
+  private static final int MAX_COMMAND_THREADS = 2;
+
+  // Holds the executor for server commands, which is created the first time a command is
+  // sent. The commands don't share AsynchUtil's threads, so that a slow game server doesn't
+  // hold them.
+  private static final class Commands {
+    static final BackgroundExecutor EXECUTOR =
+        AsynchUtil.newExecutor(LOG_TAG, MAX_COMMAND_THREADS);
+  }
+
   // Parameter keys
   private static final String GAME_ID_KEY = "gid";
   private static final String INSTANCE_ID_KEY = "iid";
@@ -166,7 +178,7 @@ public class GameClient extends AndroidNonvisibleComponent
     /*
      * Remove this code until we fix LoginServiceUtil to work in later
      * versions of the android SDK.
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       @Override
       public void run() {
         userEmailAddress = LoginServiceUtil.getPhoneEmailAddress(activityContext);
@@ -620,7 +632,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "InstancesInvited lists. This procedure can be called " +
                 "before setting the InstanceId.")
   public void GetInstanceLists() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
         public void run() { postGetInstanceLists(); }});
   }
 
@@ -704,7 +716,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Retrieves messages of the specified type.")
   public void GetMessages(final String type, final int count) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() { postGetMessages(type, count); }});
   }
 
@@ -773,7 +785,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Invites a player to this game instance.")
   public void Invite(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() { postInvite(playerEmail); }});
   }
 
@@ -829,7 +841,7 @@ public class GameClient extends AndroidNonvisibleComponent
    */
   @SimpleFunction(description = "Leaves the current instance.")
   public void LeaveInstance() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() {
         postLeaveInstance();
       }
@@ -880,7 +892,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Asks the server to create a new " +
                 "instance of this game.")
   public void MakeNewInstance(final String instanceId, final boolean makePublic) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() { postMakeNewInstance(instanceId, makePublic); }});
   }
 
@@ -927,7 +939,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "recipients in the recipients list. The message will " +
                 "consist of the contents list.")
   public void SendMessage(final String type, final YailList recipients, final YailList contents) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() { postNewMessage(type, recipients, contents); }});
   }
 
@@ -975,7 +987,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sends the specified command to " +
                 "the game server.")
   public void ServerCommand(final String command, final YailList arguments) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() { postServerCommand(command, arguments); }});
   }
 
@@ -1018,7 +1030,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sets InstanceId and joins the " +
                 "specified instance.")
   public void SetInstance(final String instanceId) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() {
         if (instanceId.equals("")) {
           Log.d(LOG_TAG, "Instance id set to empty string.");
@@ -1071,7 +1083,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "leader to playerId. Only the current leader may " +
                 "successfully set a new leader.")
   public void SetLeader(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    runSerially(new Runnable() {
       public void run() { postSetLeader(playerEmail); }});
   }
 
@@ -1181,6 +1193,12 @@ public class GameClient extends AndroidNonvisibleComponent
         thisCallback);
   }
 
+  // Runs the component's server commands one at a time, in order. Commands that haven't been
+  // sent are cancelled when the Form is destroyed.
+  private void runSerially(Runnable call) {
+    AsynchUtil.runSerially(Commands.EXECUTOR, this, call);
+  }
+
   private void updateInstanceInfo(JSONObject responseObject) throws JSONException {
     boolean newLeader = false;
     String leader = responseObject.getString(LEADER_KEY);
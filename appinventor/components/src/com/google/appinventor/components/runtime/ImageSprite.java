@@ -9,6 +9,7 @@ package com.google.appinventor.components.runtime;
 import java.io.IOException;
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.util.Log;
 
@@ -100,6 +101,20 @@ public class ImageSprite extends Sprite {
     }
   }
  
+  @Override
+  void getDrawnBounds(Rect bounds) {
+    if (!rotates) {
+      super.getDrawnBounds(bounds);
+      return;
+    }
+    // However it is rotated, the picture stays within the circle through the
+    // corners of its bounds.
+    double radius = Math.hypot(Width(), Height()) / 2;
+    double centerX = xLeft + Width() / 2.0;
+    double centerY = yTop + Height() / 2.0;
+    setDrawnBounds(bounds, centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+  }
+
   /**
    * Returns the path of the sprite's picture
    *
@@ -16,11 +16,12 @@ import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.errors.AssertionFailure;
 import com.google.appinventor.components.runtime.errors.IllegalArgumentError;
 import com.google.appinventor.components.runtime.util.BoundingBox;
-import com.google.appinventor.components.runtime.util.TimerInternal;
 
+import android.graphics.Rect;
 import android.os.Handler;
 import android.util.Log;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -46,9 +47,12 @@ public abstract class Sprite extends VisibleComponent
   private static final double DEFAULT_Z = 1.0;
 
   protected final Canvas canvas;              // enclosing Canvas
-  private final TimerInternal timerInternal;  // timer to control movement
   private final Handler androidUIHandler;     // for posting actions
 
+  // When the sprite is next moved by the Canvas's animation loop, in
+  // SystemClock.uptimeMillis() time. Only used while the sprite is enabled.
+  long nextMoveTime;
+
   // Keeps track of which other sprites are currently colliding with this one.
   // That way, we don't raise CollidedWith() more than once for each collision.
   // Events are only raised when sprites are added to this collision set.  They
@@ -62,6 +66,7 @@ public abstract class Sprite extends VisibleComponent
   // Properties: These are protected, instead of private, both so they
   // can be used by subclasses and tests.
   protected int interval;      // number of milliseconds until next move
+  protected boolean enabled;   // whether the sprite moves
   protected boolean visible = true;
   // TODO(user): Convert to have co-ordinates be center, not upper left.
   // Note that this would simplify pointTowards to remove the adjustment
@@ -112,9 +117,6 @@ public abstract class Sprite extends VisibleComponent
     // Maintain a list of collisions.
     registeredCollisions = new HashSet<Sprite>();
 
-    // Set in motion.
-    timerInternal = new TimerInternal(this, DEFAULT_ENABLED, DEFAULT_INTERVAL, handler);
-
     this.form = container.$form();
 
     // Set default property values.
@@ -158,7 +160,7 @@ public abstract class Sprite extends VisibleComponent
       description = "Controls whether the sprite moves when its speed is non-zero.",
       category = PropertyCategory.BEHAVIOR)
   public boolean Enabled() {
-    return timerInternal.Enabled();
+    return enabled;
   }
 
   /**
@@ -171,7 +173,12 @@ public abstract class Sprite extends VisibleComponent
       defaultValue = DEFAULT_ENABLED ? "True" : "False")
   @SimpleProperty
       public void Enabled(boolean enabled) {
-    timerInternal.Enabled(enabled);
+    this.enabled = enabled;
+    if (isMoving()) {
+      canvas.startAnimating(this);
+    } else {
+      canvas.stopAnimating(this);
+    }
   }
 
   /**
@@ -221,7 +228,7 @@ public abstract class Sprite extends VisibleComponent
       "then the sprite will move 10 pixels every 50 milliseconds.",
       category = PropertyCategory.BEHAVIOR)
   public int Interval() {
-    return timerInternal.Interval();
+    return interval;
   }
 
   /**
@@ -234,7 +241,11 @@ public abstract class Sprite extends VisibleComponent
       defaultValue = DEFAULT_INTERVAL + "")
   @SimpleProperty
   public void Interval(int interval) {
-    timerInternal.Interval(interval);
+    this.interval = interval;
+    if (isMoving()) {
+      // Restart the interval, like a timer would
+      canvas.startAnimating(this);
+    }
   }
 
   /**
@@ -249,7 +260,13 @@ public abstract class Sprite extends VisibleComponent
       editorType = PropertyTypeConstants.PROPERTY_TYPE_FLOAT,
       defaultValue = DEFAULT_SPEED + "")
   public void Speed(float speed) {
+    boolean wasMoving = isMoving();
     this.speed = speed;
+    if (!isMoving()) {
+      canvas.stopAnimating(this);
+    } else if (!wasMoving) {
+      canvas.startAnimating(this);
+    }
   }
 
   /**
@@ -588,6 +605,16 @@ public abstract class Sprite extends VisibleComponent
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Adds the sprites this sprite is registered as colliding with to the
+   * given collection.
+   *
+   * @param result the collection the sprites are added to
+   */
+  void addCollidingSprites(Collection<Sprite> result) {
+    result.addAll(registeredCollisions);
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -664,7 +691,8 @@ public abstract class Sprite extends VisibleComponent
     // before all components had been constructed.
     if (!initialized) {
       // During REPL, components are not initalized, but we still want to repaint the canvas.
-      canvas.getView().invalidate();
+      canvas.updateSpriteLocation(this);
+      canvas.invalidateSprite(this);
       return;
     }
     int edge = hitEdge();
@@ -836,6 +864,29 @@ public abstract class Sprite extends VisibleComponent
         X() + Width() - 1 + border, Y() + Height() - 1 + border);
   }
 
+  /**
+   * Sets the given rectangle to the region of the Canvas, in pixels, that
+   * this sprite may cover when it is drawn, which is all that needs to be
+   * redrawn when it changes.  Subclasses that may draw outside their
+   * bounding box should override this method.
+   *
+   * @param bounds the rectangle to set
+   */
+  void getDrawnBounds(Rect bounds) {
+    setDrawnBounds(bounds, xLeft, yTop, xLeft + Width(), yTop + Height());
+  }
+
+  /**
+   * Sets the given rectangle to the given region, converted from
+   * density-independent pixels to pixels and widened by one on each side to
+   * allow for rounding and antialiasing.
+   */
+  final void setDrawnBounds(Rect bounds, double left, double top, double right, double bottom) {
+    float density = form.deviceDensity();
+    bounds.set((int) Math.floor((left - 1) * density), (int) Math.floor((top - 1) * density),
+        (int) Math.ceil((right + 1) * density), (int) Math.ceil((bottom + 1) * density));
+  }
+
   /**
    * Determines whether two sprites are in collision.  Note that we cannot
    * merely see whether the rectangular regions around each intersect, since
@@ -908,6 +959,11 @@ public abstract class Sprite extends VisibleComponent
 
   // Convenience methods for dealing with hitting the screen edge and collisions
 
+  // Whether the animation loop needs to move the sprite
+  private boolean isMoving() {
+    return enabled && speed != 0;
+  }
+
   // AlarmHandler implementation
 
   /**
@@ -933,14 +989,14 @@ public abstract class Sprite extends VisibleComponent
 
   @Override
   public void onDestroy() {
-    timerInternal.Enabled(false);
+    Enabled(false);
   }
 
   // Deleteable implementation
 
   @Override
   public void onDelete() {
-    timerInternal.Enabled(false);
+    Enabled(false);
     canvas.removeSprite(this);
   }
 
@@ -290,7 +290,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
     }
     final String myConsumerKey = consumerKey;
     final String myConsumerSecret = consumerSecret;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         if (checkAccessToken(myConsumerKey, myConsumerSecret)) {
           handler.post(new Runnable() {
@@ -343,7 +343,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
   public void CheckAuthorized() {
     final String myConsumerKey = consumerKey;
     final String myConsumerSecret = consumerSecret;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         if (checkAccessToken(myConsumerKey, myConsumerSecret)) {
           handler.post(new Runnable() {
@@ -377,7 +377,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
         }
         if (requestToken != null && oauthVerifier != null
             && oauthVerifier.length() != 0) {
-          AsynchUtil.runAsynchronously(new Runnable() {
+          AsynchUtil.runAsynchronously(this, new Runnable() {
             public void run() {
               try {
                 AccessToken resultAccessToken;
@@ -487,7 +487,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
     // and invalidate the authorization credentials for myTwitter, causing
     // the call below to fail. If we want to prevent this we could consider
     // using an ExecutorService object to serialize calls to Twitter.
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.updateStatus(status);
@@ -516,7 +516,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           String cleanImagePath = imagePath;
@@ -561,7 +561,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_REQUEST_MENTIONS_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<Status> replies = Collections.emptyList();
 
       public void run() {
@@ -624,7 +624,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<User> friends = new ArrayList<User>();
 
       public void run() {
@@ -699,7 +699,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<DirectMessage> messages = Collections.emptyList();
 
       @Override
@@ -773,7 +773,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_DIRECT_MESSAGE_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.sendDirectMessage(user, message);
@@ -795,7 +795,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_FOLLOW_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.createFriendship(user);
@@ -817,7 +817,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_STOP_FOLLOWING_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.destroyFriendship(user);
@@ -840,7 +840,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<Status> messages = Collections.emptyList();
 
       public void run() {
@@ -912,7 +912,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_SEARCH_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<Status> tweets = Collections.emptyList();
 
       public void run() {
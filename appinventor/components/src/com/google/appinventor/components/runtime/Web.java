@@ -22,9 +22,11 @@ import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.collect.Lists;
 import com.google.appinventor.components.runtime.collect.Maps;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
+import com.google.appinventor.components.runtime.util.BackgroundExecutor;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
 import com.google.appinventor.components.runtime.util.GingerbreadUtil;
+import com.google.appinventor.components.runtime.util.IceCreamSandwichUtil;
 import com.google.appinventor.components.runtime.util.JsonUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.SdkLevel;
@@ -40,11 +42,12 @@ import org.json.XML;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.CookieHandler;
 import java.net.HttpURLConnection;
@@ -53,8 +56,10 @@ import java.net.ProtocolException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 /**
  * The Original Web component provided functions for HTTP GET and POST requests.
@@ -129,6 +134,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     final String urlString;
     final URL url;
     final boolean allowCookies;
+    final boolean cacheResponses;
     final boolean saveResponse;
     final String responseFileName;
     final Map<String, List<String>> requestHeaders;
@@ -138,6 +144,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       urlString = web.urlString;
       url = new URL(urlString);
       allowCookies = web.allowCookies;
+      cacheResponses = web.cacheResponses;
       saveResponse = web.saveResponse;
       responseFileName = web.responseFileName;
       requestHeaders = processRequestHeaders(web.requestHeaders);
@@ -158,6 +165,34 @@ public class Web extends AndroidNonvisibleComponent implements Component {
 
   private static final String LOG_TAG = "Web";
 
+  // The size of the buffers used to copy request and response data
+  private static final int BUFFER_SIZE = 0x1000;
+
+  // The directory, in the app's cache directory, and size of the HTTP response cache
+  private static final String HTTP_CACHE_DIRECTORY = "http";
+  private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
+  // Response bodies are decoded with this charset if the response doesn't specify one
+  private static final String DEFAULT_CHARSET = "UTF-8";
+
+  // How long a request waits to connect, and for each read of the response, before it fails
+  private static final int CONNECT_TIMEOUT_MILLIS = 20 * 1000;
+  private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+
+  // The most requests of all Web components that are made at once
+  private static final int MAX_REQUEST_THREADS = 4;
+
+  // Holds the executor for requests, which is created the first time a request is made.
+  // Requests don't share AsynchUtil's threads, so that a slow server doesn't stall the calls
+  // of other components.
+  private static final class Requests {
+    static final BackgroundExecutor EXECUTOR =
+        AsynchUtil.newExecutor(LOG_TAG, MAX_REQUEST_THREADS);
+  }
+
+  // Whether the HTTP response cache has been installed
+  private static boolean httpCacheInstalled;
+
   private static final Map<String, String> mimeTypeToExtension;
   static {
     mimeTypeToExtension = Maps.newHashMap();
@@ -181,6 +216,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
 
   private String urlString = "";
   private boolean allowCookies;
+  private boolean cacheResponses;
   private YailList requestHeaders = new YailList();
   private boolean saveResponse;
   private String responseFileName = "";
@@ -197,6 +233,12 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     cookieHandler = (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD)
         ? GingerbreadUtil.newCookieManager()
         : null;
+
+    // HttpURLConnection keeps connections alive and reuses them for later requests to the same
+    // server, once their responses have been read. Before Froyo, reusing them is unreliable.
+    if (SdkLevel.getLevel() < SdkLevel.LEVEL_FROYO) {
+      System.setProperty("http.keepAlive", "false");
+    }
   }
 
   /**
@@ -280,6 +322,27 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     }
   }
 
+  /**
+   * Returns whether responses should be cached.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "Whether responses should be cached on the device and reused, as allowed by " +
+      "their Cache-Control, ETag and Last-Modified headers, instead of being downloaded again. " +
+      "Caching is only supported on Android version 4.0 or greater.")
+  public boolean CacheResponses() {
+    return cacheResponses;
+  }
+
+  /**
+   * Specifies whether responses should be cached.
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "false")
+  @SimpleProperty
+  public void CacheResponses(boolean cacheResponses) {
+    this.cacheResponses = cacheResponses;
+  }
+
   /**
    * Returns whether the response should be saved in a file.
    */
@@ -351,7 +414,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(Requests.EXECUTOR, this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -422,7 +485,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(Requests.EXECUTOR, this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -492,7 +555,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(Requests.EXECUTOR, this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -526,7 +589,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(Requests.EXECUTOR, this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -567,7 +630,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(Requests.EXECUTOR, this, new Runnable() {
       @Override
       public void run() {
         // Convert text to bytes using the encoding.
@@ -836,6 +899,10 @@ public class Web extends AndroidNonvisibleComponent implements Component {
   private void performRequest(final CapturedProperties webProps, byte[] postData, String postFile, String httpVerb)
       throws IOException {
 
+    if (webProps.cacheResponses) {
+      installHttpCache();
+    }
+
     // Open the connection.
     HttpURLConnection connection = openConnection(webProps, httpVerb);
     if (connection != null) {
@@ -851,7 +918,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
         final String responseType = getResponseType(connection);
         processResponseCookies(connection);
 
-        if (saveResponse) {
+        if (webProps.saveResponse) {
           final String path = saveResponseContent(connection, webProps.responseFileName,
               responseType);
 
@@ -863,7 +930,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
             }
           });
         } else {
-          final String responseContent = getResponseContent(connection);
+          final String responseContent = getResponseContent(connection, responseType);
 
           // Dispatch the event.
           activity.runOnUiThread(new Runnable() {
@@ -875,11 +942,25 @@ public class Web extends AndroidNonvisibleComponent implements Component {
         }
 
       } finally {
+        // If its response was read to the end, the connection is kept to be reused.
         connection.disconnect();
       }
     }
   }
 
+  /*
+   * Installs the HTTP response cache, in the app's cache directory, the first time a request
+   * that may be cached is made.
+   */
+  private void installHttpCache() {
+    synchronized (Web.class) {
+      if (!httpCacheInstalled && SdkLevel.getLevel() >= SdkLevel.LEVEL_ICE_CREAM_SANDWICH) {
+        httpCacheInstalled = IceCreamSandwichUtil.installHttpResponseCache(
+            new File(activity.getCacheDir(), HTTP_CACHE_DIRECTORY), HTTP_CACHE_SIZE);
+      }
+    }
+  }
+
   /**
    * Open a connection to the resource and set the HTTP action to PUT or DELETE if it is one of
    * them. GET would be the default, and POST is set in writeRequestData or writeRequestFile
@@ -894,6 +975,13 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       throws IOException, ClassCastException, ProtocolException {
 
     HttpURLConnection connection = (HttpURLConnection) webProps.url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+    // Only requests from Web components that cache responses use the cache, once it is
+    // installed. The default applies to the connections other components open.
+    connection.setDefaultUseCaches(false);
+    connection.setUseCaches(webProps.cacheResponses);
 
     if (httpVerb.equals("PUT") || httpVerb.equals("DELETE")){
       // Set the Request Method; GET is the default, and if it is a POST, it will be marked as such
@@ -919,6 +1007,14 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       }
     }
 
+    // Compression
+    // From Gingerbread on, HttpURLConnection asks for gzip compressed responses and decompresses
+    // them itself. Before that, ask for them here; getConnectionStream decompresses them.
+    if (SdkLevel.getLevel() < SdkLevel.LEVEL_GINGERBREAD &&
+        connection.getRequestProperty("Accept-Encoding") == null) {
+      connection.addRequestProperty("Accept-Encoding", "gzip");
+    }
+
     return connection;
   }
 
@@ -953,15 +1049,9 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       // been called.
       connection.setDoOutput(true); // This makes it something other than a HTTP GET.
       connection.setChunkedStreamingMode(0);
-      BufferedOutputStream out = new BufferedOutputStream(connection.getOutputStream());
+      OutputStream out = connection.getOutputStream();
       try {
-        while (true) {
-          int b = in.read();
-          if (b == -1) {
-            break;
-          }
-          out.write(b);
-        }
+        copy(in, out);
         out.flush();
       } finally {
         out.close();
@@ -989,65 +1079,103 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     }
   }
 
-  private static String getResponseContent(HttpURLConnection connection) throws IOException {
-    // Use the content encoding to convert bytes to characters.
-    String encoding = connection.getContentEncoding();
-    if (encoding == null) {
-      encoding = "UTF-8";
+  private static String getResponseContent(HttpURLConnection connection, String responseType)
+      throws IOException {
+    InputStream in = getConnectionStream(connection);
+    if (in == null) {
+      return "";
     }
-    InputStreamReader reader = new InputStreamReader(getConnectionStream(connection), encoding);
     try {
+      // Read the bytes and decode them all at once, rather than collecting characters and then
+      // copying them into a string, which takes twice the memory for large responses.
       int contentLength = connection.getContentLength();
-      StringBuilder sb = (contentLength != -1)
-          ? new StringBuilder(contentLength)
-          : new StringBuilder();
-      char[] buf = new char[1024];
-      int read;
-      while ((read = reader.read(buf)) != -1) {
-        sb.append(buf, 0, read);
-      }
-      return sb.toString();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(
+          (contentLength > 0) ? contentLength : BUFFER_SIZE);
+      copy(in, out);
+      return out.toString(getResponseCharset(responseType));
     } finally {
-      reader.close();
+      in.close();
+    }
+  }
+
+  /*
+   * Returns the charset given in the response type, for example "ISO-8859-1" for
+   * "text/html; charset=ISO-8859-1", or UTF-8 if it doesn't give a supported one.
+   */
+  // VisibleForTesting
+  static String getResponseCharset(String responseType) {
+    for (String parameter : responseType.split(";")) {
+      parameter = parameter.trim();
+      if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+        String charset = parameter.substring(8).replace("\"", "").trim();
+        try {
+          if (Charset.isSupported(charset)) {
+            return charset;
+          }
+        } catch (IllegalArgumentException e) {
+          // The charset name is not valid.
+        }
+      }
     }
+    return DEFAULT_CHARSET;
   }
 
   private static String saveResponseContent(HttpURLConnection connection,
       String responseFileName, String responseType) throws IOException {
     File file = createFile(responseFileName, responseType);
 
-    BufferedInputStream in = new BufferedInputStream(getConnectionStream(connection), 0x1000);
+    // The response is written to the file as it arrives, without being kept in memory.
+    InputStream in = getConnectionStream(connection);
     try {
-      BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), 0x1000);
+      OutputStream out = new FileOutputStream(file);
       try {
-        // Copy the contents from the input stream to the output stream.
-        while (true) {
-          int b = in.read();
-          if (b == -1) {
-            break;
-          }
-          out.write(b);
+        if (in != null) {
+          copy(in, out);
         }
         out.flush();
       } finally {
         out.close();
       }
     } finally {
-      in.close();
+      if (in != null) {
+        in.close();
+      }
     }
 
     return file.getAbsolutePath();
   }
 
-  private static InputStream getConnectionStream(HttpURLConnection connection) {
+  /*
+   * Returns the stream of the response body, decompressed if it is gzip compressed, or null if
+   * there is no body.
+   */
+  private static InputStream getConnectionStream(HttpURLConnection connection)
+      throws IOException {
     // According to the Android reference documentation for HttpURLConnection: If the HTTP response
     // indicates that an error occurred, getInputStream() will throw an IOException. Use
     // getErrorStream() to read the error response.
+    InputStream in;
     try {
-      return connection.getInputStream();
+      in = connection.getInputStream();
     } catch (IOException e1) {
       // Use the error response.
-      return connection.getErrorStream();
+      in = connection.getErrorStream();
+    }
+    if (in != null && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+      in = new GZIPInputStream(in, BUFFER_SIZE);
+    }
+    return in;
+  }
+
+  /*
+   * Copies everything from the given input stream to the given output stream, reading the input
+   * to its end so that the connection it comes from can be reused.
+   */
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
     }
   }
 
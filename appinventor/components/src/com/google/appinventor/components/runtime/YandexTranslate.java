@@ -49,6 +49,8 @@ public final class YandexTranslate extends AndroidNonvisibleComponent {
 
   public static final String YANDEX_TRANSLATE_SERVICE_URL =
       "https://translate.yandex.net/api/v1.5/tr.json/translate?key=";
+  // How long a request waits to connect, and for each read of the response, before it fails
+  private static final int TIMEOUT_MILLIS = 20 * 1000;
   private final String yandexKey;
   private final Activity activity;
 
@@ -88,7 +90,7 @@ public final class YandexTranslate extends AndroidNonvisibleComponent {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -123,6 +125,8 @@ public final class YandexTranslate extends AndroidNonvisibleComponent {
     URL url = new URL(finalURL);
     HttpURLConnection connection = (HttpURLConnection) url.openConnection();
     if (connection != null) {
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
       try {
         final String responseContent = getResponseContent(connection);
 
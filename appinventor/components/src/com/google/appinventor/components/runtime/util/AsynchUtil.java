@@ -6,24 +6,173 @@
 
 package com.google.appinventor.components.runtime.util;
 
+import com.google.appinventor.components.runtime.Component;
+import com.google.appinventor.components.runtime.Form;
+
 import android.os.Handler;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Utilities for handling asynchronous calls.
  *
+ * <p>Calls are run on a shared {@link BackgroundExecutor} with a bounded
+ * number of threads, rather than on a new thread each, so that an app
+ * making many calls, such as one polling a web service, doesn't create
+ * thousands of threads.  Calls that can block indefinitely, such as
+ * accepting a Bluetooth connection, are the exception, and get a thread of
+ * their own.
+ *
  * @author markf@google.com (Mark Friedman)
  */
 
 public class AsynchUtil {
 
+  // The most calls that are run at once.  Calls mostly wait on the network
+  // or storage, so this is more than the number of processors.
+  private static final int MAX_THREADS = 8;
+
+  // How long idle threads are kept
+  private static final long KEEP_ALIVE_MILLIS = 30000;
+
+  // The executors made by newExecutor, whose waiting calls are cancelled
+  // when a Form is destroyed
+  private static final List<BackgroundExecutor> EXECUTORS =
+      new CopyOnWriteArrayList<BackgroundExecutor>();
+
+  private static final BackgroundExecutor EXECUTOR = newExecutor("AsynchUtil", MAX_THREADS);
+
+  /**
+   * Creates an executor with threads of its own, for calls that mustn't
+   * wait behind the calls on the shared executor, or hold its threads.
+   * Idle threads are stopped like the shared executor's, and the calls
+   * made on it for components are cancelled with their Form.  The executor
+   * is kept for the life of the app, so it should be shared by all the
+   * instances of a component.
+   * @param name the name of the executor's threads
+   * @param threads the most threads to run calls on at once
+   */
+  public static BackgroundExecutor newExecutor(String name, int threads) {
+    BackgroundExecutor executor = new BackgroundExecutor(name, threads, KEEP_ALIVE_MILLIS);
+    if (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD) {
+      executor.allowThreadTimeOut();
+    }
+    EXECUTORS.add(executor);
+    return executor;
+  }
+
   /**
    * Make an asynchronous call in a separate thread.
    * @param call a {@link Runnable} to run in the thread.
    */
   public static void runAsynchronously(final Runnable call) {
-    Thread thread = new Thread(call);
-    thread.start();
+    runAsynchronously(BackgroundExecutor.PRIORITY_NORMAL, call);
+  }
+
+  /**
+   * Make an asynchronous call in a separate thread, ahead of calls with
+   * lower priority that are waiting to run.
+   * @param priority {@link BackgroundExecutor#PRIORITY_HIGH},
+   *        {@link BackgroundExecutor#PRIORITY_NORMAL} or
+   *        {@link BackgroundExecutor#PRIORITY_LOW}
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runAsynchronously(int priority, Runnable call) {
+    EXECUTOR.execute(null, null, priority, call);
+  }
+
+  /**
+   * Make an asynchronous call for a component in a separate thread.  The
+   * call is cancelled if it hasn't started when the component's Form is
+   * destroyed.
+   * @param component the component making the call
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runAsynchronously(Component component, Runnable call) {
+    runAsynchronously(component, BackgroundExecutor.PRIORITY_NORMAL, call);
   }
+
+  /**
+   * Make an asynchronous call for a component in a separate thread, ahead
+   * of calls with lower priority that are waiting to run.
+   * @param component the component making the call
+   * @param priority {@link BackgroundExecutor#PRIORITY_HIGH},
+   *        {@link BackgroundExecutor#PRIORITY_NORMAL} or
+   *        {@link BackgroundExecutor#PRIORITY_LOW}
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runAsynchronously(Component component, int priority, Runnable call) {
+    EXECUTOR.execute(component.getDispatchDelegate(), null, priority, call);
+  }
+
+  /**
+   * Make an asynchronous call for a component in a separate thread, after
+   * the calls the component made the same way before it have finished, for
+   * calls that must happen in order.
+   * @param component the component making the call
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runSerially(Component component, Runnable call) {
+    EXECUTOR.execute(component.getDispatchDelegate(), component,
+        BackgroundExecutor.PRIORITY_NORMAL, call);
+  }
+
+  /**
+   * Make an asynchronous call for a component on the given executor.  The
+   * call is cancelled if it hasn't started when the component's Form is
+   * destroyed.
+   * @param executor an executor made by {@link #newExecutor}
+   * @param component the component making the call
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runAsynchronously(BackgroundExecutor executor, Component component,
+      Runnable call) {
+    executor.execute(component.getDispatchDelegate(), null, BackgroundExecutor.PRIORITY_NORMAL,
+        call);
+  }
+
+  /**
+   * Make an asynchronous call for a component on the given executor, after
+   * the calls the component made the same way before it have finished.
+   * @param executor an executor made by {@link #newExecutor}
+   * @param component the component making the call
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runSerially(BackgroundExecutor executor, Component component,
+      Runnable call) {
+    executor.execute(component.getDispatchDelegate(), component,
+        BackgroundExecutor.PRIORITY_NORMAL, call);
+  }
+
+  /**
+   * Make an asynchronous call in a new thread of its own, for calls that can
+   * block indefinitely, such as accepting a connection.  On an executor, a
+   * few of them would take all of its threads and stall every other call.
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runOnDedicatedThread(Runnable call) {
+    new Thread(call).start();
+  }
+
+  /**
+   * Cancels the calls made for the components of a Form that haven't
+   * started yet.  Called when the Form is destroyed.
+   * @param form the Form
+   */
+  public static void cancel(Form form) {
+    for (BackgroundExecutor executor : EXECUTORS) {
+      executor.cancel(form);
+    }
+  }
+
+  /**
+   * Returns the shared executor, for its statistics.
+   */
+  public static BackgroundExecutor getExecutor() {
+    return EXECUTOR;
+  }
+
   /**
    * Make an asynchronous call in a separate thread, with a callback that's run on the current
    * Android UI thread.
@@ -46,7 +195,6 @@ public class AsynchUtil {
         }
       }
     };
-    Thread thread = new Thread(runnable);
-    thread.start();
+    runAsynchronously(runnable);
   }
 }
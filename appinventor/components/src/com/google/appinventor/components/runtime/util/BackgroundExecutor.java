@@ -0,0 +1,262 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background work on a bounded pool of threads, instead of a new
+ * thread for every call.
+ *
+ * <p>Waiting tasks are run in order of priority, and in the order they
+ * were submitted within a priority. Tasks submitted with the same serial
+ * key are also run one at a time, in the order they were submitted, for
+ * work whose order matters, such as writes to a file followed by reads
+ * of it. Each task belongs to a group, such as the Form of the component
+ * that submitted it, and the waiting tasks of a group can be cancelled.
+ *
+ * <p>The time tasks wait before they start and the time they take to run
+ * are recorded, so that an overloaded pool can be noticed.
+ *
+ */
+public final class BackgroundExecutor {
+  public static final int PRIORITY_HIGH = 0;
+  public static final int PRIORITY_NORMAL = 1;
+  public static final int PRIORITY_LOW = 2;
+
+  /*
+   * A submitted task. Tasks compare by priority, then by the order they
+   * were submitted in, which is the order the pool's queue runs them in.
+   */
+  private final class Task implements Runnable, Comparable<Task> {
+    final Object group;
+    final Object serialKey;
+    final int priority;
+    final long sequence;
+    final Runnable call;
+    final long submitTime;
+
+    Task(Object group, Object serialKey, int priority, long sequence, Runnable call) {
+      this.group = group;
+      this.serialKey = serialKey;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.call = call;
+      submitTime = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+      long startTime = System.nanoTime();
+      try {
+        call.run();
+      } finally {
+        recordTask(startTime - submitTime, System.nanoTime() - startTime);
+        if (serialKey != null) {
+          runNext(serialKey);
+        }
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+
+  /*
+   * The tasks with the same serial key. Only one of them is in the pool at
+   * a time; the others wait here.
+   */
+  private static final class SerialQueue {
+    final LinkedList<Task> waiting = new LinkedList<Task>();
+  }
+
+  private final ThreadPoolExecutor pool;
+
+  // Guarded by this
+  private long sequence;
+  private final Map<Object, SerialQueue> serialQueues = new HashMap<Object, SerialQueue>();
+  private int serialWaiting;
+  private long completedTasks;
+  private long totalWaitNanos;
+  private long maxWaitNanos;
+  private long totalRunNanos;
+
+  /**
+   * Creates an executor.
+   *
+   * @param name the name of the threads, which are numbered
+   * @param threads the most threads to run tasks on at once
+   * @param keepAliveMillis how long threads may be idle before they are
+   *        stopped, once {@link #allowThreadTimeOut()} has been called
+   */
+  public BackgroundExecutor(final String name, int threads, long keepAliveMillis) {
+    pool = new ThreadPoolExecutor(threads, threads, keepAliveMillis, TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, name + "-" + count.incrementAndGet());
+          }
+        });
+  }
+
+  /**
+   * Lets idle threads be stopped. Uses a method added in Gingerbread, so
+   * without it the threads, once started, are kept.
+   */
+  void allowThreadTimeOut() {
+    GingerbreadUtil.allowCoreThreadTimeOut(pool);
+  }
+
+  /**
+   * Runs a call on one of the pool's threads.
+   *
+   * @param group the group the call belongs to, for {@link #cancel(Object)}
+   * @param serialKey if not {@code null}, the call is run after any calls
+   *        with the same key that were submitted before it have finished
+   * @param priority {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or
+   *        {@link #PRIORITY_LOW}
+   * @param call the call
+   */
+  public void execute(Object group, Object serialKey, int priority, Runnable call) {
+    Task task;
+    synchronized (this) {
+      task = new Task(group, serialKey, priority, sequence++, call);
+      if (serialKey != null) {
+        SerialQueue queue = serialQueues.get(serialKey);
+        if (queue != null) {
+          // Another task with this key is in the pool
+          queue.waiting.add(task);
+          serialWaiting++;
+          return;
+        }
+        serialQueues.put(serialKey, new SerialQueue());
+      }
+    }
+    pool.execute(task);
+  }
+
+  /*
+   * Submits the next task with the given serial key, if there is one, once
+   * the one in the pool has finished or been cancelled.
+   */
+  private void runNext(Object serialKey) {
+    Task next;
+    synchronized (this) {
+      SerialQueue queue = serialQueues.get(serialKey);
+      if (queue == null) {
+        return;
+      }
+      next = queue.waiting.poll();
+      if (next == null) {
+        serialQueues.remove(serialKey);
+        return;
+      }
+      serialWaiting--;
+    }
+    pool.execute(next);
+  }
+
+  /**
+   * Cancels the tasks of a group that haven't started yet. Tasks that are
+   * running are left to finish, since the blocking calls they make can't
+   * reliably be interrupted.
+   *
+   * @param group the group
+   */
+  public void cancel(Object group) {
+    synchronized (this) {
+      for (SerialQueue queue : serialQueues.values()) {
+        for (Iterator<Task> iterator = queue.waiting.iterator(); iterator.hasNext(); ) {
+          if (iterator.next().group == group) {
+            iterator.remove();
+            serialWaiting--;
+          }
+        }
+      }
+    }
+    for (Object runnable : pool.getQueue().toArray()) {
+      Task task = (Task) runnable;
+      if (task.group == group && pool.remove(task) && task.serialKey != null) {
+        runNext(task.serialKey);
+      }
+    }
+  }
+
+  private synchronized void recordTask(long waitNanos, long runNanos) {
+    completedTasks++;
+    totalWaitNanos += waitNanos;
+    maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    totalRunNanos += runNanos;
+  }
+
+  /**
+   * Returns the number of tasks waiting to be run.
+   */
+  public int getQueueDepth() {
+    int waiting = pool.getQueue().size();
+    synchronized (this) {
+      return waiting + serialWaiting;
+    }
+  }
+
+  /**
+   * Returns the number of tasks that are running.
+   */
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+  /**
+   * Returns the number of tasks that have been run.
+   */
+  public synchronized long getCompletedTaskCount() {
+    return completedTasks;
+  }
+
+  /**
+   * Returns the mean time tasks waited before they started, in milliseconds.
+   */
+  public synchronized double getAverageWaitTime() {
+    return completedTasks == 0 ? 0 : totalWaitNanos / 1e6 / completedTasks;
+  }
+
+  /**
+   * Returns the longest time a task waited before it started, in
+   * milliseconds.
+   */
+  public synchronized double getMaxWaitTime() {
+    return maxWaitNanos / 1e6;
+  }
+
+  /**
+   * Returns the mean time tasks took to run, in milliseconds.
+   */
+  public synchronized double getAverageRunTime() {
+    return completedTasks == 0 ? 0 : totalRunNanos / 1e6 / completedTasks;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[queued=%d, active=%d, completed=%d, wait=%.1fms (max %.1fms), " +
+        "run=%.1fms]", getClass().getSimpleName(), getQueueDepth(), getActiveCount(),
+        getCompletedTaskCount(), getAverageWaitTime(), getMaxWaitTime(), getAverageRunTime());
+  }
+}
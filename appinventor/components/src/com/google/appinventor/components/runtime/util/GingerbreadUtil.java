@@ -27,6 +27,7 @@ import java.net.CookieStore;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Helper methods for calling methods added in Gingerbread (2.3, API level 9).
@@ -63,6 +64,15 @@ public class GingerbreadUtil {
     return false;
   }
 
+  /**
+   * Lets the core threads of the given pool be stopped when they are idle.
+   *
+   * @param pool the thread pool
+   */
+  public static void allowCoreThreadTimeOut(ThreadPoolExecutor pool) {
+    pool.allowCoreThreadTimeOut(true);
+  }
+
   /**
    * Creates a new NfcAdapter instance.
    */
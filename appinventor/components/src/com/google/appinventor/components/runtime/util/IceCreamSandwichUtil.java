@@ -0,0 +1,47 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.net.http.HttpResponseCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Helper methods for calling methods added in Ice Cream Sandwich (4.0, API level 14).
+ *
+ */
+public class IceCreamSandwichUtil {
+  private static final String LOG_TAG = "IceCreamSandwichUtil";
+
+  private IceCreamSandwichUtil() {
+  }
+
+  /**
+   * Installs an HTTP response cache in the given directory, which is used by
+   * HttpURLConnections that use caches, unless one has already been
+   * installed. The cache honors the Cache-Control, ETag and Last-Modified
+   * headers of responses, and evicts the least recently used responses
+   * when it is full.
+   *
+   * @param directory the directory for the cache
+   * @param maxSize the most bytes the cache may store
+   * @return true if a cache is installed; false otherwise
+   */
+  public static boolean installHttpResponseCache(File directory, long maxSize) {
+    if (HttpResponseCache.getInstalled() != null) {
+      return true;
+    }
+    try {
+      HttpResponseCache.install(directory, maxSize);
+      return true;
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Unable to install HTTP response cache in " + directory, e);
+      return false;
+    }
+  }
+}
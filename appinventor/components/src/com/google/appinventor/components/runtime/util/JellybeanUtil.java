@@ -8,6 +8,7 @@ package com.google.appinventor.components.runtime.util;
 import android.graphics.Point;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 
 /**
@@ -23,4 +24,34 @@ public class JellybeanUtil {
     display.getRealSize(outSize);
   }
 
+  /**
+   * Returns a Choreographer frame callback that runs the given runnable.
+   * It is returned as an Object so that callers can hold on to it on any
+   * version of Android.
+   */
+  public static Object newFrameCallback(final Runnable runnable) {
+    return new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        runnable.run();
+      }
+    };
+  }
+
+  /**
+   * Runs a callback returned by {@link #newFrameCallback} at the next frame
+   * of the display.
+   */
+  public static void postFrameCallback(Object callback) {
+    Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) callback);
+  }
+
+  /**
+   * Cancels a callback posted with {@link #postFrameCallback} that hasn't
+   * run yet.
+   */
+  public static void removeFrameCallback(Object callback) {
+    Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) callback);
+  }
+
 }
@@ -50,6 +50,10 @@ public class MediaUtil {
   private enum MediaSource { ASSET, REPL_ASSET, SDCARD, FILE_URL, URL, CONTENT_URI, CONTACT_URI }
 
   private static final String LOG_TAG = "MediaUtil";
+
+  // The most images that are loaded at once.  Decoding an image can take a
+  // lot of memory, so only a few are loaded in parallel.
+  private static final int IMAGE_LOAD_THREADS = 2;
   private static String REPL_ASSET_DIR = null;
 
   // tempFileMap maps cached media (assets, etc) to their respective temp files.
@@ -495,7 +499,17 @@ public class MediaUtil {
         }
       }
     };
-    AsynchUtil.runAsynchronously(loadImage);
+    // Images are often waited for on the UI thread, by getBitmapDrawable,
+    // so they are loaded on threads of their own, not behind other
+    // background work on AsynchUtil's threads.
+    ImageLoads.EXECUTOR.execute(null, null, BackgroundExecutor.PRIORITY_NORMAL, loadImage);
+  }
+
+  // Holds the executor for image loads, which is created the first time an
+  // image is loaded
+  private static final class ImageLoads {
+    static final BackgroundExecutor EXECUTOR =
+        AsynchUtil.newExecutor("MediaUtil", IMAGE_LOAD_THREADS);
   }
 
   private static Bitmap decodeStream(InputStream is, Rect outPadding, BitmapFactory.Options opts) {
@@ -39,7 +39,7 @@ public class PackageInstaller {
   }
 
   public static void doPackageInstall(final Form form, final String inurl) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(form, new Runnable() {
         @Override
         public void run() {
           try {
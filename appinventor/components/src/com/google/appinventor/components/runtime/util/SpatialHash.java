@@ -0,0 +1,160 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid of square cells, each holding the items whose bounding boxes
+ * overlap it, for finding the items that may intersect a given box without
+ * checking all of them. Items whose boxes cover too many cells are kept
+ * apart and returned by every lookup.
+ *
+ * @param <T> the type of the items
+ */
+public final class SpatialHash<T> {
+  // Items covering more cells than this are not entered in the cells.
+  private static final int MAX_CELLS_PER_ITEM = 64;
+
+  private final double cellSize;
+
+  // The items in each cell, keyed by the cell's packed coordinates
+  private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+
+  // The range of cells covered by each item: first column, first row, last column, last row
+  private final Map<T, int[]> ranges = new HashMap<T, int[]>();
+
+  // Items that cover too many cells
+  private final Set<T> oversizedItems = new HashSet<T>();
+
+  /**
+   * Creates an empty spatial hash.
+   *
+   * @param cellSize the width and height of the cells
+   */
+  public SpatialHash(double cellSize) {
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds an item, or moves it if it was already added.
+   *
+   * @param item the item
+   * @param box the item's bounding box
+   */
+  public void put(T item, BoundingBox box) {
+    int firstColumn = cell(box.getLeft());
+    int firstRow = cell(box.getTop());
+    int lastColumn = cell(box.getRight());
+    int lastRow = cell(box.getBottom());
+    int[] range = ranges.get(item);
+    if (range != null) {
+      if (range[0] == firstColumn && range[1] == firstRow &&
+          range[2] == lastColumn && range[3] == lastRow) {
+        return;                 // Still in the same cells
+      }
+      removeFromCells(item, range);
+    } else {
+      range = new int[4];
+      ranges.put(item, range);
+    }
+    range[0] = firstColumn;
+    range[1] = firstRow;
+    range[2] = lastColumn;
+    range[3] = lastRow;
+    if (isOversized(range)) {
+      oversizedItems.add(item);
+      return;
+    }
+    for (int column = firstColumn; column <= lastColumn; column++) {
+      for (int row = firstRow; row <= lastRow; row++) {
+        Long key = key(column, row);
+        List<T> cell = cells.get(key);
+        if (cell == null) {
+          cell = new ArrayList<T>(2);
+          cells.put(key, cell);
+        }
+        cell.add(item);
+      }
+    }
+  }
+
+  /**
+   * Removes an item. Does nothing if it wasn't added.
+   *
+   * @param item the item
+   */
+  public void remove(T item) {
+    int[] range = ranges.remove(item);
+    if (range != null) {
+      removeFromCells(item, range);
+    }
+  }
+
+  /**
+   * Adds the items that may intersect the given box to the given collection:
+   * all the items sharing a cell with the box, which include every item
+   * whose bounding box intersects it. Items are added once per cell, so a
+   * set should be passed to get each item once.
+   *
+   * @param box the box
+   * @param result the collection the items are added to
+   */
+  public void getNear(BoundingBox box, Collection<T> result) {
+    int[] range = { cell(box.getLeft()), cell(box.getTop()),
+                    cell(box.getRight()), cell(box.getBottom()) };
+    if (isOversized(range)) {
+      result.addAll(ranges.keySet());
+      return;
+    }
+    result.addAll(oversizedItems);
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        List<T> cell = cells.get(key(column, row));
+        if (cell != null) {
+          result.addAll(cell);
+        }
+      }
+    }
+  }
+
+  private void removeFromCells(T item, int[] range) {
+    if (isOversized(range)) {
+      oversizedItems.remove(item);
+      return;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = key(column, row);
+        List<T> cell = cells.get(key);
+        cell.remove(item);
+        if (cell.isEmpty()) {
+          cells.remove(key);
+        }
+      }
+    }
+  }
+
+  private int cell(double coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private static boolean isOversized(int[] range) {
+    long columns = (long) range[2] - range[0] + 1;
+    long rows = (long) range[3] - range[1] + 1;
+    return columns * rows > MAX_CELLS_PER_ITEM;
+  }
+
+  private static Long key(int column, int row) {
+    return ((long) column << 32) | (row & 0xffffffffL);
+  }
+}
@@ -136,6 +136,15 @@ public class WebTest extends TestCase {
     assertEquals("1 2 3", secondPair.get(1));
   }
 
+  public void testGetResponseCharset() throws Exception {
+    assertEquals("UTF-8", Web.getResponseCharset(""));
+    assertEquals("UTF-8", Web.getResponseCharset("application/json"));
+    assertEquals("ISO-8859-1", Web.getResponseCharset("text/html; charset=ISO-8859-1"));
+    assertEquals("utf-16", Web.getResponseCharset("text/plain;Charset=\"utf-16\""));
+    assertEquals("UTF-8", Web.getResponseCharset("text/plain; charset=no-such-charset"));
+    assertEquals("UTF-8", Web.getResponseCharset("text/plain; charset=bad name"));
+  }
+
   public void testbuildRequestData() throws Exception {
     List<Object> list = new ArrayList<Object>();
     list.add(YailList.makeList(new String[] { "First Name", "Barack" }));
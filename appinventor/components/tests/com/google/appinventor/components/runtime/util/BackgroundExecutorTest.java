@@ -0,0 +1,130 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BackgroundExecutor class.
+ *
+ */
+public class BackgroundExecutorTest extends TestCase {
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+  private Runnable record(final String name, final CountDownLatch done) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran.add(name);
+        done.countDown();
+      }
+    };
+  }
+
+  // Submits a task that keeps a thread busy until release is counted down
+  private void block(BackgroundExecutor executor, Object group, Object serialKey,
+      final CountDownLatch started, final CountDownLatch release) {
+    executor.execute(group, serialKey, BackgroundExecutor.PRIORITY_NORMAL, new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+  }
+
+  public void testPriority() throws InterruptedException {
+    BackgroundExecutor executor = new BackgroundExecutor("test", 1, 1000);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+    block(executor, null, null, started, release);
+    assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    executor.execute(null, null, BackgroundExecutor.PRIORITY_LOW, record("low", done));
+    executor.execute(null, null, BackgroundExecutor.PRIORITY_NORMAL, record("normal1", done));
+    executor.execute(null, null, BackgroundExecutor.PRIORITY_HIGH, record("high", done));
+    executor.execute(null, null, BackgroundExecutor.PRIORITY_NORMAL, record("normal2", done));
+    assertEquals(4, executor.getQueueDepth());
+    release.countDown();
+    assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("high", "normal1", "normal2", "low"), ran);
+  }
+
+  public void testSerial() throws InterruptedException {
+    BackgroundExecutor executor = new BackgroundExecutor("test", 4, 1000);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+    block(executor, null, "key", started, release);
+    assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    executor.execute(null, "key", BackgroundExecutor.PRIORITY_LOW, record("a", done));
+    executor.execute(null, "key", BackgroundExecutor.PRIORITY_HIGH, record("b", done));
+    executor.execute(null, "key", BackgroundExecutor.PRIORITY_NORMAL, record("c", done));
+    // Tasks with other keys don't wait
+    executor.execute(null, "other", BackgroundExecutor.PRIORITY_NORMAL, record("other", done));
+    while (ran.isEmpty()) {
+      Thread.sleep(1);
+    }
+    assertEquals(Arrays.asList("other"), ran);
+    assertEquals(3, executor.getQueueDepth());
+    release.countDown();
+    assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("other", "a", "b", "c"), ran);
+  }
+
+  public void testCancel() throws InterruptedException {
+    BackgroundExecutor executor = new BackgroundExecutor("test", 1, 1000);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    Object group = new Object();
+    block(executor, null, null, started, release);
+    assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    executor.execute(group, null, BackgroundExecutor.PRIORITY_NORMAL, record("cancelled", done));
+    executor.execute(group, "key", BackgroundExecutor.PRIORITY_NORMAL, record("cancelled", done));
+    executor.execute(group, "key", BackgroundExecutor.PRIORITY_NORMAL, record("cancelled", done));
+    executor.execute(null, null, BackgroundExecutor.PRIORITY_NORMAL, record("kept", done));
+    executor.cancel(group);
+    assertEquals(1, executor.getQueueDepth());
+    // The serial key can be used again
+    executor.execute(null, "key", BackgroundExecutor.PRIORITY_NORMAL, record("serial", done));
+    release.countDown();
+    assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("kept", "serial"), ran);
+    assertEquals(0, executor.getQueueDepth());
+  }
+
+  public void testStatistics() throws InterruptedException {
+    BackgroundExecutor executor = new BackgroundExecutor("test", 2, 1000);
+    CountDownLatch done = new CountDownLatch(3);
+    for (int i = 0; i < 3; i++) {
+      executor.execute(null, null, BackgroundExecutor.PRIORITY_NORMAL, record("task", done));
+    }
+    assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    // Tasks are counted after they return
+    long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+    while (executor.getCompletedTaskCount() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(3, executor.getCompletedTaskCount());
+    assertTrue(executor.getAverageWaitTime() >= 0);
+    assertTrue(executor.getMaxWaitTime() >= executor.getAverageWaitTime());
+    assertTrue(executor.getAverageRunTime() >= 0);
+  }
+}
@@ -0,0 +1,68 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2017 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests SpatialHash class.
+ *
+ */
+public class SpatialHashTest extends TestCase {
+  private final SpatialHash<String> hash = new SpatialHash<String>(10);
+
+  private Set<String> near(double left, double top, double right, double bottom) {
+    Set<String> result = new HashSet<String>();
+    hash.getNear(new BoundingBox(left, top, right, bottom), result);
+    return result;
+  }
+
+  private static Set<String> set(String... items) {
+    return new HashSet<String>(Arrays.asList(items));
+  }
+
+  public void testNear() {
+    hash.put("a", new BoundingBox(0, 0, 5, 5));
+    hash.put("b", new BoundingBox(25, 25, 34, 34));
+    hash.put("c", new BoundingBox(-15, -15, -11, -11));
+    assertEquals(set("a"), near(1, 1, 2, 2));
+    assertEquals(set("a", "b"), near(8, 8, 21, 21));
+    assertEquals(set("c"), near(-20, -20, -10.5, -10.5));
+    assertEquals(set(), near(50, 50, 60, 60));
+  }
+
+  public void testIntersectingBoxesAreNear() {
+    hash.put("a", new BoundingBox(9, 9, 10, 10));
+    assertEquals(set("a"), near(10, 10, 12, 12));
+    assertEquals(set("a"), near(0, 0, 9, 9));
+  }
+
+  public void testMoveAndRemove() {
+    hash.put("a", new BoundingBox(0, 0, 5, 5));
+    hash.put("a", new BoundingBox(40, 40, 45, 45));
+    assertEquals(set(), near(0, 0, 5, 5));
+    assertEquals(set("a"), near(40, 40, 41, 41));
+    hash.remove("a");
+    assertEquals(set(), near(40, 40, 41, 41));
+    hash.remove("a");
+  }
+
+  public void testOversized() {
+    hash.put("big", new BoundingBox(0, 0, 1000, 1000));
+    hash.put("a", new BoundingBox(2000, 2000, 2001, 2001));
+    // Oversized items are near everything
+    assertEquals(set("big", "a"), near(2000, 2000, 2001, 2001));
+    assertEquals(set("big"), near(5000, 5000, 5001, 5001));
+    // Oversized lookups return everything
+    assertEquals(set("big", "a"), near(-5000, -5000, 5000, 5000));
+    hash.put("big", new BoundingBox(0, 0, 1, 1));
+    assertEquals(set(), near(5000, 5000, 5001, 5001));
+  }
+}